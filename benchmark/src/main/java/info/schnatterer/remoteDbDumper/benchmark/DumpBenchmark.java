@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.benchmark;
+
+import info.schnatterer.remoteDbDumper.dump.DbDump;
+import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.drupal.DrupalDbDump;
+import info.schnatterer.remoteDbDumper.dump.drupal.DrupalHttpDbDump;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a complete dump (connect, login, backup, download to disk) against
+ * the {@link FakeDrupalServer}.
+ * <p>
+ * {@link #latency()} reports the time per dump,
+ * {@link #throughput(Counters)} the bytes downloaded per second (secondary
+ * result <code>bytes</code>). Run with <code>-prof gc</code> for the
+ * allocation rate. Dumps are written to a temp directory and deleted after
+ * each invocation, so the biggest dump size must fit on disk once.
+ * <p>
+ * Each parameter can be overridden on the command line, e.g.
+ * <code>-p size=1073741824 -p engine=drupal-http</code>.
+ *
+ * @author schnatterer
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DumpBenchmark {
+	/** Same values as the "engine" command line parameter */
+	private static final String ENGINE_HTMLUNIT = "drupal-htmlunit";
+	private static final String ENGINE_HTTP = "drupal-http";
+
+	/** Size of the dump in bytes: 1 MB, 100 MB, 1 GB, 5 GB */
+	@Param({ "1000000", "100000000", "1000000000", "5000000000" })
+	public long size;
+
+	@Param({ ENGINE_HTMLUNIT, ENGINE_HTTP })
+	public String engine;
+
+	/** Transfer buffer size in bytes */
+	@Param({ "65536" })
+	public int bufferSize;
+
+	private FakeDrupalServer server;
+	private File targetDirectory;
+	private DownloadOptions options;
+
+	/**
+	 * Bytes downloaded, reported as secondary result.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long bytes;
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		// Logging each dump would be measured as well
+		Logger.getLogger("info.schnatterer").setLevel(Level.WARN);
+
+		server = new FakeDrupalServer();
+		server.setDumpSize(size);
+		server.start();
+
+		targetDirectory = File.createTempFile("dumpBenchmark", "");
+		if (!targetDirectory.delete() || !targetDirectory.mkdir()) {
+			throw new IOException("Unable to create temp directory "
+					+ targetDirectory);
+		}
+		options = new DownloadOptions();
+		options.setBufferSize(bufferSize);
+	}
+
+	@TearDown
+	public void tearDown() {
+		options.getTransport().close();
+		server.stop();
+		deleteDumps();
+		targetDirectory.delete();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<String> latency() throws DbDumpException {
+		return dump();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public List<String> throughput(Counters counters) throws DbDumpException {
+		List<String> files = dump();
+		counters.bytes += size;
+		return files;
+	}
+
+	private List<String> dump() throws DbDumpException {
+		List<String> files = createDbDump().download(server.getUrl(),
+				FakeDrupalServer.USER, FakeDrupalServer.PASSWORD,
+				targetDirectory);
+		// Don't fill up the disk
+		deleteDumps();
+		return files;
+	}
+
+	private DbDump createDbDump() {
+		if (ENGINE_HTTP.equals(engine)) {
+			return new DrupalHttpDbDump(options);
+		}
+		return new DrupalDbDump(options);
+	}
+
+	private void deleteDumps() {
+		File[] files = targetDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+}
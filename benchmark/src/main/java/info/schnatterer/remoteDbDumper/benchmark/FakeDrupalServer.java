@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for a Drupal site with the Backup and Migrate module,
+ * good enough for the engines of remoteDbDumper:
+ * <ul>
+ * <li><code>GET /admin/config/system/backup_migrate</code> returns 403 and a
+ * login form (<code>user-login-form</code>) without a valid session, and the
+ * backup form (<code>backup-migrate-ui-manual-quick-backup-form</code>)
+ * with one.</li>
+ * <li><code>POST /user/login</code> checks user and password, sets a session
+ * cookie and redirects back.</li>
+ * <li><code>POST /admin/config/system/backup_migrate</code> returns an SQL
+ * dump of {@link #setDumpSize(long)} bytes as attachment.</li>
+ * <li>The pages reference a style sheet and a script, like the real
+ * thing.</li>
+ * </ul>
+ * The dump is generated on the fly from a repeated block of SQL, so the
+ * server needs neither disk space nor much memory, no matter how big the
+ * dump is.
+ *
+ * @author schnatterer
+ *
+ */
+public class FakeDrupalServer {
+	/** Path of the backup page */
+	public static final String PATH_BACKUP = "/admin/config/system/backup_migrate";
+	public static final String USER = "admin";
+	public static final String PASSWORD = "secret";
+
+	private static final String PATH_LOGIN = "/user/login";
+	private static final String PATH_CSS = "/misc/style.css";
+	private static final String PATH_JS = "/misc/jquery.js";
+	private static final String SESSION_COOKIE = "SESSbenchmark";
+	private static final String FORM_TOKEN = "benchmark-token";
+	private static final String DUMP_FILE_NAME = "benchmark.mysql";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	/** Size of the block of SQL that is repeated to fill the dump */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final String HEAD = "<!DOCTYPE html><html><head><title>Backup and Migrate | Benchmark</title>"
+			+ "<link type=\"text/css\" rel=\"stylesheet\" href=\""
+			+ PATH_CSS
+			+ "\" media=\"all\" />"
+			+ "<script type=\"text/javascript\" src=\""
+			+ PATH_JS
+			+ "\"></script></head><body>";
+	private static final String FOOT = "</body></html>";
+	private static final String LOGIN_FORM = "<form action=\""
+			+ PATH_LOGIN
+			+ "?destination=admin/config/system/backup_migrate\" method=\"post\" id=\"user-login-form\" accept-charset=\"UTF-8\"><div>"
+			+ "<input type=\"text\" id=\"edit-name\" name=\"name\" value=\"\" size=\"15\" maxlength=\"60\" class=\"form-text required\" />"
+			+ "<input type=\"password\" id=\"edit-pass\" name=\"pass\" size=\"15\" maxlength=\"128\" class=\"form-text required\" />"
+			+ "<input type=\"hidden\" name=\"form_build_id\" value=\"form-login\" />"
+			+ "<input type=\"hidden\" name=\"form_id\" value=\"user_login_block\" />"
+			+ "<input type=\"submit\" id=\"edit-submit\" name=\"op\" value=\"Log in\" class=\"form-submit\" />"
+			+ "</div></form>";
+	private static final String BACKUP_FORM = "<form action=\""
+			+ PATH_BACKUP
+			+ "\" method=\"post\" id=\"backup-migrate-ui-manual-quick-backup-form\" accept-charset=\"UTF-8\"><div>"
+			+ "<select id=\"edit-source-id\" name=\"source_id\" class=\"form-select\"><option value=\"db\" selected=\"selected\">Default Database</option></select>"
+			+ "<select id=\"edit-destination-id\" name=\"destination_id\" class=\"form-select\"><option value=\"download\" selected=\"selected\">Download</option><option value=\"manual\">Manual Backups Directory</option></select>"
+			+ "<select id=\"edit-profile-id\" name=\"profile_id\" class=\"form-select\"><option value=\"default\" selected=\"selected\">Default Settings</option></select>"
+			+ "<input type=\"submit\" id=\"edit-submit\" name=\"op\" value=\"Backup now\" class=\"form-submit\" />"
+			+ "<input type=\"hidden\" name=\"form_build_id\" value=\"form-backup\" />"
+			+ "<input type=\"hidden\" name=\"form_token\" value=\""
+			+ FORM_TOKEN
+			+ "\" />"
+			+ "<input type=\"hidden\" name=\"form_id\" value=\"backup_migrate_ui_manual_quick_backup_form\" />"
+			+ "</div></form>";
+
+	private final byte[] block = createBlock();
+	private final Set<String> sessions = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private HttpServer server;
+	private ExecutorService executor;
+	private volatile long dumpSize = 1024 * 1024;
+
+	/**
+	 * Starts the server on a free port of the loopback interface.
+	 */
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getByName("127.0.0.1"), 0), 50);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					FakeDrupalServer.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/** @return the URL of the backup page */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort()
+				+ PATH_BACKUP;
+	}
+
+	/** @return the size of the dump in bytes */
+	public long getDumpSize() {
+		return dumpSize;
+	}
+
+	/**
+	 * @param dumpSize
+	 *            the size of the dump returned by the following backups in
+	 *            bytes
+	 */
+	public void setDumpSize(long dumpSize) {
+		this.dumpSize = dumpSize;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		boolean post = "POST".equals(exchange.getRequestMethod());
+		if (PATH_CSS.equals(path)) {
+			sendText(exchange, 200, "text/css",
+					"body { font-family: sans-serif; }");
+		} else if (PATH_JS.equals(path)) {
+			sendText(exchange, 200, "text/javascript",
+					"var Drupal = Drupal || { settings: {} };");
+		} else if (PATH_LOGIN.equals(path) && post) {
+			login(exchange);
+		} else if (PATH_BACKUP.equals(path)) {
+			if (!hasSession(exchange)) {
+				sendText(exchange, 403, "text/html", HEAD + LOGIN_FORM + FOOT);
+			} else if (post) {
+				backup(exchange);
+			} else {
+				sendText(exchange, 200, "text/html", HEAD + BACKUP_FORM
+						+ FOOT);
+			}
+		} else {
+			sendText(exchange, 404, "text/html", HEAD + "Page not found"
+					+ FOOT);
+		}
+	}
+
+	private void login(HttpExchange exchange) throws IOException {
+		Map<String, String> form = readForm(exchange);
+		if (!USER.equals(form.get("name"))
+				|| !PASSWORD.equals(form.get("pass"))) {
+			sendText(exchange, 200, "text/html", HEAD
+					+ "Sorry, unrecognized username or password." + LOGIN_FORM
+					+ FOOT);
+			return;
+		}
+		String session = UUID.randomUUID().toString();
+		sessions.add(session);
+		exchange.getResponseHeaders().add("Set-Cookie",
+				SESSION_COOKIE + "=" + session + "; path=/; HttpOnly");
+		exchange.getResponseHeaders().add("Location", PATH_BACKUP);
+		exchange.sendResponseHeaders(302, -1);
+	}
+
+	private void backup(HttpExchange exchange) throws IOException {
+		Map<String, String> form = readForm(exchange);
+		if (!FORM_TOKEN.equals(form.get("form_token"))
+				|| !"db".equals(form.get("source_id"))
+				|| !"download".equals(form.get("destination_id"))) {
+			sendText(exchange, 200, "text/html", HEAD
+					+ "Invalid form submission." + BACKUP_FORM + FOOT);
+			return;
+		}
+		long size = dumpSize;
+		exchange.getResponseHeaders().add("Content-Type",
+				"application/octet-stream");
+		exchange.getResponseHeaders().add("Content-Disposition",
+				"attachment; filename=\"" + DUMP_FILE_NAME + "\"");
+		exchange.sendResponseHeaders(200, size);
+		OutputStream out = exchange.getResponseBody();
+		long remaining = size;
+		while (remaining > 0) {
+			int length = (int) Math.min(block.length, remaining);
+			out.write(block, 0, length);
+			remaining -= length;
+		}
+		out.close();
+	}
+
+	private boolean hasSession(HttpExchange exchange) {
+		String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+		if (cookies == null) {
+			return false;
+		}
+		for (String cookie : cookies.split(";\\s*")) {
+			if (cookie.startsWith(SESSION_COOKIE + "=")
+					&& sessions.contains(cookie.substring(SESSION_COOKIE
+							.length() + 1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Map<String, String> readForm(HttpExchange exchange)
+			throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			body.write(buffer, 0, read);
+		}
+		Map<String, String> form = new HashMap<String, String>();
+		for (String pair : new String(body.toByteArray(), CHARSET).split("&")) {
+			int separator = pair.indexOf('=');
+			if (separator > 0) {
+				form.put(URLDecoder.decode(pair.substring(0, separator),
+						CHARSET.name()), URLDecoder.decode(
+						pair.substring(separator + 1), CHARSET.name()));
+			}
+		}
+		return form;
+	}
+
+	private static void sendText(HttpExchange exchange, int status,
+			String contentType, String text) throws IOException {
+		byte[] bytes = text.getBytes(CHARSET);
+		exchange.getResponseHeaders().add("Content-Type",
+				contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+	}
+
+	/**
+	 * @return {@value #BLOCK_SIZE} bytes of SQL statements
+	 */
+	private static byte[] createBlock() {
+		StringBuilder sql = new StringBuilder(BLOCK_SIZE + 128);
+		int row = 0;
+		while (sql.length() < BLOCK_SIZE) {
+			sql.append("INSERT INTO `watchdog` VALUES (").append(row++)
+					.append(",0,'php','Benchmark row ").append(row % 97)
+					.append("','a:0:{}',3,'','http://localhost/',1371462400);\n");
+		}
+		byte[] bytes = new byte[BLOCK_SIZE];
+		System.arraycopy(sql.toString().getBytes(CHARSET), 0, bytes, 0,
+				BLOCK_SIZE);
+		return bytes;
+	}
+}
@@ -18,13 +18,59 @@
 
 package info.schnatterer.remoteDbDumper;
 
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthSchedule;
+import info.schnatterer.remoteDbDumper.batch.BatchDumper;
+import info.schnatterer.remoteDbDumper.batch.DumpJob;
+import info.schnatterer.remoteDbDumper.batch.DumpResult;
+import info.schnatterer.remoteDbDumper.batch.JobJournal;
+import info.schnatterer.remoteDbDumper.batch.RunReport;
+import info.schnatterer.remoteDbDumper.batch.SiteListReader;
 import info.schnatterer.remoteDbDumper.cli.RemoteDbDumperCli;
+import info.schnatterer.remoteDbDumper.daemon.ControlServer;
+import info.schnatterer.remoteDbDumper.daemon.DumpDaemon;
+import info.schnatterer.remoteDbDumper.daemon.ScheduleReader;
+import info.schnatterer.remoteDbDumper.daemon.ScheduledJob;
+import info.schnatterer.remoteDbDumper.delta.DeltaDecoder;
+import info.schnatterer.remoteDbDumper.delta.DeltaPostProcessor;
+import info.schnatterer.remoteDbDumper.dump.DbDumpContext;
 import info.schnatterer.remoteDbDumper.dump.DbDumpException;
-import info.schnatterer.remoteDbDumper.dump.drupal.DrupalDbDump;
+import info.schnatterer.remoteDbDumper.dump.DbDumpFactory;
+import info.schnatterer.remoteDbDumper.dump.EngineRegistry;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.download.DumpCache;
+import info.schnatterer.remoteDbDumper.dump.download.GzipTransform;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.dump.util.HttpTransport;
+import info.schnatterer.remoteDbDumper.dump.util.WebClientPool;
+import info.schnatterer.remoteDbDumper.index.DumpIndex;
+import info.schnatterer.remoteDbDumper.index.IndexPostProcessor;
+import info.schnatterer.remoteDbDumper.index.TableExtractor;
+import info.schnatterer.remoteDbDumper.metrics.DumpStatistics;
+import info.schnatterer.remoteDbDumper.progress.LoggingProgressListener;
+import info.schnatterer.remoteDbDumper.progress.ProgressMonitor;
+import info.schnatterer.remoteDbDumper.retention.RetentionIndex;
+import info.schnatterer.remoteDbDumper.retention.RetentionPolicy;
+import info.schnatterer.remoteDbDumper.retention.RetentionPostProcessor;
+import info.schnatterer.remoteDbDumper.retry.Retrier;
+import info.schnatterer.remoteDbDumper.retry.RetryPolicy;
+import info.schnatterer.remoteDbDumper.s3.S3Client;
+import info.schnatterer.remoteDbDumper.s3.S3DumpSink;
+import info.schnatterer.remoteDbDumper.s3.S3Location;
+import info.schnatterer.remoteDbDumper.store.ChunkStore;
+import info.schnatterer.remoteDbDumper.store.DedupTransform;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Level;
@@ -42,6 +88,7 @@ import com.beust.jcommander.ParameterException;
  */
 public class RemoteDbDumper {
 	private static final String LOG_FILE_PATTERN = "%d{ISO8601} %-5p %m%n";
+	private static final String REPORT_FILE_SUFFIX = "-report.json";
 	private static Logger logger = Logger.getLogger(RemoteDbDumper.class);
 
 	/**
@@ -81,21 +128,50 @@ public class RemoteDbDumper {
 						// directory
 						setUpFileLogging(file);
 					}
-					List<String> downloadedFiles = new DrupalDbDump().download(
-							cliParams.getUrl(), cliParams.getUser(),
-							cliParams.getPassword(), file);
-					logger.info("Successfully downloaded "
-							+ downloadedFiles.size() + " file(s) "
-							+ downloadedFiles.toString() + " to "
-							+ file.getAbsolutePath());
+					if (cliParams.getRebuild() != null) {
+						rebuild(cliParams, file);
+						return;
+					}
+					if (cliParams.getRestore() != null) {
+						restore(cliParams, file);
+						return;
+					}
+					if (cliParams.isGc()) {
+						collectGarbage(cliParams, file);
+						return;
+					}
+					if (cliParams.getExtract() != null) {
+						extract(cliParams, file);
+						return;
+					}
+					if (cliParams.getDaemon() != null) {
+						startDaemon(cliParams, file);
+						// Keeps running until the JVM is shut down
+						return;
+					}
+					List<DumpJob> jobs = readJobs(cliParams);
+					BatchDumper batchDumper = createBatchDumper(cliParams,
+							createHttpTransport(cliParams), null,
+							createBandwidthLimiter(cliParams));
+					addRetention(cliParams, batchDumper, jobs, file);
+					if (cliParams.isJournal()) {
+						JobJournal journal = new JobJournal(new File(file,
+								JobJournal.FILE_NAME),
+								cliParams.getJournalMaxAge());
+						journal.open();
+						batchDumper.setJournal(journal);
+					}
+					long start = System.currentTimeMillis();
+					List<DumpResult> results = batchDumper.run(jobs, file);
+					if (!cliParams.isQuiet()) {
+						writeReport(new RunReport(start, results), file);
+					}
+					if (!logSummary(results, file)) {
+						System.exit(1);
+					}
 				}
 			} catch (Throwable t) {
-				if (!(t instanceof DbDumpException)) {
-					logger.error("Error downloading drupal database: "
-							+ t.getMessage());
-				} else {
-					logger.error(t.getMessage(), t);
-				}
+				logError(t);
 				System.exit(1);
 			}
 		} else {
@@ -104,6 +180,444 @@ public class RemoteDbDumper {
 		}
 	}
 
+	private static BatchDumper createBatchDumper(RemoteDbDumperCli cliParams,
+			HttpTransport transport, WebClientPool webClientPool,
+			BandwidthLimiter bandwidthLimiter) {
+		BatchDumper batchDumper = new BatchDumper(createDbDumpFactory(
+				cliParams, transport, webClientPool, bandwidthLimiter),
+				cliParams.getParallel(),
+				cliParams.getParallelPerHost());
+		batchDumper.setVirtualThreads(cliParams.isVirtualThreads());
+		DumpStatistics statistics = new DumpStatistics();
+		statistics.register();
+		batchDumper.setStatistics(statistics);
+		if (cliParams.getRetries() > 0) {
+			RetryPolicy retryPolicy = new RetryPolicy();
+			retryPolicy.setMaxRetries(cliParams.getRetries());
+			retryPolicy.setInitialDelayMillis(cliParams.getRetryDelay());
+			retryPolicy.setFailureThreshold(cliParams.getCircuitThreshold());
+			retryPolicy.setOpenMillis(cliParams.getCircuitOpen());
+			batchDumper.setRetrier(new Retrier(retryPolicy));
+		}
+		if (cliParams.isIndex()) {
+			batchDumper.addPostProcessor(new IndexPostProcessor());
+		}
+		if (cliParams.isDelta()) {
+			batchDumper.addPostProcessor(new DeltaPostProcessor(cliParams
+					.getDeltaBaselineEvery()));
+		}
+		return batchDumper;
+	}
+
+	/**
+	 * Deletes old dumps after each dump, if a retention policy is set on the
+	 * command line or for one of the sites. Added last, so it sees the files
+	 * as stored by the other post processors.
+	 */
+	private static void addRetention(RemoteDbDumperCli cliParams,
+			BatchDumper batchDumper, List<DumpJob> jobs, File directory)
+			throws IOException {
+		RetentionPolicy policy = cliParams.getRetentionPolicy();
+		boolean enabled = !policy.isEmpty();
+		for (DumpJob job : jobs) {
+			enabled |= job.getRetention() != null
+					&& !job.getRetention().isEmpty();
+		}
+		if (!enabled) {
+			return;
+		}
+		if (cliParams.getS3() != null) {
+			throw new IllegalArgumentException(
+					"Retention policies (keep=) can't be combined with --s3");
+		}
+		RetentionIndex index = new RetentionIndex(new File(directory,
+				RetentionIndex.FILE_NAME));
+		index.load();
+		batchDumper.addPostProcessor(new RetentionPostProcessor(index, policy));
+	}
+
+	/**
+	 * Starts the daemon and its control server. They are stopped when the JVM
+	 * shuts down.
+	 */
+	private static void startDaemon(RemoteDbDumperCli cliParams, File file)
+			throws IOException {
+		HttpTransport transport = createHttpTransport(cliParams);
+		// Only engines that use a browser borrow clients from the pool
+		WebClientPool webClientPool = new WebClientPool(
+				cliParams.getParallel(), transport,
+				createMinimalFetchPattern(cliParams));
+		if (RemoteDbDumperCli.ENGINE_DRUPAL_HTMLUNIT.equals(cliParams
+				.getEngine())) {
+			webClientPool.warmUp();
+		}
+		BandwidthLimiter bandwidthLimiter = createBandwidthLimiter(cliParams);
+		List<ScheduledJob> schedule = new ScheduleReader().read(cliParams
+				.getDaemon());
+		BatchDumper batchDumper = createBatchDumper(cliParams, transport,
+				webClientPool, bandwidthLimiter);
+		List<DumpJob> jobs = new LinkedList<DumpJob>();
+		for (ScheduledJob scheduledJob : schedule) {
+			jobs.add(scheduledJob.getJob());
+		}
+		addRetention(cliParams, batchDumper, jobs, file);
+		final DumpDaemon daemon = new DumpDaemon(batchDumper, schedule, file,
+				cliParams.getParallel(), cliParams.getParallelPerHost(),
+				cliParams.getJitter());
+		final ControlServer controlServer = cliParams.getControlPort() > 0 ? new ControlServer(
+				daemon, cliParams.getControlPort())
+				: null;
+		if (controlServer != null) {
+			controlServer.setBandwidthLimiter(bandwidthLimiter);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread("shutdown") {
+			@Override
+			public void run() {
+				if (controlServer != null) {
+					controlServer.stop();
+				}
+				daemon.stop();
+			}
+		});
+		daemon.start();
+		if (controlServer != null) {
+			controlServer.start();
+		}
+	}
+
+	private static List<DumpJob> readJobs(RemoteDbDumperCli cliParams)
+			throws IOException {
+		if (cliParams.getBatchFile() != null) {
+			return new SiteListReader().read(cliParams.getBatchFile());
+		}
+		return Collections.singletonList(new DumpJob(cliParams.getUrl(),
+				cliParams.getUser(), cliParams.getPassword()));
+	}
+
+	/**
+	 * Creates the limiter shared by all transfers. Always created, so the
+	 * limit can be set at runtime even if it is unlimited at the start.
+	 */
+	private static BandwidthLimiter createBandwidthLimiter(
+			RemoteDbDumperCli cliParams) {
+		BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(
+				cliParams.getBandwidthLimit() * 1024);
+		bandwidthLimiter.register();
+		if (cliParams.getBandwidthSchedule() != null) {
+			new BandwidthSchedule(cliParams.getBandwidthSchedule(),
+					cliParams.getBandwidthLimit()).start(bandwidthLimiter);
+		}
+		return bandwidthLimiter;
+	}
+
+	/**
+	 * Creates the HTTP connections shared by all dumps, so connections to a
+	 * host are reused by its next dump.
+	 */
+	private static HttpTransport createHttpTransport(RemoteDbDumperCli cliParams) {
+		return new HttpTransport(cliParams.getHttpMaxConnections(),
+				cliParams.getHttpTimeout(), cliParams.getHttpKeepAlive(),
+				!cliParams.isHttpNoCompression());
+	}
+
+	/**
+	 * @return the URLs the web clients don't request or <code>null</code> to
+	 *         load all resources
+	 */
+	private static Pattern createMinimalFetchPattern(RemoteDbDumperCli cliParams) {
+		if (cliParams.getMinimalFetchPattern() == null) {
+			return null;
+		}
+		return Pattern.compile(cliParams.getMinimalFetchPattern());
+	}
+
+	private static DbDumpFactory createDbDumpFactory(
+			RemoteDbDumperCli cliParams, HttpTransport transport,
+			WebClientPool webClientPool, BandwidthLimiter bandwidthLimiter) {
+		DbDumpContext context = new DbDumpContext();
+		DownloadOptions options = createDownloadOptions(cliParams);
+		options.setBandwidthLimiter(bandwidthLimiter);
+		options.setTransport(transport);
+		options.setProgressMonitor(createProgressMonitor(cliParams));
+		context.setOptions(options);
+		context.setSessionCache(createSessionCache(cliParams));
+		context.setWebClientPool(webClientPool);
+		return new EngineRegistry().createFactory(cliParams.getEngine(),
+				RemoteDbDumperCli.ENGINE_DRUPAL_HTMLUNIT, context);
+	}
+
+	/**
+	 * Creates the monitor that logs the progress of the transfers and aborts
+	 * stalled ones.
+	 */
+	private static ProgressMonitor createProgressMonitor(
+			RemoteDbDumperCli cliParams) {
+		ProgressMonitor monitor = new ProgressMonitor(
+				cliParams.getProgressInterval(),
+				cliParams.getStallRate() * 1024, cliParams.getStallTimeout());
+		monitor.addListener(new LoggingProgressListener());
+		return monitor;
+	}
+
+	private static DownloadOptions createDownloadOptions(
+			RemoteDbDumperCli cliParams) {
+		DownloadOptions options = new DownloadOptions();
+		options.setBufferSize(cliParams.getBufferSize());
+		options.setResumeAttempts(cliParams.getResumeAttempts());
+		options.setSegments(cliParams.getSegments());
+		options.setChecksum(cliParams.getChecksum());
+		options.setValidate(cliParams.isValidate());
+		options.setMinimalFetchPattern(createMinimalFetchPattern(cliParams));
+		if (cliParams.isLinkUnchanged()) {
+			options.setDumpCache(new DumpCache());
+		}
+		if (cliParams.getStore() != null) {
+			options.setTransform(new DedupTransform(new ChunkStore(new File(
+					cliParams.getStore()))));
+		} else if (RemoteDbDumperCli.COMPRESS_GZIP.equals(cliParams
+				.getCompress())) {
+			options.setTransform(new GzipTransform(cliParams
+					.getCompressLevel(), cliParams.getCompressThreads()));
+		}
+		if (cliParams.getS3() != null) {
+			options.setSink(createS3Sink(cliParams, options));
+		}
+		return options;
+	}
+
+	private static S3DumpSink createS3Sink(RemoteDbDumperCli cliParams,
+			DownloadOptions options) {
+		S3Location location = new S3Location(cliParams.getS3());
+		URI endpoint = cliParams.getS3Endpoint() != null ? URI
+				.create(cliParams.getS3Endpoint()) : S3Client
+				.getAwsEndpoint(cliParams.getS3Region());
+		// Dump threads upload small dumps and start the uploads themselves
+		S3Client client = new S3Client(endpoint, cliParams.getS3Region(),
+				location.getBucket(), System.getenv(S3Client.ENV_ACCESS_KEY),
+				System.getenv(S3Client.ENV_SECRET_KEY),
+				System.getenv(S3Client.ENV_SESSION_TOKEN),
+				cliParams.getS3UploadThreads() + cliParams.getParallel());
+		logger.info("Uploading dumps to " + location + " at " + endpoint);
+		return new S3DumpSink(client, location, options,
+				cliParams.getS3PartSize(), cliParams.getS3UploadThreads());
+	}
+
+	/**
+	 * Restores the dump described by the "restore" manifest into the output
+	 * directory, named like the original file.
+	 */
+	private static void restore(final RemoteDbDumperCli cliParams,
+			File directory) throws IOException, DbDumpException {
+		final File manifest = new File(cliParams.getRestore());
+		writeOriginal(manifest, ChunkStore.MANIFEST_SUFFIX, directory,
+				new OriginalWriter() {
+					public long write(OutputStream out) throws IOException {
+						return new ChunkStore(new File(cliParams.getStore()))
+								.restore(manifest, out);
+					}
+				});
+	}
+
+	/**
+	 * Deletes the chunks of the store that none of the manifests in the output
+	 * directory refers to.
+	 */
+	private static void collectGarbage(RemoteDbDumperCli cliParams,
+			File directory) throws IOException {
+		new ChunkStore(new File(cliParams.getStore())).collectGarbage(directory);
+	}
+
+	/**
+	 * Rebuilds the dump described by the "rebuild" delta into the output
+	 * directory, named like the original file.
+	 */
+	private static void rebuild(RemoteDbDumperCli cliParams, File directory)
+			throws IOException, DbDumpException {
+		final File delta = new File(cliParams.getRebuild());
+		writeOriginal(delta, DeltaPostProcessor.SUFFIX, directory,
+				new OriginalWriter() {
+					public long write(OutputStream out) throws IOException {
+						return new DeltaDecoder().decode(delta, out);
+					}
+				});
+	}
+
+	/**
+	 * Writes the tables of the "extract" dump into the output directory, or
+	 * lists the tables of the dump if none are passed.
+	 */
+	private static void extract(RemoteDbDumperCli cliParams, File directory)
+			throws IOException, DbDumpException {
+		File dump = new File(cliParams.getExtract());
+		if (!dump.isFile()) {
+			throw new DbDumpException("Dump not found: "
+					+ dump.getAbsolutePath());
+		}
+		TableExtractor extractor = new TableExtractor();
+		DumpIndex index = extractor.getIndex(dump);
+		if (cliParams.getTables().isEmpty()) {
+			logger.info("Tables of " + dump.getName() + " (uncompressed bytes):");
+			for (Map.Entry<String, Long> table : index.getTables().entrySet()) {
+				logger.info(table.getKey() + " " + table.getValue());
+			}
+			return;
+		}
+		for (String table : cliParams.getTables()) {
+			String name = index.findTable(table);
+			if (name == null) {
+				throw new DbDumpException("Table \"" + table
+						+ "\" not found in " + dump.getName()
+						+ " or ambiguous");
+			}
+			File target = new File(directory, TableExtractor.getFileName(
+					dump.getName(), name));
+			if (target.exists()) {
+				throw new DbDumpException("Not overwriting existing file "
+						+ target.getAbsolutePath());
+			}
+			long start = System.nanoTime();
+			FileOutputStream out = new FileOutputStream(target);
+			boolean success = false;
+			try {
+				long bytes = extractor.extract(dump, index, name,
+						out.getChannel());
+				out.close();
+				success = true;
+				logger.info("Extracted " + bytes + " bytes of table " + name
+						+ " to " + target.getAbsolutePath() + " in "
+						+ (System.nanoTime() - start) / 1000000 + " ms");
+			} finally {
+				if (!success) {
+					out.close();
+					target.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the original of a file that is stored in a different form
+	 * (manifest, delta) to the directory. Deletes it again on failure.
+	 */
+	private static void writeOriginal(File stored, String suffix,
+			File directory, OriginalWriter writer) throws IOException,
+			DbDumpException {
+		String fileName = stored.getName();
+		if (fileName.endsWith(suffix)) {
+			fileName = fileName.substring(0, fileName.length()
+					- suffix.length());
+		}
+		File target = new File(directory, fileName);
+		if (target.exists()) {
+			throw new DbDumpException("Not overwriting existing file "
+					+ target.getAbsolutePath());
+		}
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				target));
+		boolean success = false;
+		try {
+			long bytes = writer.write(out);
+			out.close();
+			success = true;
+			logger.info("Restored " + bytes + " bytes to "
+					+ target.getAbsolutePath());
+		} finally {
+			if (!success) {
+				out.close();
+				target.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the original of a stored file.
+	 */
+	private interface OriginalWriter {
+		/**
+		 * @return the number of bytes written
+		 */
+		long write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * @return the session cache or <code>null</code> if disabled
+	 */
+	private static SessionCache createSessionCache(RemoteDbDumperCli cliParams) {
+		if (cliParams.getSessionCache() == null) {
+			return null;
+		}
+		SessionCache sessionCache = new SessionCache(new File(
+				cliParams.getSessionCache()), cliParams.getSessionTtl(),
+				SessionCache.DEFAULT_MAX_ENTRIES);
+		sessionCache.evict();
+		return sessionCache;
+	}
+
+	/**
+	 * Writes the report next to the log file. Failing to do so does not fail
+	 * the run.
+	 */
+	private static void writeReport(RunReport report, File directory) {
+		File reportFile = new File(directory,
+				RemoteDbDumper.class.getSimpleName() + REPORT_FILE_SUFFIX);
+		try {
+			report.write(reportFile);
+		} catch (IOException e) {
+			logger.warn("Unable to write report to "
+					+ reportFile.getAbsolutePath() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Logs the outcome of all jobs.
+	 *
+	 * @return <code>true</code> if all jobs succeeded, otherwise
+	 *         <code>false</code>
+	 */
+	private static boolean logSummary(List<DumpResult> results, File file) {
+		if (results.size() == 1) {
+			// Single site, the details have already been logged by the job
+			DumpResult result = results.get(0);
+			if (!result.isSuccess()) {
+				logError(result.getError());
+			}
+			return result.isSuccess();
+		}
+
+		List<DumpResult> failed = new LinkedList<DumpResult>();
+		int downloadedFiles = 0;
+		int resumed = 0;
+		for (DumpResult result : results) {
+			if (result.isResumed()) {
+				resumed++;
+			}
+			if (result.isSuccess()) {
+				downloadedFiles += result.getDownloadedFiles().size();
+			} else {
+				failed.add(result);
+			}
+		}
+		logger.info("Batch finished: " + (results.size() - failed.size())
+				+ " of " + results.size() + " site(s) succeeded"
+				+ (resumed > 0 ? " (" + resumed
+						+ " finished by the interrupted run), " : ", ")
+				+ downloadedFiles + " file(s) downloaded to "
+				+ file.getAbsolutePath());
+		for (DumpResult result : failed) {
+			logger.error("Failed: " + result.getJob() + " - "
+					+ result.getError().getMessage());
+		}
+		return failed.isEmpty();
+	}
+
+	private static void logError(Throwable t) {
+		if (!(t instanceof DbDumpException)) {
+			logger.error("Error downloading drupal database: " + t.getMessage());
+		} else {
+			logger.error(t.getMessage(), t);
+		}
+	}
+
 	private static void setUpFileLogging(File file) {
 		FileAppender fa = new FileAppender();
 		fa.setName("FileLogger");
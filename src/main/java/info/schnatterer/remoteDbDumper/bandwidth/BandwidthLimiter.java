@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.bandwidth;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limits the bandwidth used by all transfers of a run to a common rate, using
+ * a token bucket. Within this limit the bandwidth is shared fairly between the
+ * transfers, in proportion to their weights: when several transfers wait for
+ * tokens, the one that has received the fewest bytes per weight so far goes
+ * first (start-time fair queuing). Transfers that don't wait (e.g. because
+ * the server is slow) leave their share to the others.
+ * <p>
+ * The rate can be changed at any time, e.g. via JMX as
+ * {@value #OBJECT_NAME} or by a {@link BandwidthSchedule}. Waiting transfers
+ * pick up the new rate immediately.
+ * <p>
+ * The weight of the transfers is taken from the thread that opens them, see
+ * {@link #setThreadWeight(int)}.
+ *
+ * @author schnatterer
+ *
+ */
+public class BandwidthLimiter implements BandwidthLimiterMBean {
+	/** Name the limiter is registered with */
+	public static final String OBJECT_NAME = "info.schnatterer.remoteDbDumper:type=BandwidthLimiter";
+	/** Weight of transfers of threads that don't set one */
+	public static final int DEFAULT_WEIGHT = 1;
+	/** Tokens are collected for at most this time, bounding bursts */
+	private static final double BURST_SECONDS = 0.25;
+	private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+	private static final ThreadLocal<Integer> THREAD_WEIGHT = new ThreadLocal<Integer>();
+	private static Logger logger = Logger.getLogger(BandwidthLimiter.class);
+
+	/** Bytes per second, 0 for unlimited */
+	private long rate;
+	/** May become negative, when a transfer takes more than there is */
+	private double tokens = 0;
+	private long lastRefillNanos = System.nanoTime();
+	/** The virtual time of the transfer served last */
+	private double virtualTime = 0;
+	private long nextShareId = 0;
+	private int activeTransfers = 0;
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong throttledNanos = new AtomicLong();
+	private final PriorityQueue<Share> waiting = new PriorityQueue<Share>(11,
+			new Comparator<Share>() {
+				public int compare(Share a, Share b) {
+					int result = Double.compare(a.virtualTime, b.virtualTime);
+					return result != 0 ? result : Long.compare(a.id, b.id);
+				}
+			});
+	private ObjectName registeredName = null;
+
+	/**
+	 * @param bytesPerSecond
+	 *            the initial limit, 0 for unlimited
+	 */
+	public BandwidthLimiter(long bytesPerSecond) {
+		setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * Sets the weight of the transfers opened by the current thread from now
+	 * on, e.g. by the thread that runs a dump.
+	 *
+	 * @param weight
+	 *            at least 1. A transfer with weight 2 gets twice the bandwidth
+	 *            of a transfer with weight 1, if both could use more.
+	 */
+	public static void setThreadWeight(int weight) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("Weight must be at least 1");
+		}
+		THREAD_WEIGHT.set(weight);
+	}
+
+	/**
+	 * Resets the weight of the current thread to {@link #DEFAULT_WEIGHT}.
+	 */
+	public static void clearThreadWeight() {
+		THREAD_WEIGHT.remove();
+	}
+
+	/**
+	 * Starts a transfer, weighted with the {@link #setThreadWeight(int)
+	 * weight of the current thread}. Must be {@link Share#close() closed}
+	 * when the transfer is finished.
+	 */
+	public synchronized Share open() {
+		Integer weight = THREAD_WEIGHT.get();
+		Share share = new Share(nextShareId++, weight == null ? DEFAULT_WEIGHT
+				: weight);
+		// Don't let the new transfer catch up on what the others received
+		share.virtualTime = virtualTime;
+		activeTransfers++;
+		return share;
+	}
+
+	/**
+	 * @param bytesPerSecond
+	 *            the new limit, 0 for unlimited
+	 */
+	public synchronized void setBytesPerSecond(long bytesPerSecond) {
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException(
+					"Rate must not be negative");
+		}
+		refill();
+		if (bytesPerSecond != rate) {
+			logger.info("Bandwidth limit set to "
+					+ (bytesPerSecond == 0 ? "unlimited" : bytesPerSecond
+							/ 1024 + " KiB/s"));
+		}
+		rate = bytesPerSecond;
+		tokens = Math.min(tokens, getBurst());
+		notifyAll();
+	}
+
+	/** @return the current limit, 0 for unlimited */
+	public synchronized long getBytesPerSecond() {
+		return rate;
+	}
+
+	public long getLimitKiB() {
+		return getBytesPerSecond() / 1024;
+	}
+
+	public void setLimitKiB(long kibPerSecond) {
+		setBytesPerSecond(kibPerSecond * 1024);
+	}
+
+	public synchronized int getActiveTransfers() {
+		return activeTransfers;
+	}
+
+	public synchronized int getWaitingTransfers() {
+		return waiting.size();
+	}
+
+	public long getBytesTransferred() {
+		return bytes.get();
+	}
+
+	public long getThrottledMillis() {
+		return throttledNanos.get() / (1000 * 1000);
+	}
+
+	/**
+	 * Registers the limiter with the platform MBean server. Failing to do so
+	 * is logged, but does not stop the dumps.
+	 */
+	public synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				registeredName = name;
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to register bandwidth limiter via JMX: "
+					+ e.getMessage());
+		}
+	}
+
+	public synchronized void unregister() {
+		if (registeredName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					registeredName);
+		} catch (JMException e) {
+			logger.debug("Unable to unregister bandwidth limiter", e);
+		}
+		registeredName = null;
+	}
+
+	/**
+	 * Blocks until <code>share</code> may transfer <code>count</code> bytes.
+	 */
+	private synchronized void acquire(Share share, int count)
+			throws InterruptedIOException {
+		if (rate > 0) {
+			long start = System.nanoTime();
+			share.virtualTime = Math.max(share.virtualTime, virtualTime);
+			waiting.add(share);
+			try {
+				while (rate > 0 && !(waiting.peek() == share && refill() > 0)) {
+					long waitNanos = tokens > 0 || waiting.peek() != share ? NANOS_PER_SECOND
+							: (long) ((1 - tokens) * NANOS_PER_SECOND / rate) + 1;
+					wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for bandwidth");
+			} finally {
+				waiting.remove(share);
+				// The next transfer might be able to go on now
+				notifyAll();
+			}
+			tokens -= count;
+			virtualTime = share.virtualTime;
+			throttledNanos.addAndGet(System.nanoTime() - start);
+		}
+		share.virtualTime += (double) count / share.weight;
+		bytes.addAndGet(count);
+	}
+
+	/**
+	 * Adds the tokens collected since the last refill.
+	 *
+	 * @return the tokens available
+	 */
+	private double refill() {
+		long now = System.nanoTime();
+		if (rate > 0) {
+			tokens = Math.min(getBurst(), tokens + (double) (now - lastRefillNanos)
+					* rate / NANOS_PER_SECOND);
+		}
+		lastRefillNanos = now;
+		return tokens;
+	}
+
+	private double getBurst() {
+		return rate * BURST_SECONDS;
+	}
+
+	private synchronized void close(Share share) {
+		activeTransfers--;
+		notifyAll();
+	}
+
+	/**
+	 * The part of the bandwidth of one transfer.
+	 */
+	public class Share {
+		private final long id;
+		private final int weight;
+		/** The bytes received so far, divided by the weight */
+		private double virtualTime;
+		private boolean closed = false;
+
+		private Share(long id, int weight) {
+			this.id = id;
+			this.weight = weight;
+		}
+
+		/**
+		 * Blocks until <code>count</code> bytes may be transferred. Call
+		 * before or after each read, with the number of bytes read.
+		 *
+		 * @throws InterruptedIOException
+		 *             when interrupted while waiting
+		 */
+		public void acquire(int count) throws InterruptedIOException {
+			BandwidthLimiter.this.acquire(this, count);
+		}
+
+		/** @return the weight of this transfer */
+		public int getWeight() {
+			return weight;
+		}
+
+		/**
+		 * Ends the transfer. Can be called several times.
+		 */
+		public void close() {
+			if (!closed) {
+				closed = true;
+				BandwidthLimiter.this.close(this);
+			}
+		}
+	}
+}
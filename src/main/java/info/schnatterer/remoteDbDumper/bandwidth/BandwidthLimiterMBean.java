@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.bandwidth;
+
+/**
+ * Management interface of {@link BandwidthLimiter}.
+ *
+ * @author schnatterer
+ *
+ */
+public interface BandwidthLimiterMBean {
+	/** @return the limit in KiB per second, 0 for unlimited */
+	long getLimitKiB();
+
+	/** Changes the limit, 0 for unlimited. Effective immediately. */
+	void setLimitKiB(long kibPerSecond);
+
+	int getActiveTransfers();
+
+	int getWaitingTransfers();
+
+	long getBytesTransferred();
+
+	/** @return the time the transfers have waited for bandwidth, summed up */
+	long getThrottledMillis();
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.bandwidth;
+
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Changes the limit of a {@link BandwidthLimiter} by time of day, e.g. to
+ * throttle the dumps during business hours and use all the bandwidth at night.
+ * <p>
+ * The schedule consists of windows in local time, separated by commas:
+ *
+ * <pre>
+ * 08:00-18:00=512,18:00-22:00=2048
+ * </pre>
+ *
+ * Each window sets the limit in KiB per second (0 for unlimited). A window
+ * may span midnight (e.g. <code>22:00-06:00=0</code>). Outside of all windows
+ * the default limit applies. The first matching window wins.
+ * <p>
+ * The limit is only set when a window starts or ends, so a limit changed
+ * manually in between (e.g. via JMX) stays until then.
+ *
+ * @author schnatterer
+ *
+ */
+public class BandwidthSchedule {
+	private static final Pattern PATTERN_WINDOW = Pattern
+			.compile("(\\d{1,2}):(\\d{2})-(\\d{1,2}):(\\d{2})=(\\d+)");
+	private static final long CHECK_INTERVAL_SECONDS = 30;
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	private final List<Window> windows = new ArrayList<Window>();
+	private final long defaultLimitKiB;
+	private ScheduledExecutorService executor = null;
+
+	/**
+	 * @param schedule
+	 *            the windows, see class comment
+	 * @param defaultLimitKiB
+	 *            the limit outside of all windows, 0 for unlimited
+	 * @throws IllegalArgumentException
+	 *             if the schedule can't be parsed
+	 */
+	public BandwidthSchedule(String schedule, long defaultLimitKiB) {
+		this.defaultLimitKiB = defaultLimitKiB;
+		for (String window : schedule.split(",")) {
+			Matcher matcher = PATTERN_WINDOW.matcher(window.trim());
+			if (!matcher.matches()) {
+				throw new IllegalArgumentException("Invalid bandwidth window \""
+						+ window.trim() + "\". Expected <HH:mm>-<HH:mm>=<KiB/s>");
+			}
+			windows.add(new Window(toMinute(matcher.group(1),
+					matcher.group(2), window), toMinute(matcher.group(3),
+					matcher.group(4), window), Long.parseLong(matcher
+					.group(5))));
+		}
+	}
+
+	/**
+	 * @return the limit in KiB per second at <code>time</code>, 0 for
+	 *         unlimited
+	 */
+	public long getLimitKiB(Calendar time) {
+		int minute = time.get(Calendar.HOUR_OF_DAY) * 60
+				+ time.get(Calendar.MINUTE);
+		for (Window window : windows) {
+			if (window.contains(minute)) {
+				return window.limitKiB;
+			}
+		}
+		return defaultLimitKiB;
+	}
+
+	/**
+	 * Sets the current limit and keeps updating it in a background thread
+	 * until {@link #stop()}.
+	 */
+	public synchronized void start(final BandwidthLimiter limiter) {
+		stop();
+		executor = Executors
+				.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+						"bandwidth-schedule", true));
+		executor.scheduleWithFixedDelay(new Runnable() {
+			private Long lastLimitKiB = null;
+
+			public void run() {
+				long limitKiB = getLimitKiB(Calendar.getInstance());
+				if (lastLimitKiB == null || limitKiB != lastLimitKiB) {
+					limiter.setLimitKiB(limitKiB);
+					lastLimitKiB = limitKiB;
+				}
+			}
+		}, 0, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private static int toMinute(String hours, String minutes, String window) {
+		int hour = Integer.parseInt(hours);
+		int minute = Integer.parseInt(minutes);
+		if (hour > 24 || minute > 59 || (hour == 24 && minute > 0)) {
+			throw new IllegalArgumentException("Invalid time in bandwidth window \""
+					+ window.trim() + "\"");
+		}
+		return hour * 60 + minute;
+	}
+
+	/**
+	 * A daily time window with its limit.
+	 */
+	private static class Window {
+		/** Minute of the day the window starts at, inclusive */
+		private final int start;
+		/** Minute of the day the window ends at, exclusive */
+		private final int end;
+		private final long limitKiB;
+
+		Window(int start, int end, long limitKiB) {
+			this.start = start;
+			this.end = end % MINUTES_PER_DAY;
+			this.limitKiB = limitKiB;
+		}
+
+		boolean contains(int minute) {
+			if (start == end) {
+				// All day, e.g. 00:00-24:00
+				return true;
+			}
+			if (start < end) {
+				return minute >= start && minute < end;
+			}
+			// Spans midnight
+			return minute >= start || minute < end;
+		}
+	}
+}
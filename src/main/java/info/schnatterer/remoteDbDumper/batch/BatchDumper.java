@@ -0,0 +1,493 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.dump.DbDumpFactory;
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+import info.schnatterer.remoteDbDumper.metrics.DumpStatistics;
+import info.schnatterer.remoteDbDumper.progress.ProgressMonitor;
+import info.schnatterer.remoteDbDumper.retry.Retrier;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs several {@link DumpJob}s concurrently.
+ * <p>
+ * The number of dumps running at the same time is limited globally and per
+ * host. Jobs that wait for a free slot on their host don't occupy a worker
+ * thread, so a host with many sites can't block the dumps of other hosts.
+ * <p>
+ * Each job gets its own {@link info.schnatterer.remoteDbDumper.dump.DbDump}
+ * instance (and therefore its own web client), created by the
+ * {@link DbDumpFactory}.
+ * <p>
+ * Failed jobs are retried according to the {@link Retrier}, if set. While
+ * waiting for the retry, a job neither occupies a worker thread nor counts
+ * against the limit of its host, so other sites go on being dumped.
+ * <p>
+ * The {@link DumpJob#getWeight() weight} of each job is passed to the
+ * {@link BandwidthLimiter} via the thread that runs the dump.
+ * <p>
+ * The dumps run on a {@link DumpExecutor}, optionally on virtual threads, so
+ * many dumps can wait for their servers without occupying a platform thread
+ * each. Single dumps can be started asynchronously using
+ * {@link #submit(DumpJob, File, int, Executor)}.
+ * <p>
+ * If a {@link JobJournal} is set, the state of each job is recorded, and
+ * {@link #run(List, File)} skips the jobs an interrupted run has finished
+ * already.
+ *
+ * @author schnatterer
+ *
+ */
+public class BatchDumper {
+	private static Logger logger = Logger.getLogger(BatchDumper.class);
+
+	private final DbDumpFactory dumpFactory;
+	private final int maxParallelDumps;
+	private final int maxParallelDumpsPerHost;
+	private DumpStatistics statistics = null;
+	private Retrier retrier = null;
+	private boolean virtualThreads = false;
+	private JobJournal journal = null;
+	private final List<DumpPostProcessor> postProcessors = new LinkedList<DumpPostProcessor>();
+
+	/**
+	 * @param dumpFactory
+	 *            creates one dump instance per job
+	 * @param maxParallelDumps
+	 *            the maximum number of dumps running at the same time
+	 * @param maxParallelDumpsPerHost
+	 *            the maximum number of dumps running at the same time on one
+	 *            host
+	 */
+	public BatchDumper(DbDumpFactory dumpFactory, int maxParallelDumps,
+			int maxParallelDumpsPerHost) {
+		if (maxParallelDumps < 1 || maxParallelDumpsPerHost < 1) {
+			throw new IllegalArgumentException(
+					"Number of parallel dumps must be at least 1");
+		}
+		this.dumpFactory = dumpFactory;
+		this.maxParallelDumps = maxParallelDumps;
+		this.maxParallelDumpsPerHost = maxParallelDumpsPerHost;
+	}
+
+	/**
+	 * @param statistics
+	 *            the metrics of each job are added to these, as soon as the
+	 *            job finishes. <code>null</code> for none.
+	 */
+	public void setStatistics(DumpStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * @param retrier
+	 *            decides which failed jobs are retried. <code>null</code> for
+	 *            no retries.
+	 */
+	public void setRetrier(Retrier retrier) {
+		this.retrier = retrier;
+	}
+
+	/**
+	 * @param virtualThreads
+	 *            <code>true</code> to run each dump on a virtual thread, if
+	 *            supported by the JRE
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * @return <code>true</code> if each dump is to run on a virtual thread
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @param journal
+	 *            records the state of the jobs of {@link #run(List, File)},
+	 *            must have been {@link JobJournal#open() opened}.
+	 *            <code>null</code> for none.
+	 */
+	public void setJournal(JobJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @param postProcessor
+	 *            is called for the files of each successful job, in the order
+	 *            the processors have been added.
+	 */
+	public void addPostProcessor(DumpPostProcessor postProcessor) {
+		postProcessors.add(postProcessor);
+	}
+
+	/**
+	 * Runs all jobs and blocks until they are finished.
+	 *
+	 * @param jobs
+	 *            the sites to dump
+	 * @param targetDirectory
+	 *            the directory where to store the files
+	 * @return one result per job, in the same order as <code>jobs</code>
+	 * @throws InterruptedException
+	 *             when interrupted while waiting for the jobs to finish. The
+	 *             run is not completed in the journal then.
+	 */
+	public List<DumpResult> run(List<DumpJob> jobs, File targetDirectory)
+			throws InterruptedException {
+		if (jobs.isEmpty()) {
+			if (journal != null) {
+				journal.complete();
+			}
+			return new LinkedList<DumpResult>();
+		}
+		DumpExecutor executor = new DumpExecutor("dump", Math.min(
+				maxParallelDumps, jobs.size()), virtualThreads);
+		ScheduledExecutorService retryScheduler = Executors
+				.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+						"retry", false));
+		try {
+			BatchRun run = new BatchRun(jobs, targetDirectory, executor,
+					retryScheduler);
+			run.start();
+			List<DumpResult> results = run.awaitResults();
+			if (journal != null) {
+				journal.complete();
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+			retryScheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs a single job in the calling thread, including the post processors.
+	 * Does not limit the number of dumps per host and does not retry.
+	 *
+	 * @param attempt
+	 *            0 for the first attempt, 1 for the first retry, etc.
+	 * @return the result of the job, never throws
+	 */
+	public DumpResult dump(DumpJob job, File targetDirectory, int attempt) {
+		return dump(job, targetDirectory, attempt, createMetrics(job), null);
+	}
+
+	/**
+	 * Starts a single job, including the post processors, and returns
+	 * without waiting for it. Does not limit the number of dumps per host and
+	 * does not retry.
+	 *
+	 * @param attempt
+	 *            0 for the first attempt, 1 for the first retry, etc.
+	 * @param executor
+	 *            runs the job, e.g. a {@link DumpExecutor}
+	 * @return the handle to follow the progress of the job and to wait for
+	 *         its result
+	 */
+	public DumpHandle submit(final DumpJob job, final File targetDirectory,
+			final int attempt, Executor executor) {
+		final DumpMetrics metrics = createMetrics(job);
+		DumpHandle handle = new DumpHandle(job, metrics,
+				new Callable<DumpResult>() {
+					public DumpResult call() {
+						return dump(job, targetDirectory, attempt, metrics,
+								null);
+					}
+				});
+		executor.execute(handle);
+		return handle;
+	}
+
+	private DumpMetrics createMetrics(DumpJob job) {
+		return journal == null ? new DumpMetrics() : journal
+				.createMetrics(job);
+	}
+
+	/**
+	 * @param verifiedFiles
+	 *            the files of the job, if they have been downloaded by an
+	 *            interrupted run already, so only the post processors are
+	 *            run. <code>null</code> to download.
+	 */
+	private DumpResult dump(DumpJob job, File targetDirectory, int attempt,
+			DumpMetrics metrics, List<String> verifiedFiles) {
+		long start = System.currentTimeMillis();
+		if (statistics != null) {
+			statistics.dumpStarted();
+		}
+		DumpResult result;
+		boolean attempted = false;
+		boolean downloaded = false;
+		try {
+			List<String> downloadedFiles = verifiedFiles;
+			if (downloadedFiles == null) {
+				if (retrier != null) {
+					retrier.beforeAttempt(job, attempt);
+				}
+				attempted = true;
+				BandwidthLimiter.setThreadWeight(job.getWeight());
+				ProgressMonitor.setThreadListener(metrics);
+				downloadedFiles = dumpFactory.createDbDump(metrics).download(
+						job.getUrl(), job.getUser(), job.getPassword(),
+						targetDirectory);
+				downloaded = true;
+				if (retrier != null) {
+					retrier.afterAttempt(job, null);
+				}
+				if (journal != null) {
+					journal.verified(job, downloadedFiles);
+				}
+			} else {
+				logger.info("Files " + downloadedFiles + " of " + job
+						+ " have been downloaded by the interrupted run, "
+						+ "only post processing them");
+			}
+			for (DumpPostProcessor postProcessor : postProcessors) {
+				downloadedFiles = postProcessor.process(job, downloadedFiles,
+						targetDirectory);
+			}
+			result = DumpResult.success(job, downloadedFiles,
+					System.currentTimeMillis() - start, metrics);
+			logger.info("Successfully downloaded " + downloadedFiles.size()
+					+ " file(s) " + downloadedFiles.toString() + " from "
+					+ job + " to " + targetDirectory.getAbsolutePath());
+			logger.info("Phases of " + job + ": " + metrics);
+		} catch (Throwable t) {
+			if (retrier != null && attempted && !downloaded) {
+				retrier.afterAttempt(job, t);
+			}
+			if (downloaded || verifiedFiles != null) {
+				result = DumpResult.postProcessingFailed(job, t,
+						System.currentTimeMillis() - start, metrics);
+				logger.debug("Error post processing the files of " + job, t);
+			} else {
+				result = DumpResult.failure(job, t,
+						System.currentTimeMillis() - start, metrics);
+				logger.debug("Error dumping " + job, t);
+			}
+		} finally {
+			BandwidthLimiter.clearThreadWeight();
+			ProgressMonitor.clearThreadListener();
+		}
+		if (statistics != null) {
+			statistics.dumpFinished(metrics, result.isSuccess());
+		}
+		return result;
+	}
+
+	/**
+	 * @param attempt
+	 *            the attempt that produced the result, 0 for the first
+	 * @return the time to wait before retrying the job of the result or a
+	 *         negative value if it is not to be retried. Jobs whose post
+	 *         processing failed are not retried, as this would only trigger
+	 *         another backup on the server for a local problem.
+	 */
+	public long getRetryDelay(DumpResult result, int attempt) {
+		if (retrier == null || result.isPostProcessingFailed()) {
+			return -1;
+		}
+		return retrier.getRetryDelay(result, attempt);
+	}
+
+	/**
+	 * The state of one invocation of {@link BatchDumper#run(List, File)}.
+	 */
+	private class BatchRun {
+		private final List<DumpJob> jobs;
+		private final File targetDirectory;
+		private final Executor executor;
+		private final ScheduledExecutorService retryScheduler;
+
+		private final DumpResult[] results;
+		private final int[] attempts;
+		/** Files of the jobs downloaded by an interrupted run, by index */
+		private final Map<Integer, List<String>> verifiedFiles = new HashMap<Integer, List<String>>();
+		private final CountDownLatch remaining;
+		/** Index of the jobs waiting for a slot, by host */
+		private final Map<String, Queue<Integer>> waitingByHost = new LinkedHashMap<String, Queue<Integer>>();
+		private final Map<String, Integer> runningByHost = new HashMap<String, Integer>();
+
+		BatchRun(List<DumpJob> jobs, File targetDirectory, Executor executor,
+				ScheduledExecutorService retryScheduler) {
+			this.jobs = jobs;
+			this.targetDirectory = targetDirectory;
+			this.executor = executor;
+			this.retryScheduler = retryScheduler;
+			results = new DumpResult[jobs.size()];
+			attempts = new int[jobs.size()];
+			remaining = new CountDownLatch(jobs.size());
+		}
+
+		synchronized void start() {
+			for (int i = 0; i < jobs.size(); i++) {
+				if (journal != null && resume(i)) {
+					continue;
+				}
+				String host = jobs.get(i).getHost();
+				Queue<Integer> waiting = waitingByHost.get(host);
+				if (waiting == null) {
+					waiting = new LinkedList<Integer>();
+					waitingByHost.put(host, waiting);
+					runningByHost.put(host, 0);
+				}
+				waiting.add(i);
+			}
+			/*
+			 * Submit the first jobs of each host before the second jobs of any
+			 * host, so the executor's queue is interleaved by host.
+			 */
+			for (int round = 0; round < maxParallelDumpsPerHost; round++) {
+				for (String host : waitingByHost.keySet()) {
+					dispatch(host, round + 1);
+				}
+			}
+		}
+
+		/**
+		 * Takes the state of a job from the interrupted run the journal
+		 * resumes, if any, and queues the job in the journal.
+		 *
+		 * @return <code>true</code> if the job is finished already
+		 */
+		private boolean resume(int jobIndex) {
+			DumpJob job = jobs.get(jobIndex);
+			JobJournal.Entry entry = journal.getEntry(job);
+			if (entry != null && JobJournal.DONE.equals(entry.getState())) {
+				logger.info("Skipping " + job
+						+ ", finished by the interrupted run: "
+						+ entry.getFiles());
+				results[jobIndex] = DumpResult.resumed(job, entry.getFiles());
+				remaining.countDown();
+				return true;
+			}
+			if (entry != null && JobJournal.VERIFIED.equals(entry.getState())
+					&& entry.filesExist(targetDirectory)) {
+				verifiedFiles.put(jobIndex, entry.getFiles());
+			} else if (entry != null && entry.getOffset() >= 0) {
+				logger.info("Resuming " + job + ", interrupted after "
+						+ entry.getOffset() + " bytes");
+			} else if (entry != null && !JobJournal.QUEUED.equals(entry.getState())) {
+				logger.info("Resuming " + job + ", interrupted in state "
+						+ entry.getState());
+			}
+			journal.queued(job);
+			return false;
+		}
+
+		List<DumpResult> awaitResults() throws InterruptedException {
+			remaining.await();
+			return Arrays.asList(results);
+		}
+
+		/**
+		 * Submits waiting jobs of a host until <code>limit</code> jobs are
+		 * running for this host.
+		 */
+		private synchronized void dispatch(String host, int limit) {
+			Queue<Integer> waiting = waitingByHost.get(host);
+			while (runningByHost.get(host) < limit && !waiting.isEmpty()) {
+				final int jobIndex = waiting.poll();
+				runningByHost.put(host, runningByHost.get(host) + 1);
+				executor.execute(new Runnable() {
+					public void run() {
+						runJob(jobIndex);
+					}
+				});
+			}
+		}
+
+		private synchronized void finished(String host) {
+			runningByHost.put(host, runningByHost.get(host) - 1);
+			dispatch(host, maxParallelDumpsPerHost);
+		}
+
+		/**
+		 * Puts a job back into the queue of its host after a delay.
+		 */
+		private void retry(final int jobIndex, long delayMillis) {
+			retryScheduler.schedule(new Runnable() {
+				public void run() {
+					synchronized (BatchRun.this) {
+						String host = jobs.get(jobIndex).getHost();
+						waitingByHost.get(host).add(jobIndex);
+						dispatch(host, maxParallelDumpsPerHost);
+					}
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		}
+
+		private void runJob(int jobIndex) {
+			DumpJob job = jobs.get(jobIndex);
+			int attempt = attempts[jobIndex];
+			List<String> files;
+			synchronized (this) {
+				// Download again, if post processing them fails
+				files = verifiedFiles.remove(jobIndex);
+			}
+			DumpResult result = dump(job, targetDirectory, attempt,
+					createMetrics(job), files);
+			long retryDelay = getRetryDelay(result, attempt);
+			if (retryDelay >= 0) {
+				logger.warn("Error dumping " + job + ": "
+						+ result.getError().getMessage() + ". Retrying in "
+						+ (retryDelay + 999) / 1000 + " s");
+				attempts[jobIndex] = attempt + 1;
+				finished(job.getHost());
+				retry(jobIndex, retryDelay);
+				return;
+			}
+			if (!result.isSuccess() && jobs.size() > 1) {
+				// A single job's error is reported by the caller
+				logger.error("Error dumping " + job + ": "
+						+ result.getError().getMessage());
+			}
+			if (journal != null && result.isSuccess()) {
+				journal.done(job, result.getDownloadedFiles());
+			} else if (journal != null) {
+				journal.failed(job, result.getError());
+			}
+			results[jobIndex] = result;
+			finished(job.getHost());
+			remaining.countDown();
+		}
+	}
+}
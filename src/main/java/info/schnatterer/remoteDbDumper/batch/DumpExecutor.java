@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs dumps, at most {@link #getMaxParallelDumps()} at the same time.
+ * <p>
+ * By default, each dump occupies a thread of a fixed pool for its whole
+ * duration, including the minutes the server takes to generate the backup.
+ * With virtual threads (Java 21 or later) each dump gets a thread of its own
+ * that only occupies a carrier thread while it is not blocked in I/O, so
+ * thousands of dumps can be in flight at the same time. Dumps that exceed the
+ * limit wait for a permit without occupying a carrier thread.
+ * <p>
+ * Virtual threads are created via reflection, so this runs on older JREs as
+ * well, falling back to the thread pool.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpExecutor implements Executor {
+	private static Logger logger = Logger.getLogger(DumpExecutor.class);
+
+	private final int maxParallelDumps;
+	private final ExecutorService executor;
+	/** Limits the dumps running on virtual threads, <code>null</code> for a pool */
+	private final Semaphore permits;
+
+	/**
+	 * @param name
+	 *            the prefix of the thread names
+	 * @param maxParallelDumps
+	 *            the maximum number of dumps running at the same time
+	 * @param virtualThreads
+	 *            <code>true</code> to run each dump on a virtual thread, if
+	 *            the JRE {@link #isVirtualThreadsSupported() supports} them
+	 */
+	public DumpExecutor(String name, int maxParallelDumps,
+			boolean virtualThreads) {
+		if (maxParallelDumps < 1) {
+			throw new IllegalArgumentException(
+					"Number of parallel dumps must be at least 1");
+		}
+		this.maxParallelDumps = maxParallelDumps;
+		ExecutorService virtualExecutor = virtualThreads ? createVirtualExecutor(name)
+				: null;
+		if (virtualExecutor != null) {
+			executor = virtualExecutor;
+			permits = new Semaphore(maxParallelDumps, true);
+		} else {
+			if (virtualThreads) {
+				logger.warn("Virtual threads are not supported by Java "
+						+ System.getProperty("java.version")
+						+ ", using a pool of " + maxParallelDumps
+						+ " threads instead");
+			}
+			executor = Executors.newFixedThreadPool(maxParallelDumps,
+					new NamedThreadFactory(name, false));
+			permits = null;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the JRE supports virtual threads
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return createVirtualThreadFactory("probe") != null;
+	}
+
+	/**
+	 * Runs <code>command</code> as soon as less than
+	 * {@link #getMaxParallelDumps()} dumps are running.
+	 */
+	public void execute(final Runnable command) {
+		if (permits == null) {
+			executor.execute(command);
+			return;
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					// Shut down while waiting
+					return;
+				}
+				try {
+					command.run();
+				} finally {
+					permits.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Interrupts the running dumps and discards the waiting ones.
+	 */
+	public void shutdownNow() {
+		executor.shutdownNow();
+	}
+
+	/** @return the maximum number of dumps running at the same time */
+	public int getMaxParallelDumps() {
+		return maxParallelDumps;
+	}
+
+	/** @return <code>true</code> if the dumps run on virtual threads */
+	public boolean isVirtual() {
+		return permits != null;
+	}
+
+	/**
+	 * @return an executor that starts a new virtual thread per task or
+	 *         <code>null</code> if not supported
+	 */
+	private static ExecutorService createVirtualExecutor(String name) {
+		ThreadFactory factory = createVirtualThreadFactory(name);
+		if (factory == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newThreadPerTaskExecutor", ThreadFactory.class).invoke(
+					null, factory);
+		} catch (ReflectiveOperationException e) {
+			logger.debug("Unable to create executor for virtual threads", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return <code>Thread.ofVirtual().name(name + "-", 1).factory()</code>
+	 *         or <code>null</code> if not supported
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, name + "-", 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(
+					builder);
+		} catch (InvocationTargetException e) {
+			// e.g. preview feature not enabled on Java 19 and 20
+			logger.debug("Virtual threads not available", e.getCause());
+			return null;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+import info.schnatterer.remoteDbDumper.progress.TransferProgress;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A dump that runs asynchronously, see
+ * {@link BatchDumper#submit(DumpJob, java.io.File, int, java.util.concurrent.Executor)}
+ * . The {@link DumpResult} is available via {@link #get()} or passed to the
+ * {@link Listener}s once the dump is finished. While the dump is running,
+ * its progress can be followed via {@link #getMetrics()}.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpHandle extends FutureTask<DumpResult> {
+	private static Logger logger = Logger.getLogger(DumpHandle.class);
+
+	private final DumpJob job;
+	private final DumpMetrics metrics;
+	private final List<Listener> listeners = new LinkedList<Listener>();
+	private boolean finished = false;
+
+	DumpHandle(DumpJob job, DumpMetrics metrics, Callable<DumpResult> dump) {
+		super(dump);
+		this.job = job;
+		this.metrics = metrics;
+	}
+
+	/** @return the job that is dumped */
+	public DumpJob getJob() {
+		return job;
+	}
+
+	/**
+	 * @return the metrics of the dump, which are updated while it is running
+	 */
+	public DumpMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the phase the dump is in (or failed in) or <code>null</code> if
+	 *         it has not started yet
+	 */
+	public DumpPhase getPhase() {
+		return metrics.getLastPhase();
+	}
+
+	/**
+	 * @return the progress of the running transfer or <code>null</code> if
+	 *         the dump isn't transferring at the moment
+	 */
+	public TransferProgress getProgress() {
+		return metrics.getProgress();
+	}
+
+	/**
+	 * Calls <code>listener</code> when the dump is finished, right away if it
+	 * is finished already.
+	 */
+	public void addListener(Listener listener) {
+		synchronized (listeners) {
+			if (!finished) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		notify(listener);
+	}
+
+	@Override
+	protected void done() {
+		List<Listener> toNotify;
+		synchronized (listeners) {
+			finished = true;
+			toNotify = new LinkedList<Listener>(listeners);
+			listeners.clear();
+		}
+		for (Listener listener : toNotify) {
+			notify(listener);
+		}
+	}
+
+	private void notify(Listener listener) {
+		try {
+			listener.finished(this);
+		} catch (RuntimeException e) {
+			logger.error("Listener failed for " + job, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return job.toString();
+	}
+
+	/**
+	 * Is called when a dump is finished (successfully or not) or cancelled.
+	 */
+	public interface Listener {
+		/**
+		 * @param handle
+		 *            the dump, {@link DumpHandle#isDone() done}
+		 */
+		void finished(DumpHandle handle);
+	}
+}
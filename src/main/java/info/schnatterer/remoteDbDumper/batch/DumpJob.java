@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.retention.RetentionPolicy;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * One site to be dumped, i.e. the URL and the credentials to use on 403
+ * responses.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpJob {
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int weight;
+	private final RetentionPolicy retention;
+
+	public DumpJob(String url, String user, String password) {
+		this(url, user, password, BandwidthLimiter.DEFAULT_WEIGHT);
+	}
+
+	/**
+	 * @param weight
+	 *            the share of the bandwidth of this job relative to the
+	 *            others, see {@link BandwidthLimiter}
+	 */
+	public DumpJob(String url, String user, String password, int weight) {
+		this(url, user, password, weight, null);
+	}
+
+	/**
+	 * @param weight
+	 *            the share of the bandwidth of this job relative to the
+	 *            others, see {@link BandwidthLimiter}
+	 * @param retention
+	 *            which dumps of the site to keep, <code>null</code> for the
+	 *            default policy
+	 */
+	public DumpJob(String url, String user, String password, int weight,
+			RetentionPolicy retention) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.weight = weight;
+		this.retention = retention;
+	}
+
+	/** @return the URL to try downloading the database dump from */
+	public String getUrl() {
+		return url;
+	}
+
+	/** @return the user name to enter on 403 responses */
+	public String getUser() {
+		return user;
+	}
+
+	/** @return the password to enter on 403 responses */
+	public String getPassword() {
+		return password;
+	}
+
+	/**
+	 * @return the share of the bandwidth of this job relative to the others
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return which dumps of the site to keep or <code>null</code> for the
+	 *         default policy
+	 */
+	public RetentionPolicy getRetention() {
+		return retention;
+	}
+
+	/**
+	 * @return the host part of the URL, used for limiting the number of
+	 *         concurrent connections per host. If the URL is malformed, the
+	 *         URL itself is returned.
+	 */
+	public String getHost() {
+		try {
+			return new URL(url).getHost().toLowerCase(Locale.ENGLISH);
+		} catch (MalformedURLException e) {
+			return url;
+		}
+	}
+
+	/**
+	 * Don't reveal the password, as this ends up in the log.
+	 */
+	@Override
+	public String toString() {
+		if (user == null || user.isEmpty()) {
+			return url;
+		}
+		return user + "@" + url;
+	}
+}
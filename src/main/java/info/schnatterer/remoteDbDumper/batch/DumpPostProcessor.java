@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Processes the files of a {@link DumpJob} after they have been downloaded
+ * successfully, e.g. replaces them by smaller files. Called by the
+ * {@link BatchDumper} from the worker thread of the job, so implementations
+ * must be thread safe.
+ *
+ * @author schnatterer
+ *
+ */
+public interface DumpPostProcessor {
+
+	/**
+	 * @param job
+	 *            the job whose dump has been downloaded
+	 * @param files
+	 *            the names of the files, relative to <code>directory</code>
+	 * @param directory
+	 *            the directory the files have been downloaded to
+	 * @return the names of the files after processing, relative to
+	 *         <code>directory</code>
+	 * @throws IOException
+	 *             fails the job
+	 */
+	List<String> process(DumpJob job, List<String> files, File directory)
+			throws IOException;
+}
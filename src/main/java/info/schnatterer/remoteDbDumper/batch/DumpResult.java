@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of one {@link DumpJob}: Either a list of downloaded files or
+ * the error that made the job fail.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpResult {
+	private final DumpJob job;
+	private final List<String> downloadedFiles;
+	private final Throwable error;
+	private final long durationMillis;
+	private final DumpMetrics metrics;
+	private final boolean resumed;
+	private final boolean postProcessingFailed;
+
+	private DumpResult(DumpJob job, List<String> downloadedFiles,
+			Throwable error, long durationMillis, DumpMetrics metrics,
+			boolean resumed, boolean postProcessingFailed) {
+		this.job = job;
+		this.downloadedFiles = downloadedFiles;
+		this.error = error;
+		this.durationMillis = durationMillis;
+		this.metrics = metrics;
+		this.resumed = resumed;
+		this.postProcessingFailed = postProcessingFailed;
+	}
+
+	public static DumpResult success(DumpJob job,
+			List<String> downloadedFiles, long durationMillis,
+			DumpMetrics metrics) {
+		return new DumpResult(job, downloadedFiles, null, durationMillis,
+				metrics, false, false);
+	}
+
+	public static DumpResult failure(DumpJob job, Throwable error,
+			long durationMillis, DumpMetrics metrics) {
+		return new DumpResult(job, Collections.<String> emptyList(), error,
+				durationMillis, metrics, false, false);
+	}
+
+	/**
+	 * @return the result of a job whose files have been downloaded, but a
+	 *         {@link DumpPostProcessor} failed. Downloading again wouldn't
+	 *         help, so the job is not retried.
+	 */
+	public static DumpResult postProcessingFailed(DumpJob job,
+			Throwable error, long durationMillis, DumpMetrics metrics) {
+		return new DumpResult(job, Collections.<String> emptyList(), error,
+				durationMillis, metrics, false, true);
+	}
+
+	/**
+	 * @return the result of a job that has been finished by an earlier run,
+	 *         which was interrupted, see {@link JobJournal}
+	 */
+	public static DumpResult resumed(DumpJob job, List<String> downloadedFiles) {
+		return new DumpResult(job, downloadedFiles, null, 0,
+				new DumpMetrics(), true, false);
+	}
+
+	/** @return the job this is the result of */
+	public DumpJob getJob() {
+		return job;
+	}
+
+	/** @return the names of the files that were downloaded */
+	public List<String> getDownloadedFiles() {
+		return downloadedFiles;
+	}
+
+	/** @return the error or <code>null</code> if the job succeeded */
+	public Throwable getError() {
+		return error;
+	}
+
+	/** @return how long the download took */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/** @return the durations of the phases and the bytes transferred */
+	public DumpMetrics getMetrics() {
+		return metrics;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	/**
+	 * @return <code>true</code> if the job has been finished by an earlier
+	 *         run, which was interrupted
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * @return <code>true</code> if the files have been downloaded, but post
+	 *         processing them failed
+	 */
+	public boolean isPostProcessingFailed() {
+		return postProcessingFailed;
+	}
+}
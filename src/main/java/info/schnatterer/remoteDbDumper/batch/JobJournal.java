@@ -0,0 +1,403 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+import info.schnatterer.remoteDbDumper.progress.TransferProgress;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Records the state of each job of a batch run in an append-only file, so a
+ * run that is interrupted (e.g. the JVM is killed or the host reboots) can be
+ * resumed by the next run, which only dumps the sites that are not finished
+ * yet. E.g.
+ *
+ * <pre>
+ * # remoteDbDumper journal 1
+ * 1372381200000	begin
+ * 1372381200002	queued	admin@http://example.com/admin/config/system/backup_migrate
+ * 1372381200350	connect	admin@http://example.com/admin/config/system/backup_migrate
+ * 1372381200930	login	admin@http://example.com/admin/config/system/backup_migrate
+ * 1372381201120	backup	admin@http://example.com/admin/config/system/backup_migrate
+ * 1372381204240	transfer	admin@http://example.com/admin/config/system/backup_migrate	0
+ * 1372381234240	transfer	admin@http://example.com/admin/config/system/backup_migrate	31457280
+ * 1372381235450	verified	admin@http://example.com/admin/config/system/backup_migrate	example.mysql
+ * 1372381235460	done	admin@http://example.com/admin/config/system/backup_migrate	example.mysql
+ * 1372381235461	complete
+ * </pre>
+ *
+ * Jobs are identified by their {@link DumpJob#toString() user and URL}. A
+ * job that is {@link #DONE} is not dumped again when the run is resumed. The
+ * files of a job that is {@link #VERIFIED} are only post processed again, if
+ * they still exist. All other jobs are dumped again, continuing the transfer
+ * of a partial file, if possible.
+ * <p>
+ * Each run starts a new journal, unless the last run has not completed and
+ * started less than <code>maxAgeMillis</code> ago, so an interrupted run
+ * doesn't keep the next scheduled run from dumping all sites.
+ * <p>
+ * Failing to write the journal does not fail the dumps, it is only logged.
+ *
+ * @author schnatterer
+ *
+ */
+public class JobJournal {
+	/** Name of the journal file in the output directory */
+	public static final String FILE_NAME = "RemoteDbDumper-journal.txt";
+	/** Header of the journal file */
+	public static final String HEADER = "# remoteDbDumper journal 1";
+
+	/** State of a job that waits to be dumped */
+	public static final String QUEUED = "queued";
+	/** State of a job whose dump has been stored and checked */
+	public static final String VERIFIED = "verified";
+	/** State of a job that is finished successfully */
+	public static final String DONE = "done";
+	/** State of a job that failed and won't be retried */
+	public static final String FAILED = "failed";
+
+	private static final String BEGIN = "begin";
+	private static final String COMPLETE = "complete";
+	private static final String TRANSFER = DumpPhase.TRANSFER.getKey();
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static Logger logger = Logger.getLogger(JobJournal.class);
+
+	private final File file;
+	private final long maxAgeMillis;
+	private final Map<String, Entry> resumedEntries = new HashMap<String, Entry>();
+	private long resumedBegin = -1;
+	private FileOutputStream out = null;
+
+	/**
+	 * @param file
+	 *            the journal file
+	 * @param maxAgeMillis
+	 *            an interrupted run that started longer ago than this is not
+	 *            resumed
+	 */
+	public JobJournal(File file, long maxAgeMillis) {
+		this.file = file;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Reads the journal of the last run and starts writing. Resumes the last
+	 * run, if it has been interrupted recently, otherwise begins a new one.
+	 */
+	public synchronized void open() throws IOException {
+		if (file.isFile()) {
+			read();
+		}
+		if (resumedBegin >= 0
+				&& System.currentTimeMillis() - resumedBegin <= maxAgeMillis) {
+			logger.info("Resuming the run interrupted at "
+					+ RunReport.formatDate(file.lastModified()) + " from "
+					+ file.getAbsolutePath());
+			terminateLastLine();
+			out = new FileOutputStream(file, true);
+			return;
+		}
+		if (resumedBegin >= 0) {
+			logger.info("Not resuming the run started at "
+					+ RunReport.formatDate(resumedBegin)
+					+ ", which is older than the maximum age");
+		}
+		resumedBegin = -1;
+		resumedEntries.clear();
+		out = new FileOutputStream(file);
+		write(HEADER + "\n", false);
+		append(true, BEGIN);
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #open()} resumed an interrupted
+	 *         run
+	 */
+	public synchronized boolean isResumed() {
+		return resumedBegin >= 0;
+	}
+
+	/**
+	 * @return the last state of the job in the interrupted run or
+	 *         <code>null</code> if the run is not resumed or the job was not
+	 *         part of it
+	 */
+	public synchronized Entry getEntry(DumpJob job) {
+		return resumedEntries.get(job.toString());
+	}
+
+	/**
+	 * @return metrics for a dump of <code>job</code> that also record each
+	 *         phase and the progress of the transfer in the journal
+	 */
+	public DumpMetrics createMetrics(final DumpJob job) {
+		return new DumpMetrics() {
+			@Override
+			public void begin(DumpPhase phase) {
+				super.begin(phase);
+				append(false, phase.getKey(), job.toString());
+			}
+
+			@Override
+			public void progress(TransferProgress progress) {
+				super.progress(progress);
+				append(false, TRANSFER, job.toString(),
+						Long.toString(progress.getBytes()));
+			}
+		};
+	}
+
+	/** Records that the job waits to be dumped. */
+	public void queued(DumpJob job) {
+		append(false, QUEUED, job.toString());
+	}
+
+	/** Records that the files of the job have been stored and checked. */
+	public void verified(DumpJob job, List<String> files) {
+		append(true, VERIFIED, job.toString(), files);
+	}
+
+	/** Records that the job is finished successfully. */
+	public void done(DumpJob job, List<String> files) {
+		append(true, DONE, job.toString(), files);
+	}
+
+	/** Records that the job failed and won't be retried. */
+	public void failed(DumpJob job, Throwable error) {
+		append(true, FAILED, job.toString(), String.valueOf(error.getMessage()));
+	}
+
+	/**
+	 * Records that all jobs of the run are finished and closes the journal,
+	 * so the next run begins a new one.
+	 */
+	public synchronized void complete() {
+		append(true, COMPLETE);
+		close();
+	}
+
+	/**
+	 * Closes the journal without completing the run.
+	 */
+	public synchronized void close() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.warn("Unable to close journal " + file.getAbsolutePath()
+					+ ": " + e.getMessage());
+		}
+		out = null;
+	}
+
+	private void append(boolean sync, String state, String job,
+			List<String> files) {
+		List<String> fields = new ArrayList<String>();
+		fields.add(state);
+		fields.add(job);
+		fields.addAll(files);
+		append(sync, fields.toArray(new String[fields.size()]));
+	}
+
+	/**
+	 * Appends one line, prefixed with the current time.
+	 *
+	 * @param sync
+	 *            <code>true</code> to wait until the line has been written to
+	 *            disk. Used for the lines that decide which jobs are
+	 *            dumped again.
+	 */
+	private synchronized void append(boolean sync, String... fields) {
+		if (out == null) {
+			return;
+		}
+		StringBuilder line = new StringBuilder().append(System
+				.currentTimeMillis());
+		for (String field : fields) {
+			// Tabs and line breaks separate the fields and lines
+			line.append('\t').append(field.replaceAll("[\t\r\n]", " "));
+		}
+		try {
+			write(line.append('\n').toString(), sync);
+		} catch (IOException e) {
+			logger.warn("Unable to write journal " + file.getAbsolutePath()
+					+ ", interrupted dumps can't be resumed: " + e.getMessage());
+			close();
+		}
+	}
+
+	private void write(String line, boolean sync) throws IOException {
+		// A single write per line, so a crash leaves at most one partial line
+		out.write(line.getBytes(CHARSET));
+		if (sync) {
+			out.getFD().sync();
+		}
+	}
+
+	/**
+	 * Reads the last state of each job, if the last run has not completed.
+	 */
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), CHARSET));
+		try {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				logger.warn("Ignoring journal " + file.getAbsolutePath()
+						+ " of unknown format");
+				return;
+			}
+			while ((line = reader.readLine()) != null) {
+				readLine(line);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void readLine(String line) {
+		String[] fields = line.split("\t", -1);
+		if (fields.length < 2 || !fields[0].matches("\\d{1,18}")) {
+			// The partial last line of a crashed run
+			return;
+		}
+		long millis = Long.parseLong(fields[0]);
+		String state = fields[1];
+		if (BEGIN.equals(state)) {
+			resumedBegin = millis;
+			resumedEntries.clear();
+		} else if (COMPLETE.equals(state)) {
+			resumedBegin = -1;
+			resumedEntries.clear();
+		} else if (fields.length >= 3) {
+			Entry previous = resumedEntries.get(fields[2]);
+			Entry entry = new Entry(state, millis);
+			if (TRANSFER.equals(state) && fields.length >= 4
+					&& fields[3].matches("\\d{1,18}")) {
+				entry.offset = Long.parseLong(fields[3]);
+			} else if (TRANSFER.equals(state) && previous != null) {
+				entry.offset = previous.offset;
+			} else if (VERIFIED.equals(state) || DONE.equals(state)) {
+				entry.files = Arrays.asList(fields).subList(3, fields.length);
+			}
+			resumedEntries.put(fields[2], entry);
+		}
+	}
+
+	/**
+	 * Makes sure the next line doesn't continue the partial line a crash may
+	 * have left.
+	 */
+	private void terminateLastLine() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() > 0) {
+				raf.seek(raf.length() - 1);
+				if (raf.read() != '\n') {
+					raf.write('\n');
+				}
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * The last state of a job in the journal.
+	 */
+	public static class Entry {
+		private final String state;
+		private final long millis;
+		private long offset = -1;
+		private List<String> files = Collections.emptyList();
+
+		Entry(String state, long millis) {
+			this.state = state;
+			this.millis = millis;
+		}
+
+		/**
+		 * @return e.g. {@link JobJournal#DONE} or the
+		 *         {@link DumpPhase#getKey() key} of the phase the job was in
+		 */
+		public String getState() {
+			return state;
+		}
+
+		/** @return when the job entered the state */
+		public long getMillis() {
+			return millis;
+		}
+
+		/**
+		 * @return the number of bytes transferred, if the job was in the
+		 *         transfer phase and its progress has been recorded.
+		 *         Otherwise -1.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return the files of a job that is {@link JobJournal#VERIFIED} or
+		 *         {@link JobJournal#DONE}
+		 */
+		public List<String> getFiles() {
+			return files;
+		}
+
+		/**
+		 * @return <code>true</code> if all files exist in
+		 *         <code>directory</code>
+		 */
+		public boolean filesExist(File directory) {
+			if (files.isEmpty()) {
+				return false;
+			}
+			for (String name : files) {
+				if (!new File(directory, name).exists()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
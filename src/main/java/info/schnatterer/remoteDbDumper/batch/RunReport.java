@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.dump.download.FileMover;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Writes the outcome of a run as machine-readable JSON, e.g.
+ *
+ * <pre>
+ * {
+ *   "started": "2013-06-28T01:00:00Z",
+ *   "durationMillis": 5234,
+ *   "succeeded": 1,
+ *   "failed": 0,
+ *   "dumps": [ {
+ *     "site": "admin@http://example.com/admin/config/system/backup_migrate",
+ *     "success": true,
+ *     "resumed": false,
+ *     "error": null,
+ *     "failedPhase": null,
+ *     "files": [ "example.mysql" ],
+ *     "durationMillis": 5230,
+ *     "phases": { "connect": 312, "login": 580, "backup": 3120, "transfer": 1210 },
+ *     "bytes": 52428800,
+ *     "storedBytes": 52428800,
+ *     "bytesPerSecond": 43329586,
+ *     "stalls": 0
+ *   } ]
+ * }
+ * </pre>
+ *
+ * @author schnatterer
+ *
+ */
+public class RunReport {
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String INDENT = "  ";
+
+	private final long startMillis;
+	private final List<DumpResult> results;
+
+	/**
+	 * @param startMillis
+	 *            the time the run started
+	 * @param results
+	 *            the results of all jobs of the run
+	 */
+	public RunReport(long startMillis, List<DumpResult> results) {
+		this.startMillis = startMillis;
+		this.results = results;
+	}
+
+	/**
+	 * Writes the report to <code>file</code>, replacing it atomically.
+	 */
+	public void write(File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile),
+				CHARSET);
+		try {
+			writer.write(toJson());
+		} finally {
+			writer.close();
+		}
+		FileMover.move(tempFile, file);
+	}
+
+	/** @return the report as JSON */
+	public String toJson() {
+		int succeeded = 0;
+		for (DumpResult result : results) {
+			if (result.isSuccess()) {
+				succeeded++;
+			}
+		}
+		StringBuilder json = new StringBuilder("{\n");
+		field(json, 1, "started", quote(formatDate(startMillis)), true);
+		field(json, 1, "durationMillis",
+				Long.toString(System.currentTimeMillis() - startMillis), true);
+		field(json, 1, "succeeded", Integer.toString(succeeded), true);
+		field(json, 1, "failed", Integer.toString(results.size() - succeeded),
+				true);
+		json.append(INDENT).append("\"dumps\": [");
+		for (int i = 0; i < results.size(); i++) {
+			json.append(i == 0 ? " " : ", ");
+			appendResult(json, results.get(i));
+		}
+		json.append(results.isEmpty() ? "]\n" : " ]\n");
+		return json.append("}\n").toString();
+	}
+
+	private void appendResult(StringBuilder json, DumpResult result) {
+		DumpMetrics metrics = result.getMetrics();
+		json.append("{\n");
+		field(json, 2, "site", quote(result.getJob().toString()), true);
+		field(json, 2, "success", Boolean.toString(result.isSuccess()), true);
+		field(json, 2, "resumed", Boolean.toString(result.isResumed()), true);
+		field(json, 2, "error", result.isSuccess() ? "null" : quote(String
+				.valueOf(result.getError().getMessage())), true);
+		field(json, 2, "failedPhase", result.isSuccess()
+				|| metrics.getLastPhase() == null ? "null" : quote(metrics
+				.getLastPhase().getKey()), true);
+
+		StringBuilder files = new StringBuilder("[");
+		for (String file : result.getDownloadedFiles()) {
+			files.append(files.length() == 1 ? " " : ", ").append(quote(file));
+		}
+		files.append(result.getDownloadedFiles().isEmpty() ? "]" : " ]");
+		field(json, 2, "files", files.toString(), true);
+		field(json, 2, "durationMillis",
+				Long.toString(result.getDurationMillis()), true);
+
+		StringBuilder phases = new StringBuilder("{");
+		for (DumpPhase phase : DumpPhase.values()) {
+			if (metrics.hasPhase(phase)) {
+				phases.append(phases.length() == 1 ? " " : ", ")
+						.append(quote(phase.getKey())).append(": ")
+						.append(metrics.getMillis(phase));
+			}
+		}
+		phases.append(phases.length() == 1 ? "}" : " }");
+		field(json, 2, "phases", phases.toString(), true);
+		field(json, 2, "bytes", Long.toString(metrics.getBytes()), true);
+		field(json, 2, "storedBytes", Long.toString(metrics.getStoredBytes()),
+				true);
+		field(json, 2, "bytesPerSecond",
+				Long.toString(metrics.getBytesPerSecond()), true);
+		field(json, 2, "stalls", Integer.toString(metrics.getStalls()), false);
+		json.append(INDENT).append("}");
+	}
+
+	private static void field(StringBuilder json, int level, String name,
+			String value, boolean more) {
+		for (int i = 0; i < level; i++) {
+			json.append(INDENT);
+		}
+		json.append(quote(name)).append(": ").append(value)
+				.append(more ? ",\n" : "\n");
+	}
+
+	/**
+	 * @return the time as ISO 8601 string in UTC
+	 */
+	public static String formatDate(long millis) {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(millis));
+	}
+
+	/**
+	 * @return <code>value</code> as JSON string, including the quotes
+	 */
+	public static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				quoted.append("\\\"");
+				break;
+			case '\\':
+				quoted.append("\\\\");
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				quoted.append("\\r");
+				break;
+			case '\t':
+				quoted.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					quoted.append(String.format("\\u%04x", (int) c));
+				} else {
+					quoted.append(c);
+				}
+			}
+		}
+		return quoted.append("\"").toString();
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.batch;
+
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.retention.RetentionPolicy;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads the list of sites to dump. One site per line:
+ *
+ * <pre>
+ * [weight=&lt;weight&gt;] [keep=&lt;retention policy&gt;] &lt;url&gt; [&lt;user&gt; [&lt;password&gt;]]
+ * </pre>
+ *
+ * The fields are separated by whitespace. Everything after the user name is
+ * treated as password, so it may contain whitespace itself. Empty lines and
+ * lines starting with <code>#</code> are ignored. The optional weight is the
+ * share of the bandwidth of the site, see {@link DumpJob#getWeight()}. The
+ * optional retention policy (e.g. <code>keep=24h,7d,4w,12m</code>) overrides
+ * the default one for the site, see {@link RetentionPolicy}.
+ *
+ * @author schnatterer
+ *
+ */
+public class SiteListReader {
+	/** Special file name that makes the reader use stdin */
+	public static final String STDIN = "-";
+
+	private static final String COMMENT = "#";
+	private static final String WEIGHT = "weight=";
+	private static final String KEEP = "keep=";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Reads the site list from a file.
+	 *
+	 * @param fileName
+	 *            the path to the file or {@value #STDIN} to read from stdin.
+	 * @return the jobs, in the order they appear in the file.
+	 * @throws IOException
+	 *             when reading fails or when a line can't be parsed.
+	 */
+	public List<DumpJob> read(String fileName) throws IOException {
+		if (STDIN.equals(fileName)) {
+			// Don't close stdin
+			return read(new InputStreamReader(System.in, CHARSET));
+		}
+		InputStream is = new FileInputStream(fileName);
+		try {
+			return read(new InputStreamReader(is, CHARSET));
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads the site list from a reader. Does not close the reader.
+	 */
+	public List<DumpJob> read(Reader reader) throws IOException {
+		List<DumpJob> jobs = new LinkedList<DumpJob>();
+		BufferedReader bufferedReader = new BufferedReader(reader);
+		String line;
+		int lineNumber = 0;
+		while ((line = bufferedReader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith(COMMENT)) {
+				continue;
+			}
+			jobs.add(parseLine(line, lineNumber));
+		}
+		return jobs;
+	}
+
+	/**
+	 * Parses a single, trimmed, non-comment line.
+	 *
+	 * @param lineNumber
+	 *            for error messages
+	 */
+	public DumpJob parseLine(String line, int lineNumber) throws IOException {
+		int weight = BandwidthLimiter.DEFAULT_WEIGHT;
+		if (line.startsWith(WEIGHT)) {
+			String[] weightAndSite = line.split("\\s+", 2);
+			try {
+				weight = Integer.parseInt(weightAndSite[0].substring(WEIGHT
+						.length()));
+			} catch (NumberFormatException e) {
+				weight = 0;
+			}
+			if (weight < 1 || weightAndSite.length < 2) {
+				throw new IOException("Line " + lineNumber
+						+ ": Expected weight=<number greater than 0> followed by URL");
+			}
+			line = weightAndSite[1];
+		}
+		RetentionPolicy retention = null;
+		if (line.startsWith(KEEP)) {
+			String[] keepAndSite = line.split("\\s+", 2);
+			try {
+				retention = RetentionPolicy.parse(keepAndSite[0]
+						.substring(KEEP.length()));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Line " + lineNumber + ": "
+						+ e.getMessage());
+			}
+			if (keepAndSite.length < 2) {
+				throw new IOException("Line " + lineNumber
+						+ ": Expected keep=<retention policy> followed by URL");
+			}
+			line = keepAndSite[1];
+		}
+		String[] fields = line.split("\\s+", 3);
+		String url = fields[0];
+		if (!url.contains("://")) {
+			throw new IOException("Line " + lineNumber
+					+ ": Expected URL as first field, but was \"" + url + "\"");
+		}
+		String user = fields.length > 1 ? fields[1] : "";
+		String password = fields.length > 2 ? fields[2] : "";
+		return new DumpJob(url, user, password, weight, retention);
+	}
+}
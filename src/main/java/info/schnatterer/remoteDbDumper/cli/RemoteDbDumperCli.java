@@ -18,7 +18,31 @@
 
 package info.schnatterer.remoteDbDumper.cli;
 
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthSchedule;
+import info.schnatterer.remoteDbDumper.delta.DeltaPostProcessor;
+import info.schnatterer.remoteDbDumper.dump.EngineRegistry;
+import info.schnatterer.remoteDbDumper.dump.adminer.AdminerEngine;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.download.GzipTransform;
+import info.schnatterer.remoteDbDumper.dump.drupal.DrupalEngine;
+import info.schnatterer.remoteDbDumper.dump.drupal.DrupalHttpEngine;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityCheck;
+import info.schnatterer.remoteDbDumper.dump.phpmyadmin.PhpMyAdminEngine;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.dump.util.HttpTransport;
+import info.schnatterer.remoteDbDumper.dump.util.MinimalFetchWebConnection;
+import info.schnatterer.remoteDbDumper.retention.RetentionPolicy;
+import info.schnatterer.remoteDbDumper.retry.RetryPolicy;
+import info.schnatterer.remoteDbDumper.s3.S3Client;
+import info.schnatterer.remoteDbDumper.s3.S3DumpSink;
+import info.schnatterer.remoteDbDumper.s3.S3Location;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
@@ -31,6 +55,19 @@ import com.beust.jcommander.ParameterException;
 public class RemoteDbDumperCli {
 	private static final String EOL = System.getProperty("line.separator");
 
+	/** Value of the engine parameter: Detect the engine of each site */
+	public static final String ENGINE_AUTO = EngineRegistry.AUTO;
+	/** Value of the engine parameter: Drupal via HtmlUnit */
+	public static final String ENGINE_DRUPAL_HTMLUNIT = DrupalEngine.NAME;
+	/** Value of the engine parameter: Drupal via plain HTTP */
+	public static final String ENGINE_DRUPAL_HTTP = DrupalHttpEngine.NAME;
+	/** Value of the compress parameter: Store dumps as received */
+	public static final String COMPRESS_NONE = "none";
+	/** Value of the compress parameter: gzip */
+	public static final String COMPRESS_GZIP = GzipTransform.NAME;
+	/** Value of the checksum parameter: No checksum */
+	public static final String CHECKSUM_NONE = "none";
+
 	/** Description for parameter - main parameter (URL). */
 	private static final String DESC_MAIN = "[URI to try downloading the database dump from]";
 	private static final String DESC_PASSWORD = "password to enter on 403 responses";
@@ -38,6 +75,101 @@ public class RemoteDbDumperCli {
 	private static final String DESC_OUTPUT = "dump file to a specific directory, instead of the current working directory";
 	private static final String DESC_HELP = "show this message";
 	private static final String DESC_QUIET = "don't write log file to output directory";
+	private static final String DESC_BATCH = "read the sites to dump from a file (\"-\" for stdin) instead of the main parameter. "
+			+ "One site per line: <URI> [<user> [<password>]]";
+	private static final String DESC_PARALLEL = "maximum number of dumps running at the same time in batch mode";
+	private static final String DESC_BUFFER_SIZE = "size of the buffer used for transferring the dump to disk in KiB";
+	private static final String DESC_ENGINE = "how to talk to the web application: \""
+			+ RemoteDbDumperCli.ENGINE_AUTO
+			+ "\" detects the engine of each site from its landing page, \""
+			+ RemoteDbDumperCli.ENGINE_DRUPAL_HTMLUNIT
+			+ "\" uses a headless browser, \""
+			+ RemoteDbDumperCli.ENGINE_DRUPAL_HTTP
+			+ "\" only scrapes and submits the forms, which is much lighter but does not execute JavaScript, \""
+			+ PhpMyAdminEngine.NAME
+			+ "\" and \""
+			+ AdminerEngine.NAME
+			+ "\" export a (gzip compressed) SQL dump via phpMyAdmin or Adminer. Further engines can be added to the classpath";
+	private static final String DESC_VIRTUAL_THREADS = "run each dump on a virtual thread (Java 21 or later), so a large --parallel doesn't need as many platform threads. "
+			+ "Falls back to a thread pool on older Java versions";
+	private static final String DESC_SEGMENTS = "transfer each dump in up to this many byte ranges at the same time, each on a connection of its own, "
+			+ "if the server supports ranges. Speeds up servers that limit the bandwidth per connection. Not for --compress or --store";
+	private static final String DESC_RESUME_ATTEMPTS = "how often an interrupted download is resumed, if the server supports it";
+	private static final String DESC_COMPRESS = "compress the dumps while downloading: \""
+			+ RemoteDbDumperCli.COMPRESS_NONE
+			+ "\" stores them as received, \""
+			+ RemoteDbDumperCli.COMPRESS_GZIP
+			+ "\" compresses them using several threads. Dumps that are compressed already are stored as received";
+	private static final String DESC_COMPRESS_LEVEL = "compression level, from 1 (fastest) to 9 (smallest)";
+	private static final String DESC_COMPRESS_THREADS = "number of threads used for compressing, shared by all dumps";
+	private static final String DESC_SESSION_CACHE = "directory to cache the sessions in (encrypted with the password), so repeated dumps of a site don't need to log in";
+	private static final String DESC_SESSION_TTL = "how long a cached session is reused in minutes";
+	private static final String DESC_STORE = "store the dumps deduplicated in a chunk store in this directory. "
+			+ "Only a small manifest is written to the output directory per dump";
+	private static final String DESC_RESTORE = "restore the dump described by a manifest from the chunk store (--store) into the output directory, instead of dumping";
+	private static final String DESC_GC = "delete the chunks of the chunk store (--store) that no manifest in the output directory refers to anymore, instead of dumping. "
+			+ "All manifests of the store must be in the output directory";
+	private static final String DESC_DELTA = "replace each dump by a binary delta against the last full dump (baseline) of the same site";
+	private static final String DESC_DELTA_BASELINE_EVERY = "keep a full dump as new baseline every this many dumps of a site";
+	private static final String DESC_REBUILD = "rebuild the dump described by a delta into the output directory, instead of dumping. "
+			+ "The baseline must be in the same directory as the delta";
+	private static final String DESC_INDEX = "write an index of the byte ranges of the tables next to each SQL dump, so single tables can be extracted quickly (--extract)";
+	private static final String DESC_EXTRACT = "write the tables (--table) of this SQL dump into the output directory, instead of dumping. "
+			+ "Lists the tables if no --table is passed. Uses the index of the dump (--index), which is created if missing";
+	private static final String DESC_TABLE = "name of a table to extract (--extract), with or without schema. Can be passed several times";
+	private static final String DESC_DAEMON = "keep running and dump the sites of a schedule file. "
+			+ "One site per line: <minute> <hour> <day of month> <month> <day of week> <URI> [<user> [<password>]]";
+	private static final String DESC_JITTER = "in daemon mode, delay each dump by a random time up to this many seconds";
+	private static final String DESC_CONTROL_PORT = "in daemon mode, listen on this port on localhost for control requests (GET /status, POST /dump?url=<URI>). 0 to disable";
+	private static final String DESC_JOURNAL = "record the state of each dump in a journal in the output directory. "
+			+ "If a run is interrupted, the next run with --journal only dumps the sites that are not finished yet";
+	private static final String DESC_JOURNAL_MAX_AGE = "an interrupted run that started longer ago than this many hours is not resumed (--journal)";
+	private static final String DESC_RETRIES = "how often a dump that failed for a transient reason (timeout, 502, 503, ...) is retried. 0 to disable";
+	private static final String DESC_RETRY_DELAY = "delay before the first retry in seconds, doubles with each retry";
+	private static final String DESC_CIRCUIT_THRESHOLD = "number of consecutive transient failures on a host after which its dumps fail fast for a while";
+	private static final String DESC_CIRCUIT_OPEN = "how long the dumps of a failing host fail fast in seconds";
+	private static final String DESC_CHECKSUM = "checksum computed while downloading and written next to each dump: \""
+			+ IntegrityCheck.SHA256
+			+ "\", \""
+			+ IntegrityCheck.XXH64
+			+ "\" (faster, not cryptographic) or \""
+			+ RemoteDbDumperCli.CHECKSUM_NONE + "\"";
+	private static final String DESC_VALIDATE = "validate gzip and SQL dumps while downloading (complete gzip trailer, final COMMIT or footer) and fail on truncated or corrupt dumps";
+	private static final String DESC_PARALLEL_PER_HOST = "maximum number of dumps running at the same time on the same host in batch mode";
+	private static final String DESC_BANDWIDTH_LIMIT = "maximum bandwidth used by all dumps together in KiB/s, 0 for unlimited. "
+			+ "Shared fairly by the running dumps, in proportion to the weight of their sites. Can be changed at runtime via JMX";
+	private static final String DESC_BANDWIDTH_SCHEDULE = "bandwidth limits by time of day, overriding --bandwidth-limit within their windows, "
+			+ "e.g. \"08:00-18:00=512,18:00-22:00=2048\" (KiB/s, 0 for unlimited)";
+	private static final String DESC_PROGRESS_INTERVAL = "interval in seconds in which the progress (bytes, throughput, time remaining) of each transfer is logged, 0 for never";
+	private static final String DESC_STALL_TIMEOUT = "abort a transfer that receives less than --stall-rate for this many seconds, so it is resumed or retried. "
+			+ "Time spent waiting for --bandwidth-limit doesn't count. 0 to never abort";
+	private static final String DESC_STALL_RATE = "throughput in KiB/s below which a transfer is considered stalled, see --stall-timeout";
+	private static final String DESC_S3 = "upload the dumps to an S3 compatible object storage while downloading, instead of writing them to the output directory, e.g. s3://backups/drupal/. "
+			+ "The credentials are read from the environment variables "
+			+ S3Client.ENV_ACCESS_KEY
+			+ " and "
+			+ S3Client.ENV_SECRET_KEY
+			+ " (and "
+			+ S3Client.ENV_SESSION_TOKEN + ")";
+	private static final String DESC_S3_ENDPOINT = "URL of the S3 compatible object storage, e.g. http://localhost:9000. Amazon S3 in the region (--s3-region) if not set";
+	private static final String DESC_S3_REGION = "region of the bucket";
+	private static final String DESC_S3_PART_SIZE = "size of the parts uploaded in MiB, at least 5. Each dump needs up to (--s3-upload-threads + 1) parts of memory";
+	private static final String DESC_S3_UPLOAD_THREADS = "number of parts uploaded at the same time, shared by all dumps";
+	private static final String DESC_HTTP_MAX_CONNECTIONS = "maximum number of HTTP connections open at the same time, shared by all dumps. 0 for twice --parallel (or --segments times --parallel, if higher)";
+	private static final String DESC_HTTP_TIMEOUT = "timeout for connecting and for each read in seconds, 0 for none";
+	private static final String DESC_HTTP_KEEP_ALIVE = "how long an idle HTTP connection is kept open for the next dump of the same host in seconds, 0 to close connections after each request";
+	private static final String DESC_MINIMAL_FETCH = "when using a browser (engine \""
+			+ DrupalEngine.NAME
+			+ "\"), only load the pages and forms, no style sheets, scripts, images or fonts";
+	private static final String DESC_MINIMAL_FETCH_PATTERN = "regular expression matching the URLs that are not requested with --minimal-fetch";
+	private static final String DESC_LINK_UNCHANGED = "store a dump that is the same as the last one of the site as hard link to it. "
+			+ "Not even transferred if the server announces the same ETag or Last-Modified and length";
+	private static final String DESC_KEEP_HOURLY = "after each dump of a site, keep the newest dump of each of this many hours and delete the older dumps of the site "
+			+ "that no --keep-* option keeps. Can be overridden per site by keep=<n>h,<n>d,<n>w,<n>m in the site list";
+	private static final String DESC_KEEP_DAILY = "keep the newest dump of each of this many days, see --keep-hourly";
+	private static final String DESC_KEEP_WEEKLY = "keep the newest dump of each of this many weeks, see --keep-hourly";
+	private static final String DESC_KEEP_MONTHLY = "keep the newest dump of each of this many months, see --keep-hourly";
+	private static final String DESC_HTTP_NO_COMPRESSION = "don't ask the servers for gzip or deflate compressed responses. Compressed dumps are smaller on the wire, but can't be resumed";
 
 	/**
 	 * Using the {@link JCommander} framework to parse parameters.
@@ -47,7 +179,7 @@ public class RemoteDbDumperCli {
 	private JCommander commander = null;
 
 	/** Definition of parameter - main parameter (destination folder). */
-	@Parameter(description = DESC_MAIN, required = true)
+	@Parameter(description = DESC_MAIN)
 	private List<String> mainParams;
 
 	/** Description for parameter - password */
@@ -66,12 +198,234 @@ public class RemoteDbDumperCli {
 	@Parameter(names = { "-q", "--quiet" }, description = DESC_QUIET)
 	private boolean isQuiet = false;
 
+	/** Description for parameter - batch */
+	@Parameter(names = { "-b", "--batch" }, description = DESC_BATCH)
+	private String batchFile = null;
+
+	/** Description for parameter - parallel */
+	@Parameter(names = { "--parallel" }, description = DESC_PARALLEL)
+	private int parallel = 4;
+
+	/** Description for parameter - parallel per host */
+	@Parameter(names = { "--parallel-per-host" }, description = DESC_PARALLEL_PER_HOST)
+	private int parallelPerHost = 1;
+
+	/** Description for parameter - buffer size */
+	@Parameter(names = { "--buffer-size" }, description = DESC_BUFFER_SIZE)
+	private int bufferSizeKiB = DownloadOptions.DEFAULT_BUFFER_SIZE / 1024;
+
+	/** Description for parameter - resume attempts */
+	@Parameter(names = { "--resume-attempts" }, description = DESC_RESUME_ATTEMPTS)
+	private int resumeAttempts = DownloadOptions.DEFAULT_RESUME_ATTEMPTS;
+
+	/** Description for parameter - virtual threads */
+	@Parameter(names = { "--virtual-threads" }, description = DESC_VIRTUAL_THREADS)
+	private boolean virtualThreads = false;
+
+	/** Description for parameter - segments */
+	@Parameter(names = { "--segments" }, description = DESC_SEGMENTS)
+	private int segments = 1;
+
+	/** Description for parameter - checksum */
+	@Parameter(names = { "--checksum" }, description = DESC_CHECKSUM)
+	private String checksum = IntegrityCheck.SHA256;
+
+	/** Description for parameter - validate */
+	@Parameter(names = { "--validate" }, description = DESC_VALIDATE)
+	private boolean validate = false;
+
+	/** Description for parameter - compress */
+	@Parameter(names = { "-c", "--compress" }, description = DESC_COMPRESS)
+	private String compress = COMPRESS_NONE;
+
+	/** Description for parameter - compress level */
+	@Parameter(names = { "--compress-level" }, description = DESC_COMPRESS_LEVEL)
+	private int compressLevel = GzipTransform.DEFAULT_LEVEL;
+
+	/** Description for parameter - compress threads */
+	@Parameter(names = { "--compress-threads" }, description = DESC_COMPRESS_THREADS)
+	private int compressThreads = Runtime.getRuntime().availableProcessors();
+
+	/** Description for parameter - session cache */
+	@Parameter(names = { "--session-cache" }, description = DESC_SESSION_CACHE)
+	private String sessionCache = null;
+
+	/** Description for parameter - session TTL */
+	@Parameter(names = { "--session-ttl" }, description = DESC_SESSION_TTL)
+	private long sessionTtlMinutes = SessionCache.DEFAULT_TTL_MILLIS / 60000;
+
+	/** Description for parameter - store */
+	@Parameter(names = { "--store" }, description = DESC_STORE)
+	private String store = null;
+
+	/** Description for parameter - restore */
+	@Parameter(names = { "--restore" }, description = DESC_RESTORE)
+	private String restore = null;
+
+	/** Description for parameter - gc */
+	@Parameter(names = { "--gc" }, description = DESC_GC)
+	private boolean gc = false;
+
+	/** Description for parameter - delta */
+	@Parameter(names = { "--delta" }, description = DESC_DELTA)
+	private boolean delta = false;
+
+	/** Description for parameter - delta baseline every */
+	@Parameter(names = { "--delta-baseline-every" }, description = DESC_DELTA_BASELINE_EVERY)
+	private int deltaBaselineEvery = DeltaPostProcessor.DEFAULT_BASELINE_INTERVAL;
+
+	/** Description for parameter - rebuild */
+	@Parameter(names = { "--rebuild" }, description = DESC_REBUILD)
+	private String rebuild = null;
+
+	/** Description for parameter - index */
+	@Parameter(names = { "--index" }, description = DESC_INDEX)
+	private boolean index = false;
+
+	/** Description for parameter - extract */
+	@Parameter(names = { "--extract" }, description = DESC_EXTRACT)
+	private String extract = null;
+
+	/** Description for parameter - table */
+	@Parameter(names = { "--table" }, description = DESC_TABLE)
+	private List<String> tables = new ArrayList<String>();
+
+	/** Description for parameter - daemon */
+	@Parameter(names = { "--daemon" }, description = DESC_DAEMON)
+	private String daemon = null;
+
+	/** Description for parameter - jitter */
+	@Parameter(names = { "--jitter" }, description = DESC_JITTER)
+	private int jitterSeconds = 300;
+
+	/** Description for parameter - control port */
+	@Parameter(names = { "--control-port" }, description = DESC_CONTROL_PORT)
+	private int controlPort = 0;
+
+	/** Description for parameter - journal */
+	@Parameter(names = { "--journal" }, description = DESC_JOURNAL)
+	private boolean journal = false;
+
+	/** Description for parameter - journal max age */
+	@Parameter(names = { "--journal-max-age" }, description = DESC_JOURNAL_MAX_AGE)
+	private long journalMaxAgeHours = 12;
+
+	/** Description for parameter - retries */
+	@Parameter(names = { "--retries" }, description = DESC_RETRIES)
+	private int retries = RetryPolicy.DEFAULT_MAX_RETRIES;
+
+	/** Description for parameter - retry delay */
+	@Parameter(names = { "--retry-delay" }, description = DESC_RETRY_DELAY)
+	private long retryDelaySeconds = RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS / 1000;
+
+	/** Description for parameter - circuit threshold */
+	@Parameter(names = { "--circuit-threshold" }, description = DESC_CIRCUIT_THRESHOLD)
+	private int circuitThreshold = RetryPolicy.DEFAULT_FAILURE_THRESHOLD;
+
+	/** Description for parameter - circuit open */
+	@Parameter(names = { "--circuit-open" }, description = DESC_CIRCUIT_OPEN)
+	private long circuitOpenSeconds = RetryPolicy.DEFAULT_OPEN_MILLIS / 1000;
+
+	/** Description for parameter - bandwidth limit */
+	@Parameter(names = { "--bandwidth-limit" }, description = DESC_BANDWIDTH_LIMIT)
+	private long bandwidthLimitKiB = 0;
+
+	/** Description for parameter - bandwidth schedule */
+	@Parameter(names = { "--bandwidth-schedule" }, description = DESC_BANDWIDTH_SCHEDULE)
+	private String bandwidthSchedule = null;
+
+	/** Description for parameter - progress interval */
+	@Parameter(names = { "--progress-interval" }, description = DESC_PROGRESS_INTERVAL)
+	private long progressIntervalSeconds = 30;
+
+	/** Description for parameter - stall timeout */
+	@Parameter(names = { "--stall-timeout" }, description = DESC_STALL_TIMEOUT)
+	private long stallTimeoutSeconds = 300;
+
+	/** Description for parameter - stall rate */
+	@Parameter(names = { "--stall-rate" }, description = DESC_STALL_RATE)
+	private long stallRateKiB = 1;
+
+	/** Description for parameter - s3 */
+	@Parameter(names = { "--s3" }, description = DESC_S3)
+	private String s3 = null;
+
+	/** Description for parameter - s3 endpoint */
+	@Parameter(names = { "--s3-endpoint" }, description = DESC_S3_ENDPOINT)
+	private String s3Endpoint = null;
+
+	/** Description for parameter - s3 region */
+	@Parameter(names = { "--s3-region" }, description = DESC_S3_REGION)
+	private String s3Region = S3Client.DEFAULT_REGION;
+
+	/** Description for parameter - s3 part size */
+	@Parameter(names = { "--s3-part-size" }, description = DESC_S3_PART_SIZE)
+	private int s3PartSizeMiB = S3DumpSink.DEFAULT_PART_SIZE / (1024 * 1024);
+
+	/** Description for parameter - s3 upload threads */
+	@Parameter(names = { "--s3-upload-threads" }, description = DESC_S3_UPLOAD_THREADS)
+	private int s3UploadThreads = 4;
+
+	/** Description for parameter - http max connections */
+	@Parameter(names = { "--http-max-connections" }, description = DESC_HTTP_MAX_CONNECTIONS)
+	private int httpMaxConnections = 0;
+
+	/** Description for parameter - http timeout */
+	@Parameter(names = { "--http-timeout" }, description = DESC_HTTP_TIMEOUT)
+	private int httpTimeoutSeconds = HttpTransport.DEFAULT_TIMEOUT_MILLIS / 1000;
+
+	/** Description for parameter - http keep alive */
+	@Parameter(names = { "--http-keep-alive" }, description = DESC_HTTP_KEEP_ALIVE)
+	private long httpKeepAliveSeconds = HttpTransport.DEFAULT_KEEP_ALIVE_MILLIS / 1000;
+
+	/** Description for parameter - http no compression */
+	@Parameter(names = { "--http-no-compression" }, description = DESC_HTTP_NO_COMPRESSION)
+	private boolean httpNoCompression = false;
+
+	/** Description for parameter - minimal fetch */
+	@Parameter(names = { "--minimal-fetch" }, description = DESC_MINIMAL_FETCH)
+	private boolean minimalFetch = false;
+
+	/** Description for parameter - minimal fetch pattern */
+	@Parameter(names = { "--minimal-fetch-pattern" }, description = DESC_MINIMAL_FETCH_PATTERN)
+	private String minimalFetchPattern = MinimalFetchWebConnection.DEFAULT_URL_PATTERN;
+
+	/** Description for parameter - link unchanged */
+	@Parameter(names = { "--link-unchanged" }, description = DESC_LINK_UNCHANGED)
+	private boolean linkUnchanged = false;
+
+	/** Description for parameter - keep hourly */
+	@Parameter(names = { "--keep-hourly" }, description = DESC_KEEP_HOURLY)
+	private int keepHourly = 0;
+
+	/** Description for parameter - keep daily */
+	@Parameter(names = { "--keep-daily" }, description = DESC_KEEP_DAILY)
+	private int keepDaily = 0;
+
+	/** Description for parameter - keep weekly */
+	@Parameter(names = { "--keep-weekly" }, description = DESC_KEEP_WEEKLY)
+	private int keepWeekly = 0;
+
+	/** Description for parameter - keep monthly */
+	@Parameter(names = { "--keep-monthly" }, description = DESC_KEEP_MONTHLY)
+	private int keepMonthly = 0;
+
+	/** Description for parameter - engine */
+	@Parameter(names = { "-e", "--engine" }, description = DESC_ENGINE)
+	private String engine = ENGINE_AUTO;
+
 	/** Description for parameter - help */
 	@Parameter(names = "--help", help = true, description = DESC_HELP)
 	private boolean help;
 
-	/** @return the value of the destination path parameter. */
+	/**
+	 * @return the value of the destination path parameter or
+	 *         <code>null</code> if not set (batch mode).
+	 */
 	public String getUrl() {
+		if (mainParams == null || mainParams.isEmpty()) {
+			return null;
+		}
 		return mainParams.get(0);
 	}
 
@@ -96,6 +450,305 @@ public class RemoteDbDumperCli {
 		return isQuiet;
 	}
 
+	/** @return the value of the "batch" paramter. */
+	public String getBatchFile() {
+		return batchFile;
+	}
+
+	/** @return the value of the "parallel" paramter. */
+	public int getParallel() {
+		return parallel;
+	}
+
+	/** @return the value of the "parallel-per-host" paramter. */
+	public int getParallelPerHost() {
+		return parallelPerHost;
+	}
+
+	/** @return the value of the "buffer-size" paramter in bytes. */
+	public int getBufferSize() {
+		return bufferSizeKiB * 1024;
+	}
+
+	/** @return the value of the "resume-attempts" paramter. */
+	public int getResumeAttempts() {
+		return resumeAttempts;
+	}
+
+	/** @return the value of the "virtual-threads" paramter. */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/** @return the value of the "segments" paramter. */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return the value of the "checksum" paramter or <code>null</code> for
+	 *         none.
+	 */
+	public String getChecksum() {
+		return CHECKSUM_NONE.equals(checksum) ? null : checksum;
+	}
+
+	/** @return the value of the "validate" paramter. */
+	public boolean isValidate() {
+		return validate;
+	}
+
+	/** @return the value of the "compress" paramter. */
+	public String getCompress() {
+		return compress;
+	}
+
+	/** @return the value of the "compress-level" paramter. */
+	public int getCompressLevel() {
+		return compressLevel;
+	}
+
+	/** @return the value of the "compress-threads" paramter. */
+	public int getCompressThreads() {
+		return compressThreads;
+	}
+
+	/**
+	 * @return the value of the "session-cache" paramter or <code>null</code>
+	 *         if not set.
+	 */
+	public String getSessionCache() {
+		return sessionCache;
+	}
+
+	/** @return the value of the "session-ttl" paramter in milliseconds. */
+	public long getSessionTtl() {
+		return sessionTtlMinutes * 60000;
+	}
+
+	/**
+	 * @return the value of the "store" paramter or <code>null</code> if not
+	 *         set.
+	 */
+	public String getStore() {
+		return store;
+	}
+
+	/**
+	 * @return the value of the "restore" paramter or <code>null</code> if not
+	 *         set.
+	 */
+	public String getRestore() {
+		return restore;
+	}
+
+	/** @return the value of the "gc" paramter. */
+	public boolean isGc() {
+		return gc;
+	}
+
+	/** @return the value of the "delta" paramter. */
+	public boolean isDelta() {
+		return delta;
+	}
+
+	/** @return the value of the "delta-baseline-every" paramter. */
+	public int getDeltaBaselineEvery() {
+		return deltaBaselineEvery;
+	}
+
+	/**
+	 * @return the value of the "rebuild" paramter or <code>null</code> if not
+	 *         set.
+	 */
+	public String getRebuild() {
+		return rebuild;
+	}
+
+	/** @return the value of the "index" paramter. */
+	public boolean isIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the value of the "extract" paramter or <code>null</code> if not
+	 *         set.
+	 */
+	public String getExtract() {
+		return extract;
+	}
+
+	/** @return the values of the "table" paramter, empty if not set. */
+	public List<String> getTables() {
+		return tables;
+	}
+
+	/**
+	 * @return the value of the "daemon" paramter or <code>null</code> if not
+	 *         set.
+	 */
+	public String getDaemon() {
+		return daemon;
+	}
+
+	/** @return the value of the "jitter" paramter in milliseconds. */
+	public long getJitter() {
+		return jitterSeconds * 1000L;
+	}
+
+	/** @return the value of the "control-port" paramter. */
+	public int getControlPort() {
+		return controlPort;
+	}
+
+	/** @return the value of the "journal" paramter. */
+	public boolean isJournal() {
+		return journal;
+	}
+
+	/** @return the value of the "journal-max-age" paramter in milliseconds. */
+	public long getJournalMaxAge() {
+		return journalMaxAgeHours * 60 * 60 * 1000;
+	}
+
+	/** @return the value of the "retries" paramter. */
+	public int getRetries() {
+		return retries;
+	}
+
+	/** @return the value of the "retry-delay" paramter in milliseconds. */
+	public long getRetryDelay() {
+		return retryDelaySeconds * 1000;
+	}
+
+	/** @return the value of the "circuit-threshold" paramter. */
+	public int getCircuitThreshold() {
+		return circuitThreshold;
+	}
+
+	/** @return the value of the "circuit-open" paramter in milliseconds. */
+	public long getCircuitOpen() {
+		return circuitOpenSeconds * 1000;
+	}
+
+	/** @return the value of the "bandwidth-limit" paramter in KiB/s. */
+	public long getBandwidthLimit() {
+		return bandwidthLimitKiB;
+	}
+
+	/**
+	 * @return the value of the "bandwidth-schedule" paramter or
+	 *         <code>null</code> if not set.
+	 */
+	public String getBandwidthSchedule() {
+		return bandwidthSchedule;
+	}
+
+	/**
+	 * @return the value of the "progress-interval" paramter in milliseconds.
+	 */
+	public long getProgressInterval() {
+		return progressIntervalSeconds * 1000;
+	}
+
+	/** @return the value of the "stall-timeout" paramter in milliseconds. */
+	public long getStallTimeout() {
+		return stallTimeoutSeconds * 1000;
+	}
+
+	/** @return the value of the "stall-rate" paramter in KiB/s. */
+	public long getStallRate() {
+		return stallRateKiB;
+	}
+
+	/**
+	 * @return the value of the "s3" paramter or <code>null</code> if not set.
+	 */
+	public String getS3() {
+		return s3;
+	}
+
+	/**
+	 * @return the value of the "s3-endpoint" paramter or <code>null</code> if
+	 *         not set.
+	 */
+	public String getS3Endpoint() {
+		return s3Endpoint;
+	}
+
+	/** @return the value of the "s3-region" paramter. */
+	public String getS3Region() {
+		return s3Region;
+	}
+
+	/** @return the value of the "s3-part-size" paramter in bytes. */
+	public int getS3PartSize() {
+		return s3PartSizeMiB * 1024 * 1024;
+	}
+
+	/** @return the value of the "s3-upload-threads" paramter. */
+	public int getS3UploadThreads() {
+		return s3UploadThreads;
+	}
+
+	/**
+	 * @return the value of the "http-max-connections" paramter, twice the
+	 *         value of the "parallel" parameter (or the number of
+	 *         "segments" per dump, if higher) if not set.
+	 */
+	public int getHttpMaxConnections() {
+		if (httpMaxConnections == 0) {
+			return Math.max(2, segments) * parallel;
+		}
+		return httpMaxConnections;
+	}
+
+	/** @return the value of the "http-timeout" paramter in milliseconds. */
+	public int getHttpTimeout() {
+		return httpTimeoutSeconds * 1000;
+	}
+
+	/** @return the value of the "http-keep-alive" paramter in milliseconds. */
+	public long getHttpKeepAlive() {
+		return httpKeepAliveSeconds * 1000;
+	}
+
+	/** @return the value of the "http-no-compression" paramter. */
+	public boolean isHttpNoCompression() {
+		return httpNoCompression;
+	}
+
+	/**
+	 * @return the value of the "minimal-fetch-pattern" paramter or
+	 *         <code>null</code> if "minimal-fetch" is not set.
+	 */
+	public String getMinimalFetchPattern() {
+		if (!minimalFetch) {
+			return null;
+		}
+		return minimalFetchPattern;
+	}
+
+	/** @return the value of the "link-unchanged" paramter. */
+	public boolean isLinkUnchanged() {
+		return linkUnchanged;
+	}
+
+	/**
+	 * @return the policy made of the "keep-hourly", "keep-daily",
+	 *         "keep-weekly" and "keep-monthly" paramters. Empty if none is
+	 *         set.
+	 */
+	public RetentionPolicy getRetentionPolicy() {
+		return new RetentionPolicy(keepHourly, keepDaily, keepWeekly,
+				keepMonthly);
+	}
+
+	/** @return the value of the "engine" paramter. */
+	public String getEngine() {
+		return engine;
+	}
+
 	/**
 	 * Don't instantiate. Use {@link #readParams(String[], String)} instead.
 	 */
@@ -120,6 +773,7 @@ public class RemoteDbDumperCli {
 			cliParams.commander = new JCommander(cliParams);
 			cliParams.commander.setProgramName(programmName);
 			cliParams.commander.parse(argv);
+			cliParams.validate();
 		} catch (ParameterException e) {
 			// Print err
 			StringBuilder errStr = new StringBuilder(e.getMessage() + EOL);
@@ -138,4 +792,232 @@ public class RemoteDbDumperCli {
 
 		return cliParams;
 	}
+
+	/**
+	 * Checks the parameters that can't be validated by {@link JCommander}
+	 * alone.
+	 *
+	 * @throws ParameterException
+	 *             when a parameter is invalid
+	 */
+	private void validate() throws ParameterException {
+		if (help) {
+			return;
+		}
+		if (daemon != null
+				&& (getUrl() != null || batchFile != null || restore != null
+						|| rebuild != null || extract != null)) {
+			throw new ParameterException(
+					"--daemon can't be combined with an URI, --batch, --restore, --rebuild or --extract");
+		}
+		if (!tables.isEmpty() && extract == null) {
+			throw new ParameterException("--table requires --extract");
+		}
+		if (gc) {
+			if (store == null) {
+				throw new ParameterException("--gc requires --store");
+			}
+			if (getUrl() != null || batchFile != null || daemon != null
+					|| restore != null || rebuild != null || extract != null) {
+				throw new ParameterException(
+						"--gc can't be combined with an URI, --batch, --daemon, --restore, --rebuild or --extract");
+			}
+			return;
+		}
+		if (extract != null) {
+			if (getUrl() != null || batchFile != null || restore != null
+					|| rebuild != null) {
+				throw new ParameterException(
+						"Either pass --extract or --rebuild or --restore or an URI or --batch, not several");
+			}
+			return;
+		}
+		if (rebuild != null) {
+			if (getUrl() != null || batchFile != null || restore != null) {
+				throw new ParameterException(
+						"Either pass --rebuild or --restore or an URI or --batch, not several");
+			}
+			return;
+		}
+		if (restore != null) {
+			if (store == null) {
+				throw new ParameterException("--restore requires --store");
+			}
+			if (getUrl() != null || batchFile != null) {
+				throw new ParameterException(
+						"Either pass --restore or an URI or --batch, not several");
+			}
+			return;
+		}
+		if (getUrl() == null && batchFile == null && daemon == null) {
+			throw new ParameterException(
+					"Main parameters are required (\"" + DESC_MAIN
+							+ "\") unless --batch, --daemon, --restore, --gc, --rebuild or --extract is set");
+		}
+		if (getUrl() != null && batchFile != null) {
+			throw new ParameterException(
+					"Either pass an URI or --batch, not both");
+		}
+		if (parallel < 1 || parallelPerHost < 1) {
+			throw new ParameterException(
+					"--parallel and --parallel-per-host must be at least 1");
+		}
+		EngineRegistry engines = new EngineRegistry();
+		if (!ENGINE_AUTO.equals(engine) && engines.getEngine(engine) == null) {
+			throw new ParameterException("Unknown engine \"" + engine
+					+ "\". Valid engines: " + ENGINE_AUTO + ", "
+					+ engines.getNames());
+		}
+		if (bufferSizeKiB < 1) {
+			throw new ParameterException("--buffer-size must be at least 1");
+		}
+		if (resumeAttempts < 0) {
+			throw new ParameterException(
+					"--resume-attempts must not be negative");
+		}
+		if (segments < 1) {
+			throw new ParameterException("--segments must be at least 1");
+		}
+		if (!COMPRESS_NONE.equals(compress) && !COMPRESS_GZIP.equals(compress)) {
+			throw new ParameterException("Unknown compression \"" + compress
+					+ "\". Valid values: " + COMPRESS_NONE + ", "
+					+ COMPRESS_GZIP);
+		}
+		if (!CHECKSUM_NONE.equals(checksum)
+				&& !IntegrityCheck.isSupportedAlgorithm(checksum)) {
+			throw new ParameterException("Unknown checksum \"" + checksum
+					+ "\". Valid values: " + IntegrityCheck.SHA256 + ", "
+					+ IntegrityCheck.XXH64 + ", " + CHECKSUM_NONE);
+		}
+		if (compressLevel < 1 || compressLevel > 9) {
+			throw new ParameterException(
+					"--compress-level must be between 1 and 9");
+		}
+		if (compressThreads < 1) {
+			throw new ParameterException(
+					"--compress-threads must be at least 1");
+		}
+		if (store != null && !COMPRESS_NONE.equals(compress)) {
+			throw new ParameterException(
+					"--store and --compress can't be combined");
+		}
+		if (delta && (store != null || !COMPRESS_NONE.equals(compress))) {
+			throw new ParameterException(
+					"--delta can't be combined with --store or --compress");
+		}
+		if (index && (store != null || delta)) {
+			throw new ParameterException(
+					"--index can't be combined with --store or --delta");
+		}
+		if (deltaBaselineEvery < 1) {
+			throw new ParameterException(
+					"--delta-baseline-every must be at least 1");
+		}
+		if (keepHourly < 0 || keepDaily < 0 || keepWeekly < 0
+				|| keepMonthly < 0) {
+			throw new ParameterException(
+					"--keep-hourly, --keep-daily, --keep-weekly and --keep-monthly must not be negative");
+		}
+		if (jitterSeconds < 0) {
+			throw new ParameterException("--jitter must not be negative");
+		}
+		if (controlPort < 0 || controlPort > 65535) {
+			throw new ParameterException(
+					"--control-port must be between 0 and 65535");
+		}
+		if (journal && daemon != null) {
+			throw new ParameterException(
+					"--journal can't be combined with --daemon");
+		}
+		if (journalMaxAgeHours < 0) {
+			throw new ParameterException(
+					"--journal-max-age must not be negative");
+		}
+		if (retries < 0) {
+			throw new ParameterException("--retries must not be negative");
+		}
+		if (retryDelaySeconds < 1 || circuitOpenSeconds < 1) {
+			throw new ParameterException(
+					"--retry-delay and --circuit-open must be at least 1");
+		}
+		if (circuitThreshold < 1) {
+			throw new ParameterException(
+					"--circuit-threshold must be at least 1");
+		}
+		if (sessionTtlMinutes < 1) {
+			throw new ParameterException("--session-ttl must be at least 1");
+		}
+		if (bandwidthLimitKiB < 0) {
+			throw new ParameterException(
+					"--bandwidth-limit must not be negative");
+		}
+		if (bandwidthSchedule != null) {
+			try {
+				new BandwidthSchedule(bandwidthSchedule, bandwidthLimitKiB);
+			} catch (IllegalArgumentException e) {
+				throw new ParameterException(e.getMessage());
+			}
+		}
+		if (progressIntervalSeconds < 0 || stallTimeoutSeconds < 0
+				|| stallRateKiB < 0) {
+			throw new ParameterException(
+					"--progress-interval, --stall-timeout and --stall-rate must not be negative");
+		}
+		if (httpMaxConnections < 0) {
+			throw new ParameterException(
+					"--http-max-connections must not be negative");
+		}
+		if (httpTimeoutSeconds < 0 || httpKeepAliveSeconds < 0) {
+			throw new ParameterException(
+					"--http-timeout and --http-keep-alive must not be negative");
+		}
+		try {
+			Pattern.compile(minimalFetchPattern);
+		} catch (PatternSyntaxException e) {
+			throw new ParameterException("Invalid --minimal-fetch-pattern: "
+					+ e.getMessage());
+		}
+		if (s3 != null) {
+			validateS3();
+		}
+	}
+
+	private void validateS3() throws ParameterException {
+		try {
+			new S3Location(s3);
+		} catch (IllegalArgumentException e) {
+			throw new ParameterException(e.getMessage());
+		}
+		if (s3Endpoint != null) {
+			try {
+				URI endpoint = new URI(s3Endpoint);
+				if (endpoint.getHost() == null) {
+					throw new URISyntaxException(s3Endpoint, "Missing host");
+				}
+			} catch (URISyntaxException e) {
+				throw new ParameterException("Invalid --s3-endpoint: "
+						+ e.getMessage());
+			}
+		}
+		if (store != null || delta || linkUnchanged || index
+				|| !getRetentionPolicy().isEmpty()) {
+			throw new ParameterException(
+					"--s3 can't be combined with --store, --delta, --link-unchanged, --index or --keep-*");
+		}
+		if (getS3PartSize() < S3DumpSink.MIN_PART_SIZE
+				|| s3PartSizeMiB > 1024) {
+			throw new ParameterException(
+					"--s3-part-size must be between 5 and 1024");
+		}
+		if (s3UploadThreads < 1) {
+			throw new ParameterException(
+					"--s3-upload-threads must be at least 1");
+		}
+		if (System.getenv(S3Client.ENV_ACCESS_KEY) == null
+				|| System.getenv(S3Client.ENV_SECRET_KEY) == null) {
+			throw new ParameterException("--s3 requires the credentials in "
+					+ S3Client.ENV_ACCESS_KEY + " and "
+					+ S3Client.ENV_SECRET_KEY);
+		}
+	}
 }
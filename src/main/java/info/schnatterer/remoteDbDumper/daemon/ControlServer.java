@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.daemon;
+
+import static info.schnatterer.remoteDbDumper.batch.RunReport.formatDate;
+import static info.schnatterer.remoteDbDumper.batch.RunReport.quote;
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.batch.DumpResult;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+import info.schnatterer.remoteDbDumper.progress.TransferProgress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP endpoint for controlling a {@link DumpDaemon}. Only listens on
+ * the loopback interface, as it is not authenticated.
+ *
+ * <pre>
+ * GET  /status                   the schedule, next and last run of each site and
+ *                                the phase and progress of the running dumps as
+ *                                JSON
+ * POST /dump?url=&lt;url&gt;           runs the scheduled site with this URL now
+ * GET  /bandwidth                the bandwidth limit and active transfers as JSON
+ * POST /bandwidth?limit=&lt;KiB/s&gt;  changes the bandwidth limit, 0 for unlimited
+ * </pre>
+ *
+ * @author schnatterer
+ *
+ */
+public class ControlServer {
+	private static final String PATH_STATUS = "/status";
+	private static final String PATH_DUMP = "/dump";
+	private static final String PATH_BANDWIDTH = "/bandwidth";
+	private static final String PARAM_URL = "url";
+	private static final String PARAM_LIMIT = "limit";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final int STATUS_OK = 200;
+	private static final int STATUS_ACCEPTED = 202;
+	private static final int STATUS_BAD_REQUEST = 400;
+	private static final int STATUS_NOT_FOUND = 404;
+	private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+	private static final int STATUS_CONFLICT = 409;
+
+	private static Logger logger = Logger.getLogger(ControlServer.class);
+
+	private final DumpDaemon daemon;
+	private final int port;
+	private BandwidthLimiter bandwidthLimiter = null;
+	private HttpServer server = null;
+
+	/**
+	 * @param port
+	 *            the port on the loopback interface to listen on
+	 */
+	public ControlServer(DumpDaemon daemon, int port) {
+		this.daemon = daemon;
+		this.port = port;
+	}
+
+	/**
+	 * @param bandwidthLimiter
+	 *            the limiter to control via <code>/bandwidth</code>.
+	 *            <code>null</code> for none.
+	 */
+	public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = bandwidthLimiter;
+	}
+
+	public synchronized void start() throws IOException {
+		server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getByName(null), port), 0);
+		server.createContext(PATH_STATUS, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					respond(exchange, STATUS_METHOD_NOT_ALLOWED,
+							message("Use GET"));
+					return;
+				}
+				respond(exchange, STATUS_OK, status());
+			}
+		});
+		server.createContext(PATH_DUMP, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					respond(exchange, STATUS_METHOD_NOT_ALLOWED,
+							message("Use POST"));
+					return;
+				}
+				dump(exchange);
+			}
+		});
+		server.createContext(PATH_BANDWIDTH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				bandwidth(exchange);
+			}
+		});
+		server.start();
+		logger.info("Listening for control requests on http://"
+				+ server.getAddress().getHostString() + ":"
+				+ server.getAddress().getPort());
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	private void dump(HttpExchange exchange) throws IOException {
+		String url = getParameter(exchange.getRequestURI().getRawQuery(),
+				PARAM_URL);
+		if (url == null) {
+			respond(exchange, STATUS_BAD_REQUEST,
+					message("Parameter url is required"));
+			return;
+		}
+		ScheduledJob job = daemon.find(url);
+		if (job == null) {
+			respond(exchange, STATUS_NOT_FOUND, message("No site with URL "
+					+ url + " in schedule"));
+		} else if (daemon.runNow(job)) {
+			respond(exchange, STATUS_ACCEPTED, message("Dumping " + url));
+		} else {
+			respond(exchange, STATUS_CONFLICT, message(url
+					+ " is being dumped already"));
+		}
+	}
+
+	private void bandwidth(HttpExchange exchange) throws IOException {
+		if (bandwidthLimiter == null) {
+			respond(exchange, STATUS_NOT_FOUND,
+					message("Bandwidth is not limited"));
+			return;
+		}
+		if ("POST".equals(exchange.getRequestMethod())) {
+			String limit = getParameter(exchange.getRequestURI()
+					.getRawQuery(), PARAM_LIMIT);
+			try {
+				bandwidthLimiter.setLimitKiB(Long.parseLong(limit));
+			} catch (IllegalArgumentException e) {
+				// Also thrown for numbers that can't be parsed
+				respond(exchange, STATUS_BAD_REQUEST,
+						message("Parameter limit must be a number of KiB/s, 0 for unlimited"));
+				return;
+			}
+		} else if (!"GET".equals(exchange.getRequestMethod())) {
+			respond(exchange, STATUS_METHOD_NOT_ALLOWED,
+					message("Use GET or POST"));
+			return;
+		}
+		respond(exchange, STATUS_OK, "{ \"limitKiB\": "
+				+ bandwidthLimiter.getLimitKiB() + ", \"activeTransfers\": "
+				+ bandwidthLimiter.getActiveTransfers()
+				+ ", \"waitingTransfers\": "
+				+ bandwidthLimiter.getWaitingTransfers() + " }\n");
+	}
+
+	private static String toJson(TransferProgress progress) {
+		return "{ \"bytes\": " + progress.getBytes() + ", \"totalBytes\": "
+				+ progress.getTotalBytes() + ", \"bytesPerSecond\": "
+				+ progress.getBytesPerSecond() + ", \"etaSeconds\": "
+				+ progress.getEtaSeconds() + " }";
+	}
+
+	private String status() {
+		StringBuilder json = new StringBuilder("{ \"sites\": [");
+		List<ScheduledJob> schedule = daemon.getSchedule();
+		for (int i = 0; i < schedule.size(); i++) {
+			ScheduledJob job = schedule.get(i);
+			Long nextRun = daemon.getNextRun(job);
+			DumpResult lastResult = daemon.getLastResult(job);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("  { \"site\": ").append(quote(job.getJob().toString()));
+			json.append(", \"schedule\": ").append(
+					quote(job.getCron().toString()));
+			json.append(", \"running\": ").append(daemon.isRunning(job));
+			DumpPhase phase = daemon.getPhase(job);
+			json.append(", \"phase\": ").append(
+					phase == null ? "null" : quote(phase.getKey()));
+			TransferProgress progress = daemon.getProgress(job);
+			json.append(", \"progress\": ").append(
+					progress == null ? "null" : toJson(progress));
+			json.append(", \"nextRun\": ").append(
+					nextRun == null ? "null" : quote(formatDate(nextRun)));
+			json.append(", \"lastSuccess\": ").append(
+					lastResult == null ? "null" : Boolean.toString(lastResult
+							.isSuccess()));
+			json.append(", \"lastError\": ").append(
+					lastResult == null || lastResult.isSuccess() ? "null"
+							: quote(String.valueOf(lastResult.getError()
+									.getMessage())));
+			json.append(" }");
+		}
+		return json.append(schedule.isEmpty() ? "] }\n" : "\n] }\n")
+				.toString();
+	}
+
+	private static String getParameter(String query, String name)
+			throws UnsupportedEncodingException {
+		if (query == null) {
+			return null;
+		}
+		String prefix = name + "=";
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith(prefix)) {
+				return URLDecoder.decode(parameter.substring(prefix.length()),
+						CHARSET.name());
+			}
+		}
+		return null;
+	}
+
+	private static String message(String message) {
+		return "{ \"message\": " + quote(message) + " }\n";
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json)
+			throws IOException {
+		byte[] body = json.getBytes(CHARSET);
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			exchange.close();
+		}
+	}
+}
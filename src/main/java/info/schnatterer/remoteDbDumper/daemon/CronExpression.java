@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.daemon;
+
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cron expression, as known from crontab:
+ *
+ * <pre>
+ * minute (0-59) hour (0-23) day of month (1-31) month (1-12) day of week (0-7, 0 and 7 are Sunday)
+ * </pre>
+ *
+ * Each field is <code>*</code>, a number, a range (<code>1-5</code>) or a
+ * list of them (<code>0,30</code>), each optionally with a step (
+ * <code>*&#47;15</code>). Months and days of week may be given by their
+ * English three-letter names. If both day of month and day of week are
+ * restricted, a day matches if either matches. Instead of the five fields,
+ * <code>@hourly</code>, <code>@daily</code>, <code>@weekly</code> and
+ * <code>@monthly</code> can be used.
+ * <p>
+ * Times are in the default time zone.
+ *
+ * @author schnatterer
+ *
+ */
+public class CronExpression {
+	/** Stop searching for the next time after this many years */
+	private static final int MAX_YEARS = 5;
+	private static final String[] MONTHS = { "jan", "feb", "mar", "apr",
+			"may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+	private static final String[] DAYS_OF_WEEK = { "sun", "mon", "tue", "wed",
+			"thu", "fri", "sat" };
+	private static final Map<String, String> MACROS = new HashMap<String, String>();
+	static {
+		MACROS.put("@hourly", "0 * * * *");
+		MACROS.put("@daily", "0 0 * * *");
+		MACROS.put("@weekly", "0 0 * * 0");
+		MACROS.put("@monthly", "0 0 1 * *");
+	}
+
+	private final String expression;
+	private final BitSet minutes;
+	private final BitSet hours;
+	private final BitSet daysOfMonth;
+	private final BitSet months;
+	private final BitSet daysOfWeek;
+	private final boolean daysOfMonthRestricted;
+	private final boolean daysOfWeekRestricted;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the expression is invalid
+	 */
+	public CronExpression(String expression) {
+		this.expression = expression;
+		String fields = MACROS.containsKey(expression) ? MACROS
+				.get(expression) : expression;
+		String[] field = fields.trim().split("\\s+");
+		if (field.length != 5) {
+			throw new IllegalArgumentException("Cron expression \""
+					+ expression + "\" must have five fields");
+		}
+		minutes = parse(field[0], 0, 59, null);
+		hours = parse(field[1], 0, 23, null);
+		daysOfMonth = parse(field[2], 1, 31, null);
+		months = parse(field[3], 1, 12, MONTHS);
+		daysOfWeek = parse(field[4], 0, 7, DAYS_OF_WEEK);
+		if (daysOfWeek.get(7)) {
+			daysOfWeek.set(0);
+		}
+		daysOfMonthRestricted = !field[2].startsWith("*");
+		daysOfWeekRestricted = !field[4].startsWith("*");
+	}
+
+	/**
+	 * @return the first time matching the expression after
+	 *         <code>afterMillis</code>, at the start of the minute
+	 * @throws IllegalStateException
+	 *             if there is no such time in the next years (e.g. February
+	 *             30th)
+	 */
+	public long next(long afterMillis) {
+		Calendar time = Calendar.getInstance();
+		time.setTimeInMillis(afterMillis);
+		time.set(Calendar.SECOND, 0);
+		time.set(Calendar.MILLISECOND, 0);
+		time.add(Calendar.MINUTE, 1);
+		int maxYear = time.get(Calendar.YEAR) + MAX_YEARS;
+		while (time.get(Calendar.YEAR) <= maxYear) {
+			if (!months.get(time.get(Calendar.MONTH) + 1)) {
+				time.set(Calendar.DAY_OF_MONTH, 1);
+				startOfDay(time);
+				time.add(Calendar.MONTH, 1);
+			} else if (!matchesDay(time)) {
+				startOfDay(time);
+				time.add(Calendar.DAY_OF_MONTH, 1);
+			} else if (!hours.get(time.get(Calendar.HOUR_OF_DAY))) {
+				time.set(Calendar.MINUTE, 0);
+				time.add(Calendar.HOUR_OF_DAY, 1);
+			} else if (!minutes.get(time.get(Calendar.MINUTE))) {
+				time.add(Calendar.MINUTE, 1);
+			} else {
+				return time.getTimeInMillis();
+			}
+		}
+		throw new IllegalStateException("Cron expression \"" + expression
+				+ "\" does not match any time in the next " + MAX_YEARS
+				+ " years");
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	private boolean matchesDay(Calendar time) {
+		boolean dayOfMonth = daysOfMonth.get(time.get(Calendar.DAY_OF_MONTH));
+		boolean dayOfWeek = daysOfWeek.get(time.get(Calendar.DAY_OF_WEEK)
+				- Calendar.SUNDAY);
+		if (daysOfMonthRestricted && daysOfWeekRestricted) {
+			return dayOfMonth || dayOfWeek;
+		}
+		return dayOfMonth && dayOfWeek;
+	}
+
+	private static void startOfDay(Calendar time) {
+		time.set(Calendar.HOUR_OF_DAY, 0);
+		time.set(Calendar.MINUTE, 0);
+	}
+
+	private BitSet parse(String field, int min, int max, String[] names) {
+		BitSet values = new BitSet(max + 1);
+		for (String part : field.split(",")) {
+			int step = 1;
+			int slash = part.indexOf('/');
+			if (slash >= 0) {
+				step = parseNumber(part.substring(slash + 1), 1, max, null);
+				part = part.substring(0, slash);
+			}
+			int from;
+			int to;
+			if ("*".equals(part)) {
+				from = min;
+				to = max;
+			} else {
+				int dash = part.indexOf('-');
+				if (dash >= 0) {
+					from = parseNumber(part.substring(0, dash), min, max, names);
+					to = parseNumber(part.substring(dash + 1), min, max, names);
+				} else {
+					from = parseNumber(part, min, max, names);
+					// "5/15" means from 5 to the end, every 15
+					to = slash >= 0 ? max : from;
+				}
+			}
+			if (from > to) {
+				throw new IllegalArgumentException("Invalid range \"" + part
+						+ "\" in cron expression \"" + expression + "\"");
+			}
+			for (int value = from; value <= to; value += step) {
+				values.set(value);
+			}
+		}
+		return values;
+	}
+
+	private int parseNumber(String value, int min, int max, String[] names) {
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(value)) {
+					// Months start with 1, days of week with 0
+					return i + min;
+				}
+			}
+		}
+		try {
+			int number = Integer.parseInt(value);
+			if (number >= min && number <= max) {
+				return number;
+			}
+		} catch (NumberFormatException e) {
+			// Handled below
+		}
+		throw new IllegalArgumentException("Invalid value \"" + value
+				+ "\" in cron expression \"" + expression
+				+ "\", expected a number between " + min + " and " + max);
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.daemon;
+
+import info.schnatterer.remoteDbDumper.batch.BatchDumper;
+import info.schnatterer.remoteDbDumper.batch.DumpExecutor;
+import info.schnatterer.remoteDbDumper.batch.DumpHandle;
+import info.schnatterer.remoteDbDumper.batch.DumpJob;
+import info.schnatterer.remoteDbDumper.batch.DumpResult;
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+import info.schnatterer.remoteDbDumper.progress.TransferProgress;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs {@link ScheduledJob}s at the times of their cron expressions, until
+ * stopped. Meant for a long running process, that keeps its (warmed up) JVM
+ * and web clients for all dumps.
+ * <p>
+ * Each run is delayed by a random jitter, so sites sharing the same schedule
+ * don't all start at the same time. As in the {@link BatchDumper}, the number
+ * of dumps running at the same time is limited globally and per host. A job
+ * whose host is busy is retried a little later. A job is never run twice at
+ * the same time, a run that is due while the previous one is still running
+ * is skipped. Failed runs are retried, if the {@link BatchDumper} has a
+ * {@link info.schnatterer.remoteDbDumper.retry.Retrier}. The dumps run on
+ * virtual threads, if {@link BatchDumper#isVirtualThreads() enabled}.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpDaemon {
+	/** Delay before retrying a job whose host is busy */
+	private static final long HOST_BUSY_DELAY_MILLIS = 30 * 1000;
+
+	private static Logger logger = Logger.getLogger(DumpDaemon.class);
+
+	private final BatchDumper dumper;
+	private final List<ScheduledJob> schedule;
+	private final File targetDirectory;
+	private final int maxParallelDumpsPerHost;
+	private final long maxJitterMillis;
+
+	private final ScheduledExecutorService scheduler;
+	private final DumpExecutor workers;
+	private final Random random = new Random();
+
+	private final Map<ScheduledJob, DumpHandle> running = new HashMap<ScheduledJob, DumpHandle>();
+	private final Map<String, Integer> runningByHost = new HashMap<String, Integer>();
+	private final Map<ScheduledJob, Long> nextRuns = new HashMap<ScheduledJob, Long>();
+	private final Map<ScheduledJob, DumpResult> lastResults = new HashMap<ScheduledJob, DumpResult>();
+
+	/**
+	 * @param dumper
+	 *            runs the dumps, including post processing and statistics
+	 * @param schedule
+	 *            the jobs to run
+	 * @param targetDirectory
+	 *            the directory where to store the files
+	 * @param maxParallelDumps
+	 *            the maximum number of dumps running at the same time
+	 * @param maxParallelDumpsPerHost
+	 *            the maximum number of dumps running at the same time on one
+	 *            host
+	 * @param maxJitterMillis
+	 *            each run is delayed by a random time up to this
+	 */
+	public DumpDaemon(BatchDumper dumper, List<ScheduledJob> schedule,
+			File targetDirectory, int maxParallelDumps,
+			int maxParallelDumpsPerHost, long maxJitterMillis) {
+		if (maxParallelDumps < 1 || maxParallelDumpsPerHost < 1) {
+			throw new IllegalArgumentException(
+					"Number of parallel dumps must be at least 1");
+		}
+		this.dumper = dumper;
+		this.schedule = Collections.unmodifiableList(schedule);
+		this.targetDirectory = targetDirectory;
+		this.maxParallelDumpsPerHost = maxParallelDumpsPerHost;
+		this.maxJitterMillis = maxJitterMillis;
+		// Not a daemon thread, keeps the JVM running until stop()
+		scheduler = Executors
+				.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+						"scheduler", false));
+		workers = new DumpExecutor("dump", maxParallelDumps,
+				dumper.isVirtualThreads());
+	}
+
+	/**
+	 * Schedules the first run of each job.
+	 */
+	public synchronized void start() {
+		long now = System.currentTimeMillis();
+		for (ScheduledJob job : schedule) {
+			scheduleNext(job, now);
+		}
+		logger.info("Started daemon with " + schedule.size() + " site(s)");
+	}
+
+	/**
+	 * Stops scheduling and interrupts running dumps. Their partial downloads
+	 * are resumed by the next run, if possible.
+	 */
+	public void stop() {
+		scheduler.shutdownNow();
+		workers.shutdownNow();
+		logger.info("Stopped daemon");
+	}
+
+	/** @return all jobs, in the order of the schedule */
+	public List<ScheduledJob> getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * @return the job with the URL or <code>null</code> if there is none
+	 */
+	public ScheduledJob find(String url) {
+		for (ScheduledJob job : schedule) {
+			if (job.getJob().getUrl().equals(url)) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Runs a job now, in addition to its schedule.
+	 *
+	 * @return <code>false</code> if the job is running already
+	 */
+	public boolean runNow(ScheduledJob job) {
+		logger.info("Running " + job.getJob() + " on request");
+		return submit(job, 0);
+	}
+
+	/** @return <code>true</code> if the job is running at the moment */
+	public synchronized boolean isRunning(ScheduledJob job) {
+		return running.containsKey(job);
+	}
+
+	/**
+	 * @return the phase of the running dump of the job or <code>null</code>
+	 *         if it is not running or has not started yet
+	 */
+	public synchronized DumpPhase getPhase(ScheduledJob job) {
+		DumpHandle handle = running.get(job);
+		return handle == null ? null : handle.getPhase();
+	}
+
+	/**
+	 * @return the progress of the transfer of the running dump of the job or
+	 *         <code>null</code> if it is not transferring at the moment
+	 */
+	public synchronized TransferProgress getProgress(ScheduledJob job) {
+		DumpHandle handle = running.get(job);
+		return handle == null ? null : handle.getProgress();
+	}
+
+	/**
+	 * @return the time of the next scheduled run, including jitter, or
+	 *         <code>null</code> if there is none
+	 */
+	public synchronized Long getNextRun(ScheduledJob job) {
+		return nextRuns.get(job);
+	}
+
+	/**
+	 * @return the result of the last run or <code>null</code> if the job has
+	 *         not finished yet.
+	 */
+	public synchronized DumpResult getLastResult(ScheduledJob job) {
+		return lastResults.get(job);
+	}
+
+	/**
+	 * Schedules the first run of <code>job</code> after <code>after</code>.
+	 */
+	private synchronized void scheduleNext(final ScheduledJob job, long after) {
+		final long time = job.getCron().next(after);
+		long jitter = (long) (random.nextDouble() * maxJitterMillis);
+		nextRuns.put(job, time + jitter);
+		logger.debug("Next run of " + job + " at " + new Date(time + jitter));
+		scheduler.schedule(new Runnable() {
+			public void run() {
+				/*
+				 * Don't catch up on runs that have been missed, e.g. while
+				 * the machine was suspended.
+				 */
+				scheduleNext(job, Math.max(time, System.currentTimeMillis()));
+				if (!submit(job, 0)) {
+					logger.warn("Skipping scheduled run of " + job.getJob()
+							+ ", it is still running");
+				}
+			}
+		}, time + jitter - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Hands the job to a worker or retries later if its host is busy.
+	 *
+	 * @param attempt
+	 *            0 for a scheduled or requested run, 1 for the first retry
+	 * @return <code>false</code> if the job is running already
+	 */
+	private synchronized boolean submit(final ScheduledJob job,
+			final int attempt) {
+		if (running.containsKey(job)) {
+			return false;
+		}
+		final String host = job.getJob().getHost();
+		Integer runningOnHost = runningByHost.get(host);
+		if (runningOnHost == null) {
+			runningOnHost = 0;
+		}
+		if (runningOnHost >= maxParallelDumpsPerHost) {
+			logger.debug("Host " + host + " is busy, delaying " + job);
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					submit(job, attempt);
+				}
+			}, HOST_BUSY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+			return true;
+		}
+		runningByHost.put(host, runningOnHost + 1);
+		DumpHandle handle = dumper.submit(job.getJob(), targetDirectory,
+				attempt, workers);
+		running.put(job, handle);
+		handle.addListener(new DumpHandle.Listener() {
+			public void finished(DumpHandle handle) {
+				DumpResult result;
+				try {
+					result = handle.get();
+				} catch (Exception e) {
+					// Cancelled, the daemon is stopping
+					DumpDaemon.this.finished(job, host, null);
+					return;
+				}
+				DumpJob dumpJob = job.getJob();
+				long retryDelay = dumper.getRetryDelay(result, attempt);
+				DumpDaemon.this.finished(job, host, result);
+				if (retryDelay >= 0) {
+					logger.warn("Error dumping " + dumpJob + ": "
+							+ result.getError().getMessage() + ". Retrying in "
+							+ (retryDelay + 999) / 1000 + " s");
+					retry(job, attempt + 1, retryDelay);
+				} else if (!result.isSuccess()) {
+					logger.error("Error dumping " + dumpJob + ": "
+							+ result.getError().getMessage());
+				}
+			}
+		});
+		return true;
+	}
+
+	private void retry(final ScheduledJob job, final int attempt,
+			long delayMillis) {
+		scheduler.schedule(new Runnable() {
+			public void run() {
+				submit(job, attempt);
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void finished(ScheduledJob job, String host,
+			DumpResult result) {
+		running.remove(job);
+		runningByHost.put(host, runningByHost.get(host) - 1);
+		if (result != null) {
+			lastResults.put(job, result);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.daemon;
+
+import info.schnatterer.remoteDbDumper.batch.SiteListReader;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads the schedule of the daemon. One site per line, prefixed by a
+ * {@link CronExpression}:
+ *
+ * <pre>
+ * &lt;minute&gt; &lt;hour&gt; &lt;day of month&gt; &lt;month&gt; &lt;day of week&gt; &lt;url&gt; [&lt;user&gt; [&lt;password&gt;]]
+ * &#64;daily &lt;url&gt; [&lt;user&gt; [&lt;password&gt;]]
+ * </pre>
+ *
+ * The rest of the line is read like a line of the {@link SiteListReader}.
+ * Empty lines and lines starting with <code>#</code> are ignored.
+ *
+ * @author schnatterer
+ *
+ */
+public class ScheduleReader {
+	private static final String COMMENT = "#";
+	private static final String MACRO = "@";
+	private static final int CRON_FIELDS = 5;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private final SiteListReader siteListReader = new SiteListReader();
+
+	/**
+	 * Reads the schedule from a file.
+	 *
+	 * @throws IOException
+	 *             when reading fails or when a line can't be parsed.
+	 */
+	public List<ScheduledJob> read(String fileName) throws IOException {
+		InputStream is = new FileInputStream(fileName);
+		try {
+			return read(new InputStreamReader(is, CHARSET));
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads the schedule from a reader. Does not close the reader.
+	 */
+	public List<ScheduledJob> read(Reader reader) throws IOException {
+		List<ScheduledJob> jobs = new LinkedList<ScheduledJob>();
+		BufferedReader bufferedReader = new BufferedReader(reader);
+		String line;
+		int lineNumber = 0;
+		while ((line = bufferedReader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith(COMMENT)) {
+				continue;
+			}
+			jobs.add(parseLine(line, lineNumber));
+		}
+		return jobs;
+	}
+
+	private ScheduledJob parseLine(String line, int lineNumber)
+			throws IOException {
+		int cronFields = line.startsWith(MACRO) ? 1 : CRON_FIELDS;
+		String[] fields = line.split("\\s+", cronFields + 1);
+		if (fields.length <= cronFields) {
+			throw new IOException("Line " + lineNumber
+					+ ": Expected cron expression followed by URL");
+		}
+		StringBuilder cron = new StringBuilder();
+		for (int i = 0; i < cronFields; i++) {
+			cron.append(i == 0 ? "" : " ").append(fields[i]);
+		}
+		try {
+			return new ScheduledJob(new CronExpression(cron.toString()),
+					siteListReader.parseLine(fields[cronFields], lineNumber));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Line " + lineNumber + ": "
+					+ e.getMessage(), e);
+		}
+	}
+}
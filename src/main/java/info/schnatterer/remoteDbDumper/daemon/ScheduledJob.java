@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.daemon;
+
+import info.schnatterer.remoteDbDumper.batch.DumpJob;
+
+/**
+ * A {@link DumpJob} together with the times it is run at.
+ *
+ * @author schnatterer
+ *
+ */
+public class ScheduledJob {
+	private final CronExpression cron;
+	private final DumpJob job;
+
+	public ScheduledJob(CronExpression cron, DumpJob job) {
+		this.cron = cron;
+		this.job = job;
+	}
+
+	/** @return when to run the job */
+	public CronExpression getCron() {
+		return cron;
+	}
+
+	/** @return the site to dump */
+	public DumpJob getJob() {
+		return job;
+	}
+
+	@Override
+	public String toString() {
+		return job + " (" + cron + ")";
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.delta;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Rebuilds a target from a delta written by {@link DeltaEncoder} and its base
+ * file. The delta is streamed, the base is accessed randomly. The checksum of
+ * the result is verified.
+ *
+ * @author schnatterer
+ *
+ */
+public class DeltaDecoder {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * @return the name of the base file of a delta, relative to the delta
+	 */
+	public static String readBaseName(File delta) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(delta));
+		try {
+			readMagic(in, delta);
+			return in.readUTF();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the target described by <code>delta</code> to <code>out</code>.
+	 * The base is expected in the same directory as the delta.
+	 *
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             if the base is missing or has changed, or the delta is
+	 *             corrupt
+	 */
+	public long decode(File delta, OutputStream out) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(delta), BUFFER_SIZE));
+		try {
+			readMagic(in, delta);
+			File base = new File(delta.getAbsoluteFile().getParentFile(),
+					in.readUTF());
+			long baseLength = in.readLong();
+			if (!base.isFile() || base.length() != baseLength) {
+				throw new IOException("Base " + base.getAbsolutePath()
+						+ " of delta " + delta.getAbsolutePath()
+						+ " is missing or has changed");
+			}
+			RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+			try {
+				return decode(in, baseFile, out);
+			} finally {
+				baseFile.close();
+			}
+		} catch (EOFException e) {
+			throw new IOException("Delta " + delta.getAbsolutePath()
+					+ " is truncated", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private long decode(DataInputStream in, RandomAccessFile base,
+			OutputStream out) throws IOException {
+		MessageDigest digest = DeltaEncoder.createChecksumDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long written = 0;
+		while (true) {
+			byte op = in.readByte();
+			if (op == DeltaEncoder.OP_COPY) {
+				long offset = in.readLong();
+				long length = in.readLong();
+				if (offset < 0 || length < 0
+						|| offset + length > base.length()) {
+					throw new IOException("Copy exceeds base");
+				}
+				base.seek(offset);
+				while (length > 0) {
+					int count = (int) Math.min(buffer.length, length);
+					base.readFully(buffer, 0, count);
+					write(buffer, count, out, digest);
+					length -= count;
+					written += count;
+				}
+			} else if (op == DeltaEncoder.OP_LITERAL) {
+				int length = in.readInt();
+				if (length < 0 || length > DeltaEncoder.MAX_LITERAL) {
+					throw new IOException("Invalid literal length " + length);
+				}
+				in.readFully(buffer, 0, length);
+				write(buffer, length, out, digest);
+				written += length;
+			} else if (op == DeltaEncoder.OP_END) {
+				long length = in.readLong();
+				byte[] checksum = new byte[digest.getDigestLength()];
+				in.readFully(checksum);
+				if (length != written
+						|| !Arrays.equals(checksum, digest.digest())) {
+					throw new IOException(
+							"Checksum of rebuilt file does not match");
+				}
+				return written;
+			} else {
+				throw new IOException("Invalid operation " + op);
+			}
+		}
+	}
+
+	private static void write(byte[] buffer, int length, OutputStream out,
+			MessageDigest digest) throws IOException {
+		digest.update(buffer, 0, length);
+		out.write(buffer, 0, length);
+	}
+
+	private static void readMagic(DataInputStream in, File delta)
+			throws IOException {
+		if (in.readInt() != DeltaEncoder.MAGIC) {
+			throw new IOException(delta.getAbsolutePath() + " is not a delta");
+		}
+	}
+}
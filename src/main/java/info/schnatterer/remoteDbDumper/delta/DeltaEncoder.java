@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.delta;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes a binary delta of a target against a base file, rsync style: The
+ * blocks of the base are indexed by their checksums (see {@link Signature}),
+ * then a window is rolled over the target byte by byte. Where the window
+ * matches a block, the delta refers to the base, everything else is added
+ * literally.
+ * <p>
+ * The target is streamed, only the checksums of the base and a buffer of
+ * about {@value #MAX_LITERAL} bytes are held in memory. The base is read
+ * once, before the target.
+ * <p>
+ * Format (all numbers big endian):
+ *
+ * <pre>
+ * int     magic
+ * UTF     name of the base file, relative to the delta
+ * long    length of the base file
+ * then any number of
+ * byte 1  long offset, long length: copy from the base
+ * byte 2  int length, bytes: literal
+ * ending with
+ * byte 0  long length of the target, 32 bytes SHA-256 of the target
+ * </pre>
+ *
+ * @author schnatterer
+ *
+ */
+public class DeltaEncoder {
+	static final int MAGIC = 0x52444431; // "RDD1"
+	static final byte OP_END = 0;
+	static final byte OP_COPY = 1;
+	static final byte OP_LITERAL = 2;
+	static final String CHECKSUM_ALGORITHM = "SHA-256";
+
+	/** Maximum length of a literal, also the size of the read buffer */
+	static final int MAX_LITERAL = 64 * 1024;
+
+	private final Signature signature;
+	private final String baseName;
+	private final long baseLength;
+	private final int blockSize;
+	private final MessageDigest strongDigest = Signature.createStrongDigest();
+	private final MessageDigest targetDigest = createChecksumDigest();
+
+	private DataOutputStream out;
+	private InputStream in;
+	private boolean eof;
+	private final byte[] buffer;
+	/** Start of the bytes that did not match yet */
+	private int literalStart;
+	/** Start of the window */
+	private int position;
+	/** End of the bytes read */
+	private int end;
+
+	private long copyOffset = 0;
+	private long copyLength = 0;
+	private long copiedBytes = 0;
+	private long targetLength = 0;
+
+	/**
+	 * Reads the base and calculates its signature.
+	 */
+	public DeltaEncoder(File base) throws IOException {
+		signature = Signature.calculate(base);
+		baseName = base.getName();
+		baseLength = base.length();
+		blockSize = signature.getBlockSize();
+		buffer = new byte[MAX_LITERAL + 2 * blockSize];
+	}
+
+	/**
+	 * Writes the delta of <code>target</code> to <code>delta</code>. Closes
+	 * neither stream. Can be called only once.
+	 *
+	 * @return the number of bytes of the target that are copied from the
+	 *         base
+	 */
+	public long encode(InputStream target, OutputStream delta)
+			throws IOException {
+		in = target;
+		out = new DataOutputStream(delta);
+		out.writeInt(MAGIC);
+		out.writeUTF(baseName);
+		out.writeLong(baseLength);
+
+		int checksum = 0;
+		boolean rolling = false;
+		while (true) {
+			if (!fill(blockSize + (rolling ? 1 : 0))) {
+				break;
+			}
+			if (rolling) {
+				checksum = Signature.roll(checksum, buffer[position],
+						buffer[position + blockSize], blockSize);
+				position++;
+				if (position - literalStart >= MAX_LITERAL) {
+					writeLiteral();
+				}
+			} else {
+				checksum = Signature.weak(buffer, position, blockSize);
+			}
+			int block = signature.find(checksum, buffer, position,
+					strongDigest, (int) ((copyOffset + copyLength) / blockSize));
+			if (block >= 0) {
+				writeLiteral();
+				addCopy((long) block * blockSize);
+				position += blockSize;
+				literalStart = position;
+				rolling = false;
+			} else {
+				rolling = true;
+			}
+		}
+		// The rest is too short for a block
+		position = end;
+		writeLiteral();
+		writeCopy();
+		out.writeByte(OP_END);
+		out.writeLong(targetLength);
+		out.write(targetDigest.digest());
+		out.flush();
+		return copiedBytes;
+	}
+
+	/**
+	 * Makes sure at least <code>length</code> bytes after the window start
+	 * are in the buffer.
+	 *
+	 * @return <code>false</code> if the target ends before
+	 */
+	private boolean fill(int length) throws IOException {
+		while (end - position < length && !eof) {
+			if (end == buffer.length) {
+				// Only the bytes that are not written yet are kept
+				int kept = end - literalStart;
+				System.arraycopy(buffer, literalStart, buffer, 0, kept);
+				position -= literalStart;
+				end = kept;
+				literalStart = 0;
+			}
+			int count = in.read(buffer, end, buffer.length - end);
+			if (count == -1) {
+				eof = true;
+			} else {
+				targetDigest.update(buffer, end, count);
+				targetLength += count;
+				end += count;
+			}
+		}
+		return end - position >= length;
+	}
+
+	private void addCopy(long offset) throws IOException {
+		if (copyLength > 0 && copyOffset + copyLength == offset) {
+			copyLength += blockSize;
+		} else {
+			writeCopy();
+			copyOffset = offset;
+			copyLength = blockSize;
+		}
+		copiedBytes += blockSize;
+	}
+
+	private void writeCopy() throws IOException {
+		if (copyLength == 0) {
+			return;
+		}
+		out.writeByte(OP_COPY);
+		out.writeLong(copyOffset);
+		out.writeLong(copyLength);
+		copyLength = 0;
+	}
+
+	/**
+	 * Writes the bytes from the end of the last match to the start of the
+	 * window.
+	 */
+	private void writeLiteral() throws IOException {
+		int length = position - literalStart;
+		if (length == 0) {
+			return;
+		}
+		writeCopy();
+		out.writeByte(OP_LITERAL);
+		out.writeInt(length);
+		out.write(buffer, literalStart, length);
+		literalStart = position;
+	}
+
+	static MessageDigest createChecksumDigest() {
+		try {
+			return MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE provides SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
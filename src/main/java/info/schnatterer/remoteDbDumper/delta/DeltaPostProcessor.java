@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.delta;
+
+import info.schnatterer.remoteDbDumper.batch.DumpJob;
+import info.schnatterer.remoteDbDumper.batch.DumpPostProcessor;
+import info.schnatterer.remoteDbDumper.dump.download.FileMover;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Replaces each downloaded dump by a delta against the last full dump
+ * (baseline) of the same site. Every {@link #getBaselineInterval()} dumps a
+ * new baseline is kept, so the deltas don't grow forever and the chain to
+ * rebuild a dump is never longer than one delta. A dump also becomes a new
+ * baseline if its delta would be larger than half the dump.
+ * <p>
+ * The baseline of each site is remembered in {@value #STATE_FILE} in the
+ * target directory. Deltas are named like the dump, with suffix
+ * {@value #SUFFIX}, and reference their baseline by name, so keep both in
+ * the same directory. Use {@link DeltaDecoder} to rebuild a dump.
+ *
+ * @author schnatterer
+ *
+ */
+public class DeltaPostProcessor implements DumpPostProcessor {
+	/** Suffix of the delta files */
+	public static final String SUFFIX = ".delta";
+	/** By default a new baseline is kept every this many dumps */
+	public static final int DEFAULT_BASELINE_INTERVAL = 24;
+	/** Name of the file that stores the baselines */
+	public static final String STATE_FILE = "RemoteDbDumper-delta.properties";
+
+	/** A delta larger than this share of the dump is not worth it */
+	private static final double MAX_DELTA_RATIO = 0.5;
+
+	private static Logger logger = Logger.getLogger(DeltaPostProcessor.class);
+
+	private final int baselineInterval;
+
+	/**
+	 * @param baselineInterval
+	 *            a new baseline is kept every this many dumps of a site
+	 */
+	public DeltaPostProcessor(int baselineInterval) {
+		if (baselineInterval < 1) {
+			throw new IllegalArgumentException(
+					"Baseline interval must be at least 1");
+		}
+		this.baselineInterval = baselineInterval;
+	}
+
+	/** @return a new baseline is kept every this many dumps of a site */
+	public int getBaselineInterval() {
+		return baselineInterval;
+	}
+
+	public List<String> process(DumpJob job, List<String> files,
+			File directory) throws IOException {
+		List<String> processed = new LinkedList<String>();
+		for (int i = 0; i < files.size(); i++) {
+			// Sites may deliver several files per dump, keep one chain each
+			String key = job.getUrl() + "#" + i;
+			processed.add(process(key, files.get(i), directory));
+		}
+		return processed;
+	}
+
+	private String process(String key, String fileName, File directory)
+			throws IOException {
+		File file = new File(directory, fileName);
+		String[] baseline = getBaseline(directory, key);
+		if (baseline != null) {
+			int deltas = Integer.parseInt(baseline[0]);
+			File base = new File(directory, baseline[1]);
+			if (deltas + 1 < baselineInterval && base.isFile()
+					&& !base.getName().equals(fileName)) {
+				File delta = createDelta(base, file);
+				if (delta != null) {
+					setBaseline(directory, key, deltas + 1, baseline[1]);
+					return delta.getName();
+				}
+			}
+		}
+		logger.info("Keeping " + fileName + " as new baseline");
+		setBaseline(directory, key, 0, fileName);
+		return fileName;
+	}
+
+	/**
+	 * Writes the delta and deletes the dump.
+	 *
+	 * @return the delta or <code>null</code> if the delta is too large
+	 */
+	private File createDelta(File base, File file) throws IOException {
+		long start = System.nanoTime();
+		File delta = new File(file.getParentFile(), file.getName() + SUFFIX);
+		File tempFile = File.createTempFile(file.getName(), ".tmp",
+				file.getParentFile());
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				OutputStream out = new BufferedOutputStream(
+						new FileOutputStream(tempFile), DeltaEncoder.MAX_LITERAL);
+				try {
+					new DeltaEncoder(base).encode(in, out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			if (tempFile.length() > file.length() * MAX_DELTA_RATIO) {
+				logger.info("Delta of " + file.getName() + " against "
+						+ base.getName() + " would be " + tempFile.length()
+						+ " bytes, which is not worth it");
+				return null;
+			}
+			FileMover.move(tempFile, delta);
+		} finally {
+			tempFile.delete();
+		}
+		logger.info("Stored " + file.getName() + " as delta against "
+				+ base.getName() + ": " + delta.length() + " of "
+				+ file.length() + " bytes in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		if (!file.delete()) {
+			throw new IOException("Unable to delete " + file.getAbsolutePath());
+		}
+		return delta;
+	}
+
+	/**
+	 * @return the number of deltas stored against the baseline and its name
+	 *         or <code>null</code> if there is none yet
+	 */
+	private synchronized String[] getBaseline(File directory, String key)
+			throws IOException {
+		String value = loadState(directory).getProperty(key);
+		if (value == null) {
+			return null;
+		}
+		String[] baseline = value.split(" ", 2);
+		if (baseline.length != 2 || !baseline[0].matches("\\d+")) {
+			logger.warn("Ignoring invalid baseline \"" + value + "\" of "
+					+ key);
+			return null;
+		}
+		return baseline;
+	}
+
+	private synchronized void setBaseline(File directory, String key,
+			int deltas, String fileName) throws IOException {
+		Properties state = loadState(directory);
+		state.setProperty(key, deltas + " " + fileName);
+		File tempFile = File.createTempFile(STATE_FILE, ".tmp", directory);
+		try {
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				state.store(out, "Baselines of the delta dumps");
+			} finally {
+				out.close();
+			}
+			FileMover.move(tempFile, new File(directory, STATE_FILE));
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private Properties loadState(File directory) throws IOException {
+		Properties state = new Properties();
+		File file = new File(directory, STATE_FILE);
+		if (file.isFile()) {
+			InputStream in = new FileInputStream(file);
+			try {
+				state.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return state;
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.delta;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The checksums of the blocks of a base file, as in rsync: A weak rolling
+ * checksum, that can be updated in constant time when the window moves on by
+ * one byte, and a strong checksum, that is only calculated when the weak one
+ * matches.
+ * <p>
+ * Only the checksums are kept in memory (about 20 bytes per block), never the
+ * base file itself. The block size grows with the square root of the file
+ * size, so even a dump of several GiB has only some ten thousand blocks.
+ *
+ * @author schnatterer
+ *
+ */
+class Signature {
+	static final int MIN_BLOCK_SIZE = 2 * 1024;
+	static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+	private static final String STRONG_ALGORITHM = "MD5";
+	private static final int NO_BLOCK = -1;
+
+	private final int blockSize;
+	private final int[] weak;
+	private final long[] strong;
+	/** Hash table from weak checksum to first block, chained via next */
+	private final int[] heads;
+	private final int[] next;
+
+	private Signature(int blockSize, int blocks) {
+		this.blockSize = blockSize;
+		weak = new int[blocks];
+		strong = new long[blocks];
+		next = new int[blocks];
+		int tableSize = Integer.highestOneBit(Math.max(blocks, 1)) * 2;
+		heads = new int[tableSize];
+		Arrays.fill(heads, NO_BLOCK);
+	}
+
+	/**
+	 * Reads the base file once and calculates the checksums of all complete
+	 * blocks.
+	 */
+	static Signature calculate(File base) throws IOException {
+		long length = base.length();
+		int blockSize = blockSize(length);
+		Signature signature = new Signature(blockSize,
+				(int) (length / blockSize));
+		MessageDigest digest = createStrongDigest();
+		byte[] block = new byte[blockSize];
+		InputStream in = new BufferedInputStream(new FileInputStream(base),
+				blockSize);
+		try {
+			for (int i = 0; i < signature.weak.length; i++) {
+				readFully(in, block);
+				signature.add(i, weak(block, 0, blockSize),
+						strong(digest, block, 0, blockSize));
+			}
+		} finally {
+			in.close();
+		}
+		return signature;
+	}
+
+	/**
+	 * @return about the square root of the length, as power of two
+	 */
+	static int blockSize(long length) {
+		long root = (long) Math.sqrt(length);
+		int blockSize = MIN_BLOCK_SIZE;
+		while (blockSize < root && blockSize < MAX_BLOCK_SIZE) {
+			blockSize *= 2;
+		}
+		return blockSize;
+	}
+
+	int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Finds a block with the same content as <code>data</code>.
+	 *
+	 * @param preferred
+	 *            the block to check first, e.g. the one following the last
+	 *            match. Allows for merging consecutive matches.
+	 * @return the index of the block or a negative value if there is none
+	 */
+	int find(int weakChecksum, byte[] data, int offset, MessageDigest digest,
+			int preferred) {
+		boolean candidate = false;
+		for (int block = heads[bucket(weakChecksum)]; block != NO_BLOCK;
+				block = next[block]) {
+			if (weak[block] == weakChecksum) {
+				candidate = true;
+				break;
+			}
+		}
+		if (!candidate) {
+			// The common case: rolling over bytes that are not in the base
+			return NO_BLOCK;
+		}
+		long strongChecksum = strong(digest, data, offset, blockSize);
+		if (preferred >= 0 && preferred < weak.length
+				&& weak[preferred] == weakChecksum
+				&& strong[preferred] == strongChecksum) {
+			return preferred;
+		}
+		for (int block = heads[bucket(weakChecksum)]; block != NO_BLOCK;
+				block = next[block]) {
+			if (weak[block] == weakChecksum && strong[block] == strongChecksum) {
+				return block;
+			}
+		}
+		return NO_BLOCK;
+	}
+
+	/**
+	 * The rsync checksum: the lower 16 bits are the sum of the bytes, the
+	 * higher 16 bits the sum of the sums.
+	 */
+	static int weak(byte[] data, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			a += data[offset + i] & 0xff;
+			b += a;
+		}
+		return (a & 0xffff) | (b << 16);
+	}
+
+	/**
+	 * Moves the window of a weak checksum on by one byte.
+	 */
+	static int roll(int checksum, byte out, byte in, int blockSize) {
+		int a = checksum & 0xffff;
+		int b = checksum >>> 16;
+		a = (a - (out & 0xff) + (in & 0xff)) & 0xffff;
+		b = (b - blockSize * (out & 0xff) + a) & 0xffff;
+		return a | (b << 16);
+	}
+
+	static MessageDigest createStrongDigest() {
+		try {
+			return MessageDigest.getInstance(STRONG_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE provides MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void add(int block, int weakChecksum, long strongChecksum) {
+		weak[block] = weakChecksum;
+		strong[block] = strongChecksum;
+		int bucket = bucket(weakChecksum);
+		next[block] = heads[bucket];
+		heads[bucket] = block;
+	}
+
+	/**
+	 * The lower bits of the weak checksum are the sum of the bytes, which is
+	 * about the same for all blocks of a text dump. So mix all bits.
+	 */
+	private int bucket(int weakChecksum) {
+		return (weakChecksum * 0x9e3779b9) >>> (32 - Integer
+				.numberOfTrailingZeros(heads.length));
+	}
+
+	/**
+	 * @return the first 64 bits of the MD5 of the data
+	 */
+	private static long strong(MessageDigest digest, byte[] data, int offset,
+			int length) {
+		digest.update(data, offset, length);
+		byte[] hash = digest.digest();
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (hash[i] & 0xff);
+		}
+		return value;
+	}
+
+	private static void readFully(InputStream in, byte[] buffer)
+			throws IOException {
+		int read = 0;
+		while (read < buffer.length) {
+			int count = in.read(buffer, read, buffer.length - read);
+			if (count == -1) {
+				throw new IOException("Base file is shorter than expected");
+			}
+			read += count;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump;
+
+import info.schnatterer.remoteDbDumper.dump.util.HttpFormClient;
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Detects the engine of a site from its landing page and delegates the dump
+ * to it. The engine detected is remembered per URL, so only the first dump
+ * of a site needs an additional request.
+ *
+ * @author schnatterer
+ *
+ */
+class AutoDetectingDbDump implements DbDump {
+	private static Logger logger = Logger.getLogger(AutoDetectingDbDump.class);
+
+	private final EngineRegistry registry;
+	private final DbDumpEngine fallback;
+	private final ConcurrentMap<String, DbDumpEngine> detected;
+	private final DbDumpContext context;
+	private final DumpMetrics metrics;
+
+	/**
+	 * @param fallback
+	 *            the engine used if no engine detects the site
+	 * @param detected
+	 *            the engines detected so far, by URL
+	 */
+	AutoDetectingDbDump(EngineRegistry registry, DbDumpEngine fallback,
+			ConcurrentMap<String, DbDumpEngine> detected,
+			DbDumpContext context, DumpMetrics metrics) {
+		this.registry = registry;
+		this.fallback = fallback;
+		this.detected = detected;
+		this.context = context;
+		this.metrics = metrics;
+	}
+
+	public List<String> download(String url, String user, String password,
+			File targetDirectory) throws DbDumpException {
+		DbDumpEngine engine = detected.get(url);
+		if (engine == null) {
+			engine = detect(url);
+			detected.putIfAbsent(url, engine);
+		}
+		return engine.createDbDump(context, metrics).download(url, user,
+				password, targetDirectory);
+	}
+
+	private DbDumpEngine detect(String url) throws DbDumpException {
+		try {
+			HttpFormClient.parseUrl(url);
+		} catch (MalformedURLException e) {
+			throw new DbDumpException(
+					"Error connecting, malformed URL: " + url, e);
+		}
+		HttpFormClient client = new HttpFormClient(context.getOptions()
+				.getTransport());
+		metrics.begin(DumpPhase.CONNECT);
+		try {
+			HttpPage page = client.get(url);
+			DbDumpEngine engine = registry.detect(page);
+			if (engine == null) {
+				logger.warn("Unable to detect the engine of " + url
+						+ ", trying " + fallback.getName());
+				return fallback;
+			}
+			logger.info("Detected engine " + engine.getName() + " for "
+					+ url);
+			return engine;
+		} catch (IOException e) {
+			throw new DbDumpException("Error connecting, IO Exception.", e);
+		} finally {
+			metrics.end();
+			client.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump;
+
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.dump.util.WebClientPool;
+
+/**
+ * The resources shared by all dumps of a run, passed to the
+ * {@link DbDumpEngine}s when creating a dump.
+ *
+ * @author schnatterer
+ *
+ */
+public class DbDumpContext {
+	private DownloadOptions options = new DownloadOptions();
+	private SessionCache sessionCache = null;
+	private WebClientPool webClientPool = null;
+
+	/** @return how the dumps are transferred and stored */
+	public DownloadOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @param options
+	 *            how the dumps are transferred and stored
+	 */
+	public void setOptions(DownloadOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * @return the cache for reusing the sessions of previous logins or
+	 *         <code>null</code> for none
+	 */
+	public SessionCache getSessionCache() {
+		return sessionCache;
+	}
+
+	/**
+	 * @param sessionCache
+	 *            the cache for reusing the sessions of previous logins or
+	 *            <code>null</code> for none
+	 */
+	public void setSessionCache(SessionCache sessionCache) {
+		this.sessionCache = sessionCache;
+	}
+
+	/**
+	 * @return the pool the engines that use a browser borrow their web
+	 *         clients from or <code>null</code> if each dump creates its own
+	 */
+	public WebClientPool getWebClientPool() {
+		return webClientPool;
+	}
+
+	/**
+	 * @param webClientPool
+	 *            the pool the engines that use a browser borrow their web
+	 *            clients from or <code>null</code> if each dump creates its
+	 *            own
+	 */
+	public void setWebClientPool(WebClientPool webClientPool) {
+		this.webClientPool = webClientPool;
+	}
+}
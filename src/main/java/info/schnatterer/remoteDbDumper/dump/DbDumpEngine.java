@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump;
+
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+/**
+ * A kind of web application that dumps can be downloaded from, e.g. Drupal
+ * or phpMyAdmin.
+ * <p>
+ * Engines are found using {@link java.util.ServiceLoader}: Implementations
+ * must have a public default constructor and be listed in
+ * <code>META-INF/services/info.schnatterer.remoteDbDumper.dump.DbDumpEngine</code>
+ * . So additional engines can be added by putting a jar on the classpath, see
+ * {@link EngineRegistry}.
+ *
+ * @author schnatterer
+ *
+ */
+public interface DbDumpEngine {
+
+	/**
+	 * @return the unique name of the engine, used for selecting it, e.g.
+	 *         <code>phpmyadmin</code>
+	 */
+	String getName();
+
+	/**
+	 * Decides whether a page belongs to the web application of this engine.
+	 * Used for detecting the engine of a site automatically.
+	 *
+	 * @param landingPage
+	 *            the page that is returned for the URL of the site, without
+	 *            logging in. Might be an error page (e.g. 403).
+	 * @return <code>true</code> if the site can be dumped by this engine
+	 */
+	boolean detect(HttpPage landingPage);
+
+	/**
+	 * @param metrics
+	 *            the metrics of the download, to be recorded by the dump
+	 * @return a new {@link DbDump} instance that is used for exactly one
+	 *         download
+	 */
+	DbDump createDbDump(DbDumpContext context, DumpMetrics metrics);
+}
@@ -29,6 +29,7 @@ import com.gargoylesoftware.htmlunit.html.DomNode;
 public class DbDumpException extends Exception {
 	static final long serialVersionUID = 1L;
 	private DomNode node = null;
+	private int statusCode = 0;
 
 	/**
 	 * Constructs a new DrupalDbDownloadException with {@code null} as its
@@ -114,6 +115,15 @@ public class DbDumpException extends Exception {
 		super(message, cause, enableSuppression, writableStackTrace);
 	}
 
+	/**
+	 * @param statusCode
+	 *            the HTTP status code of the response that made the dump fail
+	 */
+	public DbDumpException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
 	public DbDumpException(String message, DomNode node) {
 		super(createMessage(message, node));
 		this.setNode(node);
@@ -141,5 +151,17 @@ public class DbDumpException extends Exception {
 	 */
 	protected void setNode(DomNode node) {
 		this.node = node;
+		if (node != null && node.getPage() != null
+				&& node.getPage().getWebResponse() != null) {
+			statusCode = node.getPage().getWebResponse().getStatusCode();
+		}
+	}
+
+	/**
+	 * @return the HTTP status code of the response the error refers to or 0
+	 *         if unknown
+	 */
+	public int getStatusCode() {
+		return statusCode;
 	}
 }
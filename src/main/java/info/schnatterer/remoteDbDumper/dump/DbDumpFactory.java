@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.dump;
+
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+/**
+ * Creates {@link DbDump} instances. Each download job gets its own instance,
+ * so implementations don't need to be thread safe.
+ *
+ * @author schnatterer
+ *
+ */
+public interface DbDumpFactory {
+
+	/**
+	 * @param metrics
+	 *            the metrics of the download, to be recorded by the dump
+	 * @return a new {@link DbDump} instance that is used for exactly one
+	 *         download.
+	 */
+	DbDump createDbDump(DumpMetrics metrics);
+}
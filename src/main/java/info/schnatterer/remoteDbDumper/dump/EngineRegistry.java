@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump;
+
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link DbDumpEngine}s available on the classpath, found using
+ * {@link ServiceLoader}.
+ * <p>
+ * Besides selecting an engine by name, the engine of each site can be
+ * detected from its landing page, see {@link #AUTO}. This way, one run can
+ * dump sites of different kinds.
+ *
+ * @author schnatterer
+ *
+ */
+public class EngineRegistry {
+	/** Name for detecting the engine of each site from its landing page */
+	public static final String AUTO = "auto";
+
+	private final Map<String, DbDumpEngine> engines = new LinkedHashMap<String, DbDumpEngine>();
+
+	/**
+	 * Creates a registry of all engines on the classpath.
+	 */
+	public EngineRegistry() {
+		this(ServiceLoader.load(DbDumpEngine.class));
+	}
+
+	/**
+	 * @param engines
+	 *            the engines, in the order they are asked when detecting
+	 */
+	public EngineRegistry(Iterable<DbDumpEngine> engines) {
+		for (DbDumpEngine engine : engines) {
+			if (this.engines.containsKey(engine.getName())) {
+				throw new IllegalArgumentException("Duplicate engine name "
+						+ engine.getName());
+			}
+			this.engines.put(engine.getName(), engine);
+		}
+	}
+
+	/** @return the names of all engines, in the order they are detected */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(engines.keySet());
+	}
+
+	/**
+	 * @return the engine of that name or <code>null</code> if there is none
+	 */
+	public DbDumpEngine getEngine(String name) {
+		return engines.get(name);
+	}
+
+	/**
+	 * @return the first engine that {@link DbDumpEngine#detect(HttpPage)
+	 *         detects} the page or <code>null</code> if none does
+	 */
+	public DbDumpEngine detect(HttpPage landingPage) {
+		for (DbDumpEngine engine : engines.values()) {
+			if (engine.detect(landingPage)) {
+				return engine;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param name
+	 *            the name of the engine or {@link #AUTO}
+	 * @param fallback
+	 *            the name of the engine used in {@link #AUTO} mode, if no
+	 *            engine detects a site
+	 * @return a factory for dumps of the engine
+	 * @throws IllegalArgumentException
+	 *             if there is no such engine
+	 */
+	public DbDumpFactory createFactory(String name, String fallback,
+			final DbDumpContext context) {
+		if (AUTO.equals(name)) {
+			final DbDumpEngine fallbackEngine = getExistingEngine(fallback);
+			// Shared by all dumps, so each site is detected only once
+			final ConcurrentMap<String, DbDumpEngine> detected = new ConcurrentHashMap<String, DbDumpEngine>();
+			return new DbDumpFactory() {
+				public DbDump createDbDump(DumpMetrics metrics) {
+					return new AutoDetectingDbDump(EngineRegistry.this,
+							fallbackEngine, detected, context, metrics);
+				}
+			};
+		}
+		final DbDumpEngine engine = getExistingEngine(name);
+		return new DbDumpFactory() {
+			public DbDump createDbDump(DumpMetrics metrics) {
+				return engine.createDbDump(context, metrics);
+			}
+		};
+	}
+
+	private DbDumpEngine getExistingEngine(String name) {
+		DbDumpEngine engine = engines.get(name);
+		if (engine == null) {
+			throw new IllegalArgumentException("Unknown engine \"" + name
+					+ "\". Valid engines: " + engines.keySet());
+		}
+		return engine;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.adminer;
+
+import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.dump.util.HttpFormClient;
+import info.schnatterer.remoteDbDumper.dump.util.HttpFormDbDump;
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.dump.util.ScrapedForm;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Dumps a database using the export of <a
+ * href="http://www.adminer.org/">Adminer</a>, via plain HTTP.
+ * <p>
+ * The server, user and database are taken from the URL as understood by
+ * Adminer, e.g.
+ * <code>https://example.com/adminer.php?server=localhost&username=drupal&db=drupal</code>
+ * . Without <code>db</code> all databases are exported. The dump is
+ * compressed by the server using gzip, if available.
+ *
+ * @author schnatterer
+ *
+ */
+public class AdminerDbDump extends HttpFormDbDump {
+	private static final String NAME_INPUT_LOGIN_NAME = "auth[username]";
+	private static final String NAME_INPUT_LOGIN_PASS = "auth[password]";
+
+	private static final String NAME_INPUT_DB_STYLE = "db_style";
+	private static final String NAME_SELECT_FORMAT = "format";
+	private static final String VALUE_SELECT_FORMAT = "sql";
+	private static final String NAME_SELECT_OUTPUT = "output";
+	private static final String VALUE_SELECT_OUTPUT_GZIP = "gz";
+	private static final String VALUE_SELECT_OUTPUT_FILE = "file";
+	private static final String PARAM_DUMP = "dump=";
+
+	/**
+	 * Creates a dump that uses the default {@link DownloadOptions}.
+	 */
+	public AdminerDbDump() {
+		this(new DownloadOptions(), null, new DumpMetrics());
+	}
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 * @param metrics
+	 *            records the duration of each phase of the dump
+	 */
+	public AdminerDbDump(DownloadOptions options, SessionCache sessionCache,
+			DumpMetrics metrics) {
+		super(options, sessionCache, metrics);
+	}
+
+	@Override
+	protected boolean isLoginRequired(HttpPage page) {
+		return ScrapedForm.findByField(page.getContent(),
+				NAME_INPUT_LOGIN_NAME) != null;
+	}
+
+	@Override
+	protected HttpPage login(HttpFormClient client, String url, HttpPage page,
+			String user, String password) throws DbDumpException, IOException {
+		// POST params:
+		// auth[driver]=server
+		// auth[server]=<server from URL>
+		// auth[username]=<user>
+		// auth[password]=<password>
+		// auth[db]=<db from URL>
+		ScrapedForm form = ScrapedForm.findByField(page.getContent(),
+				NAME_INPUT_LOGIN_NAME);
+		if (!user.isEmpty()) {
+			form.setField(NAME_INPUT_LOGIN_NAME, user);
+		}
+		if (!form.hasField(NAME_INPUT_LOGIN_PASS)) {
+			throw new DbDumpException(
+					"Unable to find input for login password. " + form);
+		}
+		form.setField(NAME_INPUT_LOGIN_PASS, password);
+		return client.submit(page, form, null);
+	}
+
+	@Override
+	protected List<String> downloadDump(HttpFormClient client, String url,
+			HttpPage page, File targetDir) throws DbDumpException, IOException {
+		// The page after logging in has the server, user and database in
+		// its URL
+		String pageUrl = page.getUrl();
+		int fragment = pageUrl.indexOf('#');
+		if (fragment >= 0) {
+			pageUrl = pageUrl.substring(0, fragment);
+		}
+		HttpPage dumpPage = client.get(pageUrl
+				+ (pageUrl.indexOf('?') >= 0 ? "&" : "?") + PARAM_DUMP);
+		if (dumpPage.getStatusCode() != 200) {
+			throw new DbDumpException("Unable to open export page - status code "
+					+ dumpPage.getStatusCode() + ". " + dumpPage,
+					dumpPage.getStatusCode());
+		}
+		// POST params
+		// output=gz
+		// format=sql
+		// db_style=, table_style=DROP+CREATE, data_style=INSERT, ...
+		// databases[]=<database>... or tables[]=<table>, data[]=<table>...
+		// token=<generated token>
+		ScrapedForm dumpForm = ScrapedForm.findByField(dumpPage.getContent(),
+				NAME_INPUT_DB_STYLE);
+		if (dumpForm == null) {
+			throw new DbDumpException("Unable to find export form. "
+					+ dumpPage);
+		}
+		selectOption(dumpForm, NAME_SELECT_FORMAT, VALUE_SELECT_FORMAT,
+				"format");
+		List<String> outputs = dumpForm.getSelectOptions(NAME_SELECT_OUTPUT);
+		if (outputs != null && outputs.contains(VALUE_SELECT_OUTPUT_GZIP)) {
+			dumpForm.setField(NAME_SELECT_OUTPUT, VALUE_SELECT_OUTPUT_GZIP);
+		} else {
+			logger.warn("Server does not offer gzip compression, exporting uncompressed");
+			selectOption(dumpForm, NAME_SELECT_OUTPUT,
+					VALUE_SELECT_OUTPUT_FILE, "output");
+		}
+
+		return downloadAttachment(client,
+				client.createSubmitRequest(dumpPage, dumpForm, null),
+				targetDir);
+	}
+}
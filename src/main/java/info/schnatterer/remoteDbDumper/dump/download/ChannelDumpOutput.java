@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Writes the dump to a channel as received, e.g. a file.
+ *
+ * @author schnatterer
+ *
+ */
+public class ChannelDumpOutput implements DumpOutput {
+	private final SeekableByteChannel target;
+	private long storedBytes = 0;
+
+	public ChannelDumpOutput(SeekableByteChannel target) {
+		this.target = target;
+	}
+
+	public void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			storedBytes += target.write(buffer);
+		}
+	}
+
+	public long getStoredBytes() {
+		return storedBytes;
+	}
+
+	public long sync() throws IOException {
+		return target.position();
+	}
+
+	public void close() {
+		// Channel is closed by the owner
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Persists how far the transfer of a dump got, next to the partial file. Can
+ * only be used for continuing the transfer, if the server sends the same
+ * validators on the next request and the dump is stored with the same
+ * {@link DumpTransform}.
+ * <p>
+ * The offset in the dump and the length of the partial file differ, if the
+ * dump is transformed while downloading.
+ *
+ * @author schnatterer
+ *
+ */
+class Checkpoint {
+	private static final String KEY_URL = "url";
+	private static final String KEY_OFFSET = "offset";
+	private static final String KEY_ETAG = "etag";
+	private static final String KEY_LAST_MODIFIED = "lastModified";
+	private static final String KEY_CONTENT_LENGTH = "contentLength";
+	private static final String KEY_PART_LENGTH = "partLength";
+	private static final String KEY_TRANSFORM = "transform";
+
+	private final File file;
+	private long offset = 0;
+	private long partLength = 0;
+
+	Checkpoint(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Writes the checkpoint. Written to a temp file first, so a crash does not
+	 * leave a corrupt checkpoint.
+	 */
+	void save(DumpSource source, String transform, long offset,
+			long partLength) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(KEY_URL, source.getUrl());
+		properties.setProperty(KEY_OFFSET, Long.toString(offset));
+		properties.setProperty(KEY_PART_LENGTH, Long.toString(partLength));
+		setIfNotNull(properties, KEY_TRANSFORM, transform);
+		setIfNotNull(properties, KEY_ETAG, source.getETag());
+		setIfNotNull(properties, KEY_LAST_MODIFIED, source.getLastModified());
+		properties.setProperty(KEY_CONTENT_LENGTH,
+				Long.toString(source.getContentLength()));
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tempFile);
+		try {
+			properties.store(out, "Checkpoint of partial download");
+		} finally {
+			out.close();
+		}
+		FileMover.move(tempFile, file);
+	}
+
+	/**
+	 * Reads the checkpoint. If successful, the position to continue at is
+	 * available via {@link #getOffset()} and {@link #getPartLength()}.
+	 *
+	 * @param transform
+	 *            the name of the transform or <code>null</code>
+	 * @param partFileLength
+	 *            the current length of the partial file
+	 * @return <code>false</code> if there is no checkpoint or if it does not
+	 *         match the source.
+	 */
+	boolean load(DumpSource source, String transform, long partFileLength) {
+		if (!file.isFile()) {
+			return false;
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			if (!source.getUrl().equals(properties.getProperty(KEY_URL))
+					|| !equals(source.getETag(),
+							properties.getProperty(KEY_ETAG))
+					|| !equals(source.getLastModified(),
+							properties.getProperty(KEY_LAST_MODIFIED))
+					|| !equals(transform, properties.getProperty(KEY_TRANSFORM))
+					|| source.getContentLength() != Long.parseLong(properties
+							.getProperty(KEY_CONTENT_LENGTH))) {
+				return false;
+			}
+			long savedOffset = Long.parseLong(properties
+					.getProperty(KEY_OFFSET));
+			long savedPartLength = Long.parseLong(properties
+					.getProperty(KEY_PART_LENGTH));
+			if (savedPartLength > partFileLength) {
+				// Partial file has been truncated
+				return false;
+			}
+			offset = savedOffset;
+			partLength = savedPartLength;
+			return true;
+		} catch (IOException e) {
+			return false;
+		} catch (NumberFormatException e) {
+			// Also thrown for missing properties
+			return false;
+		}
+	}
+
+	/** @return the offset in the dump to continue at */
+	long getOffset() {
+		return offset;
+	}
+
+	/** @return the length of the partial file at {@link #getOffset()} */
+	long getPartLength() {
+		return partLength;
+	}
+
+	void delete() {
+		file.delete();
+	}
+
+	private static void setIfNotNull(Properties properties, String key,
+			String value) {
+		if (value != null) {
+			properties.setProperty(key, value);
+		}
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
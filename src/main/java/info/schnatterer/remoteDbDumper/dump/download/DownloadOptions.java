@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityCheck;
+import info.schnatterer.remoteDbDumper.dump.util.HttpTransport;
+import info.schnatterer.remoteDbDumper.progress.ProgressMonitor;
+
+import java.util.regex.Pattern;
+
+/**
+ * Settings that influence how a dump is transferred and stored. One instance
+ * can be shared by all dumps of a run.
+ *
+ * @author schnatterer
+ *
+ */
+public class DownloadOptions {
+	/** Default size of the buffer used for transferring a dump: 64 KiB */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/** Default number of attempts to resume an interrupted transfer */
+	public static final int DEFAULT_RESUME_ATTEMPTS = 3;
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int resumeAttempts = DEFAULT_RESUME_ATTEMPTS;
+	private int segments = 1;
+	private DumpTransform transform = null;
+	private String checksum = IntegrityCheck.SHA256;
+	private boolean validate = false;
+	private DumpSink sink = null;
+	private BandwidthLimiter bandwidthLimiter = null;
+	private ProgressMonitor progressMonitor = null;
+	private HttpTransport transport = null;
+	private Pattern minimalFetchPattern = null;
+	private DumpCache dumpCache = null;
+
+	/** @return the size of the buffer used for transferring a dump in bytes */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the size of the buffer used for transferring a dump in bytes
+	 */
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @return how often an interrupted transfer is resumed before giving up.
+	 *         Only applies to resumable transfers, see
+	 *         {@link DumpSource#isResumable()}.
+	 */
+	public int getResumeAttempts() {
+		return resumeAttempts;
+	}
+
+	/**
+	 * @param resumeAttempts
+	 *            how often an interrupted transfer is resumed before giving
+	 *            up. <code>0</code> disables resuming within one run.
+	 */
+	public void setResumeAttempts(int resumeAttempts) {
+		if (resumeAttempts < 0) {
+			throw new IllegalArgumentException(
+					"Resume attempts must not be negative");
+		}
+		this.resumeAttempts = resumeAttempts;
+	}
+
+	/**
+	 * @return the maximum number of segments a dump is transferred in at the
+	 *         same time. <code>1</code> for a single connection.
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @param segments
+	 *            the maximum number of segments a dump is transferred in at
+	 *            the same time, each on a connection of its own. Only applies
+	 *            to large, resumable transfers that are stored as received.
+	 */
+	public void setSegments(int segments) {
+		if (segments < 1) {
+			throw new IllegalArgumentException(
+					"Number of segments must be at least 1");
+		}
+		this.segments = segments;
+	}
+
+	/**
+	 * @return the transform applied to the dumps before storing them or
+	 *         <code>null</code> if they are stored as received
+	 */
+	public DumpTransform getTransform() {
+		return transform;
+	}
+
+	/**
+	 * @param transform
+	 *            the transform applied to the dumps before storing them (e.g.
+	 *            {@link GzipTransform}) or <code>null</code> to store them as
+	 *            received
+	 */
+	public void setTransform(DumpTransform transform) {
+		this.transform = transform;
+	}
+
+	/**
+	 * @return the algorithm of the checksum computed while downloading, see
+	 *         {@link IntegrityCheck}. <code>null</code> for none.
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @param checksum
+	 *            the algorithm of the checksum computed while downloading
+	 *            ({@link IntegrityCheck#SHA256} or {@link IntegrityCheck#XXH64})
+	 *            or <code>null</code> for none
+	 */
+	public void setChecksum(String checksum) {
+		if (checksum != null && !IntegrityCheck.isSupportedAlgorithm(checksum)) {
+			throw new IllegalArgumentException("Unknown checksum algorithm "
+					+ checksum);
+		}
+		this.checksum = checksum;
+	}
+
+	/**
+	 * @return <code>true</code> if the structure of gzip and SQL dumps is
+	 *         validated while downloading
+	 */
+	public boolean isValidate() {
+		return validate;
+	}
+
+	/**
+	 * @param validate
+	 *            <code>true</code> to validate the structure of gzip and SQL
+	 *            dumps while downloading and fail on truncated dumps
+	 */
+	public void setValidate(boolean validate) {
+		this.validate = validate;
+	}
+
+	/**
+	 * @return where the dumps are written to. Files in the output directory,
+	 *         written by a {@link DumpFileWriter}, unless set.
+	 */
+	public DumpSink getSink() {
+		if (sink == null) {
+			return new DumpFileWriter(this);
+		}
+		return sink;
+	}
+
+	/**
+	 * @param sink
+	 *            where the dumps are written to. <code>null</code> for local
+	 *            files.
+	 */
+	public void setSink(DumpSink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * @return the limiter shared by all transfers or <code>null</code> for
+	 *         unlimited bandwidth
+	 */
+	public BandwidthLimiter getBandwidthLimiter() {
+		return bandwidthLimiter;
+	}
+
+	/**
+	 * @param bandwidthLimiter
+	 *            the limiter shared by all transfers. <code>null</code> for
+	 *            unlimited bandwidth.
+	 */
+	public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = bandwidthLimiter;
+	}
+
+	/**
+	 * @return the monitor that watches all transfers or <code>null</code> if
+	 *         they are not watched
+	 */
+	public ProgressMonitor getProgressMonitor() {
+		return progressMonitor;
+	}
+
+	/**
+	 * @param progressMonitor
+	 *            the monitor that reports the progress of all transfers and
+	 *            aborts stalled ones. <code>null</code> for none.
+	 */
+	public void setProgressMonitor(ProgressMonitor progressMonitor) {
+		this.progressMonitor = progressMonitor;
+	}
+
+	/**
+	 * @return the HTTP connections shared by all dumps. Created with the
+	 *         default settings if not set.
+	 */
+	public synchronized HttpTransport getTransport() {
+		if (transport == null) {
+			transport = new HttpTransport();
+		}
+		return transport;
+	}
+
+	/**
+	 * @param transport
+	 *            the HTTP connections shared by all dumps
+	 */
+	public synchronized void setTransport(HttpTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the URLs the browser engine doesn't request, or
+	 *         <code>null</code> if it loads all resources of a page
+	 */
+	public Pattern getMinimalFetchPattern() {
+		return minimalFetchPattern;
+	}
+
+	/**
+	 * @param minimalFetchPattern
+	 *            the URLs the browser engine doesn't request (e.g. style
+	 *            sheets, scripts and images), which also makes it discard
+	 *            these resources by content type. <code>null</code> to load
+	 *            all resources of a page.
+	 */
+	public void setMinimalFetchPattern(Pattern minimalFetchPattern) {
+		this.minimalFetchPattern = minimalFetchPattern;
+	}
+
+	/**
+	 * @return the last dumps of the sites, or <code>null</code> if each dump
+	 *         is stored, even if it is the same as the last one
+	 */
+	public DumpCache getDumpCache() {
+		return dumpCache;
+	}
+
+	/**
+	 * @param dumpCache
+	 *            the last dumps of the sites, so an unchanged dump is stored
+	 *            as link to the last one. <code>null</code> to always store
+	 *            the whole dump.
+	 */
+	public void setDumpCache(DumpCache dumpCache) {
+		this.dumpCache = dumpCache;
+	}
+
+	/**
+	 * @param fileName
+	 *            the name of the dump as suggested by the server
+	 * @return the transform to apply to the dump or <code>null</code> if it is
+	 *         stored as received
+	 */
+	public DumpTransform getTransform(String fileName) {
+		if (transform == null || !transform.accepts(fileName)) {
+			return null;
+		}
+		return transform;
+	}
+
+	/**
+	 * @param fileName
+	 *            the name of the dump as suggested by the server
+	 * @return the name the dump is stored as, which differs from
+	 *         <code>fileName</code> if the dump is transformed
+	 */
+	public String getStoredName(String fileName) {
+		DumpTransform fileTransform = getTransform(fileName);
+		return fileTransform == null ? fileName : fileTransform
+				.getFileName(fileName);
+	}
+
+	/**
+	 * @param fileName
+	 *            the name of the dump as suggested by the server
+	 * @return the check for the dump or <code>null</code> if neither a
+	 *         checksum is computed nor the dump is validated
+	 */
+	public IntegrityCheck createIntegrityCheck(String fileName) {
+		if (checksum == null && !validate) {
+			return null;
+		}
+		return new IntegrityCheck(checksum, validate, fileName);
+	}
+}
@@ -0,0 +1,328 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Remembers the last dump of each site: the file it is stored in, its length,
+ * checksum and the validators (<code>ETag</code>, <code>Last-Modified</code>)
+ * the server sent. This allows for not storing an unchanged dump again:
+ * <ul>
+ * <li>If the server sends the same strong validator and length as for the
+ * last dump, the transfer is not even started.</li>
+ * <li>Otherwise, if the dump turns out to have the same checksum and length
+ * after the transfer, the copy is replaced by a hard link to the last dump.</li>
+ * </ul>
+ * Either way, the new file is a hard link to the last dump (or the same file,
+ * if the server names its dumps the same each time), so it takes no
+ * additional space. File systems that don't support hard links get a copy.
+ * <p>
+ * The dumps are remembered in {@value #STATE_FILE} in the target directory.
+ * A site is identified by the URL of the dump and its file name, with all
+ * digits ignored, because servers tend to put the date into the name.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpCache {
+	/** Name of the file that stores the last dumps */
+	public static final String STATE_FILE = "RemoteDbDumper-cache.properties";
+
+	private static final Pattern PATTERN_DIGITS = Pattern.compile("\\d+");
+
+	private static Logger logger = Logger.getLogger(DumpCache.class);
+
+	/**
+	 * @param fileName
+	 *            the name of the dump as suggested by the server
+	 * @return the key of the site <code>source</code> belongs to
+	 */
+	static String getKey(DumpSource source, String fileName) {
+		return source.getUrl() + "#"
+				+ PATTERN_DIGITS.matcher(fileName).replaceAll("#");
+	}
+
+	/**
+	 * @return the last dump of the site or <code>null</code> if there is none
+	 */
+	synchronized Entry get(File directory, String key) throws IOException {
+		Properties state = loadState(directory);
+		if (state.getProperty(key + Entry.KEY_FILE) == null) {
+			return null;
+		}
+		try {
+			return new Entry(state, key);
+		} catch (NumberFormatException e) {
+			logger.warn("Ignoring invalid cache entry of " + key);
+			return null;
+		}
+	}
+
+	/**
+	 * Remembers <code>entry</code> as the last dump of the site.
+	 */
+	synchronized void put(File directory, String key, Entry entry)
+			throws IOException {
+		Properties state = loadState(directory);
+		entry.store(state, key);
+		File tempFile = File.createTempFile(STATE_FILE, ".tmp", directory);
+		try {
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				state.store(out, "Last dump of each site");
+			} finally {
+				out.close();
+			}
+			FileMover.move(tempFile, new File(directory, STATE_FILE));
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private Properties loadState(File directory) throws IOException {
+		Properties state = new Properties();
+		File file = new File(directory, STATE_FILE);
+		if (file.isFile()) {
+			InputStream in = new FileInputStream(file);
+			try {
+				state.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Replaces <code>file</code> by a hard link to <code>existing</code>.
+	 *
+	 * @return <code>false</code> if the file system doesn't support hard
+	 *         links. <code>file</code> is left unchanged in this case.
+	 */
+	static boolean link(File existing, File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".link");
+		tempFile.delete();
+		try {
+			Files.createLink(tempFile.toPath(), existing.toPath());
+		} catch (UnsupportedOperationException e) {
+			logger.debug("Unable to link " + file + " to " + existing, e);
+			return false;
+		} catch (IOException e) {
+			logger.debug("Unable to link " + file + " to " + existing, e);
+			return false;
+		}
+		FileMover.move(tempFile, file);
+		return true;
+	}
+
+	/**
+	 * The last dump of a site.
+	 */
+	static class Entry {
+		private static final String KEY_FILE = ".file";
+		private static final String KEY_STORED_LENGTH = ".storedLength";
+		private static final String KEY_TRANSFORM = ".transform";
+		private static final String KEY_LENGTH = ".length";
+		private static final String KEY_ALGORITHM = ".algorithm";
+		private static final String KEY_CHECKSUM = ".checksum";
+		private static final String KEY_VALIDATE = ".validate";
+		private static final String KEY_VALIDATED = ".validated";
+		private static final String KEY_VALIDATOR = ".validator";
+		private static final String KEY_TIME = ".time";
+
+		private final String fileName;
+		private final long storedLength;
+		private final String transform;
+		private final long length;
+		private final String algorithm;
+		private final String checksum;
+		private final boolean validate;
+		private final String validated;
+		private final String validator;
+		private final long time;
+
+		/**
+		 * @param storedFile
+		 *            the file the dump is stored in
+		 * @param transform
+		 *            the name of the transform or <code>null</code>
+		 * @param length
+		 *            the length of the dump as received
+		 * @param algorithm
+		 *            the checksum algorithm or <code>null</code>
+		 * @param checksum
+		 *            the checksum of the dump as received or
+		 *            <code>null</code>
+		 * @param validate
+		 *            <code>true</code> if the dump was to be validated
+		 * @param validated
+		 *            the result of the validation or <code>null</code>
+		 * @param validator
+		 *            the strong <code>ETag</code> or
+		 *            <code>Last-Modified</code> of the dump or
+		 *            <code>null</code>
+		 */
+		Entry(File storedFile, String transform, long length,
+				String algorithm, String checksum, boolean validate,
+				String validated, String validator) {
+			this.fileName = storedFile.getName();
+			this.storedLength = storedFile.length();
+			this.transform = transform;
+			this.length = length;
+			this.algorithm = algorithm;
+			this.checksum = checksum;
+			this.validate = validate;
+			this.validated = validated;
+			this.validator = validator;
+			this.time = System.currentTimeMillis();
+		}
+
+		private Entry(Properties state, String key) {
+			fileName = state.getProperty(key + KEY_FILE);
+			storedLength = Long.parseLong(state.getProperty(key
+					+ KEY_STORED_LENGTH));
+			transform = state.getProperty(key + KEY_TRANSFORM);
+			length = Long.parseLong(state.getProperty(key + KEY_LENGTH));
+			algorithm = state.getProperty(key + KEY_ALGORITHM);
+			checksum = state.getProperty(key + KEY_CHECKSUM);
+			validate = Boolean.parseBoolean(state.getProperty(key
+					+ KEY_VALIDATE));
+			validated = state.getProperty(key + KEY_VALIDATED);
+			validator = state.getProperty(key + KEY_VALIDATOR);
+			time = Long.parseLong(state.getProperty(key + KEY_TIME));
+		}
+
+		private void store(Properties state, String key) {
+			state.setProperty(key + KEY_FILE, fileName);
+			state.setProperty(key + KEY_STORED_LENGTH,
+					Long.toString(storedLength));
+			setOrRemove(state, key + KEY_TRANSFORM, transform);
+			state.setProperty(key + KEY_LENGTH, Long.toString(length));
+			setOrRemove(state, key + KEY_ALGORITHM, algorithm);
+			setOrRemove(state, key + KEY_CHECKSUM, checksum);
+			state.setProperty(key + KEY_VALIDATE, Boolean.toString(validate));
+			setOrRemove(state, key + KEY_VALIDATED, validated);
+			setOrRemove(state, key + KEY_VALIDATOR, validator);
+			state.setProperty(key + KEY_TIME, Long.toString(time));
+		}
+
+		/**
+		 * @return the file the dump is stored in, if it still exists
+		 *         unchanged, otherwise <code>null</code>
+		 */
+		File getStoredFile(File directory) {
+			File file = new File(directory, fileName);
+			if (!file.isFile() || file.length() != storedLength) {
+				return null;
+			}
+			return file;
+		}
+
+		/**
+		 * @return <code>true</code> if the server announces the same dump
+		 *         via its validator and length, so it can be taken from this
+		 *         entry without transferring it. The dump has to be stored
+		 *         and checked the same way as this one.
+		 */
+		boolean isAnnouncedUnchanged(DumpSource source, String transform,
+				String algorithm, boolean validate) {
+			if (validator == null || !validator.equals(source.getValidator())) {
+				return false;
+			}
+			if (source.getContentLength() < 0) {
+				// Last-Modified only has a resolution of seconds
+				if (!validator.equals(source.getETag())) {
+					return false;
+				}
+			} else if (source.getContentLength() != length) {
+				return false;
+			}
+			return equals(this.transform, transform)
+					&& equals(this.algorithm, algorithm)
+					&& (algorithm == null || checksum != null)
+					&& (!validate || this.validate);
+		}
+
+		/**
+		 * @return <code>true</code> if <code>other</code> has been stored the
+		 *         same way and has the same checksum and length
+		 */
+		boolean isSameContent(Entry other) {
+			return checksum != null && checksum.equals(other.checksum)
+					&& equals(algorithm, other.algorithm)
+					&& length == other.length
+					&& equals(transform, other.transform);
+		}
+
+		/**
+		 * @return an entry for the same dump, stored in
+		 *         <code>storedFile</code>
+		 */
+		Entry copy(File storedFile) {
+			return new Entry(storedFile, transform, length, algorithm,
+					checksum, validate, validated, validator);
+		}
+
+		long getLength() {
+			return length;
+		}
+
+		String getChecksum() {
+			return checksum;
+		}
+
+		String getValidated() {
+			return validated;
+		}
+
+		String getValidator() {
+			return validator;
+		}
+
+		/** @return when the dump was stored */
+		long getTime() {
+			return time;
+		}
+
+		private static boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		private static void setOrRemove(Properties state, String key,
+				String value) {
+			if (value == null) {
+				state.remove(key);
+			} else {
+				state.setProperty(key, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityCheck;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a dump from a {@link DumpSource} to a file. The default
+ * {@link DumpSink}.
+ * <p>
+ * The data is copied by a {@link DumpTransfer} into a {@link FileChannel}, so
+ * the memory used is constant, no matter how big the dump is. If a
+ * {@link DownloadOptions#getTransform() transform} is set, the data passes it
+ * on its way to the file (e.g. is compressed) and the file is named
+ * accordingly, see {@link #getStoredFile(File)}.
+ * <p>
+ * The data is written to a <code>.part</code> file, which is renamed to the
+ * target file once the transfer is complete. If the source is
+ * {@link DumpSource#isResumable() resumable}, a checkpoint is stored next to
+ * the partial file. When the connection breaks, the transfer is continued at
+ * the last offset (up to {@link DownloadOptions#getResumeAttempts()} times).
+ * If all attempts fail, the partial file and the checkpoint are kept and the
+ * next download of the same file continues where this one stopped.
+ * <p>
+ * A resumable dump that is stored as received may also be transferred in
+ * {@link DownloadOptions#getSegments() segments} at the same time, see
+ * {@link SegmentedTransfer}. Such a transfer can't be continued by a later
+ * run.
+ * <p>
+ * While the data is written, an {@link IntegrityCheck} computes its checksum
+ * and validates its structure, if enabled in the {@link DownloadOptions}. A
+ * dump that turns out to be truncated or corrupt is not stored, but kept with
+ * the suffix <code>.invalid</code> for inspection.
+ * <p>
+ * If a {@link DownloadOptions#getDumpCache() dump cache} is set, a dump that
+ * is the same as the last one of the site is stored as hard link to the last
+ * one. If the server announces this via its validators, the dump isn't even
+ * transferred.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpFileWriter implements DumpSink {
+	/** Suffix of the file the dump is written to until complete */
+	public static final String PART_SUFFIX = ".part";
+	/** Suffix of the checkpoint, appended to the name of the partial file */
+	public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	/** Suffix of a dump that failed the integrity check */
+	public static final String INVALID_SUFFIX = ".invalid";
+	/** Write a checkpoint every 16 MiB */
+	private static final long CHECKPOINT_INTERVAL = 16L * 1024 * 1024;
+
+	private static Logger logger = Logger.getLogger(DumpFileWriter.class);
+
+	private final DownloadOptions options;
+
+	public DumpFileWriter(DownloadOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * @param targetFile
+	 *            the file as named by the server
+	 * @return the file the dump is actually stored in by
+	 *         {@link #write(DumpSource, File)}. Differs from
+	 *         <code>targetFile</code> if the dump is transformed.
+	 */
+	public File getStoredFile(File targetFile) {
+		return new File(targetFile.getParentFile(),
+				options.getStoredName(targetFile.getName()));
+	}
+
+	public String getStoredName(File targetFile) {
+		return getStoredFile(targetFile).getName();
+	}
+
+	public String getLocation(File targetFile) {
+		return getStoredFile(targetFile).getAbsolutePath();
+	}
+
+	/**
+	 * Copies the content of <code>source</code> to the
+	 * {@link #getStoredFile(File) file stored} for <code>targetFile</code>,
+	 * overwriting the file if it exists. Aborts the source on failure.
+	 *
+	 * @return the number of bytes transferred and stored and the time it
+	 *         took.
+	 * @throws IntegrityException
+	 *             when the dump is truncated or corrupt
+	 * @throws IOException
+	 *             when reading or writing fails
+	 */
+	public TransferStats write(final DumpSource source, File targetFile)
+			throws IOException {
+		long start = System.nanoTime();
+		DumpTransform transform = options.getTransform(targetFile.getName());
+		final String transformName = transform == null ? null : transform
+				.getName();
+		File storedFile = getStoredFile(targetFile);
+		File partFile = new File(storedFile.getPath() + PART_SUFFIX);
+		final Checkpoint checkpoint = new Checkpoint(new File(partFile.getPath()
+				+ CHECKPOINT_SUFFIX));
+
+		DumpCache cache = options.getDumpCache();
+		String cacheKey = null;
+		DumpCache.Entry previous = null;
+		if (cache != null) {
+			cacheKey = DumpCache.getKey(source, targetFile.getName());
+			previous = cache.get(storedFile.getParentFile(), cacheKey);
+			if (previous != null
+					&& previous.isAnnouncedUnchanged(source, transformName,
+							options.getChecksum(), options.isValidate())
+					&& previous.getStoredFile(storedFile.getParentFile()) != null) {
+				keepUnchanged(source, targetFile, storedFile, partFile,
+						checkpoint, cache, cacheKey, previous);
+				return new TransferStats(0, 0, System.nanoTime() - start);
+			}
+		}
+
+		long offset = 0;
+		long partLength = 0;
+		InputStream in;
+		if (source.isResumable()
+				&& checkpoint.load(source, transformName, partFile.length())
+				&& checkpoint.getOffset() > 0) {
+			offset = checkpoint.getOffset();
+			partLength = checkpoint.getPartLength();
+			in = resume(source, offset, partFile, checkpoint);
+		} else {
+			in = source.getInputStream();
+		}
+
+		IntegrityCheck check = options.createIntegrityCheck(targetFile
+				.getName());
+		long position = offset;
+		long storedBytes;
+		// Segments are written at their offsets, so they can't be transformed
+		int segments = offset > 0 || transform != null ? 1
+				: SegmentedTransfer.getSegmentCount(source,
+						options.getSegments());
+		if (segments > 1) {
+			position = writeSegments(source, in, partFile, segments, check);
+			storedBytes = position;
+		} else {
+			boolean complete = false;
+			RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+			DumpOutput output = null;
+			try {
+				final FileChannel target = file.getChannel();
+				target.truncate(partLength);
+				target.position(partLength);
+				if (offset > 0 && check != null) {
+					resumeIntegrityCheck(check, transform, target, partLength,
+							partFile);
+				}
+				if (transform == null) {
+					output = new ChannelDumpOutput(target);
+				} else {
+					logger.debug("Transforming " + source + " using "
+							+ transformName);
+					output = transform.open(target);
+				}
+				DumpTransfer transfer = new DumpTransfer(options,
+						CHECKPOINT_INTERVAL, new DumpTransfer.Checkpointer() {
+							public void save(DumpOutput output, long position)
+									throws IOException {
+								long partLength = output.sync();
+								// Make sure the data is on disk before the checkpoint refers to it
+								target.force(false);
+								checkpoint.save(source, transformName, position,
+										partLength);
+							}
+						});
+				position = transfer.copy(source, in, offset, output, check);
+				output.sync();
+				target.force(true);
+				complete = true;
+			} finally {
+				if (!complete) {
+					source.abort();
+					if (check != null) {
+						check.close();
+					}
+				}
+				if (output != null) {
+					output.close();
+				}
+				file.close();
+				if (!complete && !source.isResumable()) {
+					// Nothing to continue later
+					partFile.delete();
+				}
+			}
+			storedBytes = output.getStoredBytes();
+		}
+		if (check != null) {
+			String problem = check.finish();
+			if (problem != null) {
+				File invalidFile = new File(storedFile.getPath()
+						+ INVALID_SUFFIX);
+				FileMover.move(partFile, invalidFile);
+				checkpoint.delete();
+				throw new IntegrityException("Dump " + targetFile.getName()
+						+ " is invalid (" + problem + "), kept as "
+						+ invalidFile.getName());
+			}
+		}
+		FileMover.move(partFile, storedFile);
+		checkpoint.delete();
+		if (check != null) {
+			check.writeSidecar(storedFile);
+		}
+		if (cache != null) {
+			DumpCache.Entry entry = new DumpCache.Entry(storedFile,
+					transformName, position, options.getChecksum(),
+					check == null ? null : check.getChecksum(),
+					options.isValidate(), check == null ? null
+							: check.getValidationResult(),
+					source.getValidator());
+			if (previous != null && previous.isSameContent(entry)) {
+				linkUnchanged(storedFile,
+						previous.getStoredFile(storedFile.getParentFile()));
+			}
+			cache.put(storedFile.getParentFile(), cacheKey, entry);
+		}
+		return new TransferStats(position - offset, storedBytes,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Transfers the dump in segments at the same time, each written at its
+	 * offset into the partial file, and passes the file to the check
+	 * afterwards.
+	 *
+	 * @return the length of the dump
+	 */
+	private long writeSegments(DumpSource source, InputStream in,
+			File partFile, int segments, IntegrityCheck check)
+			throws IOException {
+		long length = source.getContentLength();
+		boolean complete = false;
+		RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+		try {
+			file.setLength(length);
+			FileChannel target = file.getChannel();
+			new SegmentedTransfer(options, segments).copy(source, in, target);
+			target.force(true);
+			if (check != null) {
+				passToCheck(check, target, length);
+			}
+			complete = true;
+		} finally {
+			if (!complete) {
+				source.abort();
+				if (check != null) {
+					check.close();
+				}
+			}
+			file.close();
+			if (!complete) {
+				// The segments can't be continued by a later run
+				partFile.delete();
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Stores the dump announced by <code>source</code> as link to the last
+	 * dump of the site, without transferring it.
+	 */
+	private void keepUnchanged(DumpSource source, File targetFile,
+			File storedFile, File partFile, Checkpoint checkpoint,
+			DumpCache cache, String cacheKey, DumpCache.Entry previous)
+			throws IOException {
+		source.abort();
+		// A partial file of an earlier attempt isn't needed anymore
+		checkpoint.delete();
+		partFile.delete();
+		File previousFile = previous.getStoredFile(storedFile.getParentFile());
+		if (!previousFile.equals(storedFile)
+				&& !DumpCache.link(previousFile, storedFile)) {
+			Files.copy(previousFile.toPath(), partFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			FileMover.move(partFile, storedFile);
+		}
+		IntegrityCheck check = options.createIntegrityCheck(targetFile
+				.getName());
+		if (check != null) {
+			check.setResult(previous.getLength(), previous.getChecksum(),
+					previous.getValidated());
+			check.writeSidecar(storedFile);
+		}
+		cache.put(storedFile.getParentFile(), cacheKey,
+				previous.copy(storedFile));
+		logger.info("Dump " + targetFile.getName() + " is unchanged since "
+				+ new Date(previous.getTime()) + " (" + previous.getValidator()
+				+ "), not transferred but stored as " + storedFile.getName());
+	}
+
+	/**
+	 * Replaces the dump just stored by a link to the last dump of the site,
+	 * which has the same content.
+	 *
+	 * @param previousFile
+	 *            the last dump or <code>null</code> if it doesn't exist
+	 *            anymore
+	 */
+	private void linkUnchanged(File storedFile, File previousFile)
+			throws IOException {
+		if (previousFile == null || previousFile.equals(storedFile)) {
+			return;
+		}
+		if (DumpCache.link(previousFile, storedFile)) {
+			logger.info("Dump " + storedFile.getName() + " is identical to "
+					+ previousFile.getName() + ", stored as link to it");
+		}
+	}
+
+	/**
+	 * Passes the part of the dump written by a previous run to the check.
+	 * That's only possible if the dump is stored as received, otherwise the
+	 * check is given up for this dump.
+	 */
+	private void resumeIntegrityCheck(IntegrityCheck check,
+			DumpTransform transform, FileChannel target, long partLength,
+			File partFile) throws IOException {
+		if (transform != null) {
+			logger.warn("Can't check the integrity of resumed transfer "
+					+ partFile.getName() + ", the beginning is stored transformed");
+			check.setUnavailable("resumed transformed transfer");
+			return;
+		}
+		passToCheck(check, target, partLength);
+	}
+
+	/**
+	 * Passes the first <code>length</code> bytes of <code>target</code> to
+	 * the check.
+	 */
+	private void passToCheck(IntegrityCheck check, FileChannel target,
+			long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(options.getBufferSize());
+		long position = 0;
+		while (position < length) {
+			int read = target.read(buffer, position);
+			if (read == -1) {
+				throw new IOException("Partial file is shorter than "
+						+ length + " bytes");
+			}
+			buffer.flip();
+			check.update(buffer);
+			buffer.clear();
+			position += read;
+		}
+	}
+
+	/**
+	 * Continues a transfer where a previous run stopped, instead of using the
+	 * original response of <code>source</code>.
+	 *
+	 * @return the content starting at <code>offset</code>
+	 * @throws IOException
+	 *             if the transfer can't be continued. The partial file and
+	 *             the checkpoint are deleted, so the next attempt starts from
+	 *             the beginning.
+	 */
+	private InputStream resume(DumpSource source, long offset, File partFile,
+			Checkpoint checkpoint) throws IOException {
+		// Don't read the original response, it starts at offset 0
+		source.abort();
+		try {
+			InputStream in = source.reopen(offset);
+			logger.info("Resuming download of " + source + " at offset "
+					+ offset);
+			return in;
+		} catch (IOException e) {
+			checkpoint.delete();
+			partFile.delete();
+			throw e;
+		}
+	}
+}
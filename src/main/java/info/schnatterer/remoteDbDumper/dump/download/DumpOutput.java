@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The stage between the network and the file a dump is written to. Created
+ * by a {@link DumpTransform} for each dump.
+ *
+ * @author schnatterer
+ *
+ */
+public interface DumpOutput {
+	/**
+	 * Consumes all remaining bytes of <code>buffer</code>. The data might be
+	 * written to the file later, see {@link #sync()}.
+	 */
+	void write(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Writes all data passed to {@link #write(ByteBuffer)} to the file, in a
+	 * state that is valid on its own and can be continued later by a new
+	 * {@link DumpOutput} starting at the returned position. Called for each
+	 * checkpoint and once at the end of the dump.
+	 *
+	 * @return the position in the file after the data written
+	 */
+	long sync() throws IOException;
+
+	/**
+	 * @return the number of bytes written to disk by this output so far,
+	 *         including data that is not written to the file itself (e.g. to
+	 *         a separate store)
+	 */
+	long getStoredBytes();
+
+	/**
+	 * Releases all resources, discarding data that has not been synced.
+	 */
+	void close();
+}
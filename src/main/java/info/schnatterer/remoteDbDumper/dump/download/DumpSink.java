@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where the engines put the dumps they download. Set via
+ * {@link DownloadOptions#setSink(DumpSink)}, local files written by a
+ * {@link DumpFileWriter} by default. One instance might be shared by all dumps
+ * of a run, so implementations must be thread-safe.
+ *
+ * @author schnatterer
+ *
+ */
+public interface DumpSink {
+	/**
+	 * @param targetFile
+	 *            the file in the output directory, as named by the server
+	 * @return the name the dump for <code>targetFile</code> is stored as, as
+	 *         reported to the user and the post processors
+	 */
+	String getStoredName(File targetFile);
+
+	/**
+	 * @return where the dump for <code>targetFile</code> is stored, for
+	 *         messages
+	 */
+	String getLocation(File targetFile);
+
+	/**
+	 * Copies the content of <code>source</code> to the sink, replacing an
+	 * existing dump of the same name. Aborts the source on failure.
+	 *
+	 * @return the number of bytes transferred and stored and the time it
+	 *         took.
+	 * @throws info.schnatterer.remoteDbDumper.dump.integrity.IntegrityException
+	 *             when the dump is truncated or corrupt
+	 * @throws IOException
+	 *             when reading or writing fails
+	 */
+	TransferStats write(DumpSource source, File targetFile) throws IOException;
+}
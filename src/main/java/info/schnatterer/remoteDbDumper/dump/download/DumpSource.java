@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The body of a response that contains a dump, plus what is needed to resume
+ * the transfer if the connection breaks.
+ * <p>
+ * A transfer can be resumed if the server accepts byte ranges (
+ * <code>Accept-Ranges: bytes</code>), if the response has a strong validator (
+ * <code>ETag</code> or <code>Last-Modified</code>) that makes sure the
+ * continuation belongs to the same content, and if the request can be repeated
+ * without side effects. The latter is not the case when the dump is generated
+ * on the server as a response to a <code>POST</code> request: Repeating the
+ * request would generate a new dump.
+ *
+ * @author schnatterer
+ *
+ */
+public abstract class DumpSource {
+	protected static final String HEADER_ETAG = "ETag";
+	protected static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	protected static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	protected static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	protected static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	protected static final String HEADER_CONTENT_RANGE = "Content-Range";
+	protected static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+	protected static final String HEADER_RANGE = "Range";
+	protected static final String HEADER_IF_RANGE = "If-Range";
+	protected static final int STATUS_PARTIAL_CONTENT = 206;
+
+	private static final Pattern PATTERN_CONTENT_RANGE = Pattern
+			.compile("bytes\\s+(\\d+)-\\d+/(\\d+|\\*)");
+
+	private final String url;
+	private final String eTag;
+	private final String lastModified;
+	private final long contentLength;
+	private final boolean acceptRanges;
+	private final boolean repeatable;
+
+	/**
+	 * @param url
+	 *            the URL the dump was requested from
+	 * @param eTag
+	 *            value of the <code>ETag</code> header, may be
+	 *            <code>null</code>
+	 * @param lastModified
+	 *            value of the <code>Last-Modified</code> header, may be
+	 *            <code>null</code>
+	 * @param contentLength
+	 *            value of the <code>Content-Length</code> header,
+	 *            <code>null</code> if unknown
+	 * @param acceptRanges
+	 *            value of the <code>Accept-Ranges</code> header, may be
+	 *            <code>null</code>
+	 * @param contentEncoding
+	 *            value of the <code>Content-Encoding</code> header, may be
+	 *            <code>null</code>
+	 * @param repeatable
+	 *            <code>true</code> if the request can be sent again without
+	 *            side effects (i.e. a <code>GET</code> request)
+	 */
+	protected DumpSource(String url, String eTag, String lastModified,
+			String contentLength, String acceptRanges, String contentEncoding,
+			boolean repeatable) {
+		this.url = url;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		boolean encoded = contentEncoding != null
+				&& !contentEncoding.trim().isEmpty()
+				&& !"identity".equalsIgnoreCase(contentEncoding.trim());
+		/*
+		 * A transfer encoded body is decoded on the fly, so the length and the
+		 * byte ranges don't refer to the bytes we get to see
+		 */
+		this.contentLength = encoded ? -1 : parseLong(contentLength);
+		this.acceptRanges = !encoded && acceptRanges != null
+				&& acceptRanges.toLowerCase(Locale.ENGLISH).contains("bytes");
+		this.repeatable = repeatable;
+	}
+
+	/**
+	 * @return the body of the original response. Called at most once.
+	 */
+	public abstract InputStream getInputStream() throws IOException;
+
+	/**
+	 * Aborts the connection of the current response (the original one or the
+	 * one opened by {@link #reopen(long)}), without reading the rest of the
+	 * body.
+	 */
+	public abstract void abort();
+
+	/**
+	 * Requests the content again, starting at <code>offset</code>.
+	 *
+	 * @param rangeHeader
+	 *            the value for the <code>Range</code> header
+	 * @param ifRangeHeader
+	 *            the value for the <code>If-Range</code> header
+	 * @return the response, or <code>null</code> if the server did not answer
+	 *         with the requested range (check using
+	 *         {@link #isRequestedRange(int, String, long)}).
+	 */
+	protected abstract InputStream openRange(long offset, String rangeHeader,
+			String ifRangeHeader) throws IOException;
+
+	/**
+	 * Requests a part of the content on a connection of its own, independent
+	 * of the current response.
+	 *
+	 * @param rangeHeader
+	 *            the value for the <code>Range</code> header
+	 * @param ifRangeHeader
+	 *            the value for the <code>If-Range</code> header
+	 * @return the response, or <code>null</code> if the server did not answer
+	 *         with the requested range (check using
+	 *         {@link #isRequestedRange(int, String, long)}).
+	 */
+	protected abstract Segment openSegmentRange(long offset,
+			String rangeHeader, String ifRangeHeader) throws IOException;
+
+	/**
+	 * @return <code>true</code> if the transfer can be continued at an
+	 *         arbitrary offset using {@link #reopen(long)}
+	 */
+	public boolean isResumable() {
+		return repeatable && acceptRanges && getValidator() != null;
+	}
+
+	/**
+	 * Continues the transfer at <code>offset</code>. The previous response
+	 * must have been aborted or closed before.
+	 *
+	 * @return the content, starting at <code>offset</code>
+	 * @throws IOException
+	 *             when the server did not answer with the requested range,
+	 *             e.g. because the content has changed in between
+	 */
+	public InputStream reopen(long offset) throws IOException {
+		if (!isResumable()) {
+			throw new IOException("Transfer of " + url + " can't be resumed");
+		}
+		InputStream in = openRange(offset, "bytes=" + offset + "-",
+				getValidator());
+		if (in == null) {
+			throw new IOException("Server did not resume transfer of " + url
+					+ " at offset " + offset);
+		}
+		return in;
+	}
+
+	/**
+	 * Requests the bytes from <code>from</code> to <code>to</code>
+	 * (inclusive) on a connection of its own, so several parts of the content
+	 * can be transferred at the same time. Can be called by several threads
+	 * at the same time.
+	 *
+	 * @return the part, starting at <code>from</code>. The server might send
+	 *         more than requested.
+	 * @throws IOException
+	 *             when the server did not answer with the requested range,
+	 *             e.g. because the content has changed in between
+	 */
+	public Segment openSegment(long from, long to) throws IOException {
+		if (!isResumable()) {
+			throw new IOException("Transfer of " + url
+					+ " can't be split into ranges");
+		}
+		Segment segment = openSegmentRange(from, "bytes=" + from + "-" + to,
+				getValidator());
+		if (segment == null) {
+			throw new IOException("Server did not send bytes " + from + "-"
+					+ to + " of " + url);
+		}
+		return segment;
+	}
+
+	/**
+	 * @return <code>true</code> if a response is the continuation that was
+	 *         requested
+	 */
+	protected static boolean isRequestedRange(int statusCode,
+			String contentRange, long offset) {
+		if (statusCode != STATUS_PARTIAL_CONTENT || contentRange == null) {
+			return false;
+		}
+		Matcher matcher = PATTERN_CONTENT_RANGE.matcher(contentRange.trim());
+		return matcher.matches()
+				&& Long.parseLong(matcher.group(1)) == offset;
+	}
+
+	/**
+	 * @return the value to send with <code>If-Range</code>: The
+	 *         <code>ETag</code> if it's a strong one, otherwise
+	 *         <code>Last-Modified</code>. <code>null</code> if there is none.
+	 */
+	protected String getValidator() {
+		if (eTag != null && !eTag.startsWith("W/")) {
+			return eTag;
+		}
+		return lastModified;
+	}
+
+	/** @return the URL the dump was requested from */
+	public String getUrl() {
+		return url;
+	}
+
+	/** @return the <code>ETag</code> or <code>null</code> */
+	public String getETag() {
+		return eTag;
+	}
+
+	/** @return the <code>Last-Modified</code> date or <code>null</code> */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the number of bytes of the content, or <code>-1</code> if
+	 *         unknown
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	private static long parseLong(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return url;
+	}
+
+	/**
+	 * A part of the content, transferred on a connection of its own. See
+	 * {@link DumpSource#openSegment(long, long)}.
+	 */
+	public interface Segment {
+		/** @return the body of the response */
+		InputStream getInputStream() throws IOException;
+
+		/**
+		 * Aborts the connection, without reading the rest of the body.
+		 */
+		void abort();
+	}
+}
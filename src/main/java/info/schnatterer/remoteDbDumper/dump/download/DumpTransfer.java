@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityCheck;
+import info.schnatterer.remoteDbDumper.progress.ProgressMonitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Copies a dump from a {@link DumpSource} to a {@link DumpOutput}, through
+ * one direct buffer of {@link DownloadOptions#getBufferSize()} bytes. When the
+ * connection breaks and the source is {@link DumpSource#isResumable()
+ * resumable}, the transfer is continued at the last offset (up to
+ * {@link DownloadOptions#getResumeAttempts()} times). Used by all
+ * {@link DumpSink}s.
+ * <p>
+ * If a {@link DownloadOptions#getBandwidthLimiter() bandwidth limiter} is set,
+ * each read waits for its share of the bandwidth before the data is passed
+ * on. Not reading makes the sender slow down, so this limits the network
+ * traffic as well.
+ * <p>
+ * If a {@link DownloadOptions#getProgressMonitor() progress monitor} is set,
+ * the transfer reports its progress to it. A transfer the monitor considers
+ * stalled is aborted and resumed like a broken connection, or fails.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpTransfer {
+	private static Logger logger = Logger.getLogger(DumpTransfer.class);
+
+	private final DownloadOptions options;
+	private final long checkpointInterval;
+	private final Checkpointer checkpointer;
+
+	/**
+	 * Creates a transfer that can only be continued within the same run.
+	 */
+	public DumpTransfer(DownloadOptions options) {
+		this(options, 0, null);
+	}
+
+	/**
+	 * @param checkpointInterval
+	 *            the number of bytes between two checkpoints
+	 * @param checkpointer
+	 *            is called every <code>checkpointInterval</code> bytes and
+	 *            before giving up, if the source is resumable.
+	 *            <code>null</code> for none.
+	 */
+	public DumpTransfer(DownloadOptions options, long checkpointInterval,
+			Checkpointer checkpointer) {
+		this.options = options;
+		this.checkpointInterval = checkpointInterval;
+		this.checkpointer = checkpointer;
+	}
+
+	/**
+	 * Reads <code>in</code> until its end and writes everything to
+	 * <code>output</code>.
+	 *
+	 * @param in
+	 *            the content of <code>source</code>, starting at
+	 *            <code>offset</code>
+	 * @param offset
+	 *            the offset in the dump where <code>in</code> starts
+	 * @param check
+	 *            is passed all data written. <code>null</code> for none.
+	 * @return the offset in the dump after the last byte transferred
+	 * @throws IOException
+	 *             if reading fails and can't be resumed or writing fails
+	 */
+	public long copy(final DumpSource source, InputStream in, long offset,
+			DumpOutput output, IntegrityCheck check) throws IOException {
+		BandwidthLimiter limiter = options.getBandwidthLimiter();
+		BandwidthLimiter.Share share = limiter == null ? null : limiter.open();
+		ProgressMonitor monitor = options.getProgressMonitor();
+		ProgressMonitor.Transfer progress = monitor == null ? null : monitor
+				.start(source.toString(), offset, source.getContentLength(),
+						new Runnable() {
+							public void run() {
+								source.abort();
+							}
+						});
+		try {
+			return copy(source, in, offset, output, check, share, progress);
+		} finally {
+			if (progress != null) {
+				progress.close();
+			}
+			if (share != null) {
+				share.close();
+			}
+		}
+	}
+
+	private long copy(DumpSource source, InputStream in, long offset,
+			DumpOutput output, IntegrityCheck check,
+			BandwidthLimiter.Share share, ProgressMonitor.Transfer progress)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(options.getBufferSize());
+		ReadableByteChannel channel = Channels.newChannel(in);
+		int attemptsLeft = options.getResumeAttempts();
+		long position = offset;
+		long nextCheckpoint = position + checkpointInterval;
+		while (true) {
+			try {
+				if (channel.read(buffer) == -1) {
+					checkComplete(source, position);
+					// Connection has been released on EOF already
+					channel.close();
+					return position;
+				}
+			} catch (IOException e) {
+				if (progress != null && progress.checkStalled()) {
+					e = new IOException(progress.getStallMessage(), e);
+				}
+				// Write what has been read before the failure
+				position += writeBuffer(buffer, output, check, progress);
+				if (!source.isResumable() || attemptsLeft-- <= 0) {
+					checkpoint(source, output, position);
+					throw e;
+				}
+				logger.warn("Transfer of " + source + " interrupted at offset "
+						+ position + ", resuming: " + e.getMessage());
+				source.abort();
+				channel = Channels.newChannel(source.reopen(position));
+				continue;
+			}
+			acquire(share, buffer.position(), progress);
+			position += writeBuffer(buffer, output, check, progress);
+			if (checkpointer != null && position >= nextCheckpoint) {
+				checkpoint(source, output, position);
+				nextCheckpoint = position + checkpointInterval;
+			}
+		}
+	}
+
+	/**
+	 * Waits for the bandwidth for <code>count</code> bytes, if limited.
+	 * Meanwhile, the transfer isn't considered stalled.
+	 */
+	static void acquire(BandwidthLimiter.Share share, int count,
+			ProgressMonitor.Transfer progress) throws IOException {
+		if (share == null) {
+			return;
+		}
+		long start = progress == null ? 0 : progress.beginWait();
+		try {
+			share.acquire(count);
+		} finally {
+			if (progress != null) {
+				progress.endWait(start);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	private int writeBuffer(ByteBuffer buffer, DumpOutput output,
+			IntegrityCheck check, ProgressMonitor.Transfer progress)
+			throws IOException {
+		buffer.flip();
+		int length = buffer.remaining();
+		if (progress != null) {
+			progress.add(length);
+		}
+		if (check != null) {
+			check.update(buffer);
+		}
+		output.write(buffer);
+		buffer.clear();
+		return length;
+	}
+
+	/**
+	 * Fails if the stream ended before <code>Content-Length</code> bytes were
+	 * read, which happens when the connection is closed prematurely.
+	 */
+	private void checkComplete(DumpSource source, long position)
+			throws IOException {
+		long expected = source.getContentLength();
+		if (expected >= 0 && position < expected) {
+			throw new IOException("Premature end of content: Received "
+					+ position + " of " + expected + " bytes");
+		}
+	}
+
+	private void checkpoint(DumpSource source, DumpOutput output, long position)
+			throws IOException {
+		if (checkpointer != null && source.isResumable()) {
+			checkpointer.save(output, position);
+		}
+	}
+
+	/**
+	 * Records the progress of a transfer, so it can be continued by a later
+	 * run.
+	 */
+	public interface Checkpointer {
+		/**
+		 * @param output
+		 *            the output of the transfer, to be
+		 *            {@link DumpOutput#sync() synced} before the checkpoint
+		 *            refers to its data
+		 * @param position
+		 *            the offset in the dump transferred so far
+		 */
+		void save(DumpOutput output, long position) throws IOException;
+	}
+}
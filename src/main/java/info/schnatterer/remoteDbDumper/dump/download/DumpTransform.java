@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Re-encodes a dump on its way from the network to the {@link DumpSink}, e.g.
+ * compresses it. Set via {@link DownloadOptions#setTransform(DumpTransform)}.
+ * One instance is shared by all dumps of a run, so implementations must be
+ * thread-safe.
+ *
+ * @author schnatterer
+ *
+ */
+public interface DumpTransform {
+	/**
+	 * @return a short name of the encoding, e.g. <code>gzip</code>. Stored in
+	 *         checkpoints, so a partial file is only continued with the same
+	 *         encoding.
+	 */
+	String getName();
+
+	/**
+	 * @param fileName
+	 *            the name of the dump as suggested by the server
+	 * @return <code>true</code> if the dump is to be transformed,
+	 *         <code>false</code> if it is to be stored as received (e.g.
+	 *         because it is compressed already)
+	 */
+	boolean accepts(String fileName);
+
+	/**
+	 * @return the name the transformed dump is stored as, e.g.
+	 *         <code>fileName</code> plus <code>.gz</code>
+	 */
+	String getFileName(String fileName);
+
+	/**
+	 * Starts encoding a dump.
+	 *
+	 * @param target
+	 *            the channel to write the encoded data to, starting at its
+	 *            current position. Usually a file, but might not support
+	 *            reading or changing the position.
+	 */
+	DumpOutput open(SeekableByteChannel target) throws IOException;
+}
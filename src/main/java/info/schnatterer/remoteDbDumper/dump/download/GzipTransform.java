@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses dumps with gzip, using several threads for big dumps.
+ * <p>
+ * The dump is split into blocks of {@value #BLOCK_SIZE} bytes, each of which
+ * is compressed independently into a complete gzip member (like
+ * <a href="http://zlib.net/pigz/">pigz</a> with independent blocks). The
+ * members are written in order, so the result is a valid gzip file that can
+ * be read by any gzip implementation. Compressing the blocks independently
+ * costs a little bit of compression ratio, but allows to continue a partial
+ * file at any block boundary, see {@link DumpOutput#sync()}.
+ * <p>
+ * Dumps that are compressed already (recognized by their file extension) are
+ * stored as received.
+ *
+ * @author schnatterer
+ *
+ */
+public class GzipTransform implements DumpTransform {
+	/** Name of this transform */
+	public static final String NAME = "gzip";
+	/** Suffix appended to the file name of compressed dumps */
+	public static final String SUFFIX = ".gz";
+	/** Default compression level, same as gzip's */
+	public static final int DEFAULT_LEVEL = 6;
+
+	/** Size of the uncompressed blocks: 1 MiB */
+	static final int BLOCK_SIZE = 1024 * 1024;
+	/** File extensions of dumps that are not compressed again */
+	private static final String[] COMPRESSED_SUFFIXES = { SUFFIX, ".gzip",
+			".tgz", ".bz2", ".zip", ".xz", ".lz4", ".zst", ".7z" };
+
+	private final int level;
+	private final int threads;
+	/** Shared by all dumps, created on first use */
+	private ExecutorService executor = null;
+
+	/**
+	 * @param level
+	 *            the compression level, from {@link Deflater#BEST_SPEED} (1)
+	 *            to {@link Deflater#BEST_COMPRESSION} (9)
+	 * @param threads
+	 *            the number of threads used for compressing. <code>1</code>
+	 *            compresses in the thread that downloads the dump.
+	 */
+	public GzipTransform(int level, int threads) {
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException(
+					"Compression level must be between 1 and 9");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"Number of compression threads must be at least 1");
+		}
+		this.level = level;
+		this.threads = threads;
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	public boolean accepts(String fileName) {
+		String lowerCaseName = fileName.toLowerCase(Locale.ENGLISH);
+		for (String suffix : COMPRESSED_SUFFIXES) {
+			if (lowerCaseName.endsWith(suffix)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String getFileName(String fileName) {
+		return fileName + SUFFIX;
+	}
+
+	public DumpOutput open(SeekableByteChannel target) throws IOException {
+		return new GzipOutput(target, getExecutor());
+	}
+
+	/** @return the compression level */
+	public int getLevel() {
+		return level;
+	}
+
+	/** @return the number of threads used for compressing */
+	public int getThreads() {
+		return threads;
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (threads == 1) {
+			return null;
+		}
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads,
+					// Daemon threads, so the shared pool needs no shut down
+					new NamedThreadFactory("compress", true));
+		}
+		return executor;
+	}
+
+	/**
+	 * Compresses <code>length</code> bytes of <code>data</code> into one gzip
+	 * member.
+	 */
+	private byte[] compress(byte[] data, int length) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2);
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes) {
+			{
+				def.setLevel(level);
+			}
+		};
+		gzip.write(data, 0, length);
+		gzip.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Collects the data into blocks, compresses them (possibly in parallel)
+	 * and writes them in order.
+	 */
+	private class GzipOutput implements DumpOutput {
+		private final SeekableByteChannel target;
+		private final ExecutorService executor;
+		/** Compressed blocks not yet written, in order */
+		private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		private byte[] block = new byte[BLOCK_SIZE];
+		private int blockLength = 0;
+		private long storedBytes = 0;
+
+		GzipOutput(SeekableByteChannel target, ExecutorService executor) {
+			this.target = target;
+			this.executor = executor;
+		}
+
+		public void write(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				int length = Math.min(buffer.remaining(), BLOCK_SIZE
+						- blockLength);
+				buffer.get(block, blockLength, length);
+				blockLength += length;
+				if (blockLength == BLOCK_SIZE) {
+					submitBlock();
+				}
+			}
+		}
+
+		public long sync() throws IOException {
+			submitBlock();
+			while (!pending.isEmpty()) {
+				writeMember(take(pending.poll()));
+			}
+			return target.position();
+		}
+
+		public long getStoredBytes() {
+			return storedBytes;
+		}
+
+		public void close() {
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+			pending.clear();
+		}
+
+		private void submitBlock() throws IOException {
+			if (blockLength == 0) {
+				return;
+			}
+			final byte[] data = block;
+			final int length = blockLength;
+			block = new byte[BLOCK_SIZE];
+			blockLength = 0;
+			if (executor == null) {
+				writeMember(compress(data, length));
+				return;
+			}
+			pending.add(executor.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return compress(data, length);
+				}
+			}));
+			// Limit the memory used by blocks waiting to be written
+			while (pending.size() > 2 * threads) {
+				writeMember(take(pending.poll()));
+			}
+		}
+
+		private byte[] take(Future<byte[]> future) throws IOException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while compressing");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException("Error compressing", e.getCause());
+			}
+		}
+
+		private void writeMember(byte[] member) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(member);
+			while (buffer.hasRemaining()) {
+				storedBytes += target.write(buffer);
+			}
+		}
+	}
+}
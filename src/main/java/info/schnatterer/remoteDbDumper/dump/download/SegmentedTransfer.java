@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import info.schnatterer.remoteDbDumper.bandwidth.BandwidthLimiter;
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+import info.schnatterer.remoteDbDumper.progress.ProgressMonitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Transfers a dump as several byte ranges (segments) at the same time, each
+ * on a connection of its own, and writes each segment at its offset into a
+ * file. Speeds up the transfer from servers that limit the bandwidth per
+ * connection. Only possible if the source is
+ * {@link DumpSource#isResumable() resumable} and its length is known.
+ * <p>
+ * The first segment is read from the original response, which is aborted
+ * when the segment is complete. The others are requested using
+ * {@link DumpSource#openSegment(long, long)}. A segment whose connection
+ * breaks is continued where it stopped (up to
+ * {@link DownloadOptions#getResumeAttempts()} times). If a segment fails, the
+ * others are aborted.
+ * <p>
+ * All segments share one {@link BandwidthLimiter.Share}, so a segmented
+ * transfer gets no more bandwidth than any other transfer. Likewise, they are
+ * reported as one transfer to the
+ * {@link DownloadOptions#getProgressMonitor() progress monitor}. If it
+ * considers the transfer stalled, all segments are aborted and resumed.
+ *
+ * @author schnatterer
+ *
+ */
+class SegmentedTransfer {
+	/** Segments are not made smaller than 8 MiB */
+	static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024;
+
+	private static Logger logger = Logger.getLogger(SegmentedTransfer.class);
+
+	private final DownloadOptions options;
+	private final int segments;
+	/** The segments currently transferred, to abort them on failure */
+	private final List<DumpSource.Segment> openSegments = new LinkedList<DumpSource.Segment>();
+	/** The error that made the transfer fail, the others are caused by it */
+	private IOException failure = null;
+	private volatile boolean failed = false;
+
+	/**
+	 * @param segments
+	 *            the number of segments, see
+	 *            {@link #getSegmentCount(DumpSource, int)}
+	 */
+	SegmentedTransfer(DownloadOptions options, int segments) {
+		this.options = options;
+		this.segments = segments;
+	}
+
+	/**
+	 * @param maxSegments
+	 *            the maximum number of segments
+	 * @return the number of segments to split the transfer of
+	 *         <code>source</code> into. <code>1</code> if it can't or should
+	 *         not be split.
+	 */
+	static int getSegmentCount(DumpSource source, int maxSegments) {
+		if (maxSegments < 2 || !source.isResumable()
+				|| source.getContentLength() < 0) {
+			return 1;
+		}
+		return (int) Math.max(1, Math.min(maxSegments,
+				source.getContentLength() / MIN_SEGMENT_SIZE));
+	}
+
+	/**
+	 * Transfers all segments and writes them to <code>target</code>, which
+	 * must be at least as long as the dump.
+	 *
+	 * @param in
+	 *            the original response of <code>source</code>
+	 * @throws IOException
+	 *             if reading fails and can't be resumed or writing fails
+	 */
+	void copy(final DumpSource source, InputStream in, final FileChannel target)
+			throws IOException {
+		long length = source.getContentLength();
+		long segmentSize = (length + segments - 1) / segments;
+		logger.info("Transferring " + source + " in " + segments
+				+ " segments of " + segmentSize + " bytes");
+		BandwidthLimiter limiter = options.getBandwidthLimiter();
+		final BandwidthLimiter.Share share = limiter == null ? null : limiter
+				.open();
+		ProgressMonitor monitor = options.getProgressMonitor();
+		final ProgressMonitor.Transfer progress = monitor == null ? null
+				: monitor.start(source.toString(), 0, length, new Runnable() {
+					public void run() {
+						abortStalled(source);
+					}
+				});
+		ExecutorService executor = Executors.newFixedThreadPool(segments - 1,
+				new NamedThreadFactory("segment", true));
+		List<Future<Void>> futures = new LinkedList<Future<Void>>();
+		try {
+			for (int i = 1; i < segments; i++) {
+				final long from = i * segmentSize;
+				final long to = Math.min(length, from + segmentSize) - 1;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						try {
+							transfer(source, null, from, to, target, share,
+									progress);
+						} catch (IOException e) {
+							abortAll(source, e);
+							throw e;
+						}
+						return null;
+					}
+				}));
+			}
+			try {
+				// The original response is read by the calling thread
+				transfer(source, in, 0, segmentSize - 1, target, share,
+						progress);
+				for (Future<Void> future : futures) {
+					await(future);
+				}
+			} catch (IOException e) {
+				abortAll(source, e);
+				for (Future<Void> future : futures) {
+					try {
+						await(future);
+					} catch (IOException ignored) {
+						// Caused by the failure
+					}
+				}
+				synchronized (openSegments) {
+					throw failure;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			if (progress != null) {
+				progress.close();
+			}
+			if (share != null) {
+				share.close();
+			}
+		}
+	}
+
+	/**
+	 * Transfers the bytes from <code>from</code> to <code>to</code>
+	 * (inclusive).
+	 *
+	 * @param in
+	 *            the original response or <code>null</code> to request the
+	 *            segment
+	 */
+	private void transfer(DumpSource source, InputStream in, long from,
+			long to, FileChannel target, BandwidthLimiter.Share share,
+			ProgressMonitor.Transfer progress) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(options.getBufferSize());
+		int attemptsLeft = options.getResumeAttempts();
+		long position = from;
+		DumpSource.Segment segment = null;
+		try {
+			if (in == null) {
+				segment = open(source, position, to);
+				in = segment.getInputStream();
+			}
+			ReadableByteChannel channel = Channels.newChannel(in);
+			while (position <= to) {
+				buffer.limit((int) Math.min(buffer.capacity(), to + 1
+						- position));
+				try {
+					if (channel.read(buffer) == -1) {
+						throw new IOException("Premature end of bytes " + from
+								+ "-" + to + " at offset " + position);
+					}
+				} catch (IOException e) {
+					if (progress != null && progress.checkStalled()) {
+						e = new IOException(progress.getStallMessage(), e);
+					}
+					// Write what has been read before the failure
+					position += write(buffer, target, position, progress);
+					if (failed || attemptsLeft-- <= 0) {
+						throw e;
+					}
+					logger.warn("Transfer of bytes " + from + "-" + to + " of "
+							+ source + " interrupted at offset " + position
+							+ ", resuming: " + e.getMessage());
+					abort(source, segment);
+					segment = open(source, position, to);
+					channel = Channels.newChannel(segment.getInputStream());
+					continue;
+				}
+				DumpTransfer.acquire(share, buffer.position(), progress);
+				position += write(buffer, target, position, progress);
+			}
+			if (segment == null || channel.read(buffer) != -1) {
+				// The rest belongs to other segments
+				abort(source, segment);
+			}
+		} catch (IOException e) {
+			abort(source, segment);
+			throw e;
+		} finally {
+			if (segment != null) {
+				synchronized (openSegments) {
+					openSegments.remove(segment);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	private int write(ByteBuffer buffer, FileChannel target, long position,
+			ProgressMonitor.Transfer progress) throws IOException {
+		buffer.flip();
+		int length = buffer.remaining();
+		if (progress != null) {
+			progress.add(length);
+		}
+		while (buffer.hasRemaining()) {
+			target.write(buffer, position + length - buffer.remaining());
+		}
+		buffer.clear();
+		return length;
+	}
+
+	private DumpSource.Segment open(DumpSource source, long from, long to)
+			throws IOException {
+		DumpSource.Segment segment = source.openSegment(from, to);
+		synchronized (openSegments) {
+			openSegments.add(segment);
+			if (failed) {
+				// Another segment failed while this one was requested
+				segment.abort();
+				throw new IOException("Transfer of " + source + " failed");
+			}
+		}
+		return segment;
+	}
+
+	private void abort(DumpSource source, DumpSource.Segment segment) {
+		if (segment == null) {
+			source.abort();
+		} else {
+			segment.abort();
+		}
+	}
+
+	/**
+	 * Aborts all segments, because one of them failed.
+	 */
+	private void abortAll(DumpSource source, IOException cause) {
+		synchronized (openSegments) {
+			if (failed) {
+				return;
+			}
+			failed = true;
+			failure = cause;
+			for (DumpSource.Segment segment : openSegments) {
+				segment.abort();
+			}
+		}
+		source.abort();
+	}
+
+	/**
+	 * Aborts all segments, so they are resumed, because the transfer stalled.
+	 */
+	private void abortStalled(DumpSource source) {
+		synchronized (openSegments) {
+			for (DumpSource.Segment segment : openSegments) {
+				segment.abort();
+			}
+		}
+		source.abort();
+	}
+
+	private static void await(Future<Void> future) throws IOException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for the segments");
+		}
+	}
+}
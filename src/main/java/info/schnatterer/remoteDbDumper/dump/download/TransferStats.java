@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.download;
+
+import java.util.Locale;
+
+/**
+ * The number of bytes transferred and stored and the time it took.
+ *
+ * @author schnatterer
+ *
+ */
+public class TransferStats {
+	private static final String[] UNITS = { "B", "KiB", "MiB", "GiB", "TiB" };
+	private static final long NANOS_PER_SECOND = 1000L * 1000L * 1000L;
+
+	private final long bytes;
+	private final long storedBytes;
+	private final long nanos;
+
+	/**
+	 * Creates stats of a transfer that stored the bytes as received.
+	 */
+	public TransferStats(long bytes, long nanos) {
+		this(bytes, bytes, nanos);
+	}
+
+	public TransferStats(long bytes, long storedBytes, long nanos) {
+		this.bytes = bytes;
+		this.storedBytes = storedBytes;
+		this.nanos = nanos;
+	}
+
+	/** @return the number of bytes transferred */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of bytes written to disk. Differs from
+	 *         {@link #getBytes()} if the dump was transformed (e.g.
+	 *         compressed).
+	 */
+	public long getStoredBytes() {
+		return storedBytes;
+	}
+
+	/**
+	 * @return the number of bytes transferred per byte stored, e.g.
+	 *         <code>4.0</code> if the dump was compressed to a quarter of its
+	 *         size
+	 */
+	public double getCompressionRatio() {
+		if (storedBytes <= 0) {
+			return 1;
+		}
+		return (double) bytes / storedBytes;
+	}
+
+	/** @return the duration of the transfer in milliseconds */
+	public long getMillis() {
+		return nanos / (1000L * 1000L);
+	}
+
+	/** @return the average throughput in bytes per second */
+	public long getBytesPerSecond() {
+		if (nanos <= 0) {
+			return 0;
+		}
+		return (long) (bytes / ((double) nanos / NANOS_PER_SECOND));
+	}
+
+	@Override
+	public String toString() {
+		String stats = formatBytes(bytes)
+				+ " in "
+				+ String.format(Locale.ENGLISH, "%.1f s", (double) nanos
+						/ NANOS_PER_SECOND) + " ("
+				+ formatBytes(getBytesPerSecond()) + "/s)";
+		if (storedBytes != bytes) {
+			stats += ", stored " + formatBytes(storedBytes)
+					+ String.format(Locale.ENGLISH, " (ratio %.1f:1)",
+							getCompressionRatio());
+		}
+		return stats;
+	}
+
+	/**
+	 * @return a human readable representation of a number of bytes, e.g.
+	 *         <code>1.5 MiB</code>
+	 */
+	public static String formatBytes(long bytes) {
+		double value = bytes;
+		int unit = 0;
+		while (value >= 1024 && unit < UNITS.length - 1) {
+			value /= 1024;
+			unit++;
+		}
+		if (unit == 0) {
+			return bytes + " " + UNITS[unit];
+		}
+		return String.format(Locale.ENGLISH, "%.1f %s", value, UNITS[unit]);
+	}
+}
@@ -18,11 +18,20 @@
 
 package info.schnatterer.remoteDbDumper.dump.drupal;
 
+import static info.schnatterer.remoteDbDumper.dump.util.HtmlUnitUtils.addCookies;
 import static info.schnatterer.remoteDbDumper.dump.util.HtmlUnitUtils.createWebClient;
 import static info.schnatterer.remoteDbDumper.dump.util.HtmlUnitUtils.downloadAttachments;
 import static info.schnatterer.remoteDbDumper.dump.util.HtmlUnitUtils.getButtonAndClick;
+import static info.schnatterer.remoteDbDumper.dump.util.HtmlUnitUtils.getCookies;
+import static info.schnatterer.remoteDbDumper.dump.util.MinimalFetchWebConnection.logStatistics;
 import info.schnatterer.remoteDbDumper.dump.DbDump;
 import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.dump.util.WebClientPool;
+import info.schnatterer.remoteDbDumper.dump.util.WebClientPool.PooledWebClient;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
 
 import java.io.File;
 import java.io.IOException;
@@ -30,6 +39,7 @@ import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.http.cookie.Cookie;
 import org.apache.log4j.Logger;
 
 import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
@@ -70,6 +80,61 @@ public class DrupalDbDump implements DbDump {
 
 	private Logger logger = Logger.getLogger(this.getClass());
 
+	private final DownloadOptions options;
+	private final SessionCache sessionCache;
+	private final DumpMetrics metrics;
+	private final WebClientPool webClientPool;
+
+	/**
+	 * Creates a dump that uses the default {@link DownloadOptions}.
+	 */
+	public DrupalDbDump() {
+		this(new DownloadOptions());
+	}
+
+	public DrupalDbDump(DownloadOptions options) {
+		this(options, null);
+	}
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 */
+	public DrupalDbDump(DownloadOptions options, SessionCache sessionCache) {
+		this(options, sessionCache, new DumpMetrics());
+	}
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 * @param metrics
+	 *            records the duration of each phase of the dump
+	 */
+	public DrupalDbDump(DownloadOptions options, SessionCache sessionCache,
+			DumpMetrics metrics) {
+		this(options, sessionCache, metrics, null);
+	}
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 * @param metrics
+	 *            records the duration of each phase of the dump
+	 * @param webClientPool
+	 *            the web client is borrowed from this pool, if not
+	 *            <code>null</code>. Otherwise a new one is created.
+	 */
+	public DrupalDbDump(DownloadOptions options, SessionCache sessionCache,
+			DumpMetrics metrics, WebClientPool webClientPool) {
+		this.options = options;
+		this.sessionCache = sessionCache;
+		this.metrics = metrics;
+		this.webClientPool = webClientPool;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -79,15 +144,33 @@ public class DrupalDbDump implements DbDump {
 	 */
 	public List<String> download(String url, String user, String password,
 			File file) throws DbDumpException {
-		final List<Attachment> attachments = new ArrayList<Attachment>();
-		final WebClient webClient = createWebClient(attachments);
+		final List<Attachment> attachments;
+		final WebClient webClient;
+		PooledWebClient pooledWebClient = null;
+		if (webClientPool != null) {
+			pooledWebClient = webClientPool.borrow();
+			attachments = pooledWebClient.getAttachments();
+			webClient = pooledWebClient.getWebClient();
+		} else {
+			attachments = new ArrayList<Attachment>();
+			webClient = createWebClient(attachments, options.getTransport(),
+					options.getMinimalFetchPattern());
+		}
 
 		logger.info("Connecting to " + url);
 		HtmlPage page;
 		try {
+			boolean sessionRestored = restoreSession(webClient, url, user,
+					password);
+			metrics.begin(DumpPhase.CONNECT);
 			page = webClient.getPage(url);
 			int statusCode = page.getWebResponse().getStatusCode();
 			if (statusCode == 403) {
+				metrics.begin(DumpPhase.LOGIN);
+				if (sessionRestored) {
+					logger.info("Cached session has been rejected, logging in");
+					sessionCache.invalidate(url, user);
+				}
 				WebWindow currentWindow = webClient.getCurrentWindow()
 						.getTopWindow();
 
@@ -115,15 +198,29 @@ public class DrupalDbDump implements DbDump {
 				}
 				logger.info("Successfully logged in to \"" + page.getUrl()
 						+ "\" as \"" + user + "\"");
+				storeSession(webClient, url, user, password);
 			} else if (statusCode != 200) {
 				throw new DbDumpException("Connection failed with code "
 						+ statusCode, page);
+			} else if (sessionRestored) {
+				logger.info("Reusing cached session of \"" + user + "\"");
 			} else {
 				logger.info("No log in required, trying to continue without logging in");
 			}
 
-			clickDownloadButton(page);
-			return downloadAttachments(attachments, file);
+			metrics.begin(DumpPhase.BACKUP);
+			Page backupPage = clickDownloadButton(page);
+			if (attachments.isEmpty() && backupPage != null
+					&& backupPage.getWebResponse().getStatusCode() != 200) {
+				int backupStatusCode = backupPage.getWebResponse()
+						.getStatusCode();
+				throw new DbDumpException(
+						"Clicking the button did not offer a file to download. Status code "
+								+ backupStatusCode, backupStatusCode);
+			}
+			metrics.begin(DumpPhase.TRANSFER);
+			return downloadAttachments(webClient, attachments, file, options,
+					metrics);
 		} catch (FailingHttpStatusCodeException e) {
 			throw new DbDumpException("Error connecting, HTTP status code: "
 					+ e.getStatusCode(), e);
@@ -133,7 +230,38 @@ public class DrupalDbDump implements DbDump {
 		} catch (IOException e) {
 			throw new DbDumpException("Error connecting, IO Exception.", e);
 		} finally {
-			webClient.closeAllWindows();
+			metrics.end();
+			logStatistics(webClient, url);
+			if (pooledWebClient != null) {
+				webClientPool.release(pooledWebClient);
+			} else {
+				webClient.closeAllWindows();
+			}
+		}
+	}
+
+	/**
+	 * Adds the cookies of a cached session to the web client.
+	 *
+	 * @return <code>true</code> if a session has been restored
+	 */
+	private boolean restoreSession(WebClient webClient, String url,
+			String user, String password) {
+		if (sessionCache == null || user.isEmpty()) {
+			return false;
+		}
+		List<Cookie> cookies = sessionCache.load(url, user, password);
+		if (cookies == null) {
+			return false;
+		}
+		addCookies(webClient, cookies);
+		return true;
+	}
+
+	private void storeSession(WebClient webClient, String url, String user,
+			String password) {
+		if (sessionCache != null) {
+			sessionCache.store(url, user, password, getCookies(webClient));
 		}
 	}
 
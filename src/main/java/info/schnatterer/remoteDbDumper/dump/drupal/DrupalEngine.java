@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.drupal;
+
+import info.schnatterer.remoteDbDumper.dump.DbDump;
+import info.schnatterer.remoteDbDumper.dump.DbDumpContext;
+import info.schnatterer.remoteDbDumper.dump.DbDumpEngine;
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+import java.util.Locale;
+
+/**
+ * Engine for Drupal sites using Backup and Migrate, via a headless browser.
+ * See {@link DrupalDbDump}.
+ *
+ * @author schnatterer
+ *
+ */
+public class DrupalEngine implements DbDumpEngine {
+	/** Name of the engine */
+	public static final String NAME = "drupal-htmlunit";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public boolean detect(HttpPage landingPage) {
+		return isDrupal(landingPage);
+	}
+
+	public DbDump createDbDump(DbDumpContext context, DumpMetrics metrics) {
+		return new DrupalDbDump(context.getOptions(),
+				context.getSessionCache(), metrics,
+				context.getWebClientPool());
+	}
+
+	/**
+	 * @return <code>true</code> if the page has been generated by Drupal,
+	 *         e.g. its login page or the Backup and Migrate page
+	 */
+	static boolean isDrupal(HttpPage page) {
+		String content = page.getContent().toLowerCase(Locale.ENGLISH);
+		return content.contains("drupal")
+				|| content.contains("backup-migrate")
+				|| content.contains("user-login-form");
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.dump.drupal;
+
+import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.dump.util.HttpFormClient;
+import info.schnatterer.remoteDbDumper.dump.util.HttpFormDbDump;
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.dump.util.ScrapedForm;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Lightweight implementation of dumping a database by using the drupal plugin
+ * <a href="https://drupal.org/project/backup_migrate">Backup and Migrate</a>.
+ * <p>
+ * In contrast to {@link DrupalDbDump} this does not use a browser engine. The
+ * login and backup forms are scraped from the HTML source and submitted via
+ * plain HTTP. No JavaScript is executed and no style sheets, scripts or images
+ * are loaded, which saves lots of CPU and memory.
+ *
+ * @author schnatterer
+ *
+ */
+public class DrupalHttpDbDump extends HttpFormDbDump {
+	private static final String FORM_ID_LOGIN = "user-login-form";
+	private static final String NAME_INPUT_LOGIN_NAME = "name";
+	private static final String NAME_INPUT_LOGIN_PASS = "pass";
+	private static final String NAME_BUTTON_LOGIN = "op";
+
+	private static final String FORM_ID_BACKUP_MIGRATE = "backup-migrate-ui-manual-quick-backup-form";
+	private static final String NAME_BUTTON_BACKUP = "op";
+	private static final String ID_SELECT_PROFILE = "profile_id";
+	private static final String ID_SELECT_DESTINATION = "destination_id";
+	private static final String ID_SELECT_SOURCE = "source_id";
+	private static final String VALUE_SELECT_PROFILE = "default";
+	private static final String VALUE_SELECT_DESTINATION = "download";
+	private static final String VALUE_SELECT_SOURCE = "db";
+
+	/**
+	 * Creates a dump that uses the default {@link DownloadOptions}.
+	 */
+	public DrupalHttpDbDump() {
+		this(new DownloadOptions());
+	}
+
+	public DrupalHttpDbDump(DownloadOptions options) {
+		this(options, null);
+	}
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 */
+	public DrupalHttpDbDump(DownloadOptions options, SessionCache sessionCache) {
+		this(options, sessionCache, new DumpMetrics());
+	}
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 * @param metrics
+	 *            records the duration of each phase of the dump
+	 */
+	public DrupalHttpDbDump(DownloadOptions options, SessionCache sessionCache,
+			DumpMetrics metrics) {
+		super(options, sessionCache, metrics);
+	}
+
+	@Override
+	protected boolean isLoginRequired(HttpPage page) {
+		return page.getStatusCode() == 403;
+	}
+
+	@Override
+	protected HttpPage login(HttpFormClient client, String url, HttpPage page,
+			String user, String password) throws DbDumpException, IOException {
+		// POST params:
+		// name=<user>
+		// pass=<password>
+		// op=...
+		// form_id=user_login_block
+		// form_build_id=<generated id>
+		ScrapedForm form = ScrapedForm.findById(page.getContent(),
+				FORM_ID_LOGIN);
+		if (form == null) {
+			throw new DbDumpException("Unable to find login form. " + page);
+		}
+		if (!form.hasField(NAME_INPUT_LOGIN_NAME)) {
+			throw new DbDumpException("Unable to find input for login name. "
+					+ form);
+		}
+		form.setField(NAME_INPUT_LOGIN_NAME, user);
+		if (!form.hasField(NAME_INPUT_LOGIN_PASS)) {
+			throw new DbDumpException(
+					"Unable to find input for login password. " + form);
+		}
+		form.setField(NAME_INPUT_LOGIN_PASS, password);
+		checkSubmitButton(form, "login", NAME_BUTTON_LOGIN);
+
+		page = client.submit(page, form, NAME_BUTTON_LOGIN);
+		if (ScrapedForm.findById(page.getContent(), FORM_ID_BACKUP_MIGRATE) == null) {
+			// Login might redirect somewhere else
+			page = client.get(url);
+		}
+		return page;
+	}
+
+	@Override
+	protected List<String> downloadDump(HttpFormClient client, String url,
+			HttpPage page, File targetDir) throws DbDumpException, IOException {
+		// POST params
+		// source_id=db
+		// destination_id=download
+		// profile_id=default
+		// op=Backup+now
+		// form_id=backup_migrate_ui_manual_quick_backup_form
+		// form_build_id=<generated id>
+		// form_token=<generated token>
+		ScrapedForm backupForm = ScrapedForm.findById(page.getContent(),
+				FORM_ID_BACKUP_MIGRATE);
+		if (backupForm == null) {
+			throw new DbDumpException("Unable to find backup form. " + page);
+		}
+		selectOption(backupForm, ID_SELECT_SOURCE, VALUE_SELECT_SOURCE,
+				"source");
+		selectOption(backupForm, ID_SELECT_DESTINATION,
+				VALUE_SELECT_DESTINATION, "destination");
+		selectOption(backupForm, ID_SELECT_PROFILE, VALUE_SELECT_PROFILE,
+				"profile");
+		checkSubmitButton(backupForm, "backup", NAME_BUTTON_BACKUP);
+
+		return downloadAttachment(client, client.createSubmitRequest(page,
+				backupForm, NAME_BUTTON_BACKUP), targetDir);
+	}
+
+	/**
+	 * Keeps the name suggested by Backup and Migrate, which already contains
+	 * the site name and a timestamp.
+	 */
+	@Override
+	protected String createFileName(HttpUriRequest request,
+			String suggestedName) {
+		return suggestedName;
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.drupal;
+
+import info.schnatterer.remoteDbDumper.dump.DbDump;
+import info.schnatterer.remoteDbDumper.dump.DbDumpContext;
+import info.schnatterer.remoteDbDumper.dump.DbDumpEngine;
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+/**
+ * Engine for Drupal sites using Backup and Migrate, via plain HTTP. See
+ * {@link DrupalHttpDbDump}.
+ * <p>
+ * Detects the same sites as {@link DrupalEngine}, which comes first and is
+ * therefore preferred when detecting.
+ *
+ * @author schnatterer
+ *
+ */
+public class DrupalHttpEngine implements DbDumpEngine {
+	/** Name of the engine */
+	public static final String NAME = "drupal-http";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public boolean detect(HttpPage landingPage) {
+		return DrupalEngine.isDrupal(landingPage);
+	}
+
+	public DbDump createDbDump(DbDumpContext context, DumpMetrics metrics) {
+		return new DrupalHttpDbDump(context.getOptions(),
+				context.getSessionCache(), metrics);
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.integrity;
+
+/**
+ * Checks the structure of a dump while it is downloaded, e.g. whether it is
+ * complete.
+ *
+ * @author schnatterer
+ *
+ */
+interface DumpValidator {
+
+	/** @return what is validated, e.g. "gzip" */
+	String getName();
+
+	/**
+	 * Passes the next bytes of the dump.
+	 */
+	void update(byte[] data, int offset, int length);
+
+	/**
+	 * Validates the dump, after all bytes have been passed. Releases all
+	 * resources.
+	 *
+	 * @return <code>null</code> if the dump is valid, otherwise a
+	 *         description of the problem
+	 */
+	String finish();
+
+	/**
+	 * Releases all resources without validating.
+	 */
+	void close();
+}
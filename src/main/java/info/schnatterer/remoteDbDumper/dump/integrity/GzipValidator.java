@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.integrity;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Checks whether a gzip stream is complete and intact, while it is
+ * downloaded: Each member must have a valid header, its data must inflate
+ * without errors and its trailer must match the CRC-32 and length of the
+ * inflated data. A stream that is cut off lacks the trailer of its last
+ * member.
+ * <p>
+ * The inflated data can be passed on to another validator, e.g. to check an
+ * SQL dump inside of the gzip stream.
+ *
+ * @author schnatterer
+ *
+ */
+class GzipValidator implements DumpValidator {
+	private static final int ID1 = 0x1f;
+	private static final int ID2 = 0x8b;
+	private static final int CM_DEFLATE = 8;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int FIXED_HEADER_LENGTH = 10;
+	private static final int TRAILER_LENGTH = 8;
+
+	private enum State {
+		HEADER, DATA, TRAILER, MEMBER_END
+	}
+
+	private final DumpValidator inner;
+	private final Inflater inflater = new Inflater(true);
+	private final CRC32 crc = new CRC32();
+	private final byte[] inflated = new byte[64 * 1024];
+	/** Collects a header or a trailer that spans several updates */
+	private byte[] pending = new byte[FIXED_HEADER_LENGTH];
+	private int pendingLength = 0;
+
+	private State state = State.HEADER;
+	private int members = 0;
+	/** The number of bytes inflated in the current member */
+	private long memberSize = 0;
+	private String problem = null;
+
+	/**
+	 * @param inner
+	 *            gets the inflated data, <code>null</code> for none
+	 */
+	GzipValidator(DumpValidator inner) {
+		this.inner = inner;
+	}
+
+	public String getName() {
+		return inner == null ? "gzip" : "gzip, " + inner.getName();
+	}
+
+	public void update(byte[] data, int offset, int length) {
+		int end = offset + length;
+		while (offset < end && problem == null) {
+			switch (state) {
+			case MEMBER_END:
+				state = State.HEADER;
+				pendingLength = 0;
+				// The next iteration reads the header of the next member
+				break;
+			case HEADER:
+				offset = updateHeader(data, offset, end);
+				break;
+			case DATA:
+				offset = updateData(data, offset, end);
+				break;
+			case TRAILER:
+				offset = updateTrailer(data, offset, end);
+				break;
+			}
+		}
+	}
+
+	public String finish() {
+		try {
+			if (problem != null) {
+				return problem;
+			}
+			if (state != State.MEMBER_END) {
+				return members == 0 && state == State.HEADER
+						&& pendingLength == 0 ? "gzip stream is empty"
+						: "gzip stream is truncated";
+			}
+			return inner == null ? null : inner.finish();
+		} finally {
+			close();
+		}
+	}
+
+	public void close() {
+		inflater.end();
+		if (inner != null) {
+			inner.close();
+		}
+	}
+
+	/**
+	 * Collects the bytes of the header until it is complete, then starts
+	 * inflating.
+	 *
+	 * @return the offset of the first byte not consumed
+	 */
+	private int updateHeader(byte[] data, int offset, int end) {
+		int headerLength;
+		do {
+			append(data[offset++]);
+			headerLength = getHeaderLength();
+		} while (headerLength < 0 && offset < end && problem == null);
+		if (headerLength > 0) {
+			state = State.DATA;
+			inflater.reset();
+			crc.reset();
+			memberSize = 0;
+			pendingLength = 0;
+		}
+		return offset;
+	}
+
+	/**
+	 * @return the length of the header collected in {@link #pending} or -1 if
+	 *         it is not complete yet
+	 */
+	private int getHeaderLength() {
+		if (pendingLength < FIXED_HEADER_LENGTH) {
+			if (pendingLength == 1 && unsigned(0) != ID1 || pendingLength == 2
+					&& unsigned(1) != ID2) {
+				problem = members == 0 ? "Not in gzip format"
+						: "Trailing garbage after gzip stream";
+			} else if (pendingLength == 3 && unsigned(2) != CM_DEFLATE) {
+				problem = "Unknown gzip compression method " + unsigned(2);
+			}
+			return -1;
+		}
+		int flags = unsigned(3);
+		int length = FIXED_HEADER_LENGTH;
+		if ((flags & FEXTRA) != 0) {
+			if (pendingLength < length + 2) {
+				return -1;
+			}
+			length += 2 + (unsigned(length) | unsigned(length + 1) << 8);
+		}
+		if ((flags & FNAME) != 0) {
+			length = skipZeroTerminated(length);
+		}
+		if ((flags & FCOMMENT) != 0 && length >= 0) {
+			length = skipZeroTerminated(length);
+		}
+		if ((flags & FHCRC) != 0 && length >= 0) {
+			length += 2;
+		}
+		return length >= 0 && pendingLength >= length ? length : -1;
+	}
+
+	/**
+	 * @return the offset after the zero byte that terminates the string at
+	 *         <code>offset</code> or -1 if not collected yet
+	 */
+	private int skipZeroTerminated(int offset) {
+		for (int i = offset; i < pendingLength; i++) {
+			if (pending[i] == 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Inflates the data of the current member, until the end of its deflate
+	 * stream.
+	 *
+	 * @return the offset of the first byte not consumed
+	 */
+	private int updateData(byte[] data, int offset, int end) {
+		inflater.setInput(data, offset, end - offset);
+		try {
+			while (true) {
+				int count = inflater.inflate(inflated);
+				if (count > 0) {
+					crc.update(inflated, 0, count);
+					memberSize += count;
+					if (inner != null) {
+						inner.update(inflated, 0, count);
+					}
+				} else if (inflater.finished()) {
+					state = State.TRAILER;
+					return end - inflater.getRemaining();
+				} else if (inflater.needsInput()) {
+					return end;
+				} else if (inflater.needsDictionary()) {
+					problem = "gzip stream requires a preset dictionary";
+					return end;
+				}
+			}
+		} catch (DataFormatException e) {
+			problem = "gzip stream is corrupt: " + e.getMessage();
+			return end;
+		}
+	}
+
+	/**
+	 * Collects the trailer and compares it to the inflated data.
+	 *
+	 * @return the offset of the first byte not consumed
+	 */
+	private int updateTrailer(byte[] data, int offset, int end) {
+		while (pendingLength < TRAILER_LENGTH && offset < end) {
+			append(data[offset++]);
+		}
+		if (pendingLength == TRAILER_LENGTH) {
+			if (littleEndianInt(0) != crc.getValue()) {
+				problem = "CRC-32 of gzip member " + (members + 1)
+						+ " does not match";
+			} else if (littleEndianInt(4) != (memberSize & 0xffffffffL)) {
+				problem = "Length of gzip member " + (members + 1)
+						+ " does not match";
+			}
+			members++;
+			state = State.MEMBER_END;
+		}
+		return offset;
+	}
+
+	private void append(byte b) {
+		if (pendingLength == pending.length) {
+			byte[] larger = new byte[pending.length * 2];
+			System.arraycopy(pending, 0, larger, 0, pendingLength);
+			pending = larger;
+		}
+		pending[pendingLength++] = b;
+	}
+
+	private int unsigned(int index) {
+		return pending[index] & 0xff;
+	}
+
+	private long littleEndianInt(int index) {
+		return (unsigned(index) | unsigned(index + 1) << 8
+				| unsigned(index + 2) << 16 | (long) unsigned(index + 3) << 24);
+	}
+}
@@ -0,0 +1,328 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.integrity;
+
+import info.schnatterer.remoteDbDumper.dump.download.FileMover;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Checks a dump while it is downloaded: Computes a checksum of the bytes
+ * received and (optionally) validates the structure of gzip and SQL dumps,
+ * so truncated or corrupt dumps are detected before they are stored, without
+ * reading them again.
+ * <p>
+ * The checksum is written to a sidecar file next to the stored dump, in the
+ * BSD format understood by <code>sha256sum -c</code> and
+ * <code>xxhsum -c</code>, e.g.
+ *
+ * <pre>
+ * # remoteDbDumper integrity 1
+ * # length: 52428800
+ * # validated: sql
+ * SHA256 (example.mysql) = 9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08
+ * </pre>
+ *
+ * The checksum is computed over the dump as received, so it refers to the
+ * original file name, even if the dump is stored compressed or
+ * deduplicated.
+ *
+ * @author schnatterer
+ *
+ */
+public class IntegrityCheck {
+	/** Checksum algorithm SHA-256 */
+	public static final String SHA256 = "sha256";
+	/** Checksum algorithm XXH64, much faster but not cryptographic */
+	public static final String XXH64 = "xxh64";
+	/** Header of the sidecar file */
+	public static final String SIDECAR_HEADER = "# remoteDbDumper integrity 1";
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String[] GZIP_EXTENSIONS = { ".gz", ".gzip" };
+	private static final String[] SQL_EXTENSIONS = { ".sql", ".mysql",
+			".pgsql", ".psql" };
+
+	private final String algorithm;
+	private final String fileName;
+	private MessageDigest digest = null;
+	private XxHash64 xxHash = null;
+	private DumpValidator validator = null;
+	private byte[] scratch = null;
+
+	private long length = 0;
+	private String checksum = null;
+	private String validationResult = null;
+	private String unavailableReason = null;
+
+	/**
+	 * @param algorithm
+	 *            {@link #SHA256}, {@link #XXH64} or <code>null</code> for no
+	 *            checksum
+	 * @param validate
+	 *            <code>true</code> to validate the structure of the dump,
+	 *            if its type is known from <code>fileName</code>
+	 * @param fileName
+	 *            the name of the dump as received
+	 */
+	public IntegrityCheck(String algorithm, boolean validate, String fileName) {
+		this.algorithm = algorithm;
+		this.fileName = fileName;
+		if (SHA256.equals(algorithm)) {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				// Every JRE provides SHA-256
+				throw new IllegalStateException(e);
+			}
+		} else if (XXH64.equals(algorithm)) {
+			xxHash = new XxHash64();
+		} else if (algorithm != null) {
+			throw new IllegalArgumentException("Unknown checksum algorithm "
+					+ algorithm);
+		}
+		if (validate) {
+			validator = createValidator(fileName);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if <code>algorithm</code> is supported by
+	 *         {@link #IntegrityCheck(String, boolean, String)}
+	 */
+	public static boolean isSupportedAlgorithm(String algorithm) {
+		return SHA256.equals(algorithm) || XXH64.equals(algorithm);
+	}
+
+	/**
+	 * @return the validator for the type of dump or <code>null</code> if the
+	 *         type is unknown
+	 */
+	private static DumpValidator createValidator(String fileName) {
+		String name = fileName.toLowerCase(Locale.ENGLISH);
+		for (String extension : GZIP_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return new GzipValidator(createValidator(name.substring(0,
+						name.length() - extension.length())));
+			}
+		}
+		for (String extension : SQL_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return new SqlValidator();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Passes the remaining bytes of <code>buffer</code>, without changing
+	 * its position.
+	 */
+	public void update(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			update(buffer.array(), buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+			return;
+		}
+		int count = buffer.remaining();
+		if (scratch == null || scratch.length < count) {
+			scratch = new byte[count];
+		}
+		buffer.duplicate().get(scratch, 0, count);
+		update(scratch, 0, count);
+	}
+
+	/**
+	 * Passes the next bytes of the dump.
+	 */
+	public void update(byte[] data, int offset, int count) {
+		if (unavailableReason != null) {
+			return;
+		}
+		if (digest != null) {
+			digest.update(data, offset, count);
+		} else if (xxHash != null) {
+			xxHash.update(data, offset, count);
+		}
+		if (validator != null) {
+			validator.update(data, offset, count);
+		}
+		length += count;
+	}
+
+	/**
+	 * Gives up checking, e.g. because the beginning of the dump is not
+	 * available anymore.
+	 */
+	public void setUnavailable(String reason) {
+		unavailableReason = reason;
+		close();
+	}
+
+	/**
+	 * Completes the check, after the whole dump has been passed.
+	 *
+	 * @return <code>null</code> if the dump is valid (or its type is not
+	 *         validated), otherwise a description of the problem
+	 */
+	public String finish() {
+		if (unavailableReason != null) {
+			return null;
+		}
+		if (digest != null) {
+			checksum = toHex(digest.digest());
+		} else if (xxHash != null) {
+			checksum = String.format("%016x", xxHash.getValue());
+		}
+		if (validator == null) {
+			return null;
+		}
+		String problem = validator.finish();
+		validationResult = validator.getName()
+				+ (problem == null ? "" : ": " + problem);
+		validator = null;
+		return problem;
+	}
+
+	/**
+	 * Releases all resources, if the dump is not {@link #finish() finished}.
+	 */
+	public void close() {
+		if (validator != null) {
+			validator.close();
+			validator = null;
+		}
+	}
+
+	/**
+	 * @return the checksum as hex string, after {@link #finish()}.
+	 *         <code>null</code> if none has been computed.
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/** @return the number of bytes passed */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the name of the validator and the problem found, if any, after
+	 *         {@link #finish()}. <code>null</code> if not validated.
+	 */
+	public String getValidationResult() {
+		return validationResult;
+	}
+
+	/**
+	 * Takes the results of an earlier check of a dump with the same content,
+	 * instead of passing the dump and calling {@link #finish()}.
+	 */
+	public void setResult(long length, String checksum,
+			String validationResult) {
+		close();
+		this.length = length;
+		this.checksum = checksum;
+		this.validationResult = validationResult;
+	}
+
+	/**
+	 * @return the sidecar file for the dump stored in <code>storedFile</code>
+	 *         or <code>null</code> if no checksum is computed
+	 */
+	public File getSidecarFile(File storedFile) {
+		if (algorithm == null) {
+			return null;
+		}
+		return new File(storedFile.getPath() + "." + algorithm);
+	}
+
+	/**
+	 * Writes the results to the {@link #getSidecarFile(File) sidecar file}
+	 * of <code>storedFile</code>, after {@link #finish()}. Deletes a stale
+	 * sidecar, if no checksum could be computed.
+	 */
+	public void writeSidecar(File storedFile) throws IOException {
+		File sidecar = getSidecarFile(storedFile);
+		if (sidecar == null) {
+			return;
+		}
+		String content = getSidecarContent();
+		if (content == null) {
+			sidecar.delete();
+			return;
+		}
+
+		File tempFile = new File(sidecar.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile),
+				CHARSET);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		FileMover.move(tempFile, sidecar);
+	}
+
+	/**
+	 * @return the content of the sidecar file, after {@link #finish()}.
+	 *         <code>null</code> if no checksum has been computed.
+	 */
+	public String getSidecarContent() {
+		if (algorithm == null || checksum == null) {
+			return null;
+		}
+		StringBuilder content = new StringBuilder(SIDECAR_HEADER).append('\n');
+		content.append("# length: ").append(length).append('\n');
+		content.append("# validated: ")
+				.append(validationResult == null ? "no" : validationResult)
+				.append('\n');
+		content.append(algorithm.toUpperCase(Locale.ENGLISH)).append(" (")
+				.append(fileName).append(") = ").append(checksum).append('\n');
+		return content.toString();
+	}
+
+	/**
+	 * @return the algorithm of the checksum, which is also the extension of
+	 *         the sidecar file. <code>null</code> for none.
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+					Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
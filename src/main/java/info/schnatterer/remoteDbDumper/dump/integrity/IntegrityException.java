@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.integrity;
+
+import java.io.IOException;
+
+/**
+ * Signals that a dump has been downloaded completely, but is corrupt or
+ * truncated, see {@link IntegrityCheck}.
+ *
+ * @author schnatterer
+ *
+ */
+public class IntegrityException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public IntegrityException(String message) {
+		super(message);
+	}
+}
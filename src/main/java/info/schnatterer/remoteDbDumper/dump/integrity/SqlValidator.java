@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.integrity;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Checks whether an SQL dump is complete, by looking at its end: Dumps
+ * written by mysqldump and pg_dump end with a "dump completed" comment,
+ * Adminer dumps end with a comment containing the time of the dump, phpMyAdmin
+ * and Backup and Migrate dumps end with a <code>COMMIT</code> and further
+ * statements. A dump that is cut off ends in the middle of a statement or
+ * lacks the footer.
+ *
+ * @author schnatterer
+ *
+ */
+class SqlValidator implements DumpValidator {
+	/** Only the end of the dump is kept */
+	private static final int TAIL_SIZE = 4096;
+	private static final String[] FOOTERS = { "-- Dump completed",
+			"database dump complete" };
+	/** Last line of Adminer dumps, e.g. "-- 2013-06-28 01:00:00" */
+	private static final Pattern PATTERN_TIMESTAMP_FOOTER = Pattern
+			.compile("(^|\n)-- \\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}$");
+	private static final String COMMIT = "COMMIT";
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private final byte[] tail = new byte[TAIL_SIZE];
+	/** Position of the next byte in the ring buffer */
+	private int position = 0;
+	private long length = 0;
+
+	public String getName() {
+		return "sql";
+	}
+
+	public void update(byte[] data, int offset, int count) {
+		if (count >= TAIL_SIZE) {
+			System.arraycopy(data, offset + count - TAIL_SIZE, tail, 0,
+					TAIL_SIZE);
+			position = 0;
+		} else {
+			int first = Math.min(count, TAIL_SIZE - position);
+			System.arraycopy(data, offset, tail, position, first);
+			System.arraycopy(data, offset + first, tail, 0, count - first);
+			position = (position + count) % TAIL_SIZE;
+		}
+		length += count;
+	}
+
+	public String finish() {
+		String end = getTail().trim();
+		if (end.isEmpty()) {
+			return "SQL dump is empty";
+		}
+		for (String footer : FOOTERS) {
+			if (end.contains(footer)) {
+				return null;
+			}
+		}
+		if (PATTERN_TIMESTAMP_FOOTER.matcher(end).find()) {
+			return null;
+		}
+		if (!end.endsWith(";")) {
+			return "SQL dump ends in the middle of a statement";
+		}
+		if (!end.toUpperCase(Locale.ENGLISH).contains(COMMIT)) {
+			return "SQL dump has neither a final " + COMMIT + " nor a footer";
+		}
+		return null;
+	}
+
+	public void close() {
+		// Nothing to release
+	}
+
+	private String getTail() {
+		if (length < TAIL_SIZE) {
+			return new String(tail, 0, (int) length, CHARSET);
+		}
+		byte[] ordered = new byte[TAIL_SIZE];
+		System.arraycopy(tail, position, ordered, 0, TAIL_SIZE - position);
+		System.arraycopy(tail, 0, ordered, TAIL_SIZE - position, position);
+		return new String(ordered, CHARSET);
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.integrity;
+
+/**
+ * Streaming implementation of the 64 bit <a
+ * href="https://github.com/Cyan4973/xxHash">xxHash</a> (XXH64) with seed 0.
+ * Several times faster than SHA-256, but not cryptographically secure.
+ *
+ * @author schnatterer
+ *
+ */
+class XxHash64 {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+	private static final int STRIPE = 32;
+
+	private long v1 = PRIME1 + PRIME2;
+	private long v2 = PRIME2;
+	private long v3 = 0;
+	private long v4 = -PRIME1;
+	private long length = 0;
+	/** Bytes not forming a complete stripe yet */
+	private final byte[] pending = new byte[STRIPE];
+	private int pendingLength = 0;
+
+	public void update(byte[] data, int offset, int count) {
+		length += count;
+		int end = offset + count;
+		if (pendingLength > 0) {
+			int fill = Math.min(STRIPE - pendingLength, count);
+			System.arraycopy(data, offset, pending, pendingLength, fill);
+			pendingLength += fill;
+			offset += fill;
+			if (pendingLength < STRIPE) {
+				return;
+			}
+			stripe(pending, 0);
+			pendingLength = 0;
+		}
+		for (; offset + STRIPE <= end; offset += STRIPE) {
+			stripe(data, offset);
+		}
+		pendingLength = end - offset;
+		System.arraycopy(data, offset, pending, 0, pendingLength);
+	}
+
+	/**
+	 * @return the hash of all data passed so far. Does not change the state.
+	 */
+	public long getValue() {
+		long hash;
+		if (length >= STRIPE) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+					+ Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = merge(hash, v1);
+			hash = merge(hash, v2);
+			hash = merge(hash, v3);
+			hash = merge(hash, v4);
+		} else {
+			hash = PRIME5;
+		}
+		hash += length;
+		int i = 0;
+		for (; i + 8 <= pendingLength; i += 8) {
+			hash ^= round(0, readLong(pending, i));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if (i + 4 <= pendingLength) {
+			hash ^= (readInt(pending, i) & 0xffffffffL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			i += 4;
+		}
+		for (; i < pendingLength; i++) {
+			hash ^= (pending[i] & 0xff) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private void stripe(byte[] data, int offset) {
+		v1 = round(v1, readLong(data, offset));
+		v2 = round(v2, readLong(data, offset + 8));
+		v3 = round(v3, readLong(data, offset + 16));
+		v4 = round(v4, readLong(data, offset + 24));
+	}
+
+	private static long round(long accumulator, long input) {
+		return Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1;
+	}
+
+	private static long merge(long hash, long accumulator) {
+		return (hash ^ round(0, accumulator)) * PRIME1 + PRIME4;
+	}
+
+	private static long readLong(byte[] data, int offset) {
+		return (readInt(data, offset) & 0xffffffffL)
+				| ((long) readInt(data, offset + 4) << 32);
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+				| (data[offset + 2] & 0xff) << 16
+				| (data[offset + 3] & 0xff) << 24;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.phpmyadmin;
+
+import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.dump.util.HttpFormClient;
+import info.schnatterer.remoteDbDumper.dump.util.HttpFormDbDump;
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.dump.util.ScrapedForm;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+/**
+ * Dumps a MySQL database using the export of <a
+ * href="http://www.phpmyadmin.net/">phpMyAdmin</a>, via plain HTTP.
+ * <p>
+ * Logs in using cookie authentication, opens the export page and submits its
+ * form as "quick" SQL export, compressed by the server using gzip. If the
+ * URL contains a <code>db</code> parameter (e.g.
+ * <code>https://example.com/phpmyadmin/index.php?db=drupal</code>) only this
+ * database is exported, otherwise all databases of the server.
+ *
+ * @author schnatterer
+ *
+ */
+public class PhpMyAdminDbDump extends HttpFormDbDump {
+	private static final String NAME_INPUT_LOGIN_NAME = "pma_username";
+	private static final String NAME_INPUT_LOGIN_PASS = "pma_password";
+
+	private static final String NAME_INPUT_EXPORT_TYPE = "export_type";
+	private static final String NAME_SELECT_FORMAT = "what";
+	private static final String VALUE_SELECT_FORMAT = "sql";
+	private static final String NAME_INPUT_OUTPUT = "output_format";
+	private static final String VALUE_INPUT_OUTPUT = "sendit";
+	private static final String NAME_SELECT_COMPRESSION = "compression";
+	private static final String VALUE_SELECT_COMPRESSION = "gzip";
+	private static final String NAME_SELECT_DATABASES = "db_select[]";
+
+	private static final String PARAM_DB = "db";
+	private static final String CHARSET = "UTF-8";
+	/** The token phpMyAdmin adds to links and forms against CSRF */
+	private static final Pattern PATTERN_TOKEN = Pattern
+			.compile("(?:[?&;]token=|name=\"token\"\\s+value=\")([0-9a-zA-Z]+)");
+	/** phpMyAdmin 5 routes all pages via index.php */
+	private static final String ROUTE_MARKER = "route=/";
+
+	/**
+	 * Creates a dump that uses the default {@link DownloadOptions}.
+	 */
+	public PhpMyAdminDbDump() {
+		this(new DownloadOptions(), null, new DumpMetrics());
+	}
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 * @param metrics
+	 *            records the duration of each phase of the dump
+	 */
+	public PhpMyAdminDbDump(DownloadOptions options, SessionCache sessionCache,
+			DumpMetrics metrics) {
+		super(options, sessionCache, metrics);
+	}
+
+	@Override
+	protected boolean isLoginRequired(HttpPage page) {
+		return ScrapedForm.findByField(page.getContent(),
+				NAME_INPUT_LOGIN_NAME) != null;
+	}
+
+	@Override
+	protected HttpPage login(HttpFormClient client, String url, HttpPage page,
+			String user, String password) throws DbDumpException, IOException {
+		// POST params:
+		// pma_username=<user>
+		// pma_password=<password>
+		// server=1
+		// token=<generated token>
+		ScrapedForm form = ScrapedForm.findByField(page.getContent(),
+				NAME_INPUT_LOGIN_NAME);
+		form.setField(NAME_INPUT_LOGIN_NAME, user);
+		if (!form.hasField(NAME_INPUT_LOGIN_PASS)) {
+			throw new DbDumpException(
+					"Unable to find input for login password. " + form);
+		}
+		form.setField(NAME_INPUT_LOGIN_PASS, password);
+		return client.submit(page, form, null);
+	}
+
+	@Override
+	protected List<String> downloadDump(HttpFormClient client, String url,
+			HttpPage page, File targetDir) throws DbDumpException, IOException {
+		String database = getDatabase(url);
+		HttpPage exportPage = client.get(getExportUrl(page, database));
+		if (exportPage.getStatusCode() != 200) {
+			throw new DbDumpException("Unable to open export page - status code "
+					+ exportPage.getStatusCode() + ". " + exportPage,
+					exportPage.getStatusCode());
+		}
+		// POST params
+		// export_type=server|database
+		// export_method=quick
+		// what=sql
+		// output_format=sendit
+		// compression=gzip
+		// db=<database> or db_select[]=<database>...
+		// token=<generated token>
+		ScrapedForm exportForm = ScrapedForm.findByField(
+				exportPage.getContent(), NAME_INPUT_EXPORT_TYPE);
+		if (exportForm == null) {
+			throw new DbDumpException("Unable to find export form. "
+					+ exportPage);
+		}
+		// Selects or radio buttons, depending on the version
+		exportForm.setField(NAME_SELECT_FORMAT, VALUE_SELECT_FORMAT);
+		exportForm.setField(NAME_INPUT_OUTPUT, VALUE_INPUT_OUTPUT);
+		List<String> compressions = exportForm
+				.getSelectOptions(NAME_SELECT_COMPRESSION);
+		if (compressions != null
+				&& compressions.contains(VALUE_SELECT_COMPRESSION)) {
+			exportForm.setField(NAME_SELECT_COMPRESSION,
+					VALUE_SELECT_COMPRESSION);
+		} else {
+			logger.warn("Server does not offer gzip compression, exporting uncompressed");
+		}
+		List<String> databases = exportForm
+				.getSelectOptions(NAME_SELECT_DATABASES);
+		if (database == null && databases != null) {
+			// Export all databases of the server
+			exportForm.removeField(NAME_SELECT_DATABASES);
+			for (String db : databases) {
+				exportForm.addField(NAME_SELECT_DATABASES, db);
+			}
+		}
+
+		return downloadAttachment(client,
+				client.createSubmitRequest(exportPage, exportForm, null),
+				targetDir);
+	}
+
+	/**
+	 * @return the value of the <code>db</code> parameter of the URL or
+	 *         <code>null</code> if not set
+	 */
+	private static String getDatabase(String url) throws DbDumpException {
+		try {
+			for (NameValuePair parameter : URLEncodedUtils.parse(new URI(url),
+					CHARSET)) {
+				if (PARAM_DB.equals(parameter.getName())
+						&& !parameter.getValue().isEmpty()) {
+					return parameter.getValue();
+				}
+			}
+			return null;
+		} catch (URISyntaxException e) {
+			throw new DbDumpException("Malformed URL: " + url, e);
+		}
+	}
+
+	/**
+	 * @return the URL of the export page of the database or the server, for
+	 *         the version of phpMyAdmin <code>page</code> is generated by
+	 */
+	private static String getExportUrl(HttpPage page, String database)
+			throws DbDumpException, IOException {
+		Matcher matcher = PATTERN_TOKEN.matcher(page.getContent());
+		if (!matcher.find()) {
+			throw new DbDumpException("Unable to find token. " + page);
+		}
+		String token = "token=" + matcher.group(1);
+		String db = database == null ? null : "db="
+				+ URLEncoder.encode(database, CHARSET);
+		String relativeUrl;
+		if (page.getContent().contains(ROUTE_MARKER)) {
+			relativeUrl = database == null ? "index.php?route=/server/export&"
+					+ token : "index.php?route=/database/export&" + db + "&"
+					+ token;
+		} else {
+			relativeUrl = database == null ? "server_export.php?" + token
+					: "db_export.php?" + db + "&" + token;
+		}
+		try {
+			return new URI(page.getUrl()).resolve(relativeUrl).toString();
+		} catch (URISyntaxException e) {
+			throw new DbDumpException("Malformed URL: " + page.getUrl(), e);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.phpmyadmin;
+
+import info.schnatterer.remoteDbDumper.dump.DbDump;
+import info.schnatterer.remoteDbDumper.dump.DbDumpContext;
+import info.schnatterer.remoteDbDumper.dump.DbDumpEngine;
+import info.schnatterer.remoteDbDumper.dump.util.HttpPage;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+
+import java.util.Locale;
+
+/**
+ * Engine for phpMyAdmin, see {@link PhpMyAdminDbDump}.
+ *
+ * @author schnatterer
+ *
+ */
+public class PhpMyAdminEngine implements DbDumpEngine {
+	/** Name of the engine */
+	public static final String NAME = "phpmyadmin";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public boolean detect(HttpPage landingPage) {
+		String content = landingPage.getContent().toLowerCase(Locale.ENGLISH);
+		return content.contains("phpmyadmin")
+				|| content.contains("name=\"pma_username\"");
+	}
+
+	public DbDump createDbDump(DbDumpContext context, DumpMetrics metrics) {
+		return new PhpMyAdminDbDump(context.getOptions(),
+				context.getSessionCache(), metrics);
+	}
+}
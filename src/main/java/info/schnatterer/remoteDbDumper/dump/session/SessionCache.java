@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.session;
+
+import info.schnatterer.remoteDbDumper.dump.download.FileMover;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.log4j.Logger;
+
+/**
+ * Persists the session cookies of a site on disk, so subsequent dumps of the
+ * same site can skip the login.
+ * <p>
+ * There is one file per site (URL) and user in the cache directory. The
+ * cookies are encrypted with AES-GCM, using a key that is derived from the
+ * user's password (PBKDF2), so a session can only be restored by someone who
+ * knows the password anyway. The names of the files are hashes, so they don't
+ * reveal the sites either.
+ * <p>
+ * Sessions expire after a time to live and once their cookies expire. When
+ * the cache grows beyond {@value #DEFAULT_MAX_ENTRIES} entries, the oldest
+ * ones are evicted. Errors reading or writing the cache are logged but never
+ * make a dump fail: Without a session, the dump just logs in.
+ *
+ * @author schnatterer
+ *
+ */
+public class SessionCache {
+	/** Default time to live of a cached session: 60 minutes */
+	public static final long DEFAULT_TTL_MILLIS = 60L * 60 * 1000;
+	/** Default maximum number of sessions kept */
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static final String FILE_SUFFIX = ".session";
+	private static final int FORMAT_VERSION = 1;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final String CIPHER = "AES/GCM/NoPadding";
+	private static final String KEY_DERIVATION = "PBKDF2WithHmacSHA1";
+	private static final int KEY_DERIVATION_ITERATIONS = 20000;
+	private static final int KEY_BITS = 128;
+	private static final int SALT_BYTES = 16;
+	private static final int IV_BYTES = 12;
+	private static final int TAG_BITS = 128;
+
+	private static final String KEY_ID = "id";
+	private static final String KEY_CREATED = "created";
+	private static final String KEY_COOKIE_COUNT = "cookies";
+	private static final String KEY_COOKIE_PREFIX = "cookie.";
+	private static final String KEY_NAME = ".name";
+	private static final String KEY_VALUE = ".value";
+	private static final String KEY_DOMAIN = ".domain";
+	private static final String KEY_PATH = ".path";
+	private static final String KEY_EXPIRES = ".expires";
+	private static final String KEY_SECURE = ".secure";
+
+	private static Logger logger = Logger.getLogger(SessionCache.class);
+
+	private final File directory;
+	private final long ttlMillis;
+	private final int maxEntries;
+	private final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Creates a cache with default TTL and maximum number of entries.
+	 */
+	public SessionCache(File directory) {
+		this(directory, DEFAULT_TTL_MILLIS, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param directory
+	 *            where to store the sessions. Created if it does not exist.
+	 * @param ttlMillis
+	 *            how long a session is reused after the login
+	 * @param maxEntries
+	 *            the maximum number of sessions kept
+	 */
+	public SessionCache(File directory, long ttlMillis, int maxEntries) {
+		if (ttlMillis < 1) {
+			throw new IllegalArgumentException("TTL must be positive");
+		}
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException(
+					"Maximum number of sessions must be at least 1");
+		}
+		this.directory = directory;
+		this.ttlMillis = ttlMillis;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the cookies of the session stored for <code>url</code> and
+	 *         <code>user</code> or <code>null</code> if there is none (or it
+	 *         has expired or can't be decrypted with <code>password</code>).
+	 */
+	public List<Cookie> load(String url, String user, String password) {
+		String id = createId(url, user);
+		File file = getFile(id);
+		if (!file.isFile()) {
+			return null;
+		}
+		if (isExpired(file.lastModified())) {
+			logger.debug("Cached session of " + user + "@" + url
+					+ " has expired");
+			file.delete();
+			return null;
+		}
+		try {
+			Properties session = decrypt(readFile(file), password);
+			if (!id.equals(session.getProperty(KEY_ID))
+					|| isExpired(Long.parseLong(session
+							.getProperty(KEY_CREATED)))) {
+				return null;
+			}
+			List<Cookie> cookies = toCookies(session);
+			return cookies.isEmpty() ? null : cookies;
+		} catch (IOException e) {
+			logger.warn("Unable to read cached session of " + user + "@"
+					+ url + ": " + e.getMessage());
+		} catch (GeneralSecurityException e) {
+			// Wrong password or tampered file
+			logger.debug("Unable to decrypt cached session of " + user + "@"
+					+ url + ": " + e.getMessage());
+		} catch (NumberFormatException e) {
+			logger.warn("Cached session of " + user + "@" + url
+					+ " is corrupt");
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the cookies of the session for <code>url</code> and
+	 * <code>user</code>, replacing an existing session. Evicts expired and
+	 * surplus sessions.
+	 */
+	public void store(String url, String user, String password,
+			List<Cookie> cookies) {
+		String id = createId(url, user);
+		Properties session = new Properties();
+		session.setProperty(KEY_ID, id);
+		session.setProperty(KEY_CREATED,
+				Long.toString(System.currentTimeMillis()));
+		Date now = new Date();
+		int count = 0;
+		for (Cookie cookie : cookies) {
+			if (cookie.isExpired(now)) {
+				continue;
+			}
+			String prefix = KEY_COOKIE_PREFIX + count++;
+			session.setProperty(prefix + KEY_NAME, cookie.getName());
+			setIfNotNull(session, prefix + KEY_VALUE, cookie.getValue());
+			setIfNotNull(session, prefix + KEY_DOMAIN, cookie.getDomain());
+			setIfNotNull(session, prefix + KEY_PATH, cookie.getPath());
+			if (cookie.getExpiryDate() != null) {
+				session.setProperty(prefix + KEY_EXPIRES,
+						Long.toString(cookie.getExpiryDate().getTime()));
+			}
+			session.setProperty(prefix + KEY_SECURE,
+					Boolean.toString(cookie.isSecure()));
+		}
+		session.setProperty(KEY_COOKIE_COUNT, Integer.toString(count));
+
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Unable to create directory "
+						+ directory.getAbsolutePath());
+			}
+			File file = getFile(id);
+			File tempFile = File.createTempFile(file.getName(), ".tmp",
+					directory);
+			try {
+				// Only readable by the owner
+				tempFile.setReadable(false, false);
+				tempFile.setReadable(true, true);
+				writeFile(tempFile, encrypt(session, password));
+				FileMover.move(tempFile, file);
+			} finally {
+				tempFile.delete();
+			}
+			logger.debug("Cached session of " + user + "@" + url);
+		} catch (IOException e) {
+			logger.warn("Unable to cache session of " + user + "@" + url
+					+ ": " + e.getMessage());
+		} catch (GeneralSecurityException e) {
+			logger.warn("Unable to encrypt session of " + user + "@" + url
+					+ ": " + e.getMessage());
+		}
+		evict();
+	}
+
+	/**
+	 * Removes the session stored for <code>url</code> and <code>user</code>,
+	 * e.g. because the site did not accept it.
+	 */
+	public void invalidate(String url, String user) {
+		getFile(createId(url, user)).delete();
+	}
+
+	/**
+	 * Removes expired sessions and the oldest sessions beyond the maximum
+	 * number of entries.
+	 *
+	 * @return the number of sessions removed
+	 */
+	public synchronized int evict() {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(FILE_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return 0;
+		}
+		// Newest first
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.valueOf(b.lastModified()).compareTo(
+						a.lastModified());
+			}
+		});
+		int evicted = 0;
+		for (int i = 0; i < files.length; i++) {
+			if ((i >= maxEntries || isExpired(files[i].lastModified()))
+					&& files[i].delete()) {
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			logger.debug("Evicted " + evicted + " cached session(s)");
+		}
+		return evicted;
+	}
+
+	private boolean isExpired(long created) {
+		return System.currentTimeMillis() - created > ttlMillis;
+	}
+
+	private File getFile(String id) {
+		return new File(directory, id + FILE_SUFFIX);
+	}
+
+	/**
+	 * @return a hash of URL and user, so the file names don't reveal either
+	 */
+	private static String createId(String url, String user) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+					(url + "\n" + user).getBytes(CHARSET));
+			StringBuilder id = new StringBuilder();
+			for (byte b : hash) {
+				id.append(String.format("%02x", b & 0xff));
+			}
+			return id.toString();
+		} catch (GeneralSecurityException e) {
+			// Every JRE provides SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static List<Cookie> toCookies(Properties session) {
+		List<Cookie> cookies = new LinkedList<Cookie>();
+		int count = Integer.parseInt(session.getProperty(KEY_COOKIE_COUNT));
+		Date now = new Date();
+		for (int i = 0; i < count; i++) {
+			String prefix = KEY_COOKIE_PREFIX + i;
+			BasicClientCookie cookie = new BasicClientCookie(
+					session.getProperty(prefix + KEY_NAME),
+					session.getProperty(prefix + KEY_VALUE));
+			cookie.setDomain(session.getProperty(prefix + KEY_DOMAIN));
+			cookie.setPath(session.getProperty(prefix + KEY_PATH));
+			String expires = session.getProperty(prefix + KEY_EXPIRES);
+			if (expires != null) {
+				cookie.setExpiryDate(new Date(Long.parseLong(expires)));
+			}
+			cookie.setSecure(Boolean.parseBoolean(session.getProperty(prefix
+					+ KEY_SECURE)));
+			if (!cookie.isExpired(now)) {
+				cookies.add(cookie);
+			}
+		}
+		return cookies;
+	}
+
+	/**
+	 * @return version, salt, IV and the encrypted session
+	 */
+	private byte[] encrypt(Properties session, String password)
+			throws IOException, GeneralSecurityException {
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		session.store(plain, null);
+
+		byte[] salt = new byte[SALT_BYTES];
+		random.nextBytes(salt);
+		byte[] iv = new byte[IV_BYTES];
+		random.nextBytes(iv);
+		Cipher cipher = Cipher.getInstance(CIPHER);
+		cipher.init(Cipher.ENCRYPT_MODE, deriveKey(password, salt),
+				new GCMParameterSpec(TAG_BITS, iv));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(FORMAT_VERSION);
+		out.write(salt);
+		out.write(iv);
+		out.write(cipher.doFinal(plain.toByteArray()));
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private Properties decrypt(byte[] data, String password)
+			throws IOException, GeneralSecurityException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				data));
+		if (in.readInt() != FORMAT_VERSION) {
+			throw new IOException("Unknown format");
+		}
+		byte[] salt = new byte[SALT_BYTES];
+		in.readFully(salt);
+		byte[] iv = new byte[IV_BYTES];
+		in.readFully(iv);
+		byte[] encrypted = new byte[in.available()];
+		in.readFully(encrypted);
+
+		Cipher cipher = Cipher.getInstance(CIPHER);
+		cipher.init(Cipher.DECRYPT_MODE, deriveKey(password, salt),
+				new GCMParameterSpec(TAG_BITS, iv));
+		Properties session = new Properties();
+		session.load(new ByteArrayInputStream(cipher.doFinal(encrypted)));
+		return session;
+	}
+
+	private static SecretKey deriveKey(String password, byte[] salt)
+			throws GeneralSecurityException {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt,
+				KEY_DERIVATION_ITERATIONS, KEY_BITS);
+		try {
+			byte[] key = SecretKeyFactory.getInstance(KEY_DERIVATION)
+					.generateSecret(spec).getEncoded();
+			return new SecretKeySpec(key, "AES");
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeFile(File file, byte[] data) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void setIfNotNull(Properties properties, String key,
+			String value) {
+		if (value != null) {
+			properties.setProperty(key, value);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import java.io.IOException;
+
+import com.gargoylesoftware.htmlunit.DefaultPageCreator;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebWindow;
+import com.gargoylesoftware.htmlunit.attachment.Attachment;
+
+/**
+ * Creates an {@link com.gargoylesoftware.htmlunit.UnexpectedPage} for each
+ * attachment, without looking at the content. The {@link DefaultPageCreator}
+ * reads the beginning of the content in order to guess the content type and
+ * creates text pages for <code>text/*</code> types, which reads the whole
+ * content. Neither works with the content streamed by
+ * {@link StreamingWebConnection}.
+ *
+ * @author schnatterer
+ *
+ */
+public class AttachmentPageCreator extends DefaultPageCreator {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Page createPage(WebResponse webResponse, WebWindow webWindow)
+			throws IOException {
+		if (Attachment.isAttachment(webResponse)) {
+			return createUnexpectedPage(webResponse, webWindow);
+		}
+		return super.createPage(webResponse, webWindow);
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A minimal, forgiving HTML tokenizer that only returns the tags of a
+ * document. It knows just enough HTML to scrape forms: Comments are skipped,
+ * as are the contents of <code>script</code> and <code>style</code> elements.
+ * No DOM is built and nothing is executed.
+ *
+ * @author schnatterer
+ *
+ */
+public class HtmlTokenizer {
+	private final String html;
+	private int pos = 0;
+
+	public HtmlTokenizer(String html) {
+		this.html = html;
+	}
+
+	/**
+	 * @return the next start or end tag or <code>null</code> if the end of
+	 *         the document is reached
+	 */
+	public Tag nextTag() {
+		while (pos < html.length()) {
+			int start = html.indexOf('<', pos);
+			if (start < 0 || start + 1 >= html.length()) {
+				pos = html.length();
+				return null;
+			}
+			if (html.startsWith("<!--", start)) {
+				pos = indexOfOrEnd("-->", start + 4) + 3;
+				continue;
+			}
+			char next = html.charAt(start + 1);
+			if (next == '!' || next == '?') {
+				// Doctype, processing instruction
+				pos = indexOfOrEnd(">", start) + 1;
+				continue;
+			}
+			boolean endTag = next == '/';
+			int nameStart = endTag ? start + 2 : start + 1;
+			int nameEnd = nameStart;
+			while (nameEnd < html.length() && isNameChar(html.charAt(nameEnd))) {
+				nameEnd++;
+			}
+			if (nameEnd == nameStart) {
+				// Not a tag, just a "<" in the text
+				pos = start + 1;
+				continue;
+			}
+			String name = html.substring(nameStart, nameEnd).toLowerCase(Locale.ENGLISH);
+			pos = nameEnd;
+			Map<String, String> attributes = readAttributes();
+			Tag tag = new Tag(name, endTag, attributes);
+			if (!endTag && ("script".equals(name) || "style".equals(name))) {
+				// Raw text, might contain anything that looks like tags
+				pos = indexOfIgnoreCase("</" + name, pos);
+			}
+			return tag;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the text up to the end tag of an element, e.g. the content of a
+	 * <code>textarea</code> or an <code>option</code>. Entities are decoded.
+	 * The position is moved to the end tag, so the next call to
+	 * {@link #nextTag()} returns it.
+	 */
+	public String readText(String endTagName) {
+		int end = indexOfIgnoreCase("</" + endTagName, pos);
+		// Stop at the next tag, if the end tag is omitted
+		int nextTag = html.indexOf('<', pos);
+		if (nextTag >= 0 && nextTag < end) {
+			end = nextTag;
+		}
+		String text = html.substring(pos, end);
+		pos = end;
+		return decodeEntities(text);
+	}
+
+	private Map<String, String> readAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		while (pos < html.length()) {
+			skipWhitespace();
+			if (pos >= html.length()) {
+				break;
+			}
+			char c = html.charAt(pos);
+			if (c == '>') {
+				pos++;
+				break;
+			}
+			if (c == '/') {
+				pos++;
+				continue;
+			}
+			int nameStart = pos;
+			while (pos < html.length() && !Character.isWhitespace(c)
+					&& c != '=' && c != '>' && c != '/') {
+				pos++;
+				c = pos < html.length() ? html.charAt(pos) : '>';
+			}
+			String name = html.substring(nameStart, pos).toLowerCase(Locale.ENGLISH);
+			skipWhitespace();
+			String value = "";
+			if (pos < html.length() && html.charAt(pos) == '=') {
+				pos++;
+				skipWhitespace();
+				value = decodeEntities(readAttributeValue());
+			}
+			if (!name.isEmpty() && !attributes.containsKey(name)) {
+				attributes.put(name, value);
+			}
+			if (nameStart == pos) {
+				// Make sure to never get stuck
+				pos++;
+			}
+		}
+		return attributes;
+	}
+
+	private String readAttributeValue() {
+		if (pos >= html.length()) {
+			return "";
+		}
+		char quote = html.charAt(pos);
+		if (quote == '"' || quote == '\'') {
+			int end = indexOfOrEnd(String.valueOf(quote), pos + 1);
+			String value = html.substring(pos + 1, end);
+			pos = Math.min(end + 1, html.length());
+			return value;
+		}
+		int start = pos;
+		while (pos < html.length() && !Character.isWhitespace(html.charAt(pos))
+				&& html.charAt(pos) != '>') {
+			pos++;
+		}
+		return html.substring(start, pos);
+	}
+
+	private void skipWhitespace() {
+		while (pos < html.length() && Character.isWhitespace(html.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private int indexOfOrEnd(String str, int fromIndex) {
+		int index = html.indexOf(str, fromIndex);
+		return index < 0 ? html.length() : index;
+	}
+
+	private int indexOfIgnoreCase(String str, int fromIndex) {
+		int length = str.length();
+		for (int i = fromIndex; i <= html.length() - length; i++) {
+			if (html.regionMatches(true, i, str, 0, length)) {
+				return i;
+			}
+		}
+		return html.length();
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '-' || c == ':'
+				|| c == '_';
+	}
+
+	/**
+	 * Decodes the entities that usually show up in attribute values.
+	 */
+	static String decodeEntities(String text) {
+		if (text.indexOf('&') < 0) {
+			return text;
+		}
+		StringBuilder decoded = new StringBuilder(text.length());
+		int i = 0;
+		while (i < text.length()) {
+			char c = text.charAt(i);
+			int semicolon = c == '&' ? text.indexOf(';', i) : -1;
+			if (semicolon < 0 || semicolon - i > 10) {
+				decoded.append(c);
+				i++;
+				continue;
+			}
+			String entity = text.substring(i + 1, semicolon);
+			String replacement = decodeEntity(entity);
+			if (replacement == null) {
+				decoded.append(c);
+				i++;
+			} else {
+				decoded.append(replacement);
+				i = semicolon + 1;
+			}
+		}
+		return decoded.toString();
+	}
+
+	private static String decodeEntity(String entity) {
+		if ("amp".equals(entity)) {
+			return "&";
+		} else if ("lt".equals(entity)) {
+			return "<";
+		} else if ("gt".equals(entity)) {
+			return ">";
+		} else if ("quot".equals(entity)) {
+			return "\"";
+		} else if ("apos".equals(entity)) {
+			return "'";
+		} else if ("nbsp".equals(entity)) {
+			return "\u00a0";
+		} else if (entity.startsWith("#")) {
+			try {
+				int codePoint;
+				if (entity.startsWith("#x") || entity.startsWith("#X")) {
+					codePoint = Integer.parseInt(entity.substring(2), 16);
+				} else {
+					codePoint = Integer.parseInt(entity.substring(1));
+				}
+				return new String(Character.toChars(codePoint));
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A start or end tag.
+	 */
+	public static class Tag {
+		private final String name;
+		private final boolean endTag;
+		private final Map<String, String> attributes;
+
+		Tag(String name, boolean endTag, Map<String, String> attributes) {
+			this.name = name;
+			this.endTag = endTag;
+			this.attributes = Collections.unmodifiableMap(attributes);
+		}
+
+		/** @return the lower case name of the tag */
+		public String getName() {
+			return name;
+		}
+
+		public boolean isEndTag() {
+			return endTag;
+		}
+
+		/**
+		 * @return <code>true</code> if this is a start tag with the given
+		 *         name
+		 */
+		public boolean isStart(String tagName) {
+			return !endTag && name.equals(tagName);
+		}
+
+		/**
+		 * @return <code>true</code> if this is an end tag with the given
+		 *         name
+		 */
+		public boolean isEnd(String tagName) {
+			return endTag && name.equals(tagName);
+		}
+
+		/**
+		 * @return the decoded value of an attribute or <code>null</code> if
+		 *         the attribute is not set
+		 */
+		public String getAttribute(String attributeName) {
+			return attributes.get(attributeName);
+		}
+
+		public boolean hasAttribute(String attributeName) {
+			return attributes.containsKey(attributeName);
+		}
+
+		@Override
+		public String toString() {
+			return "<" + (endTag ? "/" : "") + name + " " + attributes + ">";
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import info.schnatterer.remoteDbDumper.dump.download.DumpSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+
+/**
+ * A dump that is downloaded by HtmlUnit, i.e. an attachment streamed by
+ * {@link StreamingWebConnection}. Resumes by sending a ranged request with the
+ * same {@link WebClient}, so the session cookies are used.
+ *
+ * @author schnatterer
+ *
+ */
+public class HtmlUnitDumpSource extends DumpSource {
+	private final WebClient webClient;
+	private final WebResponse response;
+	private WebResponse currentResponse;
+
+	public HtmlUnitDumpSource(WebClient webClient, WebResponse response) {
+		super(response.getWebRequest().getUrl().toExternalForm(), response
+				.getResponseHeaderValue(HEADER_ETAG), response
+				.getResponseHeaderValue(HEADER_LAST_MODIFIED), response
+				.getResponseHeaderValue(HEADER_CONTENT_LENGTH), response
+				.getResponseHeaderValue(HEADER_ACCEPT_RANGES), response
+				.getResponseHeaderValue(HEADER_CONTENT_ENCODING), response
+				.getWebRequest().getHttpMethod() == HttpMethod.GET);
+		this.webClient = webClient;
+		this.response = response;
+		currentResponse = response;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return response.getContentAsStream();
+	}
+
+	@Override
+	public void abort() {
+		// See StreamingWebConnection.StreamingContent
+		currentResponse.cleanUp();
+	}
+
+	@Override
+	protected InputStream openRange(long offset, String rangeHeader,
+			String ifRangeHeader) throws IOException {
+		WebResponse rangeResponse = loadRange(offset, rangeHeader,
+				ifRangeHeader);
+		if (rangeResponse == null) {
+			return null;
+		}
+		currentResponse = rangeResponse;
+		return currentResponse.getContentAsStream();
+	}
+
+	@Override
+	protected Segment openSegmentRange(long offset, String rangeHeader,
+			String ifRangeHeader) throws IOException {
+		final WebResponse rangeResponse = loadRange(offset, rangeHeader,
+				ifRangeHeader);
+		if (rangeResponse == null) {
+			return null;
+		}
+		return new Segment() {
+			public InputStream getInputStream() throws IOException {
+				return rangeResponse.getContentAsStream();
+			}
+
+			public void abort() {
+				rangeResponse.cleanUp();
+			}
+		};
+	}
+
+	/**
+	 * @return the response or <code>null</code> if it doesn't contain the
+	 *         requested range
+	 */
+	private WebResponse loadRange(long offset, String rangeHeader,
+			String ifRangeHeader) throws IOException {
+		WebRequest request = new WebRequest(response.getWebRequest().getUrl());
+		request.setAdditionalHeader(HEADER_RANGE, rangeHeader);
+		request.setAdditionalHeader(HEADER_IF_RANGE, ifRangeHeader);
+		// Ranges refer to the unencoded content
+		request.setAdditionalHeader(HEADER_ACCEPT_ENCODING, "identity");
+
+		WebResponse rangeResponse;
+		/*
+		 * The web client isn't thread-safe. Only the request is serialized,
+		 * the bodies are streamed at the same time.
+		 */
+		synchronized (webClient) {
+			rangeResponse = webClient.loadWebResponse(request);
+		}
+		if (!isRequestedRange(rangeResponse.getStatusCode(),
+				rangeResponse.getResponseHeaderValue(HEADER_CONTENT_RANGE),
+				offset)) {
+			rangeResponse.cleanUp();
+			return null;
+		}
+		return rangeResponse;
+	}
+}
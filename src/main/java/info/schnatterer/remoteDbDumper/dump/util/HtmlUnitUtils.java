@@ -19,14 +19,18 @@
 package info.schnatterer.remoteDbDumper.dump.util;
 
 import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.download.DumpSink;
+import info.schnatterer.remoteDbDumper.dump.download.TransferStats;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityException;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
@@ -37,6 +41,7 @@ import com.gargoylesoftware.htmlunit.attachment.CollectingAttachmentHandler;
 import com.gargoylesoftware.htmlunit.html.HtmlForm;
 import com.gargoylesoftware.htmlunit.html.HtmlInput;
 import com.gargoylesoftware.htmlunit.html.HtmlSubmitInput;
+import com.gargoylesoftware.htmlunit.util.Cookie;
 
 /**
  * Helpers to facilitate working with HtmlUnit.
@@ -81,8 +86,19 @@ public final class HtmlUnitUtils {
 		}
 	}
 
-	public static WebClient createWebClient(List<Attachment> attachments) {
+	/**
+	 * Creates a web client that collects attachments instead of reading them
+	 * and uses the connections of <code>transport</code>.
+	 *
+	 * @param minimalFetchPattern
+	 *            if not <code>null</code>, the client only loads documents,
+	 *            no CSS, scripts or images. URLs that match the pattern are
+	 *            not requested at all, see {@link MinimalFetchWebConnection}.
+	 */
+	public static WebClient createWebClient(List<Attachment> attachments,
+			HttpTransport transport, Pattern minimalFetchPattern) {
 		WebClient webClient = new WebClient();
+		webClient.getOptions().setTimeout(transport.getTimeoutMillis());
 		// webClient.getOptions().setJavaScriptEnabled(false);
 		webClient.getOptions().setThrowExceptionOnScriptError(false);
 		webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
@@ -147,11 +163,47 @@ public final class HtmlUnitUtils {
 
 		webClient.setAttachmentHandler(new CollectingAttachmentHandler(
 				attachments));
+		// Stream attachments to disk instead of buffering them
+		webClient.setWebConnection(new StreamingWebConnection(webClient,
+				transport));
+		if (minimalFetchPattern != null) {
+			webClient.getOptions().setCssEnabled(false);
+			// Wraps the streaming connection
+			new MinimalFetchWebConnection(webClient, minimalFetchPattern);
+		}
+		webClient.setPageCreator(new AttachmentPageCreator());
 		return webClient;
 	}
 
-	public static List<String> downloadAttachments(
-			List<Attachment> attachments, File targetDir)
+	/**
+	 * @return all cookies of the web client, e.g. for storing the session
+	 */
+	public static List<org.apache.http.cookie.Cookie> getCookies(
+			WebClient webClient) {
+		return Arrays.asList(Cookie.toHttpClient(webClient.getCookieManager()
+				.getCookies()));
+	}
+
+	/**
+	 * Adds cookies to the web client, e.g. for restoring a session.
+	 */
+	public static void addCookies(WebClient webClient,
+			List<org.apache.http.cookie.Cookie> cookies) {
+		for (Cookie cookie : Cookie.fromHttpClient(cookies)) {
+			webClient.getCookieManager().addCookie(cookie);
+		}
+	}
+
+	/**
+	 * Streams each attachment to a file in <code>targetDir</code>.
+	 *
+	 * @param metrics
+	 *            the bytes transferred are added to these
+	 * @return the names of the files written
+	 */
+	public static List<String> downloadAttachments(WebClient webClient,
+			List<Attachment> attachments, File targetDir,
+			DownloadOptions options, DumpMetrics metrics)
 			throws DbDumpException {
 		List<String> successfullyDownloaded = new LinkedList<String>();
 		if (attachments.size() < 1) {
@@ -162,52 +214,25 @@ public final class HtmlUnitUtils {
 			logger.info("More than one attachment returned, trying to download all");
 		}
 
+		DumpSink sink = options.getSink();
 		for (Attachment attachment : attachments) {
 			String fileName = attachment.getSuggestedFilename();
 			logger.debug("Downloading file " + fileName);
 
-			InputStream is = null;
-			OutputStream out = null;
+			File targetFile = new File(targetDir, fileName);
+			String storedFileName = sink.getStoredName(targetFile);
 			try {
-				is = attachment.getPage().getWebResponse().getContentAsStream();
-				File newFile = null;
-				try {
-
-					newFile = new File(targetDir, fileName);
-					out = new FileOutputStream(newFile);
-
-					int read = 0;
-					byte[] bytes = new byte[1024];
-
-					while ((read = is.read(bytes)) != -1) {
-						out.write(bytes, 0, read);
-					}
-					successfullyDownloaded.add(fileName);
-				} catch (IOException e) {
-					throw new DbDumpException("Unable to write to file "
-							+ targetDir.getAbsolutePath() + fileName, e);
-				}
-			} catch (IOException e1) {
-				throw new DbDumpException(
-						"Unable to open stream to attachment " + fileName, e1);
-			} finally {
-				if (is != null) {
-					try {
-						is.close();
-					} catch (IOException e) {
-						logger.error("Unable to close input stream to file"
-								+ fileName);
-					}
-				}
-				if (out != null) {
-					try {
-						out.flush();
-						out.close();
-					} catch (IOException e) {
-						logger.error("Unable to flush and close stream to target file"
-								+ targetDir.getAbsolutePath() + fileName);
-					}
-				}
+				TransferStats stats = sink.write(new HtmlUnitDumpSource(
+						webClient, attachment.getPage().getWebResponse()),
+						targetFile);
+				metrics.addTransfer(stats);
+				successfullyDownloaded.add(storedFileName);
+				logger.info("Downloaded " + storedFileName + ": " + stats);
+			} catch (IntegrityException e) {
+				throw new DbDumpException(e.getMessage(), e);
+			} catch (IOException e) {
+				throw new DbDumpException("Unable to download attachment "
+						+ fileName + " to " + sink.getLocation(targetFile), e);
 			}
 		}
 		return successfullyDownloaded;
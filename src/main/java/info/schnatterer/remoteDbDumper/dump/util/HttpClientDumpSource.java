@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import info.schnatterer.remoteDbDumper.dump.download.DumpSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * A dump that is downloaded by {@link HttpFormClient}. Resumes by sending a
+ * ranged request with the same client, so the session cookies are used.
+ *
+ * @author schnatterer
+ *
+ */
+public class HttpClientDumpSource extends DumpSource {
+	private final HttpFormClient client;
+	private final HttpUriRequest request;
+	private final HttpResponse response;
+	private HttpUriRequest currentRequest;
+
+	public HttpClientDumpSource(HttpFormClient client, HttpUriRequest request,
+			HttpResponse response) {
+		super(request.getURI().toString(), getHeader(response, HEADER_ETAG),
+				getHeader(response, HEADER_LAST_MODIFIED), getHeader(response,
+						HEADER_CONTENT_LENGTH), getHeader(response,
+						HEADER_ACCEPT_RANGES), getHeader(response,
+						HEADER_CONTENT_ENCODING), HttpGet.METHOD_NAME
+						.equals(request.getMethod()));
+		this.client = client;
+		this.request = request;
+		this.response = response;
+		currentRequest = request;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return response.getEntity().getContent();
+	}
+
+	@Override
+	public void abort() {
+		currentRequest.abort();
+	}
+
+	@Override
+	protected InputStream openRange(long offset, String rangeHeader,
+			String ifRangeHeader) throws IOException {
+		HttpGet get = createRangeRequest(rangeHeader, ifRangeHeader);
+		currentRequest = get;
+		HttpResponse rangeResponse = executeRange(get, offset);
+		return rangeResponse == null ? null : rangeResponse.getEntity()
+				.getContent();
+	}
+
+	@Override
+	protected Segment openSegmentRange(long offset, String rangeHeader,
+			String ifRangeHeader) throws IOException {
+		final HttpGet get = createRangeRequest(rangeHeader, ifRangeHeader);
+		final HttpResponse rangeResponse = executeRange(get, offset);
+		if (rangeResponse == null) {
+			return null;
+		}
+		return new Segment() {
+			public InputStream getInputStream() throws IOException {
+				return rangeResponse.getEntity().getContent();
+			}
+
+			public void abort() {
+				get.abort();
+			}
+		};
+	}
+
+	private HttpGet createRangeRequest(String rangeHeader,
+			String ifRangeHeader) {
+		HttpGet get = new HttpGet(request.getURI());
+		get.setHeader(HEADER_RANGE, rangeHeader);
+		get.setHeader(HEADER_IF_RANGE, ifRangeHeader);
+		// Ranges refer to the unencoded content
+		get.setHeader(HEADER_ACCEPT_ENCODING, "identity");
+		return get;
+	}
+
+	/**
+	 * @return the response or <code>null</code> if it doesn't contain the
+	 *         requested range
+	 */
+	private HttpResponse executeRange(HttpGet get, long offset)
+			throws IOException {
+		HttpResponse rangeResponse = client.execute(get);
+		if (rangeResponse.getEntity() == null
+				|| !isRequestedRange(rangeResponse.getStatusLine()
+						.getStatusCode(),
+						getHeader(rangeResponse, HEADER_CONTENT_RANGE), offset)) {
+			get.abort();
+			return null;
+		}
+		return rangeResponse;
+	}
+
+	private static String getHeader(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return header == null ? null : header.getValue();
+	}
+}
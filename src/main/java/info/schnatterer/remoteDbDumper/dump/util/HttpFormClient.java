@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A plain HTTP client for filling in and submitting HTML forms, without a
+ * browser engine: No DOM, no CSS, no JavaScript, no sub resources. Forms are
+ * scraped using {@link ScrapedForm}. Cookies are kept per instance, the
+ * connections are taken from a shared {@link HttpTransport}.
+ *
+ * @author schnatterer
+ *
+ */
+public class HttpFormClient {
+	private static final String USER_AGENT = "Mozilla/5.0 (compatible; remoteDbDumper)";
+	private static final String CHARSET = "UTF-8";
+	private static final String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
+	private static final Pattern PATTERN_FILENAME = Pattern.compile(
+			"filename\\s*=\\s*(\"([^\"]*)\"|([^;\\s]+))",
+			Pattern.CASE_INSENSITIVE);
+
+	private final DefaultHttpClient httpClient;
+
+	public HttpFormClient(HttpTransport transport) {
+		httpClient = transport.createClient();
+		// Drupal redirects after posting forms
+		httpClient.setRedirectStrategy(new LaxRedirectStrategy());
+		httpClient.getParams().setParameter(ClientPNames.COOKIE_POLICY,
+				CookiePolicy.BROWSER_COMPATIBILITY);
+		httpClient.getParams().setParameter(CoreProtocolPNames.USER_AGENT,
+				USER_AGENT);
+	}
+
+	/**
+	 * Fetches an HTML page, following redirects.
+	 */
+	/**
+	 * @return <code>url</code> as absolute URI
+	 * @throws MalformedURLException
+	 *             if <code>url</code> is not an absolute URL with host
+	 */
+	public static URI parseUrl(String url) throws MalformedURLException {
+		try {
+			URI uri = new URI(url);
+			if (!uri.isAbsolute() || uri.getHost() == null) {
+				throw new MalformedURLException("Not an absolute URL: " + url);
+			}
+			return uri;
+		} catch (URISyntaxException e) {
+			MalformedURLException malformed = new MalformedURLException(
+					e.getMessage());
+			malformed.initCause(e);
+			throw malformed;
+		}
+	}
+
+	public HttpPage get(String url) throws IOException {
+		return fetchPage(new HttpGet(url));
+	}
+
+	/**
+	 * Submits a form and returns the resulting HTML page, following
+	 * redirects.
+	 *
+	 * @param page
+	 *            the page the form is on, used for resolving the form's action
+	 * @param submitButtonName
+	 *            the name of the submit button that is "clicked" or
+	 *            <code>null</code>.
+	 */
+	public HttpPage submit(HttpPage page, ScrapedForm form,
+			String submitButtonName) throws IOException {
+		return fetchPage(createRequest(page, form, submitButtonName));
+	}
+
+	/**
+	 * Creates the request that submits a form, e.g. for streaming an
+	 * attachment using {@link #execute(HttpUriRequest)}.
+	 *
+	 * @param page
+	 *            the page the form is on, used for resolving the form's action
+	 * @param submitButtonName
+	 *            the name of the submit button that is "clicked" or
+	 *            <code>null</code>.
+	 */
+	public HttpUriRequest createSubmitRequest(HttpPage page, ScrapedForm form,
+			String submitButtonName) throws IOException {
+		return createRequest(page, form, submitButtonName);
+	}
+
+	/**
+	 * Executes a request and returns the raw response. The caller is
+	 * responsible for consuming the response's entity or aborting the
+	 * request.
+	 */
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		return httpClient.execute(request);
+	}
+
+	/**
+	 * @return all cookies received so far, e.g. for storing the session
+	 */
+	public List<Cookie> getCookies() {
+		return httpClient.getCookieStore().getCookies();
+	}
+
+	/**
+	 * Adds cookies that are sent with the following requests, e.g. for
+	 * restoring a session.
+	 */
+	public void addCookies(List<Cookie> cookies) {
+		for (Cookie cookie : cookies) {
+			httpClient.getCookieStore().addCookie(cookie);
+		}
+	}
+
+	/**
+	 * Releases the client. Its connections stay open in the transport, for
+	 * the next client.
+	 */
+	public void close() {
+		httpClient.getCookieStore().clear();
+	}
+
+	/**
+	 * @return the file name from the <code>Content-Disposition</code> header
+	 *         of a response, stripped of any path. <code>null</code> if the
+	 *         response is no attachment.
+	 */
+	public static String getSuggestedFilename(HttpResponse response) {
+		Header disposition = response.getFirstHeader(HEADER_CONTENT_DISPOSITION);
+		if (disposition == null
+				|| !disposition.getValue().toLowerCase(Locale.ENGLISH)
+						.startsWith("attachment")) {
+			return null;
+		}
+		Matcher matcher = PATTERN_FILENAME.matcher(disposition.getValue());
+		if (!matcher.find()) {
+			return null;
+		}
+		String fileName = matcher.group(2) != null ? matcher.group(2)
+				: matcher.group(3);
+		// Never write outside the target directory
+		fileName = fileName.substring(Math.max(fileName.lastIndexOf('/'),
+				fileName.lastIndexOf('\\')) + 1);
+		return fileName.isEmpty() ? null : fileName;
+	}
+
+	private HttpPage fetchPage(HttpUriRequest request) throws IOException {
+		HttpContext context = new BasicHttpContext();
+		HttpResponse response = httpClient.execute(request, context);
+		String content = response.getEntity() == null ? "" : EntityUtils
+				.toString(response.getEntity(), CHARSET);
+		return new HttpPage(getCurrentUrl(context, request), response
+				.getStatusLine().getStatusCode(), content);
+	}
+
+	/**
+	 * @return the URL of the last request that was executed within the
+	 *         context, i.e. the URL after following redirects.
+	 */
+	private static String getCurrentUrl(HttpContext context,
+			HttpUriRequest originalRequest) {
+		HttpUriRequest currentRequest = (HttpUriRequest) context
+				.getAttribute(ExecutionContext.HTTP_REQUEST);
+		HttpHost currentHost = (HttpHost) context
+				.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+		if (currentRequest == null || currentHost == null) {
+			return originalRequest.getURI().toString();
+		}
+		URI uri = currentRequest.getURI();
+		return uri.isAbsolute() ? uri.toString() : currentHost.toURI()
+				+ uri.toString();
+	}
+
+	private HttpUriRequest createRequest(HttpPage page, ScrapedForm form,
+			String submitButtonName) throws IOException {
+		List<NameValuePair> parameters = form.toParameters(submitButtonName);
+		URI target;
+		try {
+			URI base = new URI(page.getUrl());
+			String action = form.getAction();
+			target = action == null || action.trim().isEmpty() ? base : base
+					.resolve(action.trim());
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid action of " + form, e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid action of " + form, e);
+		}
+
+		if ("post".equals(form.getMethod())) {
+			HttpPost post = new HttpPost(target);
+			post.setEntity(new UrlEncodedFormEntity(parameters, CHARSET));
+			return post;
+		}
+		String query = URLEncodedUtils.format(parameters, CHARSET);
+		String url = target.toString();
+		int fragment = url.indexOf('#');
+		if (fragment >= 0) {
+			url = url.substring(0, fragment);
+		}
+		int queryStart = url.indexOf('?');
+		if (queryStart >= 0) {
+			// Browsers replace the query of the action
+			url = url.substring(0, queryStart);
+		}
+		return new HttpGet(url + "?" + query);
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import info.schnatterer.remoteDbDumper.dump.DbDump;
+import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.download.DumpSink;
+import info.schnatterer.remoteDbDumper.dump.download.TransferStats;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityException;
+import info.schnatterer.remoteDbDumper.dump.session.SessionCache;
+import info.schnatterer.remoteDbDumper.metrics.DumpMetrics;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Base class for dumps that talk to the web application using
+ * {@link HttpFormClient}, i.e. without a browser engine.
+ * <p>
+ * Handles the steps all web applications have in common: Fetching the
+ * landing page, logging in if required (reusing a cached session if
+ * possible) and streaming the dump to disk. Subclasses fill in how to log in
+ * and how to request the dump.
+ *
+ * @author schnatterer
+ *
+ */
+public abstract class HttpFormDbDump implements DbDump {
+	/** Timestamp in the names of the stored dumps, as used by Drupal */
+	private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH-mm-ss";
+
+	protected Logger logger = Logger.getLogger(this.getClass());
+
+	protected final DownloadOptions options;
+	protected final SessionCache sessionCache;
+	protected final DumpMetrics metrics;
+
+	/**
+	 * @param sessionCache
+	 *            reuses the session of a previous login, if not
+	 *            <code>null</code>
+	 * @param metrics
+	 *            records the duration of each phase of the dump
+	 */
+	protected HttpFormDbDump(DownloadOptions options,
+			SessionCache sessionCache, DumpMetrics metrics) {
+		this.options = options;
+		this.sessionCache = sessionCache;
+		this.metrics = metrics;
+	}
+
+	public List<String> download(String url, String user, String password,
+			File targetDirectory) throws DbDumpException {
+		try {
+			HttpFormClient.parseUrl(url);
+		} catch (MalformedURLException e) {
+			throw new DbDumpException(
+					"Error connecting, malformed URL: " + url, e);
+		}
+		HttpFormClient client = new HttpFormClient(options.getTransport());
+
+		logger.info("Connecting to " + url);
+		try {
+			boolean sessionRestored = restoreSession(client, url, user,
+					password);
+			metrics.begin(DumpPhase.CONNECT);
+			HttpPage page = client.get(url);
+			int statusCode = page.getStatusCode();
+			if (isLoginRequired(page)) {
+				metrics.begin(DumpPhase.LOGIN);
+				if (sessionRestored) {
+					logger.info("Cached session has been rejected, logging in");
+					sessionCache.invalidate(url, user);
+				}
+				page = login(client, url, page, user, password);
+				statusCode = page.getStatusCode();
+				if (statusCode != 200 || isLoginRequired(page)) {
+					throw new DbDumpException("Login failed - status code "
+							+ statusCode + ". " + page, statusCode);
+				}
+				logger.info("Successfully logged in to \"" + page.getUrl()
+						+ "\" as \"" + user + "\"");
+				if (sessionCache != null) {
+					sessionCache.store(url, user, password, client.getCookies());
+				}
+			} else if (statusCode != 200) {
+				throw new DbDumpException("Connection failed with code "
+						+ statusCode + ". " + page, statusCode);
+			} else if (sessionRestored) {
+				logger.info("Reusing cached session of \"" + user + "\"");
+			} else {
+				logger.info("No log in required, trying to continue without logging in");
+			}
+
+			return downloadDump(client, url, page, targetDirectory);
+		} catch (ClientProtocolException e) {
+			throw new DbDumpException("Error connecting, HTTP protocol error.",
+					e);
+		} catch (IOException e) {
+			throw new DbDumpException("Error connecting, IO Exception.", e);
+		} finally {
+			metrics.end();
+			client.close();
+		}
+	}
+
+	/**
+	 * @param page
+	 *            the landing page or the page returned after logging in
+	 * @return <code>true</code> if the page asks for logging in
+	 */
+	protected abstract boolean isLoginRequired(HttpPage page);
+
+	/**
+	 * Logs in using the form on <code>page</code>.
+	 *
+	 * @param url
+	 *            the URL of the site
+	 * @param page
+	 *            the page that asks for logging in
+	 * @return the page that is shown after logging in, which is passed to
+	 *         {@link #downloadDump(HttpFormClient, String, HttpPage, File)}
+	 */
+	protected abstract HttpPage login(HttpFormClient client, String url,
+			HttpPage page, String user, String password)
+			throws DbDumpException, IOException;
+
+	/**
+	 * Requests the dump, e.g. by submitting a form, and downloads it using
+	 * {@link #downloadAttachment(HttpFormClient, HttpUriRequest, File)}.
+	 *
+	 * @param url
+	 *            the URL of the site
+	 * @param page
+	 *            the landing page, after logging in
+	 * @return the names of the files that were downloaded
+	 */
+	protected abstract List<String> downloadDump(HttpFormClient client,
+			String url, HttpPage page, File targetDirectory)
+			throws DbDumpException, IOException;
+
+	/**
+	 * Executes a request that is answered by the dump as attachment and
+	 * streams the dump to disk. The file is named like
+	 * {@link #createFileName(HttpUriRequest, String)}.
+	 *
+	 * @return the name of the file stored
+	 */
+	protected List<String> downloadAttachment(HttpFormClient client,
+			HttpUriRequest request, File targetDir) throws DbDumpException,
+			IOException {
+		metrics.begin(DumpPhase.BACKUP);
+		HttpResponse response = client.execute(request);
+		String fileName = HttpFormClient.getSuggestedFilename(response);
+		if (fileName == null || response.getEntity() == null) {
+			EntityUtils.consume(response.getEntity());
+			throw new DbDumpException(
+					"Requesting the dump did not offer a file to download. Status code "
+							+ response.getStatusLine().getStatusCode(),
+					response.getStatusLine().getStatusCode());
+		}
+
+		File targetFile = new File(targetDir, createFileName(request, fileName));
+		DumpSink sink = options.getSink();
+		String storedFileName = sink.getStoredName(targetFile);
+		metrics.begin(DumpPhase.TRANSFER);
+		try {
+			TransferStats stats = sink.write(new HttpClientDumpSource(
+					client, request, response), targetFile);
+			metrics.addTransfer(stats);
+			logger.info("Downloaded " + storedFileName + ": " + stats);
+		} catch (IntegrityException e) {
+			throw new DbDumpException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new DbDumpException("Unable to download attachment "
+					+ fileName + " to " + sink.getLocation(targetFile), e);
+		}
+		return Collections.singletonList(storedFileName);
+	}
+
+	/**
+	 * Web applications suggest names like <code>&lt;database&gt;.sql</code>,
+	 * which would be the same for each dump and for sites that have a
+	 * database of the same name. So the host and the time are prepended,
+	 * e.g. <code>example.com-2013-05-27T12-00-00-mydb.sql.gz</code>. The
+	 * suggested name stays last, so its extensions are kept.
+	 *
+	 * @return the name to store the dump under
+	 */
+	protected String createFileName(HttpUriRequest request,
+			String suggestedName) {
+		URI uri = request.getURI();
+		String host = uri.getHost() == null ? "localhost" : uri.getHost();
+		if (uri.getPort() != -1) {
+			host += "_" + uri.getPort();
+		}
+		return host.replaceAll("[^A-Za-z0-9.-]", "_")
+				+ "-"
+				+ new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.ENGLISH)
+						.format(new Date()) + "-" + suggestedName;
+	}
+
+	/**
+	 * Selects an option of a select or group of radio buttons.
+	 *
+	 * @throws DbDumpException
+	 *             if there is no such select or option
+	 */
+	protected void selectOption(ScrapedForm form, String selectName,
+			String value, String description) throws DbDumpException {
+		List<String> options = form.getSelectOptions(selectName);
+		if (options == null) {
+			throw new DbDumpException("Unable to find " + description
+					+ " select in form. " + form);
+		}
+		if (!options.contains(value)) {
+			throw new DbDumpException("Option \"" + value + "\" not found in "
+					+ description + " select. " + form);
+		}
+		form.setField(selectName, value);
+	}
+
+	protected void checkSubmitButton(ScrapedForm form,
+			String buttonDescription, String buttonName)
+			throws DbDumpException {
+		if (form.getSubmitButton(buttonName) == null) {
+			throw new DbDumpException("Unable to find " + buttonDescription
+					+ " button with id \"" + buttonName + "\". " + form);
+		}
+	}
+
+	/**
+	 * Adds the cookies of a cached session to the client.
+	 *
+	 * @return <code>true</code> if a session has been restored
+	 */
+	private boolean restoreSession(HttpFormClient client, String url,
+			String user, String password) {
+		if (sessionCache == null || user.isEmpty()) {
+			return false;
+		}
+		List<Cookie> cookies = sessionCache.load(url, user, password);
+		if (cookies == null) {
+			return false;
+		}
+		client.addCookies(cookies);
+		return true;
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+/**
+ * An HTML page fetched by {@link HttpFormClient}.
+ *
+ * @author schnatterer
+ *
+ */
+public class HttpPage {
+	private final String url;
+	private final int statusCode;
+	private final String content;
+
+	HttpPage(String url, int statusCode, String content) {
+		this.url = url;
+		this.statusCode = statusCode;
+		this.content = content;
+	}
+
+	/** @return the URL of the page, after following all redirects */
+	public String getUrl() {
+		return url;
+	}
+
+	/** @return the HTTP status code */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/** @return the HTML source of the page */
+	public String getContent() {
+		return content;
+	}
+
+	@Override
+	public String toString() {
+		return "HttpPage(" + url + ")";
+	}
+}
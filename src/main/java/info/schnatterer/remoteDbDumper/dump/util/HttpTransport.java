@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.SyncBasicHttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+/**
+ * The HTTP connections shared by all clients of a run, the web clients of the
+ * browser engine as well as the plain {@link HttpFormClient}s.
+ * <p>
+ * Each client keeps its own cookies, but the connections are taken from one
+ * pool. So a connection to a host is kept alive after a dump and reused by
+ * the next dump of the same host, instead of connecting (and negotiating TLS)
+ * for every dump. As all clients use the same SSL context, TLS sessions are
+ * resumed even when a new connection is needed. Idle connections are closed
+ * after the keep-alive time, or earlier if the server announces a shorter
+ * one.
+ * <p>
+ * If compression is enabled, the clients ask for gzip or deflate encoded
+ * responses, which are decoded while streaming. Note that encoded dumps can't
+ * be resumed, see {@link info.schnatterer.remoteDbDumper.dump.download.DumpSource}.
+ *
+ * @author schnatterer
+ *
+ */
+public class HttpTransport {
+	/** Default maximum number of connections */
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	/** Default timeout for connecting and reading: 90 s, as HtmlUnit's */
+	public static final int DEFAULT_TIMEOUT_MILLIS = 90 * 1000;
+	/** Default time an idle connection is kept for reuse: 30 s */
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30 * 1000;
+	/** How often idle connections are looked for */
+	private static final long EVICT_INTERVAL_MILLIS = 5 * 1000;
+
+	private static Logger logger = Logger.getLogger(HttpTransport.class);
+
+	private final PoolingClientConnectionManager connectionManager;
+	private final int timeoutMillis;
+	private final long keepAliveMillis;
+	private final boolean compression;
+	private final ScheduledExecutorService evictor;
+
+	/**
+	 * Creates a transport with the default settings.
+	 */
+	public HttpTransport() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT_MILLIS,
+				DEFAULT_KEEP_ALIVE_MILLIS, true);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of connections open at the same time, in
+	 *            total and per host. Clients wait for a free connection when
+	 *            they are all in use.
+	 * @param timeoutMillis
+	 *            the timeout for connecting and for each read, 0 for none
+	 * @param keepAliveMillis
+	 *            how long an idle connection is kept for reuse, 0 to close
+	 *            connections after each request
+	 * @param compression
+	 *            <code>true</code> to ask for compressed responses
+	 */
+	public HttpTransport(int maxConnections, int timeoutMillis,
+			long keepAliveMillis, boolean compression) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException(
+					"Maximum number of connections must be at least 1");
+		}
+		if (timeoutMillis < 0 || keepAliveMillis < 0) {
+			throw new IllegalArgumentException(
+					"Timeout and keep-alive must not be negative");
+		}
+		this.timeoutMillis = timeoutMillis;
+		this.keepAliveMillis = keepAliveMillis;
+		this.compression = compression;
+		/*
+		 * The default registry creates a new SSL context for each client,
+		 * which can't resume the sessions of the others
+		 */
+		connectionManager = new PoolingClientConnectionManager(
+				SchemeRegistryFactory.createDefault());
+		connectionManager.setMaxTotal(maxConnections);
+		// The number of dumps per host is limited by the caller
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		evictor = Executors
+				.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+						"http-evictor", true));
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				closeIdleConnections();
+			}
+		}, EVICT_INTERVAL_MILLIS, EVICT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a client that uses the shared connections, with default
+	 * parameters, the timeouts of this transport and, if enabled, compressed
+	 * responses.
+	 */
+	public DefaultHttpClient createClient() {
+		HttpParams params = new SyncBasicHttpParams();
+		DefaultHttpClient.setDefaultHttpParams(params);
+		HttpConnectionParams.setConnectionTimeout(params, timeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, timeoutMillis);
+		DefaultHttpClient client = createClient(params);
+		if (compression) {
+			client.addRequestInterceptor(new RequestAcceptEncoding());
+			client.addResponseInterceptor(new ResponseContentEncoding());
+		}
+		return client;
+	}
+
+	/**
+	 * Creates a client that uses the shared connections with the parameters
+	 * of the caller, e.g. for a library that configures its clients itself.
+	 * Compression is left to the caller.
+	 */
+	public DefaultHttpClient createClient(HttpParams params) {
+		DefaultHttpClient client = new DefaultHttpClient(connectionManager,
+				params);
+		if (keepAliveMillis == 0) {
+			client.setReuseStrategy(new NoConnectionReuseStrategy());
+		} else {
+			client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+				@Override
+				public long getKeepAliveDuration(HttpResponse response,
+						HttpContext context) {
+					// The server's Keep-Alive header, if any
+					long duration = super.getKeepAliveDuration(response,
+							context);
+					return duration < 0 || duration > keepAliveMillis ? keepAliveMillis
+							: duration;
+				}
+			});
+		}
+		return client;
+	}
+
+	/** @return the timeout for connecting and for each read, 0 for none */
+	public int getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/** @return <code>true</code> if compressed responses are requested */
+	public boolean isCompression() {
+		return compression;
+	}
+
+	/**
+	 * Closes the connections that have been idle longer than the keep-alive
+	 * time or whose keep-alive announced by the server has expired.
+	 */
+	public void closeIdleConnections() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(keepAliveMillis,
+				TimeUnit.MILLISECONDS);
+		if (logger.isTraceEnabled()) {
+			logger.trace("HTTP connections: "
+					+ connectionManager.getTotalStats());
+		}
+	}
+
+	/**
+	 * Closes all connections. The clients can't be used afterwards.
+	 */
+	public void close() {
+		evictor.shutdownNow();
+		connectionManager.shutdown();
+	}
+}
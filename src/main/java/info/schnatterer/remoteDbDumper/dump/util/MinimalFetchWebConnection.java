@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import info.schnatterer.remoteDbDumper.dump.download.TransferStats;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebConnection;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.attachment.Attachment;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+/**
+ * Loads only the documents needed for logging in and submitting forms, not
+ * the style sheets, scripts, images and fonts they reference.
+ * <p>
+ * Requests whose URL matches a pattern (by default the file extensions of
+ * such resources) are not sent at all. Responses that turn out to be one of
+ * these resources by their content type are discarded after they have been
+ * received, so HtmlUnit neither parses nor executes them. In both cases
+ * HtmlUnit gets an empty response instead. Attachments (i.e. the dumps) are
+ * never affected.
+ * <p>
+ * The number of requests skipped is counted per web client, see
+ * {@link #logStatistics(WebClient, String)}.
+ *
+ * @author schnatterer
+ *
+ */
+public class MinimalFetchWebConnection extends WebConnectionWrapper {
+	/** Default pattern of the URLs that are not requested */
+	public static final String DEFAULT_URL_PATTERN = "(?i)[^?#]*\\.(css|js|png|jpe?g|gif|ico|svg|webp|bmp|woff2?|ttf|otf|eot|map)([?#].*)?";
+
+	private static final Pattern PATTERN_CONTENT_TYPE = Pattern
+			.compile("(?i)text/css|(text|application)/(x-)?(java|ecma)script|image/.*|font/.*|application/(x-)?font-.*|audio/.*|video/.*");
+	private static final Pattern PATTERN_CSS = Pattern
+			.compile("(?i)[^?#]*\\.css([?#].*)?");
+	private static final Pattern PATTERN_SCRIPT = Pattern
+			.compile("(?i)[^?#]*\\.js([?#].*)?");
+	private static final String HEADER_CONTENT_TYPE = "Content-Type";
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+	private static Logger logger = Logger
+			.getLogger(MinimalFetchWebConnection.class);
+
+	private final Pattern urlPattern;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger skippedRequests = new AtomicInteger();
+	private final AtomicInteger discardedResponses = new AtomicInteger();
+	private final AtomicLong discardedBytes = new AtomicLong();
+
+	/**
+	 * Wraps the current connection of the web client and replaces it.
+	 *
+	 * @param urlPattern
+	 *            the URLs that are not requested
+	 */
+	public MinimalFetchWebConnection(WebClient webClient, Pattern urlPattern) {
+		super(webClient);
+		this.urlPattern = urlPattern;
+	}
+
+	@Override
+	public WebResponse getResponse(WebRequest request) throws IOException {
+		String url = request.getUrl().toExternalForm();
+		if (urlPattern.matcher(url).matches()) {
+			skippedRequests.incrementAndGet();
+			logger.trace("Not requesting " + url);
+			return createEmptyResponse(request, guessContentType(url));
+		}
+		requests.incrementAndGet();
+		WebResponse response = super.getResponse(request);
+		String contentType = response.getContentType();
+		if (contentType == null
+				|| !PATTERN_CONTENT_TYPE.matcher(contentType).matches()
+				|| Attachment.isAttachment(response)) {
+			return response;
+		}
+		discardedResponses.incrementAndGet();
+		discardedBytes.addAndGet(getContentLength(response));
+		logger.trace("Discarding " + contentType + " " + url);
+		response.cleanUp();
+		return createEmptyResponse(request, contentType);
+	}
+
+	/**
+	 * Logs how many requests the web client has skipped since the last call
+	 * and resets the counters, e.g. after each dump.
+	 *
+	 * @param url
+	 *            the site the requests have been sent to
+	 */
+	public static void logStatistics(WebClient webClient, String url) {
+		if (!(webClient.getWebConnection() instanceof MinimalFetchWebConnection)) {
+			return;
+		}
+		MinimalFetchWebConnection connection = (MinimalFetchWebConnection) webClient
+				.getWebConnection();
+		int requests = connection.requests.getAndSet(0);
+		int skipped = connection.skippedRequests.getAndSet(0);
+		int discarded = connection.discardedResponses.getAndSet(0);
+		long bytes = connection.discardedBytes.getAndSet(0);
+		logger.info("Minimal fetch of " + url + ": " + requests
+				+ " request(s), " + skipped
+				+ " sub resource(s) not requested, " + discarded
+				+ " discarded (" + TransferStats.formatBytes(bytes) + ")");
+	}
+
+	private static WebResponse createEmptyResponse(WebRequest request,
+			String contentType) {
+		WebResponseData data = new WebResponseData(new byte[0], 200, "OK",
+				Collections.singletonList(new NameValuePair(
+						HEADER_CONTENT_TYPE, contentType)));
+		return new WebResponse(data, request, 0);
+	}
+
+	/**
+	 * @return the content type HtmlUnit expects for a resource, so it doesn't
+	 *         complain about the empty response
+	 */
+	private static String guessContentType(String url) {
+		if (PATTERN_CSS.matcher(url).matches()) {
+			return "text/css";
+		}
+		if (PATTERN_SCRIPT.matcher(url).matches()) {
+			return "text/javascript";
+		}
+		return "application/octet-stream";
+	}
+
+	/**
+	 * @return the length of the body as transferred, 0 if unknown
+	 */
+	private static long getContentLength(WebResponse response) {
+		String contentLength = response
+				.getResponseHeaderValue(HEADER_CONTENT_LENGTH);
+		if (contentLength == null) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Long.parseLong(contentLength.trim()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names the threads <code>&lt;prefix&gt;-&lt;number&gt;</code>, so they can be
+ * told apart in thread dumps.
+ *
+ * @author schnatterer
+ *
+ */
+public class NamedThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private final boolean daemon;
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	/**
+	 * @param prefix
+	 *            the name of the threads, followed by their number
+	 * @param daemon
+	 *            <code>true</code> to create daemon threads, so the executor
+	 *            does not keep the JVM alive
+	 */
+	public NamedThreadFactory(String prefix, boolean daemon) {
+		this.prefix = prefix;
+		this.daemon = daemon;
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, prefix + "-"
+				+ threadNumber.getAndIncrement());
+		thread.setDaemon(daemon);
+		return thread;
+	}
+}
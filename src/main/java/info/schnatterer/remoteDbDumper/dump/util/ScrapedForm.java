@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import info.schnatterer.remoteDbDumper.dump.util.HtmlTokenizer.Tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+/**
+ * The fields of an HTML form, as scraped by {@link HtmlTokenizer}. Contains
+ * the values the browser would send when submitting the form: text, password
+ * and hidden inputs, checked check boxes and radio buttons, selects and text
+ * areas. Submit buttons are only sent when they are clicked, see
+ * {@link #toParameters(String)}. A field may have several values, e.g. a
+ * select that allows multiple selections.
+ *
+ * @author schnatterer
+ *
+ */
+public class ScrapedForm {
+	private final String id;
+	private final String action;
+	private final String method;
+	private final List<String[]> fields = new LinkedList<String[]>();
+	private final Map<String, List<String>> selectOptions = new HashMap<String, List<String>>();
+	private final Map<String, String> submitButtons = new HashMap<String, String>();
+
+	private ScrapedForm(String id, String action, String method) {
+		this.id = id;
+		this.action = action;
+		this.method = method;
+	}
+
+	/**
+	 * Finds a form by its <code>id</code> attribute.
+	 *
+	 * @return the form or <code>null</code> if there is no form with this id
+	 */
+	public static ScrapedForm findById(String html, String formId) {
+		HtmlTokenizer tokenizer = new HtmlTokenizer(html);
+		Tag tag;
+		while ((tag = tokenizer.nextTag()) != null) {
+			if (tag.isStart("form") && formId.equals(tag.getAttribute("id"))) {
+				return parse(tokenizer, tag);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the first form that contains a field, select or submit button of
+	 * the given name, e.g. for forms without an <code>id</code>.
+	 *
+	 * @return the form or <code>null</code> if there is no such form
+	 */
+	public static ScrapedForm findByField(String html, String fieldName) {
+		HtmlTokenizer tokenizer = new HtmlTokenizer(html);
+		Tag tag;
+		while ((tag = tokenizer.nextTag()) != null) {
+			if (tag.isStart("form")) {
+				ScrapedForm form = parse(tokenizer, tag);
+				if (form.hasField(fieldName)
+						|| form.selectOptions.containsKey(fieldName)
+						|| form.submitButtons.containsKey(fieldName)) {
+					return form;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static ScrapedForm parse(HtmlTokenizer tokenizer, Tag formTag) {
+		String method = formTag.getAttribute("method");
+		ScrapedForm form = new ScrapedForm(formTag.getAttribute("id"),
+				formTag.getAttribute("action"), method == null ? "get"
+						: method.toLowerCase(Locale.ENGLISH));
+		String currentSelect = null;
+		boolean currentSelectMultiple = false;
+		Tag tag;
+		while ((tag = tokenizer.nextTag()) != null && !tag.isEnd("form")) {
+			String name = tag.getAttribute("name");
+			if (tag.isStart("input") && name != null) {
+				form.addInput(tag, name);
+			} else if (tag.isStart("button") && name != null
+					&& !"button".equalsIgnoreCase(tag.getAttribute("type"))
+					&& !"reset".equalsIgnoreCase(tag.getAttribute("type"))) {
+				form.addSubmitButton(name, valueOrEmpty(tag));
+			} else if (tag.isStart("textarea") && name != null) {
+				form.fields.add(new String[] { name,
+						tokenizer.readText("textarea") });
+			} else if (tag.isStart("select") && name != null) {
+				currentSelect = name;
+				currentSelectMultiple = tag.hasAttribute("multiple");
+				form.selectOptions.put(name, new ArrayList<String>());
+			} else if (tag.isEnd("select")) {
+				currentSelect = null;
+			} else if (tag.isStart("option") && currentSelect != null) {
+				String value = tag.getAttribute("value");
+				if (value == null) {
+					value = tokenizer.readText("option").trim();
+				}
+				form.addOption(currentSelect, value,
+						tag.hasAttribute("selected"), currentSelectMultiple);
+			}
+		}
+		return form;
+	}
+
+	private void addInput(Tag tag, String name) {
+		String type = tag.getAttribute("type");
+		type = type == null ? "text" : type.toLowerCase(Locale.ENGLISH);
+		if ("submit".equals(type) || "image".equals(type)) {
+			addSubmitButton(name, valueOrEmpty(tag));
+		} else if ("radio".equals(type)) {
+			// Radio buttons are treated like a select, without default
+			String value = tag.getAttribute("value");
+			value = value == null ? "on" : value;
+			List<String> options = selectOptions.get(name);
+			if (options == null) {
+				options = new ArrayList<String>();
+				selectOptions.put(name, options);
+			}
+			options.add(value);
+			if (tag.hasAttribute("checked")) {
+				setField(name, value);
+			}
+		} else if ("checkbox".equals(type)) {
+			if (tag.hasAttribute("checked")) {
+				String value = tag.getAttribute("value");
+				fields.add(new String[] { name, value == null ? "on" : value });
+			}
+		} else if (!"button".equals(type) && !"reset".equals(type)
+				&& !"file".equals(type)) {
+			fields.add(new String[] { name, valueOrEmpty(tag) });
+		}
+	}
+
+	private void addSubmitButton(String name, String value) {
+		// The first button with a name wins, like in a browser pressing enter
+		if (!submitButtons.containsKey(name)) {
+			submitButtons.put(name, value);
+		}
+	}
+
+	private void addOption(String select, String value, boolean selected,
+			boolean multiple) {
+		List<String> options = selectOptions.get(select);
+		options.add(value);
+		if (multiple) {
+			if (selected) {
+				addField(select, value);
+			}
+			// The first option is the default, unless another one is selected
+		} else if (options.size() == 1 || selected) {
+			setField(select, value);
+		}
+	}
+
+	private static String valueOrEmpty(Tag tag) {
+		String value = tag.getAttribute("value");
+		return value == null ? "" : value;
+	}
+
+	/** @return the <code>id</code> attribute of the form */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the (decoded) <code>action</code> attribute of the form,
+	 *         <code>null</code> if not set.
+	 */
+	public String getAction() {
+		return action;
+	}
+
+	/** @return the lower case <code>method</code> of the form */
+	public String getMethod() {
+		return method;
+	}
+
+	/** @return <code>true</code> if the form contains a field of that name */
+	public boolean hasField(String name) {
+		return getField(name) != null;
+	}
+
+	/** @return the value of a field or <code>null</code> if not present */
+	public String getField(String name) {
+		for (String[] field : fields) {
+			if (field[0].equals(name)) {
+				return field[1];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the value of a field, replacing the first value if there are
+	 * several. Adds the field if not present.
+	 */
+	public void setField(String name, String value) {
+		for (String[] field : fields) {
+			if (field[0].equals(name)) {
+				field[1] = value;
+				return;
+			}
+		}
+		fields.add(new String[] { name, value });
+	}
+
+	/**
+	 * Adds another value to a field, e.g. for selecting several options of a
+	 * multiple select.
+	 */
+	public void addField(String name, String value) {
+		fields.add(new String[] { name, value });
+	}
+
+	/**
+	 * Removes all values of a field.
+	 */
+	public void removeField(String name) {
+		for (Iterator<String[]> it = fields.iterator(); it.hasNext();) {
+			if (it.next()[0].equals(name)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the values of all options of a select or group of radio
+	 *         buttons or <code>null</code> if there is none of that name.
+	 */
+	public List<String> getSelectOptions(String name) {
+		List<String> options = selectOptions.get(name);
+		return options == null ? null : Collections
+				.unmodifiableList(options);
+	}
+
+	/**
+	 * @return the value of a submit button or <code>null</code> if there is
+	 *         no submit button of that name.
+	 */
+	public String getSubmitButton(String name) {
+		return submitButtons.get(name);
+	}
+
+	/**
+	 * @param submitButtonName
+	 *            the name of the submit button that is "clicked" or
+	 *            <code>null</code>.
+	 * @return the parameters a browser would send when submitting the form
+	 */
+	public List<NameValuePair> toParameters(String submitButtonName) {
+		List<NameValuePair> parameters = new ArrayList<NameValuePair>(
+				fields.size() + 1);
+		for (String[] field : fields) {
+			parameters.add(new BasicNameValuePair(field[0], field[1]));
+		}
+		if (submitButtonName != null
+				&& submitButtons.containsKey(submitButtonName)) {
+			parameters.add(new BasicNameValuePair(submitButtonName,
+					submitButtons.get(submitButtonName)));
+		}
+		return parameters;
+	}
+
+	@Override
+	public String toString() {
+		return "form id=\"" + id + "\" action=\"" + action + "\"";
+	}
+}
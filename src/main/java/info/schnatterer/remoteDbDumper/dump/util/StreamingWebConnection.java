@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.gargoylesoftware.htmlunit.DownloadedContent;
+import com.gargoylesoftware.htmlunit.HttpWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+
+/**
+ * A {@link HttpWebConnection} that does not download the body of
+ * attachments. By default HtmlUnit reads the whole response (into memory or a
+ * temp file) before returning it. For attachments (i.e. the dumps) and
+ * partial content (i.e. resumed attachments) this connection returns the
+ * response with a body that is still connected to the HTTP connection, so it
+ * can be streamed directly to disk.
+ * <p>
+ * The body of an attachment can be read only once. Use together with
+ * {@link AttachmentPageCreator}, which makes sure HtmlUnit does not read the
+ * body itself.
+ * <p>
+ * The connections are taken from a shared {@link HttpTransport}, so they
+ * outlive the web client and are reused by the next one. HtmlUnit requests
+ * gzip and deflate encoded responses and decodes them itself, so the
+ * transport's compression setting only decides whether to ask for them.
+ *
+ * @author schnatterer
+ *
+ */
+public class StreamingWebConnection extends HttpWebConnection {
+	private static final String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
+	private static final String CONTENT_DISPOSITION_ATTACHMENT = "attachment";
+	private static final int STATUS_PARTIAL_CONTENT = 206;
+	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+	private final HttpTransport transport;
+
+	public StreamingWebConnection(WebClient webClient, HttpTransport transport) {
+		super(webClient);
+		this.transport = transport;
+	}
+
+	@Override
+	public WebResponse getResponse(WebRequest request) throws IOException {
+		if (!transport.isCompression()) {
+			request.setAdditionalHeader(HEADER_ACCEPT_ENCODING, "identity");
+		}
+		return super.getResponse(request);
+	}
+
+	/**
+	 * Creates the client as HtmlUnit does (redirects, cookies, timeout), but
+	 * on the connections of the transport.
+	 */
+	@Override
+	protected AbstractHttpClient createHttpClient() {
+		AbstractHttpClient htmlUnitClient = super.createHttpClient();
+		// Only its configuration is used, not its connections
+		htmlUnitClient.getConnectionManager().shutdown();
+		DefaultHttpClient httpClient = transport.createClient(htmlUnitClient
+				.getParams());
+		httpClient.setRedirectStrategy(htmlUnitClient.getRedirectStrategy());
+		httpClient.setCookieStore(htmlUnitClient.getCookieStore());
+		return httpClient;
+	}
+
+	/**
+	 * Keeps the connections open, they belong to the transport. Called when
+	 * the web client's windows are closed.
+	 */
+	@Override
+	public void shutdown() {
+		// Don't shut down the shared connection manager
+	}
+
+	@Override
+	protected DownloadedContent downloadResponseBody(HttpResponse httpResponse)
+			throws IOException {
+		HttpEntity entity = httpResponse.getEntity();
+		if (entity == null
+				|| (!isAttachment(httpResponse) && httpResponse
+						.getStatusLine().getStatusCode() != STATUS_PARTIAL_CONTENT)) {
+			return super.downloadResponseBody(httpResponse);
+		}
+		return new StreamingContent(entity.getContent());
+	}
+
+	/**
+	 * Same check as
+	 * {@link com.gargoylesoftware.htmlunit.attachment.Attachment#isAttachment(com.gargoylesoftware.htmlunit.WebResponse)}
+	 * , but on the raw response.
+	 */
+	static boolean isAttachment(HttpResponse httpResponse) {
+		Header disposition = httpResponse
+				.getFirstHeader(HEADER_CONTENT_DISPOSITION);
+		return disposition != null
+				&& disposition.getValue() != null
+				&& disposition.getValue().toLowerCase(Locale.ENGLISH)
+						.startsWith(CONTENT_DISPOSITION_ATTACHMENT);
+	}
+
+	/**
+	 * Content that is read directly from the HTTP connection.
+	 */
+	static class StreamingContent implements DownloadedContent {
+		private static final long serialVersionUID = 1L;
+		private transient InputStream stream;
+		private transient boolean consumed = false;
+
+		StreamingContent(InputStream stream) {
+			this.stream = stream;
+		}
+
+		public synchronized InputStream getInputStream() throws IOException {
+			if (consumed) {
+				throw new IOException(
+						"Attachment is streamed from the connection and can only be read once");
+			}
+			consumed = true;
+			return stream;
+		}
+
+		/**
+		 * Aborts the connection, if the stream has not been read until the
+		 * end. Otherwise closing would read (and discard) the rest of the
+		 * body, which might be gigabytes. If the stream has been read
+		 * completely, the connection has already been released and this is a
+		 * no-op.
+		 */
+		public synchronized void cleanUp() {
+			if (stream == null) {
+				return;
+			}
+			try {
+				if (stream instanceof ConnectionReleaseTrigger) {
+					((ConnectionReleaseTrigger) stream).abortConnection();
+				} else {
+					stream.close();
+				}
+			} catch (IOException e) {
+				// Nothing we can do about it
+			}
+			stream = null;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.dump.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.attachment.Attachment;
+
+/**
+ * Keeps configured {@link WebClient}s for reuse, so long running processes
+ * don't pay for creating a web client (JavaScript engine, CSS and JS parsers)
+ * per dump. The cache of a web client is kept, so the compiled scripts and
+ * style sheets of a site are reused, too. Cookies are removed, so a client
+ * never leaks a session into another dump.
+ *
+ * @author schnatterer
+ *
+ */
+public class WebClientPool {
+	private static Logger logger = Logger.getLogger(WebClientPool.class);
+
+	private final int maxIdle;
+	private final HttpTransport transport;
+	private final Pattern minimalFetchPattern;
+	private final LinkedList<PooledWebClient> idle = new LinkedList<PooledWebClient>();
+
+	/**
+	 * @param maxIdle
+	 *            the maximum number of clients kept for reuse, usually the
+	 *            number of dumps running at the same time.
+	 * @param transport
+	 *            provides the connections of the clients
+	 * @param minimalFetchPattern
+	 *            the URLs the clients don't request, <code>null</code> to
+	 *            load all resources. See
+	 *            {@link HtmlUnitUtils#createWebClient(List, HttpTransport, Pattern)}
+	 */
+	public WebClientPool(int maxIdle, HttpTransport transport,
+			Pattern minimalFetchPattern) {
+		this.maxIdle = maxIdle;
+		this.transport = transport;
+		this.minimalFetchPattern = minimalFetchPattern;
+	}
+
+	/**
+	 * Creates clients in advance, so the first dumps don't have to.
+	 */
+	public void warmUp() {
+		List<PooledWebClient> clients = new ArrayList<PooledWebClient>();
+		for (int i = 0; i < maxIdle; i++) {
+			clients.add(borrow());
+		}
+		for (PooledWebClient client : clients) {
+			release(client);
+		}
+		logger.debug("Created " + clients.size() + " web clients");
+	}
+
+	/**
+	 * @return an idle client or a new one, if there is none. Must be
+	 *         {@link #release(PooledWebClient)}d after use.
+	 */
+	public PooledWebClient borrow() {
+		synchronized (idle) {
+			if (!idle.isEmpty()) {
+				return idle.removeFirst();
+			}
+		}
+		return new PooledWebClient(transport, minimalFetchPattern);
+	}
+
+	/**
+	 * Resets the client and returns it to the pool.
+	 */
+	public void release(PooledWebClient client) {
+		WebClient webClient = client.getWebClient();
+		webClient.closeAllWindows();
+		webClient.getCookieManager().clearCookies();
+		client.getAttachments().clear();
+		synchronized (idle) {
+			if (idle.size() < maxIdle) {
+				idle.addFirst(client);
+			}
+		}
+	}
+
+	/**
+	 * A web client together with the list its attachments are collected in.
+	 */
+	public static class PooledWebClient {
+		private final List<Attachment> attachments = new ArrayList<Attachment>();
+		private final WebClient webClient;
+
+		PooledWebClient(HttpTransport transport, Pattern minimalFetchPattern) {
+			webClient = HtmlUnitUtils.createWebClient(attachments, transport,
+					minimalFetchPattern);
+		}
+
+		/** @return the web client */
+		public WebClient getWebClient() {
+			return webClient;
+		}
+
+		/** @return the attachments returned by the web client */
+		public List<Attachment> getAttachments() {
+			return attachments;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.index;
+
+import info.schnatterer.remoteDbDumper.dump.download.FileMover;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The byte ranges of the tables in an SQL dump, so single tables can be
+ * extracted without reading the whole dump (see {@link TableExtractor}).
+ * Stored next to the dump with suffix {@value #SUFFIX}, e.g.
+ *
+ * <pre>
+ * # remoteDbDumper index 2
+ * # file: example.mysql.gz
+ * # length: 7308415
+ * # size: 52428800
+ * header	0	412
+ * table	accesslog	412	1048972
+ * table	actions	1048990	1050195
+ * footer	52428781	52428800
+ * member	0	0
+ * member	146270	1048576
+ * </pre>
+ *
+ * The offsets of the ranges refer to the uncompressed dump. If the dump is
+ * stored compressed with gzip, each <code>member</code> line contains the
+ * offset of a gzip member in the file and the uncompressed offset it starts
+ * at, so reading can start at the member right before a range.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpIndex {
+	/** Suffix of the index files */
+	public static final String SUFFIX = ".idx";
+	/** Header of the index files */
+	public static final String HEADER = "# remoteDbDumper index 2";
+	/** Start of the header of all versions of the index files */
+	private static final String HEADER_PREFIX = "# remoteDbDumper index ";
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String[] SQL_EXTENSIONS = { ".sql", ".mysql",
+			".pgsql", ".psql" };
+	private static final String[] GZIP_EXTENSIONS = { ".gz", ".gzip" };
+
+	private final String fileName;
+	private final long length;
+	private final long size;
+	private final long headerEnd;
+	private final long footerStart;
+	private final List<Range> ranges;
+	/** <code>{offset in file, uncompressed offset}</code>, empty if plain */
+	private final List<long[]> members;
+
+	DumpIndex(String fileName, long length, long size, long headerEnd,
+			long footerStart, List<Range> ranges, List<long[]> members) {
+		this.fileName = fileName;
+		this.length = length;
+		this.size = size;
+		this.headerEnd = headerEnd;
+		this.footerStart = footerStart;
+		this.ranges = ranges;
+		this.members = members;
+	}
+
+	/**
+	 * @return <code>true</code> if the file name denotes an SQL dump, which
+	 *         may be compressed with gzip
+	 */
+	public static boolean isSqlDump(String fileName) {
+		String name = fileName.toLowerCase(Locale.ENGLISH);
+		for (String extension : GZIP_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				name = name.substring(0, name.length() - extension.length());
+				break;
+			}
+		}
+		for (String extension : SQL_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** @return the index file of <code>dump</code> */
+	public static File getIndexFile(File dump) {
+		return new File(dump.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Reads the dump once and finds its tables.
+	 *
+	 * @throws IOException
+	 *             if the dump can't be read or is a corrupt gzip file
+	 */
+	public static DumpIndex build(File dump) throws IOException {
+		MappedInput input = new MappedInput(dump);
+		try {
+			final SqlIndexer indexer = new SqlIndexer();
+			final List<long[]> members = new ArrayList<long[]>();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			if (GzipMemberReader.isGzip(input)) {
+				GzipMemberReader reader = new GzipMemberReader(input, 0,
+						new GzipMemberReader.MemberListener() {
+							public void memberStarted(long offset) {
+								members.add(new long[] { offset,
+										indexer.getLength() });
+							}
+						});
+				try {
+					int count;
+					while ((count = reader.read(buffer, 0, buffer.length)) >= 0) {
+						indexer.update(buffer, 0, count);
+					}
+				} finally {
+					reader.close();
+				}
+			} else {
+				long position = 0;
+				int count;
+				while ((count = input.read(position, buffer, 0, buffer.length)) >= 0) {
+					indexer.update(buffer, 0, count);
+					position += count;
+				}
+			}
+			indexer.finish();
+			return new DumpIndex(dump.getName(), input.size(),
+					indexer.getLength(), indexer.getHeaderEnd(),
+					indexer.getFooterStart(), indexer.getRanges(), members);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads the index of <code>dump</code>.
+	 *
+	 * @return the index or <code>null</code> if there is none, it doesn't
+	 *         match the dump (anymore) or it has been written by another
+	 *         version
+	 * @throws IOException
+	 *             if the index can't be read
+	 */
+	public static DumpIndex read(File dump) throws IOException {
+		File file = getIndexFile(dump);
+		if (!file.isFile()) {
+			return null;
+		}
+		String fileName = null;
+		long length = -1;
+		long size = -1;
+		long headerEnd = -1;
+		long footerStart = -1;
+		List<Range> ranges = new LinkedList<Range>();
+		List<long[]> members = new ArrayList<long[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), CHARSET));
+		try {
+			String line = reader.readLine();
+			if (line != null && !HEADER.equals(line)
+					&& line.startsWith(HEADER_PREFIX)) {
+				// Written by another version, index again
+				return null;
+			}
+			if (!HEADER.equals(line)) {
+				throw new IOException("Not an index: " + file);
+			}
+			while ((line = reader.readLine()) != null) {
+				try {
+					if (line.startsWith("# file: ")) {
+						fileName = line.substring("# file: ".length());
+					} else if (line.startsWith("# length: ")) {
+						length = Long.parseLong(line.substring("# length: "
+								.length()));
+					} else if (line.startsWith("# size: ")) {
+						size = Long.parseLong(line.substring("# size: "
+								.length()));
+					} else if (!line.isEmpty() && !line.startsWith("#")) {
+						String[] fields = line.split("\t");
+						if ("header".equals(fields[0])) {
+							headerEnd = Long.parseLong(fields[2]);
+						} else if ("footer".equals(fields[0])) {
+							footerStart = Long.parseLong(fields[1]);
+						} else if ("table".equals(fields[0])) {
+							ranges.add(new Range(fields[1], Long
+									.parseLong(fields[2]), Long
+									.parseLong(fields[3])));
+						} else if ("member".equals(fields[0])) {
+							members.add(new long[] { Long.parseLong(fields[1]),
+									Long.parseLong(fields[2]) });
+						}
+					}
+				} catch (RuntimeException e) {
+					throw new IOException("Invalid line in " + file + ": "
+							+ line, e);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (!dump.getName().equals(fileName) || dump.length() != length
+				|| size < 0 || headerEnd < 0 || footerStart < 0) {
+			return null;
+		}
+		return new DumpIndex(fileName, length, size, headerEnd, footerStart,
+				ranges, members);
+	}
+
+	/**
+	 * Writes the index next to <code>dump</code>, replacing it atomically.
+	 */
+	public void write(File dump) throws IOException {
+		File file = getIndexFile(dump);
+		File tempFile = new File(file.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile),
+				CHARSET);
+		try {
+			writer.write(HEADER + "\n");
+			writer.write("# file: " + fileName + "\n");
+			writer.write("# length: " + length + "\n");
+			writer.write("# size: " + size + "\n");
+			writer.write("header\t0\t" + headerEnd + "\n");
+			for (Range range : ranges) {
+				writer.write("table\t" + range.getTable() + "\t"
+						+ range.getFrom() + "\t" + range.getTo() + "\n");
+			}
+			writer.write("footer\t" + footerStart + "\t" + size + "\n");
+			for (long[] member : members) {
+				writer.write("member\t" + member[0] + "\t" + member[1] + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		FileMover.move(tempFile, file);
+	}
+
+	/** @return the name of the dump */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/** @return the length of the dump as stored */
+	public long getLength() {
+		return length;
+	}
+
+	/** @return the length of the uncompressed dump */
+	public long getSize() {
+		return size;
+	}
+
+	/** @return the end of the statements before the first table */
+	public long getHeaderEnd() {
+		return headerEnd;
+	}
+
+	/** @return the start of the statements after the last table */
+	public long getFooterStart() {
+		return footerStart;
+	}
+
+	/** @return the ranges of all tables, in the order of the dump */
+	public List<Range> getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * @return <code>true</code> if the dump is stored compressed with gzip
+	 */
+	public boolean isCompressed() {
+		return !members.isEmpty();
+	}
+
+	/**
+	 * @return the tables and the (uncompressed) size of all their ranges, in
+	 *         the order of the dump
+	 */
+	public Map<String, Long> getTables() {
+		Map<String, Long> tables = new LinkedHashMap<String, Long>();
+		for (Range range : ranges) {
+			Long previous = tables.get(range.getTable());
+			tables.put(range.getTable(), (previous == null ? 0 : previous)
+					+ range.getLength());
+		}
+		return tables;
+	}
+
+	/**
+	 * @return the name of the table in the index that matches
+	 *         <code>table</code>, either exactly or without schema (e.g.
+	 *         <code>node</code> for <code>public.node</code>).
+	 *         <code>null</code> if none or several match.
+	 */
+	public String findTable(String table) {
+		String found = null;
+		for (String name : getTables().keySet()) {
+			if (name.equals(table)) {
+				return name;
+			}
+			if (name.endsWith("." + table)) {
+				if (found != null) {
+					return null;
+				}
+				found = name;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the gzip member that contains the uncompressed
+	 *         <code>offset</code>, as <code>{offset in file, uncompressed
+	 *         offset}</code>
+	 */
+	long[] getMember(long offset) {
+		long[] found = members.get(0);
+		for (long[] member : members) {
+			if (member[1] > offset) {
+				break;
+			}
+			found = member;
+		}
+		return found;
+	}
+
+	/**
+	 * A contiguous part of a dump that belongs to one table.
+	 */
+	public static class Range {
+		private final String table;
+		private final long from;
+		private final long to;
+
+		/**
+		 * @param from
+		 *            the uncompressed offset of the first byte
+		 * @param to
+		 *            the uncompressed offset after the last byte
+		 */
+		public Range(String table, long from, long to) {
+			this.table = table;
+			this.from = from;
+			this.to = to;
+		}
+
+		/** @return the name of the table, without quotes */
+		public String getTable() {
+			return table;
+		}
+
+		/** @return the uncompressed offset of the first byte */
+		public long getFrom() {
+			return from;
+		}
+
+		/** @return the uncompressed offset after the last byte */
+		public long getTo() {
+			return to;
+		}
+
+		/** @return the number of bytes */
+		public long getLength() {
+			return to - from;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates the gzip members of a file one after another, starting at the
+ * beginning of any member. Dumps compressed by
+ * {@link info.schnatterer.remoteDbDumper.dump.download.GzipTransform} consist
+ * of many small members, so each of them is an entry point for reading a
+ * part of the dump, without inflating everything before it.
+ *
+ * @author schnatterer
+ *
+ */
+class GzipMemberReader {
+	private static final int ID1 = 0x1f;
+	private static final int ID2 = 0x8b;
+	private static final int CM_DEFLATE = 8;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int FIXED_HEADER_LENGTH = 10;
+	private static final int TRAILER_LENGTH = 8;
+
+	private final MappedInput input;
+	private final MemberListener listener;
+	private final Inflater inflater = new Inflater(true);
+	private final byte[] buffer = new byte[64 * 1024];
+	/** Offset of the next compressed byte that is not passed to the inflater */
+	private long position;
+	private boolean inMember = false;
+
+	/**
+	 * @param position
+	 *            the offset of the first member to read
+	 * @param listener
+	 *            is informed about each member, <code>null</code> for none
+	 */
+	GzipMemberReader(MappedInput input, long position, MemberListener listener) {
+		this.input = input;
+		this.position = position;
+		this.listener = listener;
+	}
+
+	/**
+	 * @return <code>true</code> if <code>input</code> starts with a gzip
+	 *         header
+	 */
+	static boolean isGzip(MappedInput input) throws IOException {
+		return input.size() >= FIXED_HEADER_LENGTH
+				&& (input.get(0) & 0xff) == ID1 && (input.get(1) & 0xff) == ID2;
+	}
+
+	/**
+	 * Inflates the next bytes.
+	 *
+	 * @return the number of bytes inflated, -1 after the last member
+	 * @throws IOException
+	 *             if the file is corrupt or truncated
+	 */
+	int read(byte[] data, int offset, int count) throws IOException {
+		while (true) {
+			if (!inMember) {
+				if (position >= input.size()) {
+					return -1;
+				}
+				long memberStart = position;
+				position = skipHeader(position);
+				inflater.reset();
+				inMember = true;
+				if (listener != null) {
+					listener.memberStarted(memberStart);
+				}
+			}
+			if (inflater.needsInput()) {
+				int length = input.read(position, buffer, 0, buffer.length);
+				if (length < 0) {
+					throw new EOFException("gzip member is truncated");
+				}
+				inflater.setInput(buffer, 0, length);
+				position += length;
+			}
+			int inflated;
+			try {
+				inflated = inflater.inflate(data, offset, count);
+			} catch (DataFormatException e) {
+				throw new IOException("gzip member is corrupt: "
+						+ e.getMessage(), e);
+			}
+			if (inflater.finished()) {
+				// The rest of the input belongs to the trailer and beyond
+				position -= inflater.getRemaining();
+				position += TRAILER_LENGTH;
+				inMember = false;
+			} else if (inflater.needsDictionary()) {
+				throw new IOException(
+						"gzip stream requires a preset dictionary");
+			}
+			if (inflated > 0) {
+				return inflated;
+			}
+		}
+	}
+
+	/**
+	 * Releases the inflater.
+	 */
+	void close() {
+		inflater.end();
+	}
+
+	/**
+	 * @return the offset of the deflate data of the member at
+	 *         <code>start</code>
+	 */
+	private long skipHeader(long start) throws IOException {
+		if (start + FIXED_HEADER_LENGTH > input.size()) {
+			throw new EOFException("gzip header is truncated");
+		}
+		if (unsigned(start) != ID1 || unsigned(start + 1) != ID2
+				|| unsigned(start + 2) != CM_DEFLATE) {
+			throw new IOException("No gzip member at offset " + start);
+		}
+		int flags = unsigned(start + 3);
+		long offset = start + FIXED_HEADER_LENGTH;
+		if ((flags & FEXTRA) != 0) {
+			offset += 2 + (unsigned(offset) | unsigned(offset + 1) << 8);
+		}
+		if ((flags & FNAME) != 0) {
+			offset = skipZeroTerminated(offset);
+		}
+		if ((flags & FCOMMENT) != 0) {
+			offset = skipZeroTerminated(offset);
+		}
+		if ((flags & FHCRC) != 0) {
+			offset += 2;
+		}
+		return offset;
+	}
+
+	private long skipZeroTerminated(long offset) throws IOException {
+		while (input.get(offset) != 0) {
+			offset++;
+		}
+		return offset + 1;
+	}
+
+	private int unsigned(long offset) throws IOException {
+		return input.get(offset) & 0xff;
+	}
+
+	/**
+	 * Is informed when a member starts.
+	 */
+	interface MemberListener {
+		/**
+		 * Called before the first byte of a member is inflated.
+		 *
+		 * @param offset
+		 *            the offset of the member in the file
+		 */
+		void memberStarted(long offset);
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.index;
+
+import info.schnatterer.remoteDbDumper.batch.DumpJob;
+import info.schnatterer.remoteDbDumper.batch.DumpPostProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a {@link DumpIndex} next to each downloaded SQL dump, so single
+ * tables can be extracted quickly later. Reads the dump once, right after it
+ * has been written. A dump that can't be indexed is kept as it is, only a
+ * warning is logged.
+ *
+ * @author schnatterer
+ *
+ */
+public class IndexPostProcessor implements DumpPostProcessor {
+	private static Logger logger = Logger.getLogger(IndexPostProcessor.class);
+
+	public List<String> process(DumpJob job, List<String> files,
+			File directory) throws IOException {
+		for (String fileName : files) {
+			if (DumpIndex.isSqlDump(fileName)) {
+				index(new File(directory, fileName));
+			} else {
+				logger.debug("Not indexing " + fileName
+						+ ", which is not an SQL dump");
+			}
+		}
+		return files;
+	}
+
+	private void index(File dump) {
+		long start = System.nanoTime();
+		try {
+			DumpIndex index = DumpIndex.build(dump);
+			index.write(dump);
+			logger.info("Indexed " + index.getTables().size()
+					+ " tables of " + dump.getName() + " in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		} catch (IOException e) {
+			logger.warn("Unable to index " + dump.getName() + ": "
+					+ e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads a file through memory-mapped windows of {@value #WINDOW_SIZE} bytes,
+ * so any part of a large dump can be read without seeking through a stream
+ * and without copying it into the heap.
+ *
+ * @author schnatterer
+ *
+ */
+class MappedInput implements Closeable {
+	/** Size of the mapped windows: 64 MiB */
+	static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+
+	MappedInput(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		channel = this.file.getChannel();
+		size = channel.size();
+	}
+
+	/** @return the length of the file */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return the byte at <code>position</code>
+	 * @throws IOException
+	 *             if <code>position</code> is beyond the end of the file
+	 */
+	byte get(long position) throws IOException {
+		map(position);
+		return window.get((int) (position - windowStart));
+	}
+
+	/**
+	 * Reads up to <code>count</code> bytes at <code>position</code>, not
+	 * beyond the end of the file or of the current window.
+	 *
+	 * @return the number of bytes read, -1 at the end of the file
+	 */
+	int read(long position, byte[] data, int offset, int count)
+			throws IOException {
+		if (position >= size) {
+			return -1;
+		}
+		map(position);
+		int start = (int) (position - windowStart);
+		int length = Math.min(count, window.capacity() - start);
+		window.position(start);
+		window.get(data, offset, length);
+		return length;
+	}
+
+	/**
+	 * Writes the bytes from <code>from</code> (inclusive) to <code>to</code>
+	 * (exclusive) to <code>out</code>, straight from the mapped windows.
+	 */
+	void transferTo(long from, long to, WritableByteChannel out)
+			throws IOException {
+		long position = from;
+		while (position < to) {
+			map(position);
+			int start = (int) (position - windowStart);
+			int length = (int) Math.min(to - position, window.capacity()
+					- start);
+			window.limit(start + length).position(start);
+			while (window.hasRemaining()) {
+				out.write(window);
+			}
+			window.clear();
+			position += length;
+		}
+	}
+
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	/**
+	 * Maps the window that contains <code>position</code>, if not mapped
+	 * already.
+	 */
+	private void map(long position) throws IOException {
+		if (position < 0 || position >= size) {
+			throw new IOException("Offset " + position + " is beyond the end ("
+					+ size + ")");
+		}
+		if (window != null && position >= windowStart
+				&& position < windowStart + window.capacity()) {
+			return;
+		}
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+				Math.min(WINDOW_SIZE, size - position));
+	}
+}
@@ -0,0 +1,480 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.index;
+
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the byte ranges of the tables in an SQL dump, while it is read once
+ * from start to end. The dump is split into statements (respecting quotes,
+ * comments and the data of <code>COPY ... FROM stdin</code>), and each
+ * statement that names a table (<code>CREATE TABLE</code>,
+ * <code>INSERT INTO</code>, <code>LOCK TABLES</code>, <code>COPY</code>, ...)
+ * is assigned to it. A range of a table starts at its first statement,
+ * including the comments directly before it, and ends after its last
+ * statement, including the statements that close the table's block (e.g.
+ * <code>UNLOCK TABLES</code>). Other statements that don't name a table
+ * belong to the range around them, if any. Between the tables, they don't
+ * belong to any table, so they are not extracted.
+ * <p>
+ * Everything before the first table is the header (e.g.
+ * <code>SET NAMES</code>), everything after the last range the footer (e.g.
+ * <code>COMMIT</code>), so the header, the ranges of a table and the footer
+ * form a dump of that table. pg_dump writes some statements of a table
+ * (indexes, constraints) after the data of all tables, so a table may have
+ * several ranges.
+ *
+ * @author schnatterer
+ *
+ */
+class SqlIndexer {
+	/** Only the beginning of each statement is needed to find its table */
+	private static final int HEAD_SIZE = 256;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String IDENTIFIER = "(?:`(?:[^`]|``)*`|\"(?:[^\"]|\"\")*\"|[\\w$]+)";
+	private static final Pattern PATTERN_IDENTIFIER = Pattern
+			.compile(IDENTIFIER);
+	/** Statements that name a table, also in MySQL's conditional comments */
+	private static final Pattern PATTERN_TABLE = Pattern.compile(
+			"(?:/\\*!\\d*\\s*)?(?:"
+					+ "CREATE\\s+(?:(?:TEMPORARY|UNLOGGED)\\s+)?TABLE(?:\\s+IF\\s+NOT\\s+EXISTS)?"
+					+ "|CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(?:CONCURRENTLY\\s+)?(?:IF\\s+NOT\\s+EXISTS\\s+)?"
+					+ IDENTIFIER + "\\s+ON(?:\\s+ONLY)?"
+					+ "|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?"
+					+ "|(?:INSERT|REPLACE)(?:\\s+(?:LOW_PRIORITY|DELAYED|HIGH_PRIORITY|IGNORE))*(?:\\s+INTO)?"
+					+ "|LOCK\\s+TABLES?"
+					+ "|ALTER\\s+TABLE(?:\\s+IF\\s+EXISTS)?(?:\\s+ONLY)?"
+					+ "|TRUNCATE(?:\\s+TABLE)?" + "|COPY)\\s+(" + IDENTIFIER
+					+ "(?:\\s*\\.\\s*" + IDENTIFIER + ")*)",
+			Pattern.CASE_INSENSITIVE);
+	/**
+	 * Statements that close the block of the table before them, e.g. written
+	 * by mysqldump after the data or after <code>CREATE TABLE</code>
+	 */
+	private static final Pattern PATTERN_TABLE_END = Pattern.compile(
+			"(?:/\\*!\\d*\\s*)?(?:UNLOCK\\s+TABLES"
+					+ "|SET\\s+character_set_client\\s*=\\s*@saved_cs_client)",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern PATTERN_COPY_FROM_STDIN = Pattern.compile(
+			"COPY\\s.*\\sFROM\\s+stdin", Pattern.CASE_INSENSITIVE
+					| Pattern.DOTALL);
+	/** pg_dump: Backslashes in strings are not escapes from now on */
+	private static final Pattern PATTERN_STANDARD_STRINGS = Pattern.compile(
+			"SET\\s+standard_conforming_strings\\s*=\\s*'?on",
+			Pattern.CASE_INSENSITIVE);
+
+	private enum State {
+		/** Between statements */
+		BETWEEN,
+		/** A '-' between statements, maybe a comment */
+		DASH,
+		/** A '/' between statements, maybe a comment */
+		SLASH,
+		/** "/*" between statements, a comment unless followed by '!' */
+		SLASH_STAR,
+		LINE_COMMENT, BLOCK_COMMENT, BLOCK_COMMENT_STAR, STATEMENT, QUOTED,
+		/** The rows following <code>COPY ... FROM stdin</code> */
+		COPY_DATA
+	}
+
+	private final List<DumpIndex.Range> ranges = new LinkedList<DumpIndex.Range>();
+	private final byte[] head = new byte[HEAD_SIZE];
+	private int headLength = 0;
+	/**
+	 * The beginning of the last statement that named a table, up to and
+	 * including the name, e.g. <code>INSERT INTO `node`</code>. Statements
+	 * that start alike belong to the same table, without matching them.
+	 */
+	private final byte[] lastPrefix = new byte[HEAD_SIZE];
+	private int lastPrefixLength = 0;
+
+	private State state = State.BETWEEN;
+	private byte quote = 0;
+	private boolean escaped = false;
+	private boolean backslashEscapes = true;
+	/** The number of bytes read */
+	private long position = 0;
+	/** Start of a possible comment or statement, while in DASH or SLASH */
+	private long pendingStart = 0;
+	/** Start of the comments right before the next statement, -1 for none */
+	private long leadStart = -1;
+	private long statementStart = 0;
+	/** Length and first bytes of the current line of COPY data */
+	private int lineLength = 0;
+	private boolean lineEndsCopy = false;
+
+	private String currentTable = null;
+	private long rangeStart = 0;
+	private long lastTableStatementEnd = 0;
+	/** The rest of the line of the last statement of a table belongs to it */
+	private boolean lineOfTableStatement = false;
+	private long headerEnd = -1;
+	private long footerStart = -1;
+
+	/**
+	 * Passes the next bytes of the dump.
+	 */
+	void update(byte[] data, int offset, int count) {
+		int end = offset + count;
+		int i = offset;
+		while (i < end) {
+			if (headLength == HEAD_SIZE
+					&& (state == State.STATEMENT || state == State.QUOTED
+							&& !escaped)) {
+				int skipped = skip(data, i, end);
+				i += skipped;
+				position += skipped;
+				if (i == end) {
+					break;
+				}
+			}
+			byte b = data[i];
+			switch (state) {
+			case BETWEEN:
+				between(b);
+				break;
+			case DASH:
+				if (b == '-') {
+					beginLead(pendingStart);
+					state = State.LINE_COMMENT;
+				} else {
+					beginStatement(pendingStart, (byte) '-');
+					statement(b);
+				}
+				break;
+			case SLASH:
+				if (b == '*') {
+					state = State.SLASH_STAR;
+				} else {
+					beginStatement(pendingStart, (byte) '/');
+					statement(b);
+				}
+				break;
+			case SLASH_STAR:
+				if (b == '!') {
+					// MySQL executes the content of conditional comments
+					beginStatement(pendingStart, (byte) '/');
+					appendHead((byte) '*');
+					appendHead(b);
+				} else {
+					beginLead(pendingStart);
+					state = b == '*' ? State.BLOCK_COMMENT_STAR
+							: State.BLOCK_COMMENT;
+				}
+				break;
+			case LINE_COMMENT:
+				if (b == '\n') {
+					state = State.BETWEEN;
+				}
+				break;
+			case BLOCK_COMMENT:
+				if (b == '*') {
+					state = State.BLOCK_COMMENT_STAR;
+				}
+				break;
+			case BLOCK_COMMENT_STAR:
+				if (b == '/') {
+					state = State.BETWEEN;
+				} else if (b != '*') {
+					state = State.BLOCK_COMMENT;
+				}
+				break;
+			case STATEMENT:
+				statement(b);
+				break;
+			case QUOTED:
+				appendHead(b);
+				if (escaped) {
+					escaped = false;
+				} else if (b == '\\' && backslashEscapes && quote != '`') {
+					escaped = true;
+				} else if (b == quote) {
+					state = State.STATEMENT;
+				}
+				break;
+			case COPY_DATA:
+				copyData(b);
+				break;
+			}
+			i++;
+			position++;
+		}
+	}
+
+	/**
+	 * Skips the bytes of a long statement that don't end it or a string in
+	 * it, without looking at them one by one in {@link #update(byte[], int,
+	 * int)}. Most of a dump consists of such bytes.
+	 *
+	 * @return the number of bytes skipped
+	 */
+	private int skip(byte[] data, int offset, int end) {
+		int i = offset;
+		if (state == State.STATEMENT) {
+			while (i < end) {
+				byte b = data[i];
+				if (b == '\'' || b == '"' || b == '`' || b == ';') {
+					break;
+				}
+				i++;
+			}
+		} else {
+			boolean escapes = backslashEscapes && quote != '`';
+			while (i < end) {
+				byte b = data[i];
+				if (b == quote || escapes && b == '\\') {
+					break;
+				}
+				i++;
+			}
+		}
+		return i - offset;
+	}
+
+	/**
+	 * Completes the index, after the whole dump has been passed.
+	 */
+	void finish() {
+		if (currentTable == null) {
+			headerEnd = position;
+			footerStart = position;
+			return;
+		}
+		if (state == State.COPY_DATA) {
+			// Truncated, the data belongs to the table
+			lastTableStatementEnd = position;
+		}
+		ranges.add(new DumpIndex.Range(currentTable, rangeStart, Math.max(
+				rangeStart, lastTableStatementEnd)));
+		footerStart = Math.max(rangeStart, lastTableStatementEnd);
+	}
+
+	/** @return the number of bytes passed */
+	long getLength() {
+		return position;
+	}
+
+	/** @return the end of the header, after {@link #finish()} */
+	long getHeaderEnd() {
+		return headerEnd;
+	}
+
+	/** @return the start of the footer, after {@link #finish()} */
+	long getFooterStart() {
+		return footerStart;
+	}
+
+	/** @return the ranges of all tables in order, after {@link #finish()} */
+	List<DumpIndex.Range> getRanges() {
+		return ranges;
+	}
+
+	private void between(byte b) {
+		if (lineOfTableStatement && position == lastTableStatementEnd) {
+			if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+				lastTableStatementEnd++;
+			}
+			lineOfTableStatement = b == ' ' || b == '\t' || b == '\r';
+		}
+		switch (b) {
+		case ' ':
+		case '\t':
+		case '\r':
+		case '\n':
+			break;
+		case '-':
+			pendingStart = position;
+			state = State.DASH;
+			break;
+		case '/':
+			pendingStart = position;
+			state = State.SLASH;
+			break;
+		case '#':
+			beginLead(position);
+			state = State.LINE_COMMENT;
+			break;
+		default:
+			beginStatement(position, b);
+			statement(b, false);
+		}
+	}
+
+	private void statement(byte b) {
+		statement(b, true);
+	}
+
+	private void statement(byte b, boolean append) {
+		if (append) {
+			appendHead(b);
+		}
+		if (b == '\'' || b == '"' || b == '`') {
+			quote = b;
+			escaped = false;
+			state = State.QUOTED;
+		} else if (b == ';') {
+			endStatement(position + 1);
+		}
+	}
+
+	private void copyData(byte b) {
+		if (b == '\n') {
+			if (lineEndsCopy && lineLength == 2) {
+				lastTableStatementEnd = position + 1;
+				lineOfTableStatement = false;
+				state = State.BETWEEN;
+			}
+			lineLength = 0;
+			lineEndsCopy = false;
+			return;
+		}
+		if (b == '\r') {
+			return;
+		}
+		lineLength++;
+		if (lineLength == 1) {
+			lineEndsCopy = b == '\\';
+		} else if (lineLength == 2) {
+			lineEndsCopy &= b == '.';
+		}
+	}
+
+	private void beginLead(long start) {
+		if (leadStart < 0) {
+			leadStart = start;
+		}
+	}
+
+	private void beginStatement(long start, byte first) {
+		statementStart = start;
+		headLength = 0;
+		appendHead(first);
+		state = State.STATEMENT;
+	}
+
+	private void appendHead(byte b) {
+		if (headLength < HEAD_SIZE) {
+			head[headLength++] = b;
+		}
+	}
+
+	private void endStatement(long end) {
+		state = State.BETWEEN;
+		if (hasLastPrefix()) {
+			tableStatementEnded(end);
+		} else {
+			match(new String(head, 0, headLength, CHARSET), end);
+		}
+		leadStart = -1;
+	}
+
+	/**
+	 * Finds the table named by the statement that just ended, if any.
+	 */
+	private void match(String text, long end) {
+		Matcher matcher = PATTERN_TABLE.matcher(text);
+		if (matcher.lookingAt()) {
+			table(toName(matcher.group(1)), end);
+			byte[] prefix = text.substring(0, matcher.end()).getBytes(CHARSET);
+			lastPrefixLength = prefix.length < HEAD_SIZE ? prefix.length : 0;
+			System.arraycopy(prefix, 0, lastPrefix, 0, lastPrefixLength);
+			if (PATTERN_COPY_FROM_STDIN.matcher(text).lookingAt()) {
+				// The data of each COPY must be skipped
+				lastPrefixLength = 0;
+				state = State.COPY_DATA;
+				lineLength = 0;
+				lineEndsCopy = false;
+			}
+		} else if (currentTable != null
+				&& PATTERN_TABLE_END.matcher(text).lookingAt()) {
+			tableStatementEnded(end);
+		} else if (PATTERN_STANDARD_STRINGS.matcher(text).lookingAt()) {
+			backslashEscapes = false;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the statement starts like the last one
+	 *         that named a table, and the name isn't longer
+	 */
+	private boolean hasLastPrefix() {
+		if (lastPrefixLength == 0 || headLength <= lastPrefixLength) {
+			return false;
+		}
+		for (int i = 0; i < lastPrefixLength; i++) {
+			if (head[i] != lastPrefix[i]) {
+				return false;
+			}
+		}
+		byte next = head[lastPrefixLength];
+		return !(Character.isLetterOrDigit(next) || next == '_' || next == '$'
+				|| next == '.' || next < 0);
+	}
+
+	/**
+	 * The current table's range extends to <code>end</code>, and to the end
+	 * of the line, if only whitespace follows.
+	 */
+	private void tableStatementEnded(long end) {
+		lastTableStatementEnd = end;
+		lineOfTableStatement = true;
+	}
+
+	/**
+	 * Assigns the statement that just ended to <code>table</code>.
+	 */
+	private void table(String table, long end) {
+		if (!table.equals(currentTable)) {
+			long start = leadStart >= 0 ? leadStart : statementStart;
+			if (currentTable == null) {
+				headerEnd = start;
+			} else {
+				ranges.add(new DumpIndex.Range(currentTable, rangeStart,
+						lastTableStatementEnd));
+			}
+			currentTable = table;
+			rangeStart = start;
+		}
+		tableStatementEnded(end);
+	}
+
+	/**
+	 * @return the name of a (qualified) table without quotes, e.g.
+	 *         <code>public.node</code>
+	 */
+	static String toName(String identifier) {
+		StringBuilder name = new StringBuilder();
+		Matcher matcher = PATTERN_IDENTIFIER.matcher(identifier);
+		while (matcher.find()) {
+			String part = matcher.group();
+			char first = part.charAt(0);
+			if (first == '`' || first == '"') {
+				String quote = String.valueOf(first);
+				part = part.substring(1, part.length() - 1).replace(
+						quote + quote, quote);
+			}
+			name.append(name.length() == 0 ? "" : ".").append(part);
+		}
+		return name.toString();
+	}
+}
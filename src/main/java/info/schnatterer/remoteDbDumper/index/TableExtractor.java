@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a single table of an SQL dump, using its {@link DumpIndex}: The
+ * header of the dump, the ranges of the table and the footer are read from
+ * memory-mapped windows of the dump, without reading the other tables. If the
+ * dump is compressed with gzip, inflating starts at the member right before
+ * each range, so this is only fast for dumps with many members (e.g. written
+ * with <code>--compress gzip</code>).
+ *
+ * @author schnatterer
+ *
+ */
+public class TableExtractor {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static Logger logger = Logger.getLogger(TableExtractor.class);
+
+	/**
+	 * @return the name of the file a table of a dump is extracted to, e.g.
+	 *         <code>example.node.mysql</code> for table <code>node</code> of
+	 *         <code>example.mysql.gz</code>
+	 */
+	public static String getFileName(String dumpName, String table) {
+		String name = dumpName.replaceFirst("(?i)\\.(gz|gzip)$", "");
+		int extension = name.lastIndexOf('.');
+		if (extension <= 0) {
+			extension = name.length();
+		}
+		return name.substring(0, extension) + "."
+				+ table.replaceAll("[^\\w.$-]", "_")
+				+ name.substring(extension);
+	}
+
+	/**
+	 * @return the index of <code>dump</code>. Builds (and writes) it, if it
+	 *         doesn't exist or is outdated.
+	 */
+	public DumpIndex getIndex(File dump) throws IOException {
+		DumpIndex index = DumpIndex.read(dump);
+		if (index != null) {
+			return index;
+		}
+		logger.info("No index of " + dump.getName() + " found, indexing");
+		index = DumpIndex.build(dump);
+		try {
+			index.write(dump);
+		} catch (IOException e) {
+			logger.warn("Unable to write index of " + dump.getName() + ": "
+					+ e.getMessage());
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the statements of <code>table</code>, surrounded by the header
+	 * and footer of the dump, to <code>out</code>.
+	 *
+	 * @param table
+	 *            the name of the table, as returned by
+	 *            {@link DumpIndex#findTable(String)}
+	 * @return the number of bytes written
+	 */
+	public long extract(File dump, DumpIndex index, String table,
+			WritableByteChannel out) throws IOException {
+		MappedInput input = new MappedInput(dump);
+		try {
+			long bytes = copy(input, index, 0, index.getHeaderEnd(), out);
+			for (DumpIndex.Range range : index.getRanges()) {
+				if (range.getTable().equals(table)) {
+					bytes += copy(input, index, range.getFrom(), range.getTo(),
+							out);
+				}
+			}
+			return bytes + copy(input, index, index.getFooterStart(),
+					index.getSize(), out);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Copies the uncompressed bytes from <code>from</code> (inclusive) to
+	 * <code>to</code> (exclusive).
+	 *
+	 * @return the number of bytes copied
+	 */
+	private long copy(MappedInput input, DumpIndex index, long from, long to,
+			WritableByteChannel out) throws IOException {
+		if (from >= to) {
+			return 0;
+		}
+		if (!index.isCompressed()) {
+			input.transferTo(from, to, out);
+			return to - from;
+		}
+		long[] member = index.getMember(from);
+		GzipMemberReader reader = new GzipMemberReader(input, member[0], null);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long position = member[1];
+			while (position < to) {
+				int count = reader.read(buffer, 0, buffer.length);
+				if (count < 0) {
+					throw new IOException("Dump " + index.getFileName()
+							+ " ends at " + position + ", expected " + to
+							+ " bytes. Is the index outdated?");
+				}
+				int start = (int) Math.max(0, from - position);
+				int end = (int) Math.min(count, to - position);
+				if (start < end) {
+					ByteBuffer data = ByteBuffer.wrap(buffer, start, end - start);
+					while (data.hasRemaining()) {
+						out.write(data);
+					}
+				}
+				position += count;
+			}
+		} finally {
+			reader.close();
+		}
+		return to - from;
+	}
+}
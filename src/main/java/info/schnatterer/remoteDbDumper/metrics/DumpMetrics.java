@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.metrics;
+
+import info.schnatterer.remoteDbDumper.dump.download.TransferStats;
+import info.schnatterer.remoteDbDumper.progress.ProgressListener;
+import info.schnatterer.remoteDbDumper.progress.ProgressMonitor;
+import info.schnatterer.remoteDbDumper.progress.TransferProgress;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Durations of the {@link DumpPhase}s and the bytes transferred by one dump.
+ * Written by the thread running the dump, may be read by others (e.g. JMX)
+ * at any time.
+ * <p>
+ * When set as {@link ProgressMonitor#setThreadListener(ProgressListener)
+ * listener of the thread} running the dump, it also knows the progress of the
+ * current transfer and counts the transfers that stalled.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpMetrics implements ProgressListener {
+	private static final long NANOS_PER_MILLI = 1000L * 1000L;
+
+	private final Map<DumpPhase, Long> nanosByPhase = new EnumMap<DumpPhase, Long>(
+			DumpPhase.class);
+	private DumpPhase currentPhase = null;
+	private DumpPhase lastPhase = null;
+	private long phaseStart = 0;
+	private long bytes = 0;
+	private long storedBytes = 0;
+	private TransferProgress progress = null;
+	private int stalls = 0;
+
+	/**
+	 * Starts measuring a phase. Ends the current phase, if any.
+	 */
+	public synchronized void begin(DumpPhase phase) {
+		end();
+		currentPhase = phase;
+		lastPhase = phase;
+		phaseStart = System.nanoTime();
+	}
+
+	/**
+	 * Ends the current phase, adding its duration. Does nothing if no phase
+	 * is running.
+	 */
+	public synchronized void end() {
+		if (currentPhase == null) {
+			return;
+		}
+		long nanos = System.nanoTime() - phaseStart;
+		Long previous = nanosByPhase.get(currentPhase);
+		nanosByPhase.put(currentPhase, previous == null ? nanos : previous
+				+ nanos);
+		currentPhase = null;
+	}
+
+	/**
+	 * @return the phase that began last or <code>null</code> if none has
+	 *         begun. For a failed dump, this is the phase that failed.
+	 */
+	public synchronized DumpPhase getLastPhase() {
+		return lastPhase;
+	}
+
+	/**
+	 * Adds the bytes of a transferred file.
+	 */
+	public synchronized void addTransfer(TransferStats stats) {
+		bytes += stats.getBytes();
+		storedBytes += stats.getStoredBytes();
+	}
+
+	/**
+	 * @return <code>true</code> if the phase has been run (at least
+	 *         partially)
+	 */
+	public synchronized boolean hasPhase(DumpPhase phase) {
+		return nanosByPhase.containsKey(phase);
+	}
+
+	/** @return the duration of the phase in milliseconds */
+	public synchronized long getMillis(DumpPhase phase) {
+		Long nanos = nanosByPhase.get(phase);
+		return nanos == null ? 0 : nanos / NANOS_PER_MILLI;
+	}
+
+	/** @return the number of bytes transferred */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/** @return the number of bytes written to disk */
+	public synchronized long getStoredBytes() {
+		return storedBytes;
+	}
+
+	/**
+	 * @return the average throughput of the {@link DumpPhase#TRANSFER} phase
+	 *         in bytes per second
+	 */
+	public synchronized long getBytesPerSecond() {
+		Long nanos = nanosByPhase.get(DumpPhase.TRANSFER);
+		if (nanos == null || nanos <= 0) {
+			return 0;
+		}
+		return (long) (bytes / (nanos / (double) (1000 * NANOS_PER_MILLI)));
+	}
+
+	public synchronized void progress(TransferProgress progress) {
+		this.progress = progress;
+	}
+
+	public synchronized void stalled(TransferProgress progress) {
+		stalls++;
+	}
+
+	public synchronized void finished(TransferProgress progress) {
+		this.progress = null;
+	}
+
+	/**
+	 * @return the progress of the running transfer or <code>null</code> if
+	 *         none is running
+	 */
+	public synchronized TransferProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * @return the number of times a transfer has been aborted because it
+	 *         stalled
+	 */
+	public synchronized int getStalls() {
+		return stalls;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder string = new StringBuilder();
+		for (DumpPhase phase : DumpPhase.values()) {
+			if (nanosByPhase.containsKey(phase)) {
+				string.append(string.length() == 0 ? "" : ", ")
+						.append(phase.getKey()).append(" ")
+						.append(getMillis(phase)).append(" ms");
+			}
+		}
+		return string.toString();
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.metrics;
+
+import java.util.Locale;
+
+/**
+ * The phases of a dump, in the order they happen.
+ *
+ * @author schnatterer
+ *
+ */
+public enum DumpPhase {
+	/** Requesting the backup page for the first time */
+	CONNECT,
+	/** Submitting the login form, if the site asks for it */
+	LOGIN,
+	/**
+	 * Submitting the backup form until the response starts, i.e. the time the
+	 * server takes to generate the dump
+	 */
+	BACKUP,
+	/** Transferring the dump to disk */
+	TRANSFER;
+
+	/** @return the name used in reports, e.g. <code>transfer</code> */
+	public String getKey() {
+		return name().toLowerCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Aggregates the {@link DumpMetrics} of all dumps of a run. Can be
+ * registered as MBean, so it can be watched via JMX (e.g. with
+ * <code>jconsole</code>) while the dumps are running.
+ *
+ * @author schnatterer
+ *
+ */
+public class DumpStatistics implements DumpStatisticsMBean {
+	/** Name the statistics are registered with */
+	public static final String OBJECT_NAME = "info.schnatterer.remoteDbDumper:type=DumpStatistics";
+
+	private static Logger logger = Logger.getLogger(DumpStatistics.class);
+
+	private final Map<DumpPhase, Long> millisByPhase = new EnumMap<DumpPhase, Long>(
+			DumpPhase.class);
+	private int dumpsRunning = 0;
+	private long dumpsSucceeded = 0;
+	private long dumpsFailed = 0;
+	private long bytes = 0;
+	private long storedBytes = 0;
+	private long lastBytesPerSecond = 0;
+	private ObjectName registeredName = null;
+
+	public DumpStatistics() {
+		for (DumpPhase phase : DumpPhase.values()) {
+			millisByPhase.put(phase, 0L);
+		}
+	}
+
+	/**
+	 * Registers the statistics with the platform MBean server. Failing to do
+	 * so is logged, but does not stop the dumps.
+	 */
+	public synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				registeredName = name;
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to register statistics via JMX: "
+					+ e.getMessage());
+		}
+	}
+
+	public synchronized void unregister() {
+		if (registeredName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					registeredName);
+		} catch (JMException e) {
+			logger.debug("Unable to unregister statistics", e);
+		}
+		registeredName = null;
+	}
+
+	public synchronized void dumpStarted() {
+		dumpsRunning++;
+	}
+
+	public synchronized void dumpFinished(DumpMetrics metrics, boolean success) {
+		dumpsRunning--;
+		if (success) {
+			dumpsSucceeded++;
+		} else {
+			dumpsFailed++;
+		}
+		for (DumpPhase phase : DumpPhase.values()) {
+			millisByPhase.put(phase,
+					millisByPhase.get(phase) + metrics.getMillis(phase));
+		}
+		bytes += metrics.getBytes();
+		storedBytes += metrics.getStoredBytes();
+		if (metrics.hasPhase(DumpPhase.TRANSFER)) {
+			lastBytesPerSecond = metrics.getBytesPerSecond();
+		}
+	}
+
+	public synchronized int getDumpsRunning() {
+		return dumpsRunning;
+	}
+
+	public synchronized long getDumpsSucceeded() {
+		return dumpsSucceeded;
+	}
+
+	public synchronized long getDumpsFailed() {
+		return dumpsFailed;
+	}
+
+	public synchronized long getBytesTransferred() {
+		return bytes;
+	}
+
+	public synchronized long getBytesStored() {
+		return storedBytes;
+	}
+
+	public synchronized long getConnectMillis() {
+		return millisByPhase.get(DumpPhase.CONNECT);
+	}
+
+	public synchronized long getLoginMillis() {
+		return millisByPhase.get(DumpPhase.LOGIN);
+	}
+
+	public synchronized long getBackupMillis() {
+		return millisByPhase.get(DumpPhase.BACKUP);
+	}
+
+	public synchronized long getTransferMillis() {
+		return millisByPhase.get(DumpPhase.TRANSFER);
+	}
+
+	public synchronized long getBytesPerSecond() {
+		long millis = millisByPhase.get(DumpPhase.TRANSFER);
+		return millis <= 0 ? 0 : bytes * 1000 / millis;
+	}
+
+	public synchronized long getLastBytesPerSecond() {
+		return lastBytesPerSecond;
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.metrics;
+
+/**
+ * Management interface of {@link DumpStatistics}. Durations are the sum over
+ * all finished dumps.
+ *
+ * @author schnatterer
+ *
+ */
+public interface DumpStatisticsMBean {
+	int getDumpsRunning();
+
+	long getDumpsSucceeded();
+
+	long getDumpsFailed();
+
+	long getBytesTransferred();
+
+	long getBytesStored();
+
+	long getConnectMillis();
+
+	long getLoginMillis();
+
+	long getBackupMillis();
+
+	long getTransferMillis();
+
+	/** @return bytes transferred per second of transfer time */
+	long getBytesPerSecond();
+
+	/** @return the throughput of the dump that finished last */
+	long getLastBytesPerSecond();
+}
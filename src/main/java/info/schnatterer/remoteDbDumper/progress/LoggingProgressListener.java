@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.progress;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Logs the progress of each transfer, so a slow transfer can be told from a
+ * hung one.
+ *
+ * @author schnatterer
+ *
+ */
+public class LoggingProgressListener implements ProgressListener {
+	private static Logger logger = Logger
+			.getLogger(LoggingProgressListener.class);
+
+	public void progress(TransferProgress progress) {
+		logger.info("Transfer of " + progress.getName() + ": " + progress);
+	}
+
+	public void stalled(TransferProgress progress) {
+		// Logged by the monitor
+	}
+
+	public void finished(TransferProgress progress) {
+		logger.debug("Transfer of " + progress.getName() + " ended: "
+				+ progress);
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.progress;
+
+/**
+ * Is informed about the progress of the transfers of a
+ * {@link ProgressMonitor}.
+ *
+ * @author schnatterer
+ *
+ */
+public interface ProgressListener {
+	/**
+	 * Called periodically while a transfer is running.
+	 */
+	void progress(TransferProgress progress);
+
+	/**
+	 * Called when a transfer is aborted because its throughput stayed below
+	 * the threshold of the {@link ProgressMonitor}. The transfer is then
+	 * resumed or fails.
+	 */
+	void stalled(TransferProgress progress);
+
+	/**
+	 * Called when a transfer has ended, successfully or not.
+	 */
+	void finished(TransferProgress progress);
+}
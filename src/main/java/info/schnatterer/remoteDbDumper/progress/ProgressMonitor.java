@@ -0,0 +1,385 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.progress;
+
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches the running transfers: Every second, the bytes received by each
+ * {@link Transfer} are sampled, to compute its throughput and the time
+ * remaining.
+ * <p>
+ * The {@link #addListener(ProgressListener) listeners} are informed every
+ * report interval. In addition, each transfer informs the listener of the
+ * thread that {@link #start(String, long, long, Runnable) started} it (see
+ * {@link #setThreadListener(ProgressListener)}) every second, so e.g. the
+ * metrics of a dump always know its progress.
+ * <p>
+ * A transfer that receives less than the stall rate over the stall timeout is
+ * considered hung and aborted, so it is resumed or fails (and can be retried)
+ * instead of occupying a worker for hours. Time spent waiting for the
+ * bandwidth limiter doesn't count, as the transfer is throttled on purpose.
+ *
+ * @author schnatterer
+ *
+ */
+public class ProgressMonitor {
+	/** The interval in which the transfers are sampled */
+	private static final long TICK_MILLIS = 1000;
+	/** The throughput is averaged over the last 10 seconds */
+	private static final long RATE_WINDOW_MILLIS = 10 * 1000;
+	private static final long NANOS_PER_MILLI = 1000L * 1000L;
+	/** Shorter waits for bandwidth don't count as throttled */
+	private static final long MIN_WAIT_NANOS = NANOS_PER_MILLI;
+
+	private static final ThreadLocal<ProgressListener> THREAD_LISTENER = new ThreadLocal<ProgressListener>();
+	private static Logger logger = Logger.getLogger(ProgressMonitor.class);
+
+	private final long reportIntervalMillis;
+	private final long stallBytesPerSecond;
+	private final long stallMillis;
+	private final List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+	private final List<Transfer> transfers = new LinkedList<Transfer>();
+	private final ScheduledExecutorService watchdog;
+
+	/**
+	 * @param reportIntervalMillis
+	 *            the interval in which the listeners are informed. 0 for
+	 *            never.
+	 * @param stallBytesPerSecond
+	 *            the throughput below which a transfer is considered stalled
+	 * @param stallMillis
+	 *            the time a transfer must stay below
+	 *            <code>stallBytesPerSecond</code> to be aborted. 0 to never
+	 *            abort transfers.
+	 */
+	public ProgressMonitor(long reportIntervalMillis, long stallBytesPerSecond,
+			long stallMillis) {
+		this.reportIntervalMillis = reportIntervalMillis;
+		this.stallBytesPerSecond = stallBytesPerSecond;
+		this.stallMillis = stallMillis;
+		watchdog = Executors
+				.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+						"progress-watchdog", true));
+		watchdog.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					// Don't let a listener stop the watchdog
+					logger.error("Unable to sample the transfers", e);
+				}
+			}
+		}, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the listener that is informed about the transfers started by the
+	 * current thread, in addition to the {@link #addListener(ProgressListener)
+	 * listeners} of the monitor. Must be {@link #clearThreadListener()
+	 * cleared} afterwards.
+	 */
+	public static void setThreadListener(ProgressListener listener) {
+		THREAD_LISTENER.set(listener);
+	}
+
+	/**
+	 * Removes the listener of the current thread.
+	 */
+	public static void clearThreadListener() {
+		THREAD_LISTENER.remove();
+	}
+
+	/**
+	 * Adds a listener that is informed about all transfers.
+	 */
+	public void addListener(ProgressListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Starts watching a transfer. It must be {@link Transfer#close() closed}
+	 * when it has ended.
+	 *
+	 * @param name
+	 *            what is transferred, e.g. the URL
+	 * @param offset
+	 *            the offset the transfer starts at
+	 * @param totalBytes
+	 *            the length of the dump or <code>-1</code> if unknown
+	 * @param abort
+	 *            aborts the connection(s) of the transfer, when it stalled.
+	 *            Called by the watchdog thread.
+	 */
+	public Transfer start(String name, long offset, long totalBytes,
+			Runnable abort) {
+		Transfer transfer = new Transfer(name, offset, totalBytes, abort,
+				THREAD_LISTENER.get());
+		synchronized (transfers) {
+			transfers.add(transfer);
+		}
+		return transfer;
+	}
+
+	/**
+	 * Stops the watchdog. Transfers are not watched anymore.
+	 */
+	public void close() {
+		watchdog.shutdownNow();
+	}
+
+	private void tick() {
+		List<Transfer> current;
+		synchronized (transfers) {
+			current = new LinkedList<Transfer>(transfers);
+		}
+		long now = System.nanoTime();
+		for (Transfer transfer : current) {
+			transfer.sample(now);
+		}
+	}
+
+	private void notifyProgress(Transfer transfer, TransferProgress progress,
+			boolean report) {
+		if (transfer.listener != null) {
+			transfer.listener.progress(progress);
+		}
+		if (report) {
+			for (ProgressListener listener : listeners) {
+				listener.progress(progress);
+			}
+		}
+	}
+
+	private static double toSeconds(long nanos) {
+		return nanos / (1000.0 * NANOS_PER_MILLI);
+	}
+
+	/**
+	 * A transfer watched by the monitor. May be passed the received bytes by
+	 * several threads, e.g. for segmented transfers.
+	 */
+	public class Transfer {
+		private final String name;
+		private final long totalBytes;
+		private final Runnable abort;
+		private final ProgressListener listener;
+		private final long startNanos = System.nanoTime();
+		private final AtomicLong bytes;
+		private final AtomicInteger waiting = new AtomicInteger();
+		private final AtomicBoolean waited = new AtomicBoolean();
+		private final AtomicBoolean stalled = new AtomicBoolean();
+		/** Samples of the watchdog, each <code>{nanoTime, bytes}</code> */
+		private final LinkedList<long[]> samples = new LinkedList<long[]>();
+		/** The sample the stall timeout is counted from, at the earliest */
+		private long[] stallStart;
+		private long lastReportNanos = startNanos;
+		private boolean closed = false;
+
+		private Transfer(String name, long offset, long totalBytes,
+				Runnable abort, ProgressListener listener) {
+			this.name = name;
+			this.totalBytes = totalBytes;
+			this.abort = abort;
+			this.listener = listener;
+			bytes = new AtomicLong(offset);
+			stallStart = new long[] { startNanos, offset };
+			samples.add(stallStart);
+		}
+
+		/**
+		 * Adds bytes received.
+		 */
+		public void add(long count) {
+			bytes.addAndGet(count);
+		}
+
+		/**
+		 * Marks the transfer as waiting for bandwidth until
+		 * {@link #endWait(long)}, so it isn't considered stalled.
+		 *
+		 * @return the start of the wait, to be passed to
+		 *         {@link #endWait(long)}
+		 */
+		public long beginWait() {
+			waiting.incrementAndGet();
+			return System.nanoTime();
+		}
+
+		/**
+		 * Ends {@link #beginWait()}. If it actually had to wait, the stall
+		 * timeout starts over.
+		 */
+		public void endWait(long start) {
+			if (System.nanoTime() - start >= MIN_WAIT_NANOS) {
+				waited.set(true);
+			}
+			waiting.decrementAndGet();
+		}
+
+		/**
+		 * Checks whether the transfer has been aborted because it stalled,
+		 * since the last call. Used to tell an abort by the watchdog from a
+		 * broken connection.
+		 */
+		public boolean checkStalled() {
+			return stalled.getAndSet(false);
+		}
+
+		/**
+		 * @return the description of a stalled transfer, for errors
+		 */
+		public String getStallMessage() {
+			return "Transfer of " + name + " stalled: Received less than "
+					+ TransferProgress.formatBytes(stallBytesPerSecond)
+					+ "/s for " + stallMillis / 1000 + " s";
+		}
+
+		/**
+		 * @return the current state of the transfer
+		 */
+		public synchronized TransferProgress getProgress() {
+			return getProgress(System.nanoTime());
+		}
+
+		/**
+		 * Stops watching the transfer.
+		 */
+		public void close() {
+			synchronized (transfers) {
+				transfers.remove(this);
+			}
+			TransferProgress progress;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				progress = getProgress(System.nanoTime());
+			}
+			if (listener != null) {
+				listener.finished(progress);
+			}
+			for (ProgressListener each : listeners) {
+				each.finished(progress);
+			}
+		}
+
+		private TransferProgress getProgress(long now) {
+			long received = bytes.get();
+			long rate = 0;
+			// The oldest sample within the rate window
+			for (long[] sample : samples) {
+				if (now - sample[0] <= RATE_WINDOW_MILLIS * NANOS_PER_MILLI) {
+					if (now > sample[0]) {
+						rate = (long) ((received - sample[1])
+								/ toSeconds(now - sample[0]));
+					}
+					break;
+				}
+			}
+			return new TransferProgress(name, received, totalBytes, rate,
+					(now - startNanos) / NANOS_PER_MILLI);
+		}
+
+		private void sample(long now) {
+			TransferProgress progress;
+			boolean report;
+			boolean stall;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				long received = bytes.get();
+				samples.add(new long[] { now, received });
+				long keepNanos = Math.max(RATE_WINDOW_MILLIS, stallMillis)
+						* NANOS_PER_MILLI;
+				// Keep the newest sample that is older than both windows
+				while (samples.size() > 2
+						&& now - samples.get(1)[0] >= keepNanos) {
+					samples.removeFirst();
+				}
+				progress = getProgress(now);
+				report = reportIntervalMillis > 0
+						&& now - lastReportNanos >= reportIntervalMillis
+								* NANOS_PER_MILLI;
+				if (report) {
+					lastReportNanos = now;
+				}
+				stall = isStalled(now, received);
+				if (stall) {
+					// Give the resumed transfer a full stall timeout
+					stallStart = new long[] { now, received };
+				}
+			}
+			notifyProgress(this, progress, report);
+			if (stall) {
+				logger.warn(getStallMessage() + ", aborting");
+				stalled.set(true);
+				if (listener != null) {
+					listener.stalled(progress);
+				}
+				for (ProgressListener each : listeners) {
+					each.stalled(progress);
+				}
+				abort.run();
+			}
+		}
+
+		/**
+		 * @return <code>true</code> if less than the stall rate has been
+		 *         received over the stall timeout
+		 */
+		private boolean isStalled(long now, long received) {
+			if (waiting.get() > 0 || waited.getAndSet(false)) {
+				// Throttled on purpose, start over
+				stallStart = new long[] { now, received };
+				return false;
+			}
+			long timeoutNanos = stallMillis * NANOS_PER_MILLI;
+			if (stallMillis <= 0 || now - stallStart[0] < timeoutNanos) {
+				return false;
+			}
+			// The newest sample that is at least one stall timeout old
+			long[] start = stallStart;
+			for (long[] sample : samples) {
+				if (now - sample[0] < timeoutNanos) {
+					break;
+				}
+				if (sample[0] > start[0]) {
+					start = sample;
+				}
+			}
+			return received - start[1] < stallBytesPerSecond
+					* toSeconds(now - start[0]);
+		}
+	}
+}
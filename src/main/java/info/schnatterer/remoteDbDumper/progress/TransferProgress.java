@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.schnatterer.remoteDbDumper.progress;
+
+import java.util.Locale;
+
+/**
+ * The state of a transfer at one point in time, as passed to
+ * {@link ProgressListener}s.
+ *
+ * @author schnatterer
+ *
+ */
+public class TransferProgress {
+	private static final String[] UNITS = { "B", "KiB", "MiB", "GiB", "TiB" };
+
+	private final String name;
+	private final long bytes;
+	private final long totalBytes;
+	private final long bytesPerSecond;
+	private final long elapsedMillis;
+
+	/**
+	 * @param name
+	 *            what is transferred, e.g. the URL
+	 * @param bytes
+	 *            the bytes of the dump received, including those before the
+	 *            offset the transfer started at
+	 * @param totalBytes
+	 *            the length of the dump or <code>-1</code> if unknown
+	 * @param bytesPerSecond
+	 *            the current throughput
+	 * @param elapsedMillis
+	 *            the time since the transfer started
+	 */
+	public TransferProgress(String name, long bytes, long totalBytes,
+			long bytesPerSecond, long elapsedMillis) {
+		this.name = name;
+		this.bytes = bytes;
+		this.totalBytes = totalBytes;
+		this.bytesPerSecond = bytesPerSecond;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/** @return what is transferred, e.g. the URL */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the bytes of the dump received, including those before the
+	 *         offset the transfer started at
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the length of the dump (<code>Content-Length</code>) or
+	 *         <code>-1</code> if unknown
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/** @return the throughput of the last few seconds */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/** @return the time since the transfer started */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @return the estimated time until the transfer is complete, based on the
+	 *         current throughput. <code>-1</code> if the length is unknown or
+	 *         nothing is received at the moment.
+	 */
+	public long getEtaSeconds() {
+		if (totalBytes < 0 || bytesPerSecond <= 0) {
+			return -1;
+		}
+		return Math.max(0, totalBytes - bytes) / bytesPerSecond;
+	}
+
+	/**
+	 * @return e.g. <code>512.0 MiB of 2.0 GiB (25%), 4.2 MiB/s, ETA 0:06:05</code>
+	 */
+	@Override
+	public String toString() {
+		StringBuilder string = new StringBuilder(formatBytes(bytes));
+		if (totalBytes >= 0) {
+			string.append(" of ").append(formatBytes(totalBytes)).append(" (")
+					.append(totalBytes == 0 ? 100 : bytes * 100 / totalBytes)
+					.append("%)");
+		}
+		string.append(", ").append(formatBytes(bytesPerSecond)).append("/s");
+		long eta = getEtaSeconds();
+		if (eta >= 0) {
+			string.append(", ETA ").append(
+					String.format(Locale.ENGLISH, "%d:%02d:%02d", eta / 3600,
+							eta / 60 % 60, eta % 60));
+		}
+		return string.toString();
+	}
+
+	/**
+	 * @return <code>bytes</code> in binary units, e.g. <code>4.2 MiB</code>
+	 */
+	public static String formatBytes(long bytes) {
+		if (bytes < 1024) {
+			return bytes + " " + UNITS[0];
+		}
+		double value = bytes;
+		int unit = 0;
+		while (value >= 1024 && unit < UNITS.length - 1) {
+			value /= 1024;
+			unit++;
+		}
+		return String.format(Locale.ENGLISH, "%.1f %s", value, UNITS[unit]);
+	}
+}
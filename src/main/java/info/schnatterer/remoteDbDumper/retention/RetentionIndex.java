@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retention;
+
+import info.schnatterer.remoteDbDumper.dump.download.FileMover;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The dumps stored in the output directory, by site, so retention never needs
+ * to list the directory. Kept in memory and persisted in an append-only file
+ * in the output directory, e.g.
+ *
+ * <pre>
+ * # remoteDbDumper retention 1
+ * +	1372381235460	http://example.com/admin/config/system/backup_migrate	example-2013-06-28.mysql
+ * +	1372384835460	http://example.com/admin/config/system/backup_migrate	example-2013-06-28-2.mysql.delta	&lt;	example-2013-06-28.mysql
+ * -	1372381235460	http://example.com/admin/config/system/backup_migrate
+ * </pre>
+ *
+ * Each <code>+</code> line adds a dump: its time, its site, its files and,
+ * after <code>&lt;</code>, the files it depends on (e.g. the baseline of a
+ * delta). Each <code>-</code> line removes the dump of the site with that
+ * time. The file is rewritten when most of its lines are obsolete, so reading
+ * it stays proportional to the number of dumps stored.
+ * <p>
+ * Only dumps added to the index are ever deleted by retention, so files that
+ * have been stored before retention was enabled or that have been put into
+ * the directory by other means are never touched.
+ *
+ * @author schnatterer
+ *
+ */
+public class RetentionIndex {
+	/** Name of the index file in the output directory */
+	public static final String FILE_NAME = "RemoteDbDumper-retention.txt";
+	/** Header of the index file */
+	public static final String HEADER = "# remoteDbDumper retention 1";
+
+	private static final String ADD = "+";
+	private static final String REMOVE = "-";
+	private static final String DEPENDENCIES = "<";
+	/** Don't rewrite small files, even if most of their lines are obsolete */
+	private static final int MIN_COMPACT_LINES = 1000;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static Logger logger = Logger.getLogger(RetentionIndex.class);
+
+	private final File file;
+	private final Map<String, List<StoredDump>> dumpsBySite = new LinkedHashMap<String, List<StoredDump>>();
+	/** Number of dumps referring to each file, as file or dependency */
+	private final Map<String, Integer> references = new HashMap<String, Integer>();
+	private int dumps = 0;
+	private int lines = 0;
+	private boolean partialLine = false;
+
+	/**
+	 * @param file
+	 *            the index file, see {@link #FILE_NAME}
+	 */
+	public RetentionIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads the index file, if it exists.
+	 */
+	public synchronized void load() throws IOException {
+		dumpsBySite.clear();
+		references.clear();
+		dumps = 0;
+		lines = 0;
+		partialLine = false;
+		if (!file.isFile() || file.length() == 0) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), CHARSET));
+		try {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException(file.getAbsolutePath()
+						+ " is not a retention index");
+			}
+			while ((line = reader.readLine()) != null) {
+				lines++;
+				readLine(line);
+			}
+		} finally {
+			reader.close();
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(raf.length() - 1);
+			partialLine = raf.read() != '\n';
+		} finally {
+			raf.close();
+		}
+		logger.debug("Read " + dumps + " dumps of " + dumpsBySite.size()
+				+ " sites from " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Adds a dump, which becomes the newest dump of its site.
+	 */
+	public synchronized void add(String site, StoredDump dump)
+			throws IOException {
+		append(appendLine(new StringBuilder(), site, dump).toString());
+		addDump(site, dump);
+	}
+
+	/**
+	 * @return the dumps of the site, oldest first
+	 */
+	public synchronized List<StoredDump> getDumps(String site) {
+		List<StoredDump> siteDumps = dumpsBySite.get(site);
+		if (siteDumps == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<StoredDump>(siteDumps);
+	}
+
+	/**
+	 * Removes dumps of a site, in a single write.
+	 */
+	public synchronized void remove(String site, List<StoredDump> removed)
+			throws IOException {
+		if (removed.isEmpty()) {
+			return;
+		}
+		StringBuilder lines = new StringBuilder();
+		for (StoredDump dump : removed) {
+			lines.append(REMOVE).append('\t').append(dump.getMillis())
+					.append('\t').append(site).append('\n');
+			removeDump(site, dump.getMillis());
+		}
+		append(lines.toString());
+		if (this.lines > MIN_COMPACT_LINES && this.lines > 2 * dumps) {
+			compact();
+		}
+	}
+
+	/**
+	 * @return the number of dumps in the index that refer to the file, as one
+	 *         of their files or dependencies
+	 */
+	public synchronized int getReferences(String name) {
+		Integer count = references.get(name);
+		return count == null ? 0 : count;
+	}
+
+	/** @return the number of dumps in the index */
+	public synchronized int size() {
+		return dumps;
+	}
+
+	private static StringBuilder appendLine(StringBuilder text, String site,
+			StoredDump dump) {
+		text.append(ADD).append('\t').append(dump.getMillis()).append('\t')
+				.append(site);
+		for (String name : dump.getFiles()) {
+			text.append('\t').append(name);
+		}
+		if (!dump.getDependencies().isEmpty()) {
+			text.append('\t').append(DEPENDENCIES);
+			for (String name : dump.getDependencies()) {
+				text.append('\t').append(name);
+			}
+		}
+		return text.append('\n');
+	}
+
+	private void readLine(String line) {
+		String[] fields = line.split("\t", -1);
+		if (fields.length < 3 || !fields[1].matches("\\d{1,18}")) {
+			// The partial last line of a crashed run
+			return;
+		}
+		long millis = Long.parseLong(fields[1]);
+		if (REMOVE.equals(fields[0])) {
+			removeDump(fields[2], millis);
+		} else if (ADD.equals(fields[0]) && fields.length > 3) {
+			List<String> names = Arrays.asList(fields).subList(3,
+					fields.length);
+			int dependencies = names.indexOf(DEPENDENCIES);
+			addDump(fields[2], dependencies < 0 ? new StoredDump(millis, names)
+					: new StoredDump(millis, names.subList(0, dependencies),
+							names.subList(dependencies + 1, names.size())));
+		}
+	}
+
+	private void addDump(String site, StoredDump dump) {
+		List<StoredDump> siteDumps = dumpsBySite.get(site);
+		if (siteDumps == null) {
+			siteDumps = new ArrayList<StoredDump>();
+			dumpsBySite.put(site, siteDumps);
+		}
+		siteDumps.add(dump);
+		dumps++;
+		for (String name : dump.getNames()) {
+			Integer count = references.get(name);
+			references.put(name, count == null ? 1 : count + 1);
+		}
+	}
+
+	private void removeDump(String site, long millis) {
+		List<StoredDump> siteDumps = dumpsBySite.get(site);
+		if (siteDumps == null) {
+			return;
+		}
+		for (int i = 0; i < siteDumps.size(); i++) {
+			StoredDump dump = siteDumps.get(i);
+			if (dump.getMillis() == millis) {
+				siteDumps.remove(i);
+				dumps--;
+				for (String name : dump.getNames()) {
+					int count = references.get(name);
+					if (count == 1) {
+						references.remove(name);
+					} else {
+						references.put(name, count - 1);
+					}
+				}
+				break;
+			}
+		}
+		if (siteDumps.isEmpty()) {
+			dumpsBySite.remove(site);
+		}
+	}
+
+	/**
+	 * Appends to the index file and waits until the text has been written to
+	 * disk.
+	 */
+	private void append(String text) throws IOException {
+		boolean exists = file.length() > 0;
+		if (partialLine) {
+			// Don't continue the partial line a crash has left
+			text = "\n" + text;
+			partialLine = false;
+		}
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(((exists ? "" : HEADER + "\n") + text).getBytes(CHARSET));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the index file with only the dumps it currently contains.
+	 */
+	private void compact() throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tempFile);
+		try {
+			StringBuilder text = new StringBuilder(HEADER).append('\n');
+			for (Map.Entry<String, List<StoredDump>> site : dumpsBySite
+					.entrySet()) {
+				for (StoredDump dump : site.getValue()) {
+					appendLine(text, site.getKey(), dump);
+				}
+			}
+			out.write(text.toString().getBytes(CHARSET));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		FileMover.move(tempFile, file);
+		logger.debug("Compacted " + file.getAbsolutePath() + " from " + lines
+				+ " to " + dumps + " lines");
+		lines = dumps;
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retention;
+
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Decides which dumps of a site are kept, grandfather-father-son style: The
+ * newest dump of each of the last {@link #getHourly()} hours, the newest dump
+ * of each of the last {@link #getDaily()} days and so on, where only hours,
+ * days, weeks and months that have a dump count. The newest dump is always
+ * kept.
+ * <p>
+ * Written like <code>24h,7d,4w,12m</code>, parts that are missing are 0.
+ * Weeks start on Monday (ISO 8601), all periods are in local time.
+ *
+ * @author schnatterer
+ *
+ */
+public class RetentionPolicy {
+	private final int hourly;
+	private final int daily;
+	private final int weekly;
+	private final int monthly;
+
+	/**
+	 * @param hourly
+	 *            the number of hours to keep the newest dump of
+	 * @param daily
+	 *            the number of days to keep the newest dump of
+	 * @param weekly
+	 *            the number of weeks to keep the newest dump of
+	 * @param monthly
+	 *            the number of months to keep the newest dump of
+	 */
+	public RetentionPolicy(int hourly, int daily, int weekly, int monthly) {
+		if (hourly < 0 || daily < 0 || weekly < 0 || monthly < 0) {
+			throw new IllegalArgumentException(
+					"Number of dumps to keep must not be negative");
+		}
+		this.hourly = hourly;
+		this.daily = daily;
+		this.weekly = weekly;
+		this.monthly = monthly;
+	}
+
+	/**
+	 * @param policy
+	 *            e.g. <code>24h,7d,4w,12m</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>policy</code> is malformed
+	 */
+	public static RetentionPolicy parse(String policy) {
+		int[] counts = new int[4];
+		String units = "hdwm";
+		for (String part : policy.split(",")) {
+			int unit = part.isEmpty() ? -1 : units.indexOf(part.charAt(part
+					.length() - 1));
+			if (unit < 0 || !part.substring(0, part.length() - 1).matches(
+					"\\d{1,9}")) {
+				throw new IllegalArgumentException("Invalid retention policy \""
+						+ policy + "\", expected e.g. 24h,7d,4w,12m");
+			}
+			counts[unit] = Integer.parseInt(part.substring(0,
+					part.length() - 1));
+		}
+		return new RetentionPolicy(counts[0], counts[1], counts[2], counts[3]);
+	}
+
+	/** @return the number of hours to keep the newest dump of */
+	public int getHourly() {
+		return hourly;
+	}
+
+	/** @return the number of days to keep the newest dump of */
+	public int getDaily() {
+		return daily;
+	}
+
+	/** @return the number of weeks to keep the newest dump of */
+	public int getWeekly() {
+		return weekly;
+	}
+
+	/** @return the number of months to keep the newest dump of */
+	public int getMonthly() {
+		return monthly;
+	}
+
+	/**
+	 * @return <code>true</code> if the policy keeps nothing but the newest
+	 *         dump, which means that no dumps are deleted
+	 */
+	public boolean isEmpty() {
+		return hourly == 0 && daily == 0 && weekly == 0 && monthly == 0;
+	}
+
+	/**
+	 * @param millis
+	 *            the times of the dumps, newest first
+	 * @return for each dump, <code>true</code> if it is to be kept
+	 */
+	public boolean[] select(List<Long> millis) {
+		boolean[] keep = new boolean[millis.size()];
+		int[] remaining = { hourly, daily, weekly, monthly };
+		long[] lastPeriod = { -1, -1, -1, -1 };
+		Calendar calendar = Calendar.getInstance();
+		calendar.setFirstDayOfWeek(Calendar.MONDAY);
+		calendar.setMinimalDaysInFirstWeek(4);
+		for (int i = 0; i < keep.length; i++) {
+			calendar.setTimeInMillis(millis.get(i));
+			keep[i] = i == 0;
+			for (int rule = 0; rule < remaining.length; rule++) {
+				long period = getPeriod(calendar, rule);
+				if (remaining[rule] > 0 && period != lastPeriod[rule]) {
+					keep[i] = true;
+					remaining[rule]--;
+					lastPeriod[rule] = period;
+				}
+			}
+		}
+		return keep;
+	}
+
+	/**
+	 * @return a number that identifies the hour, day, week or month of the
+	 *         calendar's time
+	 */
+	private static long getPeriod(Calendar calendar, int rule) {
+		long month = calendar.get(Calendar.YEAR) * 12L
+				+ calendar.get(Calendar.MONTH);
+		long day = month * 31 + calendar.get(Calendar.DAY_OF_MONTH);
+		switch (rule) {
+		case 0:
+			return day * 24 + calendar.get(Calendar.HOUR_OF_DAY);
+		case 1:
+			return day;
+		case 2:
+			return calendar.getWeekYear() * 53L
+					+ calendar.get(Calendar.WEEK_OF_YEAR);
+		default:
+			return month;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return hourly + "h," + daily + "d," + weekly + "w," + monthly + "m";
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retention;
+
+import info.schnatterer.remoteDbDumper.batch.DumpJob;
+import info.schnatterer.remoteDbDumper.batch.DumpPostProcessor;
+import info.schnatterer.remoteDbDumper.delta.DeltaDecoder;
+import info.schnatterer.remoteDbDumper.delta.DeltaPostProcessor;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityCheck;
+import info.schnatterer.remoteDbDumper.index.DumpIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Applies the {@link RetentionPolicy} of a site after each of its dumps: Adds
+ * the dump to the {@link RetentionIndex} and deletes the dumps of the site
+ * the policy doesn't keep, including their checksum and index files.
+ * <p>
+ * Only the dumps of the site in the index are looked at, so the cost doesn't
+ * grow with the number of files in the output directory. Dumps that a kept
+ * dump depends on (the baselines of deltas) are kept as well. A file is only
+ * deleted if no other dump in the index refers to it, e.g. because a site
+ * stores each dump under the same name.
+ * <p>
+ * Should be the last post processor, so it sees the files as they are
+ * stored.
+ *
+ * @author schnatterer
+ *
+ */
+public class RetentionPostProcessor implements DumpPostProcessor {
+	private static Logger logger = Logger
+			.getLogger(RetentionPostProcessor.class);
+
+	private final RetentionIndex index;
+	private final RetentionPolicy policy;
+
+	/**
+	 * @param index
+	 *            the dumps stored in the output directory, must have been
+	 *            {@link RetentionIndex#load() loaded}
+	 * @param policy
+	 *            the policy of the sites that don't have their own
+	 *            {@link DumpJob#getRetention() policy}
+	 */
+	public RetentionPostProcessor(RetentionIndex index, RetentionPolicy policy) {
+		this.index = index;
+		this.policy = policy;
+	}
+
+	public List<String> process(DumpJob job, List<String> files,
+			File directory) throws IOException {
+		RetentionPolicy sitePolicy = job.getRetention() == null ? policy
+				: job.getRetention();
+		if (sitePolicy.isEmpty() || files.isEmpty()) {
+			return files;
+		}
+		StoredDump dump = new StoredDump(System.currentTimeMillis(), files,
+				getDependencies(files, directory));
+		synchronized (index) {
+			index.add(job.getUrl(), dump);
+			prune(job.getUrl(), sitePolicy, directory);
+		}
+		return files;
+	}
+
+	/**
+	 * @return the baselines of the deltas among <code>files</code>
+	 */
+	private static List<String> getDependencies(List<String> files,
+			File directory) throws IOException {
+		List<String> dependencies = new LinkedList<String>();
+		for (String name : files) {
+			if (name.endsWith(DeltaPostProcessor.SUFFIX)) {
+				dependencies.add(DeltaDecoder.readBaseName(new File(directory,
+						name)));
+			}
+		}
+		return dependencies;
+	}
+
+	private void prune(String site, RetentionPolicy sitePolicy, File directory)
+			throws IOException {
+		List<StoredDump> dumps = index.getDumps(site);
+		List<Long> millis = new ArrayList<Long>(dumps.size());
+		for (int i = dumps.size() - 1; i >= 0; i--) {
+			millis.add(dumps.get(i).getMillis());
+		}
+		boolean[] keepNewestFirst = sitePolicy.select(millis);
+		boolean[] keep = new boolean[dumps.size()];
+		for (int i = 0; i < keep.length; i++) {
+			keep[i] = keepNewestFirst[keep.length - 1 - i];
+		}
+		keepDependencies(dumps, keep);
+
+		List<StoredDump> removed = new LinkedList<StoredDump>();
+		Map<String, Integer> removedReferences = new HashMap<String, Integer>();
+		for (int i = 0; i < keep.length; i++) {
+			if (!keep[i]) {
+				removed.add(dumps.get(i));
+				for (String name : dumps.get(i).getNames()) {
+					Integer count = removedReferences.get(name);
+					removedReferences.put(name, count == null ? 1 : count + 1);
+				}
+			}
+		}
+		if (removed.isEmpty()) {
+			return;
+		}
+
+		/*
+		 * Delete the files before removing the dumps from the index, so a
+		 * crash can't leave files that are not in the index anymore.
+		 */
+		int deleted = 0;
+		for (StoredDump dump : removed) {
+			for (String name : dump.getFiles()) {
+				if (isReferencedByOthers(name, removedReferences)) {
+					logger.debug("Not deleting " + name
+							+ ", which is referred to by other dumps");
+					continue;
+				}
+				if (delete(new File(directory, name))) {
+					deleted++;
+				}
+				String dumpName = getDumpName(name);
+				if (!isReferencedByOthers(dumpName, removedReferences)) {
+					delete(new File(directory, dumpName + "."
+							+ IntegrityCheck.SHA256));
+					delete(new File(directory, dumpName + "."
+							+ IntegrityCheck.XXH64));
+				}
+				delete(new File(directory, name + DumpIndex.SUFFIX));
+			}
+		}
+		index.remove(site, removed);
+		logger.info("Deleted " + removed.size() + " dump(s) (" + deleted
+				+ " file(s)) of " + site + ", keeping "
+				+ (dumps.size() - removed.size()) + " according to "
+				+ sitePolicy);
+	}
+
+	/**
+	 * Marks the dumps as kept whose files are needed by kept dumps.
+	 */
+	private static void keepDependencies(List<StoredDump> dumps, boolean[] keep) {
+		Set<String> needed = new HashSet<String>();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < keep.length; i++) {
+				if (keep[i]) {
+					needed.addAll(dumps.get(i).getDependencies());
+				}
+			}
+			for (int i = 0; i < keep.length; i++) {
+				if (!keep[i]) {
+					for (String name : dumps.get(i).getFiles()) {
+						if (needed.contains(name)) {
+							keep[i] = true;
+							changed = true;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if dumps that are not removed refer to the
+	 *         file
+	 */
+	private boolean isReferencedByOthers(String name,
+			Map<String, Integer> removedReferences) {
+		Integer removed = removedReferences.get(name);
+		return index.getReferences(name) > (removed == null ? 0 : removed);
+	}
+
+	/**
+	 * @return the name of the dump a stored file has been written for, which
+	 *         is also the name of its checksum file. Differs for deltas.
+	 */
+	private static String getDumpName(String name) {
+		if (name.endsWith(DeltaPostProcessor.SUFFIX)) {
+			return name.substring(0,
+					name.length() - DeltaPostProcessor.SUFFIX.length());
+		}
+		return name;
+	}
+
+	/**
+	 * @return <code>true</code> if the file has been deleted,
+	 *         <code>false</code> if it didn't exist (anymore)
+	 */
+	private static boolean delete(File file) {
+		if (file.delete()) {
+			return true;
+		}
+		if (file.exists()) {
+			logger.warn("Unable to delete " + file.getAbsolutePath());
+		}
+		return false;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retention;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A dump in the {@link RetentionIndex}: The files it has been stored as and
+ * the files it depends on, e.g. the baseline of a delta.
+ *
+ * @author schnatterer
+ *
+ */
+public class StoredDump {
+	private final long millis;
+	private final List<String> files;
+	private final List<String> dependencies;
+
+	public StoredDump(long millis, List<String> files) {
+		this(millis, files, Collections.<String> emptyList());
+	}
+
+	/**
+	 * @param millis
+	 *            the time the dump has been stored
+	 * @param files
+	 *            the names of the files of the dump, relative to the output
+	 *            directory
+	 * @param dependencies
+	 *            the names of files needed to restore the dump, which are not
+	 *            part of the dump
+	 */
+	public StoredDump(long millis, List<String> files,
+			List<String> dependencies) {
+		this.millis = millis;
+		this.files = new ArrayList<String>(files);
+		this.dependencies = new ArrayList<String>(dependencies);
+	}
+
+	/** @return the time the dump has been stored */
+	public long getMillis() {
+		return millis;
+	}
+
+	/** @return the names of the files of the dump */
+	public List<String> getFiles() {
+		return files;
+	}
+
+	/** @return the names of the files needed to restore the dump */
+	public List<String> getDependencies() {
+		return dependencies;
+	}
+
+	/** @return the files and the dependencies */
+	List<String> getNames() {
+		List<String> names = new ArrayList<String>(files);
+		names.addAll(dependencies);
+		return names;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stops dumping a host that fails repeatedly, so its dumps fail fast instead
+ * of occupying workers and retries:
+ * <ul>
+ * <li>Closed: Dumps run. After a number of consecutive transient failures the
+ * circuit opens.</li>
+ * <li>Open: Dumps fail fast, for a while.</li>
+ * <li>Half open: A single trial dump runs. If it succeeds, the circuit closes,
+ * otherwise it opens again.</li>
+ * </ul>
+ *
+ * @author schnatterer
+ *
+ */
+public class CircuitBreaker {
+	private enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static Logger logger = Logger.getLogger(CircuitBreaker.class);
+
+	private final String host;
+	private final int failureThreshold;
+	private final long openMillis;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openUntil = 0;
+
+	/**
+	 * @param host
+	 *            for logging
+	 * @param failureThreshold
+	 *            consecutive failures that open the circuit
+	 * @param openMillis
+	 *            how long the circuit stays open
+	 */
+	public CircuitBreaker(String host, int failureThreshold, long openMillis) {
+		this.host = host;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * Lets a dump through or fails it.
+	 *
+	 * @throws CircuitOpenException
+	 *             if the circuit is open or a trial dump is running
+	 */
+	public synchronized void acquire() throws CircuitOpenException {
+		long now = System.currentTimeMillis();
+		if (state == State.OPEN && now >= openUntil) {
+			logger.info("Trying a dump of host " + host + " again");
+			state = State.HALF_OPEN;
+			// Others wait for the trial at most this long
+			openUntil = now + openMillis;
+			return;
+		}
+		if (state != State.CLOSED) {
+			throw new CircuitOpenException(host, Math.max(openUntil - now,
+					0));
+		}
+	}
+
+	/**
+	 * Records a dump that succeeded or failed for reasons that are not the
+	 * host's fault, i.e. the host responded.
+	 */
+	public synchronized void onSuccess() {
+		if (state != State.CLOSED) {
+			logger.info("Host " + host + " recovered");
+		}
+		state = State.CLOSED;
+		failures = 0;
+	}
+
+	/**
+	 * Records a dump that failed transiently, e.g. timeout or 503.
+	 */
+	public synchronized void onFailure() {
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold) {
+			if (state != State.OPEN) {
+				logger.warn("Host " + host + " failed " + failures
+						+ " time(s) in a row, not dumping it for "
+						+ openMillis / 1000 + " s");
+			}
+			state = State.OPEN;
+			openUntil = System.currentTimeMillis() + openMillis;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retry;
+
+import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+
+/**
+ * Thrown instead of dumping a site whose host failed repeatedly, see
+ * {@link CircuitBreaker}.
+ *
+ * @author schnatterer
+ *
+ */
+public class CircuitOpenException extends DbDumpException {
+	private static final long serialVersionUID = 1L;
+	private final long remainingMillis;
+
+	public CircuitOpenException(String host, long remainingMillis) {
+		super("Not dumping, host " + host
+				+ " failed repeatedly. Next trial in " + remainingMillis
+				/ 1000 + " s");
+		this.remainingMillis = remainingMillis;
+	}
+
+	/** @return the time until the next trial dump of the host */
+	public long getRemainingMillis() {
+		return remainingMillis;
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retry;
+
+import info.schnatterer.remoteDbDumper.batch.DumpJob;
+import info.schnatterer.remoteDbDumper.batch.DumpResult;
+import info.schnatterer.remoteDbDumper.dump.DbDumpException;
+import info.schnatterer.remoteDbDumper.metrics.DumpPhase;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+
+/**
+ * Decides whether and when a failed dump is retried, according to a
+ * {@link RetryPolicy}:
+ * <ul>
+ * <li>Only transient failures are retried: I/O errors, timeouts and the
+ * status codes that indicate an overloaded or unavailable server. Wrong
+ * credentials or missing forms are not going to go away by retrying.</li>
+ * <li>The delay doubles with each retry and is randomized, so retries of
+ * many sites don't hit the servers at the same time.</li>
+ * <li>A {@link RetryBudget} limits the share of retries among all dumps.</li>
+ * <li>If a dump timed out while the server was generating the backup, the
+ * backup may still be running. So the retry waits for it to finish instead
+ * of starting another one.</li>
+ * <li>A {@link CircuitBreaker} per host makes dumps of a failing host fail
+ * fast.</li>
+ * </ul>
+ *
+ * @author schnatterer
+ *
+ */
+public class Retrier {
+	/** Status codes of transient failures */
+	private static final List<Integer> TRANSIENT_STATUS_CODES = Arrays.asList(
+			408, 425, 429, 500, 502, 503, 504, 520, 521, 522, 523, 524);
+	/** Status codes of gateways that gave up waiting for the server */
+	private static final List<Integer> TIMEOUT_STATUS_CODES = Arrays.asList(
+			408, 504, 524);
+
+	private static Logger logger = Logger.getLogger(Retrier.class);
+
+	private final RetryPolicy policy;
+	private final RetryBudget budget;
+	private final Map<String, CircuitBreaker> circuitBreakers = new HashMap<String, CircuitBreaker>();
+	private final Random random = new Random();
+
+	public Retrier(RetryPolicy policy) {
+		this.policy = policy;
+		budget = new RetryBudget(policy.getBudgetRatio(),
+				policy.getBudgetBurst());
+	}
+
+	/**
+	 * Call before each attempt to dump a job.
+	 *
+	 * @param attempt
+	 *            0 for the first attempt, 1 for the first retry, etc.
+	 * @throws CircuitOpenException
+	 *             if the host of the job is not to be dumped now
+	 */
+	public void beforeAttempt(DumpJob job, int attempt)
+			throws CircuitOpenException {
+		if (attempt == 0) {
+			budget.deposit();
+		}
+		getCircuitBreaker(job.getHost()).acquire();
+	}
+
+	/**
+	 * Call after each attempt that has not been prevented by
+	 * {@link #beforeAttempt(DumpJob, int)}.
+	 *
+	 * @param error
+	 *            the reason the attempt failed or <code>null</code> if it
+	 *            succeeded
+	 */
+	public void afterAttempt(DumpJob job, Throwable error) {
+		CircuitBreaker circuitBreaker = getCircuitBreaker(job.getHost());
+		if (error != null && isTransient(error)) {
+			circuitBreaker.onFailure();
+		} else {
+			circuitBreaker.onSuccess();
+		}
+	}
+
+	/**
+	 * @param attempt
+	 *            the attempt that produced the result, 0 for the first
+	 * @return the time to wait before the next attempt or a negative value if
+	 *         the job is not to be retried
+	 */
+	public long getRetryDelay(DumpResult result, int attempt) {
+		if (result.isSuccess() || attempt >= policy.getMaxRetries()) {
+			return -1;
+		}
+		Throwable error = result.getError();
+		if (error instanceof CircuitOpenException) {
+			// Doesn't load the host, so doesn't count against the budget
+			return ((CircuitOpenException) error).getRemainingMillis()
+					+ jitter(policy.getInitialDelayMillis());
+		}
+		if (!isTransient(error)) {
+			return -1;
+		}
+		if (!budget.withdraw()) {
+			logger.warn("Too many retries recently, not retrying "
+					+ result.getJob());
+			return -1;
+		}
+		long delay = jitter(Math.min(policy.getMaxDelayMillis(),
+				policy.getInitialDelayMillis() << Math.min(attempt, 30)));
+		if (result.getMetrics().getLastPhase() == DumpPhase.BACKUP
+				&& isTimeout(error)) {
+			logger.info("The server might still be generating the backup of "
+					+ result.getJob() + ", waiting for it to finish");
+			delay = Math.max(delay, policy.getBackupCooldownMillis());
+		}
+		return delay;
+	}
+
+	/** @return the settings */
+	public RetryPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return a random value between half of <code>delay</code> and
+	 *         <code>delay</code>
+	 */
+	private long jitter(long delay) {
+		return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+	}
+
+	private synchronized CircuitBreaker getCircuitBreaker(String host) {
+		CircuitBreaker circuitBreaker = circuitBreakers.get(host);
+		if (circuitBreaker == null) {
+			circuitBreaker = new CircuitBreaker(host,
+					policy.getFailureThreshold(), policy.getOpenMillis());
+			circuitBreakers.put(host, circuitBreaker);
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return <code>true</code> if retrying might help
+	 */
+	static boolean isTransient(Throwable error) {
+		int statusCode = getStatusCode(error);
+		if (statusCode != 0) {
+			return TRANSIENT_STATUS_CODES.contains(statusCode);
+		}
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof MalformedURLException) {
+				return false;
+			}
+			if (cause instanceof IOException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if the client or a gateway gave up waiting
+	 *         for the server
+	 */
+	static boolean isTimeout(Throwable error) {
+		if (TIMEOUT_STATUS_CODES.contains(getStatusCode(error))) {
+			return true;
+		}
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SocketTimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the HTTP status code that caused the error or 0 if unknown
+	 */
+	static int getStatusCode(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof DbDumpException
+					&& ((DbDumpException) cause).getStatusCode() != 0) {
+				return ((DbDumpException) cause).getStatusCode();
+			}
+			if (cause instanceof FailingHttpStatusCodeException) {
+				return ((FailingHttpStatusCodeException) cause)
+						.getStatusCode();
+			}
+		}
+		return 0;
+	}
+}
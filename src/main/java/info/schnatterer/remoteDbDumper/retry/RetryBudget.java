@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retry;
+
+/**
+ * Limits the share of retries among all dumps, so a wave of failures does
+ * not multiply the load on the servers: Each first attempt earns a fraction
+ * of a retry, each retry spends one. At most <code>burst</code> retries can
+ * be saved up.
+ *
+ * @author schnatterer
+ *
+ */
+public class RetryBudget {
+	private final double ratio;
+	private final int burst;
+	private double balance;
+
+	/**
+	 * @param ratio
+	 *            the retries earned per first attempt
+	 * @param burst
+	 *            the maximum (and initial) number of retries saved up
+	 */
+	public RetryBudget(double ratio, int burst) {
+		this.ratio = ratio;
+		this.burst = burst;
+		balance = burst;
+	}
+
+	/**
+	 * Records a first attempt.
+	 */
+	public synchronized void deposit() {
+		balance = Math.min(burst, balance + ratio);
+	}
+
+	/**
+	 * @return <code>true</code> if a retry is allowed, which is then spent
+	 */
+	public synchronized boolean withdraw() {
+		if (balance < 1) {
+			return false;
+		}
+		balance--;
+		return true;
+	}
+}
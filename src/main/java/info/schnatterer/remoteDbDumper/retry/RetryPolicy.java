@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.retry;
+
+/**
+ * Settings of the {@link Retrier}. The defaults suit a fleet of shared
+ * hosting sites, where failures are mostly transient and backups may take
+ * minutes.
+ *
+ * @author schnatterer
+ *
+ */
+public class RetryPolicy {
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 30 * 1000;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 10 * 60 * 1000;
+	public static final long DEFAULT_BACKUP_COOLDOWN_MILLIS = 15 * 60 * 1000;
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_MILLIS = 5 * 60 * 1000;
+	public static final double DEFAULT_BUDGET_RATIO = 0.2;
+	public static final int DEFAULT_BUDGET_BURST = 10;
+
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+	private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+	private long backupCooldownMillis = DEFAULT_BACKUP_COOLDOWN_MILLIS;
+	private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private long openMillis = DEFAULT_OPEN_MILLIS;
+	private double budgetRatio = DEFAULT_BUDGET_RATIO;
+	private int budgetBurst = DEFAULT_BUDGET_BURST;
+
+	/** @return how often a failed dump is retried at most */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * @return the delay before the first retry. Doubles with each retry, the
+	 *         actual delay is a random value up to this.
+	 */
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+
+	public void setInitialDelayMillis(long initialDelayMillis) {
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	/** @return the upper bound of the doubled delay */
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	public void setMaxDelayMillis(long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @return the minimum delay after a dump timed out while the server was
+	 *         generating the backup. The server may still be busy with it,
+	 *         triggering another one right away would only add load.
+	 */
+	public long getBackupCooldownMillis() {
+		return backupCooldownMillis;
+	}
+
+	public void setBackupCooldownMillis(long backupCooldownMillis) {
+		this.backupCooldownMillis = backupCooldownMillis;
+	}
+
+	/**
+	 * @return the number of consecutive transient failures on a host that
+	 *         open its circuit
+	 */
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * @return how long dumps of a host fail fast once its circuit is open,
+	 *         before a single trial dump is let through
+	 */
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * @return the share of dumps that may be retried in the long run, e.g.
+	 *         0.2 for one retry per five dumps
+	 */
+	public double getBudgetRatio() {
+		return budgetRatio;
+	}
+
+	public void setBudgetRatio(double budgetRatio) {
+		this.budgetRatio = budgetRatio;
+	}
+
+	/** @return the number of retries that may happen in a row */
+	public int getBudgetBurst() {
+		return budgetBurst;
+	}
+
+	public void setBudgetBurst(int budgetBurst) {
+		this.budgetBurst = budgetBurst;
+	}
+}
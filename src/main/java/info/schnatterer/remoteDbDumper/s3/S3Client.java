@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.s3;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * The few operations of the S3 REST API needed to upload objects, signed using
+ * {@link S3Signer}. Works with Amazon S3 and compatible stores (MinIO, Ceph,
+ * ...).
+ * <p>
+ * Thread-safe, the connections are pooled, so several parts can be uploaded
+ * at the same time.
+ *
+ * @author schnatterer
+ *
+ */
+public class S3Client {
+	/** Default region, also used by most S3 compatible stores */
+	public static final String DEFAULT_REGION = "us-east-1";
+	/** Environment variable containing the access key ID */
+	public static final String ENV_ACCESS_KEY = "AWS_ACCESS_KEY_ID";
+	/** Environment variable containing the secret access key */
+	public static final String ENV_SECRET_KEY = "AWS_SECRET_ACCESS_KEY";
+	/** Environment variable containing the token of temporary credentials */
+	public static final String ENV_SESSION_TOKEN = "AWS_SESSION_TOKEN";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String CONTENT_TYPE = "Content-Type";
+	private static final String HEADER_CONTENT_SHA256 = "x-amz-content-sha256";
+	private static final String HEADER_DATE = "x-amz-date";
+	private static final String HEADER_SECURITY_TOKEN = "x-amz-security-token";
+	private static final int CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+	private static final int SOCKET_TIMEOUT_MILLIS = 5 * 60 * 1000;
+	private static final Pattern PATTERN_UPLOAD_ID = Pattern
+			.compile("<UploadId>([^<]+)</UploadId>");
+	private static final Pattern PATTERN_ERROR_CODE = Pattern
+			.compile("<Code>([^<]+)</Code>");
+	private static final Pattern PATTERN_ERROR_MESSAGE = Pattern
+			.compile("<Message>([^<]*)</Message>");
+
+	private final URI endpoint;
+	private final String bucket;
+	private final boolean virtualHosted;
+	private final String sessionToken;
+	private final S3Signer signer;
+	private final DefaultHttpClient httpClient;
+
+	/**
+	 * @param endpoint
+	 *            e.g. <code>https://s3.eu-central-1.amazonaws.com</code> or
+	 *            <code>http://localhost:9000</code>
+	 * @param region
+	 *            the region the bucket is in, part of the signature
+	 * @param bucket
+	 *            the bucket all objects are written to
+	 * @param accessKey
+	 *            the access key ID
+	 * @param secretKey
+	 *            the secret access key
+	 * @param sessionToken
+	 *            the token of temporary credentials. <code>null</code> for
+	 *            none.
+	 * @param maxConnections
+	 *            the maximum number of requests running at the same time
+	 */
+	public S3Client(URI endpoint, String region, String bucket,
+			String accessKey, String secretKey, String sessionToken,
+			int maxConnections) {
+		this.endpoint = endpoint;
+		this.bucket = bucket;
+		this.sessionToken = sessionToken;
+		/*
+		 * Amazon prefers bucket.s3.amazonaws.com, other stores usually only
+		 * support paths
+		 */
+		virtualHosted = endpoint.getHost().endsWith(".amazonaws.com")
+				&& bucket.matches("[a-z0-9][a-z0-9-]*");
+		signer = new S3Signer(region, accessKey, secretKey);
+
+		PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		httpClient = new DefaultHttpClient(connectionManager);
+		HttpConnectionParams.setConnectionTimeout(httpClient.getParams(),
+				CONNECT_TIMEOUT_MILLIS);
+		HttpConnectionParams.setSoTimeout(httpClient.getParams(),
+				SOCKET_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @return the endpoint of Amazon S3 in <code>region</code>
+	 */
+	public static URI getAwsEndpoint(String region) {
+		return URI.create("https://s3." + region + ".amazonaws.com");
+	}
+
+	/**
+	 * Uploads an object in a single request.
+	 */
+	public void putObject(String key, byte[] data, int length,
+			String contentType) throws IOException {
+		HttpPut request = new HttpPut();
+		request.setHeader(CONTENT_TYPE, contentType);
+		execute(request, key, null, data, length, "Uploading " + key);
+	}
+
+	/**
+	 * Starts a multipart upload.
+	 *
+	 * @return the ID of the upload
+	 */
+	public String initiateMultipartUpload(String key, String contentType)
+			throws IOException {
+		HttpPost request = new HttpPost();
+		request.setHeader(CONTENT_TYPE, contentType);
+		String response = execute(request, key, "uploads=", new byte[0], 0,
+				"Starting upload of " + key).body;
+		Matcher matcher = PATTERN_UPLOAD_ID.matcher(response);
+		if (!matcher.find()) {
+			throw new IOException("Starting upload of " + key
+					+ " returned no upload ID: " + response);
+		}
+		return matcher.group(1);
+	}
+
+	/**
+	 * Uploads one part of a multipart upload. All parts but the last must be
+	 * at least 5 MiB.
+	 *
+	 * @param partNumber
+	 *            the number of the part, starting at 1
+	 * @return the ETag of the part, needed for completing the upload
+	 */
+	public String uploadPart(String key, String uploadId, int partNumber,
+			byte[] data, int length) throws IOException {
+		HttpPut request = new HttpPut();
+		String description = "Uploading part " + partNumber + " of " + key;
+		Header etag = execute(request, key, "partNumber=" + partNumber
+				+ "&uploadId=" + S3Signer.encode(uploadId, false), data,
+				length, description).etag;
+		if (etag == null) {
+			throw new IOException(description + " returned no ETag");
+		}
+		return etag.getValue();
+	}
+
+	/**
+	 * Assembles the uploaded parts to the object.
+	 *
+	 * @param etags
+	 *            the ETags of the parts, in the order of their numbers
+	 */
+	public void completeMultipartUpload(String key, String uploadId,
+			List<String> etags) throws IOException {
+		StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+		for (int i = 0; i < etags.size(); i++) {
+			body.append("<Part><PartNumber>").append(i + 1)
+					.append("</PartNumber><ETag>")
+					.append(etags.get(i).replace("&", "&amp;"))
+					.append("</ETag></Part>");
+		}
+		byte[] data = body.append("</CompleteMultipartUpload>").toString()
+				.getBytes(UTF8);
+		HttpPost request = new HttpPost();
+		request.setHeader(CONTENT_TYPE, "application/xml");
+		String description = "Completing upload of " + key;
+		String response = execute(request, key,
+				"uploadId=" + S3Signer.encode(uploadId, false), data,
+				data.length, description).body;
+		// Errors after a while are reported with status 200
+		if (response.contains("<Error>")) {
+			throw createException(description, 200, response);
+		}
+	}
+
+	/**
+	 * Discards the parts of an upload that is not to be completed.
+	 */
+	public void abortMultipartUpload(String key, String uploadId)
+			throws IOException {
+		execute(new HttpDelete(), key,
+				"uploadId=" + S3Signer.encode(uploadId, false), null, 0,
+				"Aborting upload of " + key);
+	}
+
+	/**
+	 * Releases the connections.
+	 */
+	public void close() {
+		httpClient.getConnectionManager().shutdown();
+	}
+
+	/**
+	 * Signs and sends a request.
+	 *
+	 * @param request
+	 *            the request without URI
+	 * @param canonicalQuery
+	 *            the encoded query parameters, sorted by name.
+	 *            <code>null</code> for none.
+	 * @param data
+	 *            the body. <code>null</code> for none.
+	 * @return the successful response
+	 * @throws S3Exception
+	 *             if the response is not successful
+	 */
+	private Response execute(HttpRequestBase request, String key,
+			String canonicalQuery, byte[] data, int length, String description)
+			throws IOException {
+		String path = "/" + S3Signer.encode(key, true);
+		String host = endpoint.getHost();
+		if (virtualHosted) {
+			host = bucket + "." + host;
+		} else {
+			path = "/" + S3Signer.encode(bucket, false) + path;
+		}
+		if (endpoint.getPort() != -1) {
+			host += ":" + endpoint.getPort();
+		}
+		String query = canonicalQuery == null ? "" : canonicalQuery;
+		request.setURI(URI.create(endpoint.getScheme() + "://" + host + path
+				+ (query.isEmpty() ? "" : "?" + query)));
+
+		Date time = new Date();
+		SortedMap<String, String> headers = new TreeMap<String, String>();
+		headers.put("host", host);
+		headers.put(HEADER_CONTENT_SHA256,
+				S3Signer.sha256Hex(data == null ? new byte[0] : data, 0, length));
+		headers.put(HEADER_DATE, S3Signer.formatTime(time));
+		if (sessionToken != null) {
+			headers.put(HEADER_SECURITY_TOKEN, sessionToken);
+		}
+		String authorization = signer.sign(request.getMethod(), path, query,
+				headers, time);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.setHeader(header.getKey(), header.getValue());
+		}
+		request.setHeader("Authorization", authorization);
+		if (data != null) {
+			((HttpEntityEnclosingRequestBase) request)
+					.setEntity(new ByteArrayEntity(data, 0, length));
+		}
+
+		HttpResponse response;
+		try {
+			response = httpClient.execute(request);
+		} catch (IOException e) {
+			request.abort();
+			throw e;
+		}
+		String body = response.getEntity() == null ? "" : EntityUtils
+				.toString(response.getEntity(), "UTF-8");
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode < 200 || statusCode > 299) {
+			throw createException(description, statusCode, body);
+		}
+		return new Response(body, response.getFirstHeader("ETag"));
+	}
+
+	private static S3Exception createException(String description,
+			int statusCode, String body) {
+		Matcher code = PATTERN_ERROR_CODE.matcher(body);
+		Matcher message = PATTERN_ERROR_MESSAGE.matcher(body);
+		String errorCode = code.find() ? code.group(1) : null;
+		return new S3Exception(description + " failed with status "
+				+ statusCode + (errorCode == null ? "" : " " + errorCode)
+				+ (message.find() ? ": " + message.group(1) : ""),
+				statusCode, errorCode);
+	}
+
+	private static class Response {
+		private final String body;
+		private final Header etag;
+
+		Response(String body, Header etag) {
+			this.body = body;
+			this.etag = etag;
+		}
+	}
+}
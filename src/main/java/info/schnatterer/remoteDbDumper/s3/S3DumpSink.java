@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.s3;
+
+import info.schnatterer.remoteDbDumper.dump.download.ChannelDumpOutput;
+import info.schnatterer.remoteDbDumper.dump.download.DownloadOptions;
+import info.schnatterer.remoteDbDumper.dump.download.DumpOutput;
+import info.schnatterer.remoteDbDumper.dump.download.DumpSink;
+import info.schnatterer.remoteDbDumper.dump.download.DumpSource;
+import info.schnatterer.remoteDbDumper.dump.download.DumpTransfer;
+import info.schnatterer.remoteDbDumper.dump.download.DumpTransform;
+import info.schnatterer.remoteDbDumper.dump.download.TransferStats;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityCheck;
+import info.schnatterer.remoteDbDumper.dump.integrity.IntegrityException;
+import info.schnatterer.remoteDbDumper.dump.util.NamedThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Streams the dumps into an S3 compatible object storage, without storing
+ * them locally.
+ * <p>
+ * Each dump is uploaded as multipart upload by a {@link S3UploadChannel},
+ * while it is still being downloaded. The parts are uploaded by a pool of
+ * threads shared by all dumps. A {@link DownloadOptions#getTransform()
+ * transform} (e.g. compression) is applied before uploading.
+ * <p>
+ * The object is only created once the dump is complete and has passed the
+ * {@link IntegrityCheck}, so there are never partial dumps in the bucket. The
+ * results of the check are uploaded as a separate object next to the dump
+ * (e.g. <code>site.mysql.sha256</code>). Interrupted transfers are resumed
+ * within the same run, but can't be continued by a later run.
+ *
+ * @author schnatterer
+ *
+ */
+public class S3DumpSink implements DumpSink {
+	/** Default size of the parts of an upload */
+	public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+	/** The minimum size of a part accepted by S3 */
+	public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+	private static final String CONTENT_TYPE = "application/octet-stream";
+	private static final String CONTENT_TYPE_SIDECAR = "text/plain; charset=utf-8";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static Logger logger = Logger.getLogger(S3DumpSink.class);
+
+	private final S3Client client;
+	private final S3Location location;
+	private final DownloadOptions options;
+	private final int partSize;
+	private final int uploadThreads;
+	private final ExecutorService executor;
+
+	/**
+	 * @param client
+	 *            talks to the bucket of <code>location</code>, allowing at
+	 *            least <code>uploadThreads</code> connections
+	 * @param location
+	 *            where to put the dumps
+	 * @param options
+	 *            the options of the transfers
+	 * @param partSize
+	 *            the size of the parts, at least {@link #MIN_PART_SIZE}. Each
+	 *            dump needs up to <code>uploadThreads + 1</code> parts of
+	 *            memory.
+	 * @param uploadThreads
+	 *            the number of threads uploading parts, shared by all dumps
+	 */
+	public S3DumpSink(S3Client client, S3Location location,
+			DownloadOptions options, int partSize, int uploadThreads) {
+		if (partSize < MIN_PART_SIZE) {
+			throw new IllegalArgumentException("Part size must be at least "
+					+ MIN_PART_SIZE + " bytes");
+		}
+		this.client = client;
+		this.location = location;
+		this.options = options;
+		this.partSize = partSize;
+		this.uploadThreads = uploadThreads;
+		// Daemon threads, so a pending upload doesn't keep the JVM alive
+		executor = Executors.newFixedThreadPool(uploadThreads,
+				new NamedThreadFactory("s3-upload", true));
+	}
+
+	public String getStoredName(File targetFile) {
+		return location.getUri(getKey(targetFile));
+	}
+
+	public String getLocation(File targetFile) {
+		return getStoredName(targetFile);
+	}
+
+	public TransferStats write(DumpSource source, File targetFile)
+			throws IOException {
+		long start = System.nanoTime();
+		String fileName = targetFile.getName();
+		String key = getKey(targetFile);
+		DumpTransform transform = options.getTransform(fileName);
+		IntegrityCheck check = options.createIntegrityCheck(fileName);
+		InputStream in = source.getInputStream();
+
+		S3UploadChannel upload = new S3UploadChannel(client, key,
+				CONTENT_TYPE, partSize, uploadThreads, executor);
+		DumpOutput output = null;
+		boolean complete = false;
+		long position;
+		try {
+			if (transform == null) {
+				output = new ChannelDumpOutput(upload);
+			} else {
+				logger.debug("Transforming " + source + " using "
+						+ transform.getName());
+				output = transform.open(upload);
+			}
+			position = new DumpTransfer(options).copy(source, in, 0, output,
+					check);
+			output.sync();
+			if (check != null) {
+				String problem = check.finish();
+				if (problem != null) {
+					throw new IntegrityException("Dump " + fileName
+							+ " is invalid (" + problem + "), not uploaded");
+				}
+			}
+			upload.complete();
+			complete = true;
+		} finally {
+			if (!complete) {
+				source.abort();
+				if (check != null) {
+					check.close();
+				}
+				upload.abort();
+			}
+			if (output != null) {
+				output.close();
+			}
+		}
+		if (check != null && check.getSidecarContent() != null) {
+			byte[] sidecar = check.getSidecarContent().getBytes(UTF8);
+			client.putObject(key + "." + check.getAlgorithm(), sidecar,
+					sidecar.length, CONTENT_TYPE_SIDECAR);
+		}
+		return new TransferStats(position, output.getStoredBytes(),
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Stops the upload threads and releases the connections.
+	 */
+	public void close() {
+		executor.shutdownNow();
+		client.close();
+	}
+
+	private String getKey(File targetFile) {
+		return location.getKey(options.getStoredName(targetFile.getName()));
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.s3;
+
+import java.io.IOException;
+
+/**
+ * A request to the object storage has been answered with an error.
+ *
+ * @author schnatterer
+ *
+ */
+public class S3Exception extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+	private final String errorCode;
+
+	public S3Exception(String message, int statusCode, String errorCode) {
+		super(message);
+		this.statusCode = statusCode;
+		this.errorCode = errorCode;
+	}
+
+	/** @return the HTTP status code of the response */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return the error code of the store, e.g. <code>AccessDenied</code> or
+	 *         <code>null</code> if there was none
+	 */
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * @return <code>true</code> if the request might succeed when repeated
+	 *         (timeouts, throttling, server errors)
+	 */
+	public boolean isTransient() {
+		return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.s3;
+
+/**
+ * A bucket and a key prefix in an S3 compatible object storage, written as
+ * <code>s3://bucket/prefix/</code>.
+ *
+ * @author schnatterer
+ *
+ */
+public class S3Location {
+	/** Scheme of the URI of a location */
+	public static final String SCHEME = "s3://";
+
+	private final String bucket;
+	private final String prefix;
+
+	/**
+	 * @param uri
+	 *            e.g. <code>s3://backups/drupal/</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>uri</code> is no valid location
+	 */
+	public S3Location(String uri) {
+		if (!uri.startsWith(SCHEME) || uri.length() == SCHEME.length()) {
+			throw new IllegalArgumentException("Not an S3 location: " + uri
+					+ ". Expected " + SCHEME + "<bucket>[/<prefix>]");
+		}
+		String path = uri.substring(SCHEME.length());
+		int slash = path.indexOf('/');
+		if (slash < 0) {
+			bucket = path;
+			prefix = "";
+		} else {
+			bucket = path.substring(0, slash);
+			String rest = path.substring(slash + 1);
+			prefix = rest.isEmpty() || rest.endsWith("/") ? rest : rest + "/";
+		}
+		if (bucket.isEmpty()) {
+			throw new IllegalArgumentException("Missing bucket in " + uri);
+		}
+	}
+
+	public String getBucket() {
+		return bucket;
+	}
+
+	/**
+	 * @return the prefix of all keys, empty or ending with <code>/</code>
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return the key of the object <code>name</code> in this location
+	 */
+	public String getKey(String name) {
+		return prefix + name;
+	}
+
+	/**
+	 * @return the URI of the object with <code>key</code>
+	 */
+	public String getUri(String key) {
+		return SCHEME + bucket + "/" + key;
+	}
+
+	@Override
+	public String toString() {
+		return getUri(prefix);
+	}
+}
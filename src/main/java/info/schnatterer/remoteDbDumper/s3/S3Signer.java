@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.s3;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs requests to S3 using AWS Signature Version 4, see
+ * http://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html
+ * <p>
+ * The payload is signed with its SHA-256, so the store rejects data that has
+ * been corrupted on the way.
+ *
+ * @author schnatterer
+ *
+ */
+class S3Signer {
+	static final String ALGORITHM = "AWS4-HMAC-SHA256";
+	private static final String SERVICE = "s3";
+	private static final String TERMINATOR = "aws4_request";
+	private static final String HMAC = "HmacSHA256";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String region;
+	private final String accessKey;
+	private final String secretKey;
+
+	S3Signer(String region, String accessKey, String secretKey) {
+		this.region = region;
+		this.accessKey = accessKey;
+		this.secretKey = secretKey;
+	}
+
+	/**
+	 * @param method
+	 *            the HTTP method
+	 * @param canonicalUri
+	 *            the encoded path, see {@link #encode(String, boolean)}
+	 * @param canonicalQuery
+	 *            the encoded query parameters, sorted by name
+	 * @param headers
+	 *            the headers to sign with lower case names, at least
+	 *            <code>host</code>, <code>x-amz-content-sha256</code> and
+	 *            <code>x-amz-date</code>
+	 * @param time
+	 *            the time of <code>x-amz-date</code>
+	 * @return the value of the <code>Authorization</code> header
+	 */
+	String sign(String method, String canonicalUri, String canonicalQuery,
+			SortedMap<String, String> headers, Date time) {
+		StringBuilder canonicalHeaders = new StringBuilder();
+		StringBuilder signedHeaders = new StringBuilder();
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			canonicalHeaders.append(header.getKey()).append(':')
+					.append(header.getValue().trim()).append('\n');
+			if (signedHeaders.length() > 0) {
+				signedHeaders.append(';');
+			}
+			signedHeaders.append(header.getKey());
+		}
+		String canonicalRequest = method + '\n' + canonicalUri + '\n'
+				+ canonicalQuery + '\n' + canonicalHeaders + '\n'
+				+ signedHeaders + '\n' + headers.get("x-amz-content-sha256");
+
+		byte[] canonicalBytes = canonicalRequest.getBytes(UTF8);
+		String date = formatTime(time).substring(0, 8);
+		String scope = date + '/' + region + '/' + SERVICE + '/' + TERMINATOR;
+		String stringToSign = ALGORITHM + '\n' + formatTime(time) + '\n'
+				+ scope + '\n'
+				+ sha256Hex(canonicalBytes, 0, canonicalBytes.length);
+
+		byte[] key = hmac(("AWS4" + secretKey).getBytes(UTF8), date);
+		key = hmac(key, region);
+		key = hmac(key, SERVICE);
+		key = hmac(key, TERMINATOR);
+		String signature = toHex(hmac(key, stringToSign));
+
+		return ALGORITHM + " Credential=" + accessKey + '/' + scope
+				+ ", SignedHeaders=" + signedHeaders + ", Signature="
+				+ signature;
+	}
+
+	/**
+	 * @return <code>time</code> in the format of <code>x-amz-date</code>, e.g.
+	 *         <code>20130524T000000Z</code>
+	 */
+	static String formatTime(Date time) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(time);
+	}
+
+	/**
+	 * URI-encodes <code>value</code> the way S3 expects it: Everything but
+	 * unreserved characters is percent-encoded.
+	 *
+	 * @param keepSlash
+	 *            <code>true</code> to keep <code>/</code>, for paths
+	 */
+	static String encode(String value, boolean keepSlash) {
+		StringBuilder encoded = new StringBuilder();
+		for (byte b : value.getBytes(UTF8)) {
+			char c = (char) (b & 0xff);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+					|| (c >= '0' && c <= '9') || c == '-' || c == '_'
+					|| c == '.' || c == '~' || (keepSlash && c == '/')) {
+				encoded.append(c);
+			} else {
+				encoded.append('%')
+						.append(Character.toUpperCase(Character.forDigit(
+								(b >> 4) & 0xf, 16)))
+						.append(Character.toUpperCase(Character.forDigit(
+								b & 0xf, 16)));
+			}
+		}
+		return encoded.toString();
+	}
+
+	/**
+	 * @return the SHA-256 of <code>length</code> bytes of <code>data</code>
+	 *         as lower case hex string
+	 */
+	static String sha256Hex(byte[] data, int offset, int length) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(data, offset, length);
+			return toHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] hmac(byte[] key, String data) {
+		try {
+			Mac mac = Mac.getInstance(HMAC);
+			mac.init(new SecretKeySpec(key, HMAC));
+			return mac.doFinal(data.getBytes(UTF8));
+		} catch (GeneralSecurityException e) {
+			// Every JRE supports HmacSHA256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+					Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
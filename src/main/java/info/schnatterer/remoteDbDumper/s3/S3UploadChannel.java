@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.s3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A channel that streams the data written to it into an object, using a
+ * multipart upload.
+ * <p>
+ * The data is collected in parts, each part is uploaded by the executor as
+ * soon as it is full, while the next part is filled. At most
+ * <code>maxPendingParts</code> parts are being uploaded at the same time, so
+ * the memory used is constant. When the next part is full before one of them
+ * is uploaded, writing blocks until the oldest one is done.
+ * <p>
+ * The size of the parts doubles every 1000 parts, so objects of several TB
+ * fit into the 10000 parts a multipart upload can have. Objects that fit into
+ * one part are uploaded in a single request.
+ *
+ * @author schnatterer
+ *
+ */
+class S3UploadChannel implements SeekableByteChannel {
+	/** The maximum number of parts of an upload */
+	private static final int MAX_PARTS = 10000;
+	/** The part size doubles after this many parts */
+	private static final int PARTS_PER_SIZE = 1000;
+	/** How often a part is tried to be uploaded */
+	private static final int PART_ATTEMPTS = 3;
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	private static Logger logger = Logger.getLogger(S3UploadChannel.class);
+
+	private final S3Client client;
+	private final String key;
+	private final String contentType;
+	private final int basePartSize;
+	private final int maxPendingParts;
+	private final ExecutorService executor;
+
+	private byte[] part;
+	private int partLength = 0;
+	private int partCount = 0;
+	private long position = 0;
+	private String uploadId = null;
+	private boolean open = true;
+	private final Deque<PendingPart> pending = new ArrayDeque<PendingPart>();
+	/** Buffers of uploaded parts, to be reused */
+	private final Deque<byte[]> free = new ArrayDeque<byte[]>();
+	private final List<String> etags = new ArrayList<String>();
+
+	/**
+	 * @param partSize
+	 *            the size of the first 1000 parts, at least 5 MiB
+	 * @param maxPendingParts
+	 *            the maximum number of parts being uploaded at the same time
+	 * @param executor
+	 *            uploads the parts
+	 */
+	S3UploadChannel(S3Client client, String key, String contentType,
+			int partSize, int maxPendingParts, ExecutorService executor) {
+		this.client = client;
+		this.key = key;
+		this.contentType = contentType;
+		this.basePartSize = partSize;
+		this.maxPendingParts = maxPendingParts;
+		this.executor = executor;
+		part = new byte[partSize];
+	}
+
+	public int write(ByteBuffer src) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		int written = src.remaining();
+		while (src.hasRemaining()) {
+			int length = Math.min(src.remaining(), part.length - partLength);
+			src.get(part, partLength, length);
+			partLength += length;
+			if (partLength == part.length) {
+				submitPart();
+			}
+		}
+		position += written;
+		return written;
+	}
+
+	/**
+	 * Uploads the rest of the data and assembles the object. Blocks until all
+	 * parts are uploaded.
+	 */
+	void complete() throws IOException {
+		if (uploadId == null) {
+			client.putObject(key, part, partLength, contentType);
+		} else {
+			if (partLength > 0) {
+				submitPart();
+			}
+			while (!pending.isEmpty()) {
+				awaitOldest();
+			}
+			client.completeMultipartUpload(key, uploadId, etags);
+		}
+		logger.debug("Uploaded " + key + ": " + position + " bytes in "
+				+ Math.max(partCount, 1) + " part(s)");
+		close();
+	}
+
+	/**
+	 * Discards all parts uploaded so far. The object is not created.
+	 */
+	void abort() {
+		if (!open) {
+			return;
+		}
+		close();
+		for (PendingPart pendingPart : pending) {
+			pendingPart.etag.cancel(true);
+		}
+		pending.clear();
+		if (uploadId != null) {
+			try {
+				client.abortMultipartUpload(key, uploadId);
+			} catch (IOException e) {
+				logger.warn("Unable to abort upload of " + key
+						+ ", the parts uploaded so far might be left in the bucket: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Hands the current part to the executor and starts a new one.
+	 */
+	private void submitPart() throws IOException {
+		if (uploadId == null) {
+			uploadId = client.initiateMultipartUpload(key, contentType);
+		}
+		if (partCount == MAX_PARTS) {
+			throw new IOException("Dump is too large for a multipart upload of "
+					+ MAX_PARTS + " parts");
+		}
+		final int partNumber = ++partCount;
+		final byte[] data = part;
+		final int length = partLength;
+		final String id = uploadId;
+		Future<String> etag = executor.submit(new Callable<String>() {
+			public String call() throws IOException {
+				return uploadPart(id, partNumber, data, length);
+			}
+		});
+		pending.add(new PendingPart(etag, data));
+		while (pending.size() > maxPendingParts) {
+			awaitOldest();
+		}
+
+		int nextSize = getPartSize(partCount + 1);
+		part = !free.isEmpty() && free.peek().length == nextSize ? free.pop()
+				: new byte[nextSize];
+		partLength = 0;
+	}
+
+	private int getPartSize(int partNumber) {
+		int doublings = (partNumber - 1) / PARTS_PER_SIZE;
+		return (int) Math.min((long) basePartSize << doublings,
+				Integer.MAX_VALUE - 8);
+	}
+
+	private void awaitOldest() throws IOException {
+		PendingPart oldest = pending.poll();
+		try {
+			etags.add(oldest.etag.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while uploading "
+					+ key);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Uploading " + key + " failed", e.getCause());
+		}
+		free.push(oldest.buffer);
+	}
+
+	/**
+	 * Uploads a part, retrying transient failures.
+	 */
+	private String uploadPart(String id, int partNumber, byte[] data,
+			int length) throws IOException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				return client.uploadPart(key, id, partNumber, data, length);
+			} catch (IOException e) {
+				if (attempt >= PART_ATTEMPTS
+						|| (e instanceof S3Exception && !((S3Exception) e)
+								.isTransient())) {
+					throw e;
+				}
+				logger.warn("Uploading part " + partNumber + " of " + key
+						+ " failed, retrying: " + e.getMessage());
+			}
+			try {
+				Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while uploading "
+						+ key);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * Only supports the current position, the data is streamed.
+	 */
+	public SeekableByteChannel position(long newPosition) {
+		if (newPosition != position) {
+			throw new UnsupportedOperationException(
+					"Can't change the position of an upload");
+		}
+		return this;
+	}
+
+	public long size() {
+		return position;
+	}
+
+	public SeekableByteChannel truncate(long size) {
+		throw new UnsupportedOperationException("Can't truncate an upload");
+	}
+
+	public int read(ByteBuffer dst) {
+		throw new NonReadableChannelException();
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Releases the buffers. Use {@link #complete()} or {@link #abort()} to
+	 * finish the upload.
+	 */
+	public void close() {
+		open = false;
+		part = null;
+		free.clear();
+	}
+
+	private static class PendingPart {
+		private final Future<String> etag;
+		private final byte[] buffer;
+
+		PendingPart(Future<String> etag, byte[] buffer) {
+			this.etag = etag;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,471 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.store;
+
+import info.schnatterer.remoteDbDumper.dump.download.DumpFileWriter;
+import info.schnatterer.remoteDbDumper.dump.download.FileMover;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A content-addressed repository of chunks: Each chunk is stored once, in a
+ * file named after the SHA-256 hash of its content. Dumps are stored as
+ * manifests listing their chunks, see {@link DedupTransform}.
+ * <p>
+ * Layout:
+ *
+ * <pre>
+ * &lt;directory&gt;/chunks/&lt;first two hex digits of hash&gt;/&lt;hash&gt;
+ * &lt;directory&gt;/lock
+ * </pre>
+ *
+ * Chunks are written to a temp file and renamed, so several dumps can write
+ * to the same store concurrently and a crash never leaves a corrupt chunk.
+ * <p>
+ * Once manifests have been deleted (e.g. by retention),
+ * {@link #collectGarbage(File)} deletes the chunks no remaining manifest
+ * refers to. Dumps hold a shared lock on the store and the garbage collection
+ * an exclusive one, so a chunk can't be deleted while a dump that refers to it
+ * has not written its manifest yet.
+ *
+ * @author schnatterer
+ *
+ */
+public class ChunkStore {
+	/** First line of each manifest */
+	public static final String MANIFEST_HEADER = "# remoteDbDumper manifest 1";
+	/** Suffix of the manifest files */
+	public static final String MANIFEST_SUFFIX = ".manifest";
+
+	private static final String CHUNKS_DIR = "chunks";
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	/** Length of the hex SHA-256 hashes chunks are named after */
+	private static final int ID_LENGTH = 64;
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOCK_FILE = "lock";
+	/** Manifests of dumps that are not finished, they may be resumed */
+	private static final String PART_MANIFEST_SUFFIX = MANIFEST_SUFFIX
+			+ DumpFileWriter.PART_SUFFIX;
+
+	private static Logger logger = Logger.getLogger(ChunkStore.class);
+
+	private final File directory;
+	/** Held while {@link #sharedLockCount} dumps write to the store */
+	private FileLock sharedLock = null;
+	private int sharedLockCount = 0;
+
+	/**
+	 * @param directory
+	 *            the root of the store, created if it does not exist
+	 */
+	public ChunkStore(File directory) {
+		this.directory = directory;
+	}
+
+	/** @return the root of the store */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Stores a chunk, unless it is stored already. The caller must hold the
+	 * {@link #lockShared() shared lock} until its manifest is written.
+	 *
+	 * @return <code>true</code> if the chunk has been written,
+	 *         <code>false</code> if it already existed
+	 */
+	public boolean put(String id, byte[] data, int length) throws IOException {
+		File file = getChunkFile(id);
+		if (file.isFile()) {
+			return false;
+		}
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to create directory "
+					+ parent.getAbsolutePath());
+		}
+		File tempFile = File.createTempFile(id, TEMP_SUFFIX, parent);
+		try {
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				out.write(data, 0, length);
+			} finally {
+				out.close();
+			}
+			FileMover.move(tempFile, file);
+		} finally {
+			tempFile.delete();
+		}
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the chunk is stored
+	 */
+	public boolean contains(String id) {
+		return getChunkFile(id).isFile();
+	}
+
+	/**
+	 * Writes the dump described by a manifest to <code>out</code>, chunk by
+	 * chunk. Verifies the hash of each chunk.
+	 *
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             if a chunk is missing or corrupt, or the manifest can't be
+	 *             read
+	 */
+	public long restore(File manifest, OutputStream out) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(manifest), CHARSET));
+		try {
+			String line = reader.readLine();
+			if (!MANIFEST_HEADER.equals(line)) {
+				throw new IOException(manifest.getAbsolutePath()
+						+ " is not a manifest");
+			}
+			MessageDigest digest = createDigest();
+			byte[] buffer = new byte[GearChunker.MAX_SIZE];
+			long written = 0;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] fields = line.split(" ");
+				if (fields.length != 2) {
+					throw new IOException("Invalid line in manifest "
+							+ manifest.getAbsolutePath() + ": " + line);
+				}
+				int length = readChunk(fields[0], Integer.parseInt(fields[1]),
+						buffer);
+				digest.update(buffer, 0, length);
+				if (!fields[0].equals(toHex(digest.digest()))) {
+					throw new IOException("Chunk " + fields[0]
+							+ " is corrupt");
+				}
+				out.write(buffer, 0, length);
+				written += length;
+			}
+			return written;
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid manifest "
+					+ manifest.getAbsolutePath(), e);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Takes a shared lock on the store, which keeps
+	 * {@link #collectGarbage(File)} from running, e.g. in another process.
+	 * Waits while it runs. Several dumps can hold the lock at the same time.
+	 */
+	public synchronized void lockShared() throws IOException {
+		if (sharedLockCount == 0) {
+			sharedLock = lock(true);
+		}
+		sharedLockCount++;
+	}
+
+	/**
+	 * Releases the lock taken by {@link #lockShared()}.
+	 */
+	public synchronized void unlockShared() throws IOException {
+		if (sharedLockCount == 0) {
+			return;
+		}
+		sharedLockCount--;
+		if (sharedLockCount == 0) {
+			release(sharedLock);
+			sharedLock = null;
+		}
+	}
+
+	/**
+	 * Deletes the chunks that none of the manifests in
+	 * <code>manifestDirectory</code> refers to (mark and sweep), as well as
+	 * temp files left by crashed dumps. The chunks of unfinished manifests
+	 * (<code>.manifest.part</code>) are kept, so these dumps can be resumed.
+	 * <p>
+	 * All manifests that refer to the store must be in
+	 * <code>manifestDirectory</code>. Holds an exclusive lock on the store,
+	 * so it waits for the dumps that write to the store to finish and new
+	 * dumps wait for it. The ids of all referenced chunks are held in memory,
+	 * about 150 bytes per chunk.
+	 *
+	 * @return the number of chunks deleted
+	 * @throws IOException
+	 *             if a manifest can't be read or there are no manifests at
+	 *             all. Nothing is deleted then.
+	 */
+	public int collectGarbage(File manifestDirectory) throws IOException {
+		FileLock lock = lock(false);
+		try {
+			return sweep(mark(manifestDirectory));
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * @return the ids of the chunks referred to by the manifests in the
+	 *         directory
+	 */
+	private Set<String> mark(File manifestDirectory) throws IOException {
+		File[] manifests = manifestDirectory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile()
+						&& (file.getName().endsWith(MANIFEST_SUFFIX) || file
+								.getName().endsWith(PART_MANIFEST_SUFFIX));
+			}
+		});
+		if (manifests == null) {
+			throw new IOException("Unable to list "
+					+ manifestDirectory.getAbsolutePath());
+		}
+		if (manifests.length == 0) {
+			// Most likely the wrong directory, would delete the whole store
+			throw new IOException("No manifests in "
+					+ manifestDirectory.getAbsolutePath()
+					+ ", not deleting any chunks");
+		}
+		Set<String> referenced = new HashSet<String>();
+		for (File manifest : manifests) {
+			try {
+				readIds(manifest, referenced);
+			} catch (FileNotFoundException e) {
+				if (!manifest.getName().endsWith(PART_MANIFEST_SUFFIX)) {
+					throw e;
+				}
+				// Finished after listing, moved to the manifest
+				String path = manifest.getPath();
+				readIds(new File(path.substring(0, path.length()
+						- DumpFileWriter.PART_SUFFIX.length())), referenced);
+			}
+		}
+		logger.info("Found " + referenced.size() + " chunk(s) referred to by "
+				+ manifests.length + " manifest(s) in "
+				+ manifestDirectory.getAbsolutePath());
+		return referenced;
+	}
+
+	/**
+	 * Deletes the chunks that are not <code>referenced</code> and temp files.
+	 *
+	 * @return the number of chunks deleted
+	 */
+	private int sweep(Set<String> referenced) {
+		File[] prefixDirs = new File(directory, CHUNKS_DIR)
+				.listFiles(new FileFilter() {
+					public boolean accept(File file) {
+						return file.isDirectory();
+					}
+				});
+		int deleted = 0;
+		int kept = 0;
+		long freed = 0;
+		if (prefixDirs != null) {
+			for (File prefixDir : prefixDirs) {
+				File[] files = prefixDir.listFiles();
+				if (files == null) {
+					continue;
+				}
+				for (File file : files) {
+					String name = file.getName();
+					boolean chunk = name.length() == ID_LENGTH;
+					if (chunk && referenced.contains(name)) {
+						kept++;
+						continue;
+					}
+					if (!chunk && !name.endsWith(TEMP_SUFFIX)) {
+						continue;
+					}
+					long length = file.length();
+					if (file.delete()) {
+						if (chunk) {
+							deleted++;
+						}
+						freed += length;
+					} else if (file.exists()) {
+						logger.warn("Unable to delete " + file.getAbsolutePath());
+					}
+				}
+			}
+		}
+		logger.info("Deleted " + deleted + " unreferenced chunk(s) ("
+				+ (freed / 1024 / 1024) + " MiB) from "
+				+ directory.getAbsolutePath() + ", keeping " + kept);
+		return deleted;
+	}
+
+	/**
+	 * Adds the ids of the chunks a manifest refers to to <code>ids</code>.
+	 * The last line of an unfinished manifest may be truncated and is
+	 * ignored then.
+	 */
+	private static void readIds(File manifest, Set<String> ids)
+			throws IOException {
+		boolean partial = manifest.getName().endsWith(PART_MANIFEST_SUFFIX);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(manifest), CHARSET));
+		try {
+			String line = reader.readLine();
+			if (!MANIFEST_HEADER.equals(line)) {
+				if (partial && reader.readLine() == null) {
+					// Nothing written yet
+					return;
+				}
+				throw new IOException(manifest.getAbsolutePath()
+						+ " is not a manifest");
+			}
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				int separator = line.indexOf(' ');
+				if (separator != ID_LENGTH) {
+					if (partial && reader.readLine() == null) {
+						break;
+					}
+					throw new IOException("Invalid line in manifest "
+							+ manifest.getAbsolutePath() + ": " + line);
+				}
+				ids.add(line.substring(0, separator));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Locks the {@value #LOCK_FILE} file of the store, waiting until the
+	 * lock is available.
+	 */
+	private FileLock lock(boolean shared) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()
+				&& !directory.isDirectory()) {
+			throw new IOException("Unable to create directory "
+					+ directory.getAbsolutePath());
+		}
+		FileChannel channel = new RandomAccessFile(new File(directory,
+				LOCK_FILE), "rw").getChannel();
+		try {
+			FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+			if (lock == null) {
+				logger.info(shared ? "Waiting for the garbage collection of "
+						+ directory.getAbsolutePath() + " to finish"
+						: "Waiting for the dumps writing to "
+								+ directory.getAbsolutePath() + " to finish");
+				lock = channel.lock(0, Long.MAX_VALUE, shared);
+			}
+			return lock;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		} catch (RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the lock and closes its file.
+	 */
+	private static void release(FileLock lock) throws IOException {
+		try {
+			lock.release();
+		} finally {
+			lock.channel().close();
+		}
+	}
+
+	/**
+	 * @return the SHA-256 hash of the data as hex string
+	 */
+	static String hash(MessageDigest digest, byte[] data, int length) {
+		digest.update(data, 0, length);
+		return toHex(digest.digest());
+	}
+
+	static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE provides SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private File getChunkFile(String id) {
+		return new File(new File(new File(directory, CHUNKS_DIR),
+				id.substring(0, 2)), id);
+	}
+
+	private int readChunk(String id, int length, byte[] buffer)
+			throws IOException {
+		File file = getChunkFile(id);
+		if (length > buffer.length || file.length() != length) {
+			throw new IOException("Chunk " + id + " is missing or corrupt");
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < length) {
+				int count = in.read(buffer, read, length - read);
+				if (count == -1) {
+					throw new IOException("Chunk " + id + " is truncated");
+				}
+				read += count;
+			}
+			return read;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+					Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
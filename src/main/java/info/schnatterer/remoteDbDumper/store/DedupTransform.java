@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.store;
+
+import info.schnatterer.remoteDbDumper.dump.download.DumpOutput;
+import info.schnatterer.remoteDbDumper.dump.download.DumpTransform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stores dumps deduplicated in a {@link ChunkStore}: The dump is split into
+ * content-defined chunks by a {@link GearChunker}, each chunk that is not in
+ * the store yet is added and the file written for the dump is a manifest,
+ * listing the hash and length of each chunk:
+ *
+ * <pre>
+ * # remoteDbDumper manifest 1
+ * &lt;sha-256 of chunk 1&gt; &lt;length of chunk 1&gt;
+ * &lt;sha-256 of chunk 2&gt; &lt;length of chunk 2&gt;
+ * ...
+ * </pre>
+ *
+ * Consecutive dumps of a database share most of their chunks, so only the
+ * changed parts are written to disk. Use
+ * {@link ChunkStore#restore(java.io.File, java.io.OutputStream)} to get the
+ * dump back.
+ *
+ * @author schnatterer
+ *
+ */
+public class DedupTransform implements DumpTransform {
+	/** Name of this transform */
+	public static final String NAME = "dedup";
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static Logger logger = Logger.getLogger(DedupTransform.class);
+
+	private final ChunkStore store;
+
+	public DedupTransform(ChunkStore store) {
+		this.store = store;
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * Accepts all dumps. Compressed dumps hardly deduplicate, though.
+	 */
+	public boolean accepts(String fileName) {
+		return true;
+	}
+
+	public String getFileName(String fileName) {
+		return fileName + ChunkStore.MANIFEST_SUFFIX;
+	}
+
+	public DumpOutput open(SeekableByteChannel target) throws IOException {
+		return new DedupOutput(target);
+	}
+
+	/**
+	 * Chunks the dump and writes the manifest.
+	 */
+	private class DedupOutput implements DumpOutput {
+		private final SeekableByteChannel target;
+		private final GearChunker chunker = new GearChunker();
+		private final MessageDigest digest = ChunkStore.createDigest();
+		private final byte[] chunk = new byte[GearChunker.MAX_SIZE];
+		private int chunkLength = 0;
+		private byte[] staging = new byte[0];
+		/** Lines of the manifest not yet written */
+		private final StringBuilder lines = new StringBuilder();
+		private long storedBytes = 0;
+		private long chunks = 0;
+		private long newChunks = 0;
+
+		DedupOutput(SeekableByteChannel target) throws IOException {
+			this.target = target;
+			if (target.position() == 0) {
+				lines.append(ChunkStore.MANIFEST_HEADER).append('\n');
+			}
+			// Keeps the garbage collection away until the manifest is written
+			store.lockShared();
+		}
+
+		public void write(ByteBuffer buffer) throws IOException {
+			int length = buffer.remaining();
+			if (staging.length < length) {
+				staging = new byte[length];
+			}
+			buffer.get(staging, 0, length);
+			for (int i = 0; i < length; i++) {
+				chunk[chunkLength++] = staging[i];
+				if (chunker.next(staging[i])) {
+					cut();
+				}
+			}
+		}
+
+		/**
+		 * Ends the current chunk, so the manifest is complete up to here.
+		 * Continuing later starts a new chunk, which costs a little
+		 * deduplication.
+		 */
+		public long sync() throws IOException {
+			if (chunkLength > 0) {
+				cut();
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(
+					CHARSET));
+			lines.setLength(0);
+			while (buffer.hasRemaining()) {
+				storedBytes += target.write(buffer);
+			}
+			logger.debug("Stored " + newChunks + " new of " + chunks
+					+ " chunks in " + store.getDirectory());
+			return target.position();
+		}
+
+		public long getStoredBytes() {
+			return storedBytes;
+		}
+
+		public void close() {
+			try {
+				store.unlockShared();
+			} catch (IOException e) {
+				logger.warn("Unable to unlock " + store.getDirectory(), e);
+			}
+		}
+
+		private void cut() throws IOException {
+			String id = ChunkStore.hash(digest, chunk, chunkLength);
+			if (store.put(id, chunk, chunkLength)) {
+				storedBytes += chunkLength;
+				newChunks++;
+			}
+			chunks++;
+			lines.append(id).append(' ').append(chunkLength).append('\n');
+			chunkLength = 0;
+			chunker.reset();
+		}
+	}
+}
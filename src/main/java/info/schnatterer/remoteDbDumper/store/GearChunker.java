@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013 Johannes Schnatterer
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package info.schnatterer.remoteDbDumper.store;
+
+/**
+ * Finds content-defined chunk boundaries using a gear rolling hash (as in
+ * FastCDC). A boundary depends only on the bytes right before it, so an
+ * insertion or deletion in a dump only changes the chunks around it, while
+ * all other chunks stay the same and can be deduplicated.
+ * <p>
+ * Feed the bytes one by one to {@link #next(byte)} and cut the chunk when it
+ * returns <code>true</code>. Then call {@link #reset()}.
+ *
+ * @author schnatterer
+ *
+ */
+public class GearChunker {
+	/** Chunks are at least 16 KiB */
+	public static final int MIN_SIZE = 16 * 1024;
+	/** Chunks are at most 256 KiB */
+	public static final int MAX_SIZE = 256 * 1024;
+
+	/**
+	 * Boundary, if the 16 most significant bits of the hash are zero, which
+	 * happens every 64 KiB on average. As boundaries are only looked for
+	 * after {@link #MIN_SIZE}, chunks are about 78 KiB on average (16 KiB plus
+	 * 64 KiB, minus the few chunks cut at {@link #MAX_SIZE}). Changing the
+	 * mask changes all chunks. The high bits depend on the last 64 bytes.
+	 */
+	private static final long MASK = 0xffffL << 48;
+
+	/** Random values, must never change or all chunks change */
+	private static final long[] GEAR = createGear();
+
+	private long hash = 0;
+	private int size = 0;
+
+	/**
+	 * @return <code>true</code> if the chunk ends after <code>b</code>
+	 */
+	public boolean next(byte b) {
+		hash = (hash << 1) + GEAR[b & 0xff];
+		size++;
+		if (size < MIN_SIZE) {
+			return false;
+		}
+		return (hash & MASK) == 0 || size >= MAX_SIZE;
+	}
+
+	/**
+	 * Starts a new chunk.
+	 */
+	public void reset() {
+		hash = 0;
+		size = 0;
+	}
+
+	/**
+	 * @return 256 pseudo random values, generated by SplitMix64 from a fixed
+	 *         seed, so they are the same on every run
+	 */
+	private static long[] createGear() {
+		long[] gear = new long[256];
+		long state = 0x5eed5eed5eed5eedL;
+		for (int i = 0; i < gear.length; i++) {
+			state += 0x9e3779b97f4a7c15L;
+			long z = state;
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			gear[i] = z ^ (z >>> 31);
+		}
+		return gear;
+	}
+}